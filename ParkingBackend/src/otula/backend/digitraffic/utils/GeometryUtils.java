@@ -46,7 +46,9 @@ public final class GeometryUtils {
         lat1 = Math.toRadians(lat1);
         lat2 = Math.toRadians(lat2);
  
-        double a = Math.pow(Math.sin(dLat / 2),2) + Math.pow(Math.sin(dLon / 2),2) * Math.cos(lat1) * Math.cos(lat2);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat + sinLon * sinLon * Math.cos(lat1) * Math.cos(lat2);
         double c = 2 * Math.asin(Math.sqrt(a));
         return EARTH_RADIUS * c;
     }
@@ -18,6 +18,13 @@ package core.tut.pori.utils;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -47,8 +54,11 @@ import core.tut.pori.http.ResponseData;
  * XML formatter.
  * 
  * This class can be used to marshal objects to xml output, and unmarshal objects from xml input.
+ * 
+ * The JAXB contexts are shared by all formatter instances, and the created marshallers and unmarshallers are pooled and re-used.
  */
 public class XMLFormatter {
+	private static final ConcurrentHashMap<Set<Class<?>>, ContextPool> CONTEXTS = new ConcurrentHashMap<>();
 	private static final Logger LOGGER = Logger.getLogger(XMLFormatter.class);
 	private boolean _omitXMLDeclaration = false;
 	private boolean _throwOnError = true;
@@ -68,9 +78,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try (StringReader reader = new StringReader(string)) {
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(reader);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -98,9 +109,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try{
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(in);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -128,9 +140,10 @@ public class XMLFormatter {
 			return null;
 		}
 		try{
-			JAXBContext context = JAXBContext.newInstance(ArrayUtils.add(requiredClasses, objectClass));
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(ArrayUtils.add(requiredClasses, objectClass));
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(in);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != objectClass){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -157,9 +170,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try{
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(node);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -185,16 +199,17 @@ public class XMLFormatter {
 		}
 		String retval = null;
 		try {
-			JAXBContext context = null;
+			ContextPool pool = null;
 			ResponseData t = r.getResponseData();
 			if(t == null){
-				context = JAXBContext.newInstance(Response.class);
+				pool = getContextPool(Response.class);
 			}else{
-				context = JAXBContext.newInstance(ArrayUtils.add(t.getDataClasses(), Response.class));
+				pool = getContextPool(ArrayUtils.add(t.getDataClasses(), Response.class));
 			}	
-			Marshaller marshaller = createMarshaller(context);
+			Marshaller marshaller = getMarshaller(pool);
 			StringWriter w = new StringWriter();
 			marshaller.marshal(r, w);
+			releaseMarshaller(pool, marshaller);
 			retval = w.toString();
 		} catch (JAXBException ex) {
 			LOGGER.error(ex, ex);
@@ -217,9 +232,11 @@ public class XMLFormatter {
 		}
 		String retval = null;
 		try {
-			Marshaller marshaller = createMarshaller(JAXBContext.newInstance(o.getClass()));
+			ContextPool pool = getContextPool(o.getClass());
+			Marshaller marshaller = getMarshaller(pool);
 			StringWriter w = new StringWriter();
 			marshaller.marshal(o, w);
+			releaseMarshaller(pool, marshaller);
 			retval = w.toString();
 		} catch (JAXBException ex) {
 			LOGGER.error(ex, ex);
@@ -258,8 +275,84 @@ public class XMLFormatter {
 		return result;
 	}
 	
+	/**
+	 * 
+	 * @param classes
+	 * @return shared context for the given classes, the order of the classes does not matter
+	 * @throws JAXBException
+	 */
+	public static JAXBContext getContext(Class<?>... classes) throws JAXBException {
+		return getContextPool(classes)._context;
+	}
+	
+	/**
+	 * 
+	 * @param classes
+	 * @return context pool for the given classes
+	 * @throws JAXBException
+	 */
+	private static ContextPool getContextPool(Class<?>... classes) throws JAXBException {
+		Set<Class<?>> key = new HashSet<>(Arrays.asList(classes));
+		ContextPool pool = CONTEXTS.get(key);
+		if(pool == null){	// concurrent calls may create the context more than once, but only the first one is stored
+			pool = new ContextPool(JAXBContext.newInstance(classes));
+			ContextPool previous = CONTEXTS.putIfAbsent(key, pool);
+			if(previous != null){
+				pool = previous;
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * 
+	 * @param pool
+	 * @return pooled marshaller or a new marshaller with the settings of this formatter
+	 * @throws JAXBException
+	 * @throws IllegalArgumentException
+	 */
+	private Marshaller getMarshaller(ContextPool pool) throws JAXBException, IllegalArgumentException {
+		Marshaller m = pool.getMarshallers(_throwOnError, _omitXMLDeclaration).poll();
+		return (m == null ? createMarshaller(pool._context) : m);
+	}
+	
+	/**
+	 * Return the marshaller to the pool. Marshallers should only be released after a successful marshal.
+	 * 
+	 * @param pool
+	 * @param marshaller
+	 */
+	private void releaseMarshaller(ContextPool pool, Marshaller marshaller) {
+		pool.getMarshallers(_throwOnError, _omitXMLDeclaration).offer(marshaller);
+	}
+	
+	/**
+	 * 
+	 * @param pool
+	 * @return pooled unmarshaller or a new unmarshaller with the settings of this formatter
+	 * @throws JAXBException
+	 * @throws IllegalArgumentException
+	 */
+	private Unmarshaller getUnmarshaller(ContextPool pool) throws JAXBException, IllegalArgumentException {
+		Unmarshaller um = pool.getUnmarshallers(_throwOnError).poll();
+		return (um == null ? createUnMarshaller(pool._context) : um);
+	}
+	
+	/**
+	 * Return the unmarshaller to the pool. Unmarshallers should only be released after a successful unmarshal.
+	 * 
+	 * @param pool
+	 * @param unmarshaller
+	 */
+	private void releaseUnmarshaller(ContextPool pool, Unmarshaller unmarshaller) {
+		pool.getUnmarshallers(_throwOnError).offer(unmarshaller);
+	}
+	
 	/**
 	 * create and return new marshaller, and set the default values
+	 * 
+	 * Note: the created marshallers are pooled and re-used for formatters with the same settings.
+	 * 
 	 * @param context
 	 * @return marshaller for the given context
 	 * @throws JAXBException
@@ -284,6 +377,7 @@ public class XMLFormatter {
 	}
 	
 	/**
+	 * Note: the created unmarshallers are pooled and re-used for formatters with the same settings.
 	 * 
 	 * @param context
 	 * @return unmarshaller for the given context
@@ -358,4 +452,47 @@ public class XMLFormatter {
 		}
 		return retval;
 	}
+	
+	/**
+	 * A shared context with pooled marshallers and unmarshallers for each combination of formatter settings
+	 *
+	 */
+	private static class ContextPool {
+		private JAXBContext _context = null;
+		private List<ConcurrentLinkedQueue<Marshaller>> _marshallers = new ArrayList<>(4);
+		private List<ConcurrentLinkedQueue<Unmarshaller>> _unmarshallers = new ArrayList<>(2);
+		
+		/**
+		 * 
+		 * @param context
+		 */
+		public ContextPool(JAXBContext context) {
+			_context = context;
+			for(int i=0;i<4;++i){
+				_marshallers.add(new ConcurrentLinkedQueue<Marshaller>());
+			}
+			for(int i=0;i<2;++i){
+				_unmarshallers.add(new ConcurrentLinkedQueue<Unmarshaller>());
+			}
+		}
+		
+		/**
+		 * 
+		 * @param throwOnError
+		 * @param omitXMLDeclaration
+		 * @return the marshallers for the given settings
+		 */
+		public ConcurrentLinkedQueue<Marshaller> getMarshallers(boolean throwOnError, boolean omitXMLDeclaration) {
+			return _marshallers.get((throwOnError ? 1 : 0) + (omitXMLDeclaration ? 2 : 0));
+		}
+		
+		/**
+		 * 
+		 * @param throwOnError
+		 * @return the unmarshallers for the given settings
+		 */
+		public ConcurrentLinkedQueue<Unmarshaller> getUnmarshallers(boolean throwOnError) {
+			return _unmarshallers.get(throwOnError ? 1 : 0);
+		}
+	} // class ContextPool
 }
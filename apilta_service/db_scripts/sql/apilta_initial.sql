@@ -95,6 +95,20 @@ CREATE TABLE IF NOT EXISTS `measurements_files` (
 -- Data exporting was unselected.
 
 
+-- Dumping structure for table ca_frontend.files
+CREATE TABLE IF NOT EXISTS `files` (
+  `guid` varchar(40) NOT NULL,
+  `mime_type` varchar(255) DEFAULT NULL,
+  `size` bigint(20) DEFAULT NULL,
+  `checksum` varchar(64) DEFAULT NULL,
+  `row_updated` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`guid`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Data exporting was unselected.
+
+
 -- Dumping structure for table ca_frontend.alerts_groups
 CREATE TABLE `alerts_groups` (
   `alert_group_id` bigint(20) NOT NULL AUTO_INCREMENT,
@@ -131,8 +145,8 @@ CREATE TABLE `shock_measurements` (
   `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
   PRIMARY KEY (`measurement_id`),
-  INDEX `user_id_INDEX` (`user_id`),
-  INDEX `data_visibility_INDEX` (`data_visibility`)
+  INDEX `user_id_timestamp_INDEX` (`user_id`, `timestamp`),
+  INDEX `data_visibility_timestamp_INDEX` (`data_visibility`, `timestamp`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 -- Data exporting was unselected.
@@ -160,9 +174,40 @@ CREATE TABLE `shock_location_data` (
   `heading` DOUBLE DEFAULT NULL,
   `speed` DOUBLE DEFAULT NULL,
   `timestamp` DATETIME DEFAULT NULL,
+  `location` POINT NOT NULL,
   `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
-  PRIMARY KEY (`measurement_id`)
+  PRIMARY KEY (`measurement_id`),
+  SPATIAL INDEX `location_SPATIAL` (`location`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Data exporting was unselected.
+
+-- Dumping structure for table ca_frontend.shock_tiles
+CREATE TABLE `shock_tiles` (
+  `zoom` INT(11) NOT NULL,
+  `x` INT(11) NOT NULL,
+  `y` INT(11) NOT NULL,
+  `level` INT(11) NOT NULL,
+  `measurement_count` BIGINT(20) NOT NULL,
+  `from_timestamp` DATETIME NOT NULL,
+  `to_timestamp` DATETIME NOT NULL,
+  `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`zoom`, `x`, `y`, `level`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Data exporting was unselected.
+
+-- Dumping structure for table ca_frontend.shock_tiles_users
+CREATE TABLE `shock_tiles_users` (
+  `zoom` INT(11) NOT NULL,
+  `x` INT(11) NOT NULL,
+  `y` INT(11) NOT NULL,
+  `user_id` BIGINT(20) NOT NULL,
+  `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`zoom`, `x`, `y`, `user_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 -- Data exporting was unselected.
@@ -0,0 +1,33 @@
+--
+-- Copyright 2018 Tampere University of Technology, Pori Department
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--   http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- --------------------------------------------------------
+-- Updates an existing ca_frontend database created with an earlier version of apilta_initial.sql
+-- to contain the file metadata table.
+--
+-- The metadata of the existing files is retrieved from the content storage and stored
+-- in the table when the file details are first requested.
+-- --------------------------------------------------------
+
+CREATE TABLE IF NOT EXISTS `ca_frontend`.`files` (
+  `guid` VARCHAR(40) NOT NULL,
+  `mime_type` VARCHAR(255) DEFAULT NULL,
+  `size` BIGINT(20) DEFAULT NULL,
+  `checksum` VARCHAR(64) DEFAULT NULL,
+  `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`guid`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,39 @@
+--
+-- Copyright 2018 Tampere University of Technology, Pori Department
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--   http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- --------------------------------------------------------
+-- Updates an existing ca_frontend database created with an earlier version of apilta_initial.sql
+-- to contain the spatial and timestamp indexes used by shock measurement queries.
+--
+-- Requires MySQL 5.7.6 or later (SPATIAL indexes for InnoDB tables and MBRCovers).
+-- --------------------------------------------------------
+
+-- the location column is populated from the existing coordinates before the spatial index can be created on it
+ALTER TABLE `ca_frontend`.`shock_location_data`
+  ADD COLUMN `location` POINT NULL AFTER `timestamp`;
+
+UPDATE `ca_frontend`.`shock_location_data` SET `location`=POINT(`longitude`, `latitude`);
+
+ALTER TABLE `ca_frontend`.`shock_location_data`
+  MODIFY COLUMN `location` POINT NOT NULL,
+  ADD SPATIAL INDEX `location_SPATIAL` (`location`);
+
+-- the composite indexes replace the single column indexes, and also cover the timestamp ordering
+ALTER TABLE `ca_frontend`.`shock_measurements`
+  DROP INDEX `user_id_INDEX`,
+  DROP INDEX `data_visibility_INDEX`,
+  ADD INDEX `user_id_timestamp_INDEX` (`user_id`, `timestamp`),
+  ADD INDEX `data_visibility_timestamp_INDEX` (`data_visibility`, `timestamp`);
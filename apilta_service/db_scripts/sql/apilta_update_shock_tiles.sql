@@ -0,0 +1,68 @@
+--
+-- Copyright 2018 Tampere University of Technology, Pori Department
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--   http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- --------------------------------------------------------
+-- Updates an existing ca_frontend database created with an earlier version of apilta_initial.sql
+-- to contain the pre-calculated shock tiles, and calculates the tiles for the existing public measurements.
+--
+-- Requires apilta_update_shock_indexes.sql
+-- --------------------------------------------------------
+
+CREATE TABLE `ca_frontend`.`shock_tiles` (
+  `zoom` INT(11) NOT NULL,
+  `x` INT(11) NOT NULL,
+  `y` INT(11) NOT NULL,
+  `level` INT(11) NOT NULL,
+  `measurement_count` BIGINT(20) NOT NULL,
+  `from_timestamp` DATETIME NOT NULL,
+  `to_timestamp` DATETIME NOT NULL,
+  `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`zoom`, `x`, `y`, `level`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `ca_frontend`.`shock_tiles_users` (
+  `zoom` INT(11) NOT NULL,
+  `x` INT(11) NOT NULL,
+  `y` INT(11) NOT NULL,
+  `user_id` BIGINT(20) NOT NULL,
+  `row_updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  `row_created` TIMESTAMP NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`zoom`, `x`, `y`, `user_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- tile coordinates of the existing public (data_visibility 2) measurements for the zoom levels 0-18, calculated the same way as in MathUtils.toTileX and MathUtils.toTileY
+CREATE TEMPORARY TABLE `ca_frontend`.`tmp_shock_tile_measurements` AS
+  SELECT z.`zoom`,
+    LEAST(GREATEST(FLOOR((l.`longitude` + 180) / 360 * POW(2, z.`zoom`)), 0), POW(2, z.`zoom`) - 1) AS `x`,
+    LEAST(GREATEST(FLOOR((1 - LN(TAN(RADIANS(LEAST(GREATEST(l.`latitude`, -85.05112878), 85.05112878))) + 1 / COS(RADIANS(LEAST(GREATEST(l.`latitude`, -85.05112878), 85.05112878)))) / PI()) / 2 * POW(2, z.`zoom`)), 0), POW(2, z.`zoom`) - 1) AS `y`,
+    m.`level`, m.`user_id`, m.`timestamp`
+  FROM `ca_frontend`.`shock_measurements` m
+  INNER JOIN `ca_frontend`.`shock_location_data` l ON m.`measurement_id`=l.`measurement_id`
+  CROSS JOIN (SELECT 0 AS `zoom` UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9
+    UNION ALL SELECT 10 UNION ALL SELECT 11 UNION ALL SELECT 12 UNION ALL SELECT 13 UNION ALL SELECT 14 UNION ALL SELECT 15 UNION ALL SELECT 16 UNION ALL SELECT 17 UNION ALL SELECT 18) z
+  WHERE m.`data_visibility`=2 AND m.`level` IS NOT NULL;
+
+INSERT INTO `ca_frontend`.`shock_tiles` (`zoom`, `x`, `y`, `level`, `measurement_count`, `from_timestamp`, `to_timestamp`, `row_created`)
+  SELECT `zoom`, `x`, `y`, `level`, COUNT(*), MIN(`timestamp`), MAX(`timestamp`), NOW()
+  FROM `ca_frontend`.`tmp_shock_tile_measurements`
+  GROUP BY `zoom`, `x`, `y`, `level`;
+
+INSERT INTO `ca_frontend`.`shock_tiles_users` (`zoom`, `x`, `y`, `user_id`, `row_created`)
+  SELECT DISTINCT `zoom`, `x`, `y`, `user_id`, NOW()
+  FROM `ca_frontend`.`tmp_shock_tile_measurements`;
+
+DROP TEMPORARY TABLE `ca_frontend`.`tmp_shock_tile_measurements`;
@@ -39,7 +39,11 @@ public class ApiltaProperties extends SystemProperty {
 	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_PREFERRED_REGION = PROPERTY_SERVICE_TUT_PORI_APILTA+".swift.preferred_region";
 	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_PROVIDER = PROPERTY_SERVICE_TUT_PORI_APILTA+".swift.provider";
 	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_PUBLIC_ENDPOINT = PROPERTY_SERVICE_TUT_PORI_APILTA+".swift.public_endpoint";
+	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_CACHE_DAYS = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.cache_days";
 	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_GROUP_RANGE = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.group_range";
+	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_DAYS = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.highlight_days";
+	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_MIN_MEASUREMENTS = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.highlight_min_measurements";
+	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_RANGE = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.highlight_range";
 	private static final String PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_TIME_GROUP_DIFFERENCE = PROPERTY_SERVICE_TUT_PORI_APILTA+".shock.group_time_difference";
 	private int _alertRemoveThreshold = 5;
 	private long _alertValidityTime = 10000;
@@ -51,7 +55,11 @@ public class ApiltaProperties extends SystemProperty {
 	private String _preferredRegion = null;
 	private String _provider = null;
 	private String _publicEndpoint = null;
+	private int _shockCacheDays = 0;
 	private double _shockGroupRange = 0;
+	private int _shockHighlightDays = 0;
+	private int _shockHighlightMinMeasurements = 0;
+	private double _shockHighlightRange = 0;
 	private long _shockGroupTimeDifference = 0;
 	
 	@Override
@@ -87,9 +95,15 @@ public class ApiltaProperties extends SystemProperty {
 			_alertValidityTime = Long.parseLong(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_ALERT_VALIDITY_TIME));
 			_shockGroupTimeDifference = Long.parseLong(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_TIME_GROUP_DIFFERENCE));
 			_shockGroupRange = Double.parseDouble(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_GROUP_RANGE)) / 1000;
+			_shockCacheDays = Integer.parseInt(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_CACHE_DAYS, "0")); // can be left out from the .properties file, which disables the cache
+			_shockHighlightDays = Integer.parseInt(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_DAYS, "0")); // can be left out from the .properties file, which disables the pre-calculated highlights
+			if(_shockHighlightDays > 0) {
+				_shockHighlightMinMeasurements = Integer.parseInt(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_MIN_MEASUREMENTS));
+				_shockHighlightRange = Double.parseDouble(properties.getProperty(PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_RANGE)) / 1000;
+			}
 		} catch (NullPointerException | NumberFormatException ex) {
 			Logger.getLogger(getClass()).debug(ex, ex);
-			throw new IllegalArgumentException("Bad "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_TIME_GROUP_DIFFERENCE+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_DEFAULT_EXPIRATION_TIME+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_ALERT_REMOVE_THRESHOLD+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_GROUP_RANGE+" or "+PROPERTY_SERVICE_TUT_PORI_APILTA_ALERT_VALIDITY_TIME);
+			throw new IllegalArgumentException("Bad "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_TIME_GROUP_DIFFERENCE+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_DEFAULT_EXPIRATION_TIME+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_ALERT_REMOVE_THRESHOLD+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_GROUP_RANGE+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_CACHE_DAYS+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_DAYS+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_MIN_MEASUREMENTS+", "+PROPERTY_SERVICE_TUT_PORI_APILTA_SHOCK_HIGHLIGHT_RANGE+" or "+PROPERTY_SERVICE_TUT_PORI_APILTA_ALERT_VALIDITY_TIME);
 		}
 	}
 	
@@ -181,4 +195,32 @@ public class ApiltaProperties extends SystemProperty {
 	public double getShockGroupRange() {
 		return _shockGroupRange;
 	}
+
+	/**
+	 * @return number of recent days (including the current day) of shock measurements kept in memory, 0 if the cache is disabled
+	 */
+	public int getShockCacheDays() {
+		return _shockCacheDays;
+	}
+
+	/**
+	 * @return number of recent days (including the current day) of public shock measurements for which highlights are pre-calculated, 0 if the pre-calculation is disabled
+	 */
+	public int getShockHighlightDays() {
+		return _shockHighlightDays;
+	}
+
+	/**
+	 * @return the minimum number of measurements of the pre-calculated highlights
+	 */
+	public int getShockHighlightMinMeasurements() {
+		return _shockHighlightMinMeasurements;
+	}
+
+	/**
+	 * @return the range of the pre-calculated highlights in km
+	 */
+	public double getShockHighlightRange() {
+		return _shockHighlightRange;
+	}
 }
@@ -15,11 +15,20 @@
  */
 package service.tut.pori.apilta.alerts;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import core.tut.pori.dao.SQLDAO;
 import core.tut.pori.dao.SQLSelectBuilder;
@@ -31,10 +40,16 @@ import service.tut.pori.apilta.alerts.datatypes.AlertUserIdentity.UserPermission
 /**
  * 
  * dao for accessing alert groups
+ * 
+ * The alert groups of a user are resolved for all permissions using a single query, and cached per user. The cache is invalidated by the user events published through {@link core.tut.pori.context.EventHandler},
+ * and should be invalidated by all methods modifying the alert groups or the group memberships. The cached groups also expire after {@value #CACHE_VALIDITY} seconds to pick up changes made directly to the database.
  *
  */
 public class AlertGroupsDAO extends SQLDAO {
 	private static final Logger LOGGER = Logger.getLogger(AlertGroupsDAO.class);
+	private static final long CACHE_VALIDITY = 300; // in seconds
+	private static final int MAX_CACHED_USERS = 10000;
+	private static final Long NO_USER_ID = Long.valueOf(-1); // cache key for the global permissions
 	/* tables */
 //	private static final String TABLE_ALERTS_GROUPS = DATABASE+".alerts_groups";
 	private static final String TABLE_ALERTS_GROUPS_USERS = DATABASE+".alerts_groups_users";
@@ -44,36 +59,152 @@ public class AlertGroupsDAO extends SQLDAO {
 //	private static final String COLUMN_NAME = "name";
 	private static final String COLUMN_PERMISSION = "permission";
 	
+	private static final String[] SQL_COLUMNS_GET_ALERT_GROUP_IDS = {COLUMN_ALERT_GROUP_ID, COLUMN_PERMISSION};
+	
+	private final ConcurrentHashMap<Long, CachedGroups> _groupCache = new ConcurrentHashMap<>(); // user id -> groups, NO_USER_ID for global permissions
+	private final AtomicLong _groupCacheVersion = new AtomicLong(); // incremented on every invalidation to prevent caching of groups resolved concurrently with a modification
+	
+	/**
+	 * The alert groups of a single user
+	 *
+	 */
+	private static class CachedGroups {
+		private long _created = System.currentTimeMillis();
+		private EnumMap<UserPermission, List<Long>> _groupIds = new EnumMap<>(UserPermission.class); // permission -> sorted, unmodifiable list of group ids, permissions without groups are not included
+		
+		/**
+		 * 
+		 * @return true if the groups have expired
+		 */
+		private boolean isExpired() {
+			return (System.currentTimeMillis() - _created > CACHE_VALIDITY * 1000);
+		}
+	} // class CachedGroups
+	
 	/**
 	 * 
 	 * @param alertGroupIds only search for these identifiers
 	 * @param permission the user must have the given permission for the group (or the permission must be global for the group)
 	 * @param userId if null, only global permissions are matched
-	 * @return list of alert group identifiers matching the given term or null if none was found
+	 * @return list of alert group identifiers matching the given term (in ascending order) or null if none was found
 	 */
 	public List<Long> getAlertGroupIds(long[] alertGroupIds, UserPermission permission, UserIdentity userId) {
+		List<Long> groupIds = getCachedGroups((UserIdentity.isValid(userId) ? userId.getUserId() : NO_USER_ID))._groupIds.get(permission);
+		if(groupIds == null){
+			return null;
+		}else if(ArrayUtils.isEmpty(alertGroupIds)){
+			return new ArrayList<>(groupIds);
+		}
+		
+		LOGGER.debug("Using alert group id filter...");
+		ArrayList<Long> ids = new ArrayList<>(Math.min(groupIds.size(), alertGroupIds.length));
+		for(long alertGroupId : alertGroupIds){
+			Long id = Long.valueOf(alertGroupId);
+			if(Collections.binarySearch(groupIds, id) >= 0 && !ids.contains(id)){
+				ids.add(id);
+			}
+		}
+		if(ids.isEmpty()){
+			return null;
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+	
+	/**
+	 * 
+	 * @param userId user id or {@value #NO_USER_ID} for the global permissions
+	 * @return the groups from the cache, or resolved from the database if not cached
+	 */
+	private CachedGroups getCachedGroups(Long userId) {
+		CachedGroups groups = _groupCache.get(userId);
+		if(groups != null && !groups.isExpired()){
+			return groups;
+		}
+		
+		long version = _groupCacheVersion.get();
+		groups = resolveGroups(userId);
+		if(version == _groupCacheVersion.get()){ // do not cache if the groups were modified while resolving
+			if(_groupCache.size() >= MAX_CACHED_USERS){
+				LOGGER.debug("Maximum number of cached users reached, clearing alert group cache...");
+				_groupCache.clear();
+			}
+			_groupCache.put(userId, groups);
+		}
+		return groups;
+	}
+	
+	/**
+	 * Resolve the groups for all permissions from the database, the global permissions and the permissions given for the user are combined.
+	 * 
+	 * @param userId user id or {@value #NO_USER_ID} for the global permissions
+	 * @return the groups
+	 */
+	private CachedGroups resolveGroups(Long userId) {
 		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_ALERTS_GROUPS_USERS);
-		sql.addSelectColumn(COLUMN_ALERT_GROUP_ID);
+		sql.addSelectColumns(SQL_COLUMNS_GET_ALERT_GROUP_IDS);
 		
-		if(UserIdentity.isValid(userId)){
+		if(NO_USER_ID.equals(userId)){
+			sql.addWhereClause(new AndClause(COLUMN_USER_ID, (Object) null, SQLType.LONG));
+		}else{
 			ArrayList<Long> userIds = new ArrayList<>(2);
 			userIds.add(null);
-			userIds.add(userId.getUserId());
+			userIds.add(userId);
 			sql.addWhereClause(new AndClause(COLUMN_USER_ID, userIds, SQLType.LONG));
-		}else{
-			sql.addWhereClause(new AndClause(COLUMN_USER_ID, (Object) null, SQLType.LONG));
 		}
 		
-		sql.addWhereClause(new AndClause(COLUMN_PERMISSION, permission.toInt(), SQLType.INTEGER));
+		EnumMap<UserPermission, HashSet<Long>> groupIds = new EnumMap<>(UserPermission.class);
+		getJdbcTemplate().query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				UserPermission permission = null;
+				try {
+					permission = UserPermission.fromInt(set.getInt(2));
+				} catch (IllegalArgumentException ex) {
+					LOGGER.warn(ex, ex);
+					return;
+				}
+				HashSet<Long> ids = groupIds.get(permission);
+				if(ids == null){
+					ids = new HashSet<>();
+					groupIds.put(permission, ids);
+				}
+				ids.add(set.getLong(1));
+			}
+		});
 		
-		if(!ArrayUtils.isEmpty(alertGroupIds)){
-			LOGGER.debug("Using alert group id filter...");
-			sql.addWhereClause(new AndClause(COLUMN_ALERT_GROUP_ID, alertGroupIds));
+		CachedGroups groups = new CachedGroups();
+		for(Map.Entry<UserPermission, HashSet<Long>> e : groupIds.entrySet()){
+			ArrayList<Long> ids = new ArrayList<>(e.getValue());
+			Collections.sort(ids);
+			groups._groupIds.put(e.getKey(), Collections.unmodifiableList(ids));
 		}
-		
-		List<Long> ids = getJdbcTemplate().queryForList(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), Long.class);
-		return (ids.isEmpty() ? null : ids);
+		return groups;
+	}
+	
+	/**
+	 * Remove the cached alert groups of the given user.
+	 * 
+	 * @param userId
+	 */
+	public void removeCachedGroups(UserIdentity userId) {
+		Long uid = (userId == null ? null : userId.getUserId());
+		if(uid == null){
+			LOGGER.debug("Ignored invalid user identity.");
+			return;
+		}
+		_groupCacheVersion.incrementAndGet();
+		_groupCache.remove(uid);
+	}
+	
+	/**
+	 * Remove all cached alert groups. This should be called when alert groups or the global permissions of alert groups are modified.
+	 */
+	public void clearCachedGroups() {
+		_groupCacheVersion.incrementAndGet();
+		_groupCache.clear();
 	}
 	
-	//TODO add/modify/delete/get alert group methods
+	//TODO add/modify/delete/get alert group methods, remember to invalidate the cache
 }
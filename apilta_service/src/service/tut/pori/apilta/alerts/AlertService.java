@@ -28,6 +28,7 @@ import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter;
 import core.tut.pori.http.parameters.DoubleParameter;
 import core.tut.pori.http.parameters.InputStreamParameter;
+import core.tut.pori.http.parameters.IntegerParameter;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.http.parameters.LongParameter;
 import core.tut.pori.http.parameters.StringParameter;
@@ -73,6 +74,34 @@ public class AlertService {
 		return new Response(AlertsCore.retrieveAlerts(alertGroupIdFilter.getValues(), alertTypeFilter.getValues(), authenticatedUser.getUserIdentity(), createdFilter.getValues(), dataGroups, limits, location.getValue(), range.getValue()));
 	}
 
+	/**
+	 * 
+	 * @param authenticatedUser
+	 * @param alertGroupIdFilter
+	 * @param alertTypeFilter
+	 * @param dataGroups 
+	 * @param location
+	 * @param range
+	 * @param subscriptionId
+	 * @param timeout
+	 * @return see {@link service.tut.pori.apilta.alerts.datatypes.AlertSubscription}
+	 * @see service.tut.pori.apilta.alerts.reference.ClientService#subscribeAlerts(AuthenticationParameter, LongParameter, StringParameter, DataGroups, LocationParameter, DoubleParameter, StringParameter, IntegerParameter)
+	 */
+	@HTTPServiceMethod(name = Definitions.METHOD_SUBSCRIBE_ALERTS, acceptedMethods={core.tut.pori.http.Definitions.METHOD_GET})
+	public Response subscribeAlerts(
+			@HTTPAuthenticationParameter AuthenticationParameter authenticatedUser,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_ALERT_GROUP_ID, required = false) LongParameter alertGroupIdFilter,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_ALERT_TYPE, required = false) StringParameter alertTypeFilter,
+			@HTTPMethodParameter(name = DataGroups.PARAMETER_DEFAULT_NAME, required = false) DataGroups dataGroups,
+			@HTTPMethodParameter(name = LocationParameter.PARAMETER_DEFAULT_NAME, required = false) LocationParameter location,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_RANGE, required = false) DoubleParameter range,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_SUBSCRIPTION_ID, required = false) StringParameter subscriptionId,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_TIMEOUT, required = false) IntegerParameter timeout
+			)
+	{
+		return new Response(AlertsCore.subscribeAlerts(alertGroupIdFilter.getValues(), alertTypeFilter.getValues(), authenticatedUser.getUserIdentity(), dataGroups, location.getValue(), range.getValue(), subscriptionId.getValue(), timeout.getValue()));
+	}
+
 	/**
 	 * 
 	 * @param authenticatedUser
@@ -117,7 +146,7 @@ public class AlertService {
 			) 
 	{
 		FileDetailsList list = new FileDetailsList();
-		list.addFile(AlertsCore.createFile(file.getValue()));
+		list.addFile(AlertsCore.createFile(file.getValue(), file.getContentLength()));
 		return new Response(list);
 	}
 }
@@ -0,0 +1,594 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.alerts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import core.tut.pori.http.parameters.DataGroups;
+import core.tut.pori.users.UserIdentity;
+import service.tut.pori.apilta.alerts.datatypes.Alert;
+import service.tut.pori.apilta.alerts.datatypes.AlertList;
+import service.tut.pori.apilta.alerts.datatypes.AlertSubscription;
+import service.tut.pori.apilta.alerts.datatypes.AndHeadingFilter;
+import service.tut.pori.apilta.alerts.datatypes.Location;
+import service.tut.pori.apilta.files.datatypes.FileDetails;
+import service.tut.pori.apilta.files.datatypes.FileDetailsList;
+import service.tut.pori.apilta.utils.MathUtils;
+
+/**
+ * In-memory registry of alert subscriptions.
+ * 
+ * Each subscription keeps track of the alerts within an area around the location where the area was last refreshed. The area is larger than the range requested by the client,
+ * which allows the client to move without new alert queries until the requested range no longer fits inside the area.
+ * 
+ * New alerts are matched against the subscriptions once, when the alert is added, using a grid index of the subscription areas.
+ * 
+ * Polling blocks the request thread until there are changes or the timeout expires. To prevent the waiting clients from reserving all request threads of the container, at most {@value #MAX_WAITING_POLLS} polls may wait at the same time, 
+ * and the rest return immediately (as if the timeout was 0).
+ * 
+ * Note: the subscriptions are only stored in the memory of this instance, and are lost on restart. The clients are expected to re-subscribe when the subscription is not found.
+ */
+final class AlertSubscriptions {
+	private static final double AREA_FACTOR = 3; // range of the tracked area in relation to the range requested by the client
+	private static final double CELL_SIZE = 0.25; // in degrees
+	private static final int COLUMNS = (int) (360 / CELL_SIZE);
+	private static final Logger LOGGER = Logger.getLogger(AlertSubscriptions.class);
+	private static final int MAX_CELLS = 1024; // maximum number of grid cells for a single subscription, larger areas are checked for every alert
+	private static final int MAX_WAITING_POLLS = 50; // maximum number of polls waiting concurrently, the default request thread count of the container is 200
+	private static final long SUBSCRIPTION_VALIDITY = 300; // in seconds, the subscriptions not polled within this time are removed
+	private static final HashMap<Long, Set<Subscription>> CELLS = new HashMap<>(); // key: cell, value: subscriptions overlapping the cell, guarded by itself
+	private static final Set<Subscription> UNINDEXED = new HashSet<>(); // subscriptions which are checked for every alert, guarded by CELLS
+	private static final Semaphore WAITING_POLLS = new Semaphore(MAX_WAITING_POLLS);
+	private static final Cache<String, Subscription> SUBSCRIPTIONS = CacheBuilder.newBuilder().expireAfterAccess(SUBSCRIPTION_VALIDITY, TimeUnit.SECONDS).removalListener(new RemovalListener<String, Subscription>() {
+		@Override
+		public void onRemoval(RemovalNotification<String, Subscription> notification) {
+			LOGGER.debug("Removing subscription, id: "+notification.getKey());
+			unindex(notification.getValue());
+		}
+	}).build(); // key: subscription id
+	
+	/**
+	 * A single subscription
+	 * 
+	 */
+	static final class Subscription {
+		private boolean _allData = false;
+		private Set<String> _alertTypes = null; // null for all types
+		private Location _areaLocation = null;
+		private double _areaRange = 0;
+		private List<Long> _cells = null; // guarded by CELLS, null if the subscription is not in the cell index
+		private HashMap<String, Long> _delivered = new HashMap<>(); // alerts delivered to the client, key: alert id, value: valid until
+		private long[] _groupIdFilter = null;
+		private List<Long> _groupIds = null;
+		private HashMap<String, Alert> _known = new HashMap<>(); // alerts inside the area, key: alert id
+		private Location _location = null;
+		private double _range = 0;
+		private String _subscriptionId = null;
+		private Long _userId = null;
+		
+		/**
+		 * 
+		 * @param subscriptionId
+		 * @param userId
+		 * @param groupIdFilter
+		 * @param groupIds
+		 * @param alertTypes
+		 * @param allData
+		 */
+		private Subscription(String subscriptionId, Long userId, long[] groupIdFilter, List<Long> groupIds, List<String> alertTypes, boolean allData) {
+			_subscriptionId = subscriptionId;
+			_userId = userId;
+			_groupIdFilter = groupIdFilter;
+			_groupIds = groupIds;
+			_alertTypes = (alertTypes == null || alertTypes.isEmpty() ? null : new HashSet<>(alertTypes));
+			_allData = allData;
+		}
+
+		/**
+		 * @return the subscriptionId
+		 */
+		public String getSubscriptionId() {
+			return _subscriptionId;
+		}
+
+		/**
+		 * @return the group ids the subscription is allowed to read
+		 */
+		public List<Long> getGroupIds() {
+			return _groupIds;
+		}
+
+		/**
+		 * @return the group id filter given when the subscription was created or null if none
+		 */
+		public long[] getGroupIdFilter() {
+			return _groupIdFilter;
+		}
+
+		/**
+		 * @return the alert type filter or null if none
+		 */
+		public List<String> getAlertTypes() {
+			return (_alertTypes == null ? null : new ArrayList<>(_alertTypes));
+		}
+
+		/**
+		 * @return the current location of the client or null if not set
+		 */
+		public synchronized Location getLocation() {
+			return _location;
+		}
+
+		/**
+		 * @return the current range of the client in km or null if not set
+		 */
+		public synchronized Double getRange() {
+			return (_location == null ? null : Double.valueOf(_range));
+		}
+
+		/**
+		 * @return the center of the tracked area
+		 */
+		public synchronized Location getAreaLocation() {
+			return _areaLocation;
+		}
+
+		/**
+		 * @return the range of the tracked area, in km
+		 */
+		public synchronized double getAreaRange() {
+			return _areaRange;
+		}
+		
+		/**
+		 * 
+		 * @param location
+		 * @param range
+		 * @return true if the tracked area was moved, and the alerts for the new area should be set with {@link #setAlerts(AlertList)}
+		 */
+		private synchronized boolean setLocation(Location location, double range) {
+			_location = location;
+			_range = range;
+			notifyAll(); // the visible alerts may have changed
+			if(_areaLocation != null && MathUtils.haversine(_areaLocation.getLatitude(), _areaLocation.getLongitude(), location.getLatitude(), location.getLongitude()) + range <= _areaRange){
+				return false;
+			}
+			Location areaLocation = new Location();
+			areaLocation.setLatitude(location.getLatitude());
+			areaLocation.setLongitude(location.getLongitude());
+			_areaLocation = areaLocation;
+			_areaRange = range * AREA_FACTOR;
+			return true;
+		}
+		
+		/**
+		 * Set the alerts for the current area. The previously known alerts outside the area are discarded.
+		 * 
+		 * @param alerts the alerts retrieved for the area, with all data groups
+		 */
+		public synchronized void setAlerts(AlertList alerts) {
+			for(Iterator<Alert> iter = _known.values().iterator(); iter.hasNext();){
+				if(!isInArea(iter.next())){
+					iter.remove();
+				}
+			}
+			if(!AlertList.isEmpty(alerts)){
+				for(Alert alert : alerts.getAlerts()){
+					_known.put(alert.getAlertId(), alert);
+				}
+			}
+			notifyAll();
+		}
+		
+		/**
+		 * 
+		 * @param alert
+		 * @param groupIds
+		 */
+		private synchronized void alertAdded(Alert alert, Collection<Long> groupIds) {
+			if(_alertTypes != null && !_alertTypes.contains(alert.getAlertType())){
+				return;
+			}
+			boolean found = false;
+			for(Long groupId : groupIds){
+				if(_groupIds.contains(groupId)){
+					found = true;
+					break;
+				}
+			}
+			if(found && isInArea(alert)){
+				_known.put(alert.getAlertId(), alert);
+				notifyAll();
+			}
+		}
+		
+		/**
+		 * 
+		 * @param alert
+		 * @return true if the alert is inside the tracked area
+		 */
+		private boolean isInArea(Alert alert) {
+			if(_areaLocation == null){
+				return false;
+			}
+			Location location = alert.getLocation();
+			return (MathUtils.haversine(_areaLocation.getLatitude(), _areaLocation.getLongitude(), location.getLatitude(), location.getLongitude()) <= _areaRange);
+		}
+		
+		/**
+		 * 
+		 * @param alert
+		 * @return true if the alert is within the range (and heading) of the current location of the client
+		 */
+		private boolean isVisible(Alert alert) {
+			Location location = alert.getLocation();
+			double distance = MathUtils.haversine(_location.getLatitude(), _location.getLongitude(), location.getLatitude(), location.getLongitude());
+			if(distance > _range){
+				return false;
+			}
+			Double heading = _location.getHeading();
+			if(heading == null || distance == 0 || !AndHeadingFilter.isSupported(_location, AndHeadingFilter.DEFAULT_HEADING_RANGE, _range)){
+				return true;
+			}
+			double difference = Math.abs(MathUtils.bearing(_location.getLatitude(), _location.getLongitude(), location.getLatitude(), location.getLongitude()) - heading) % 360;
+			return ((difference > 180 ? 360 - difference : difference) <= AndHeadingFilter.DEFAULT_HEADING_RANGE);
+		}
+		
+		/**
+		 * Wait until there are changes in the visible alerts or the timeout expires.
+		 * 
+		 * If the maximum number of polls ({@value AlertSubscriptions#MAX_WAITING_POLLS}) are already waiting, this method returns immediately.
+		 * 
+		 * @param timeout in ms, 0 returns immediately
+		 * @return the alerts which have become visible and the alerts which are no longer visible since the previous call
+		 */
+		public synchronized AlertSubscription poll(long timeout) {
+			long deadline = System.currentTimeMillis() + timeout;
+			ArrayList<Alert> alerts = new ArrayList<>();
+			ArrayList<String> expired = new ArrayList<>();
+			boolean waiting = false; // true if a permit to wait has been acquired
+			try{
+				while(true){
+					long now = System.currentTimeMillis();
+					long nextExpiration = Long.MAX_VALUE;
+					for(Iterator<Entry<String, Long>> iter = _delivered.entrySet().iterator(); iter.hasNext();){
+						Entry<String, Long> e = iter.next();
+						long validUntil = e.getValue();
+						Alert alert = _known.get(e.getKey());
+						if(validUntil <= now || alert == null || !isVisible(alert)){
+							expired.add(e.getKey());
+							iter.remove();
+						}else if(validUntil < nextExpiration){
+							nextExpiration = validUntil;
+						}
+					}
+					
+					for(Iterator<Alert> iter = _known.values().iterator(); iter.hasNext();){
+						Alert alert = iter.next();
+						long validUntil = getValidUntil(alert);
+						if(validUntil <= now){
+							iter.remove();
+						}else if(!_delivered.containsKey(alert.getAlertId()) && isVisible(alert)){
+							alerts.add(toResponseAlert(alert));
+							_delivered.put(alert.getAlertId(), validUntil);
+							if(validUntil < nextExpiration){
+								nextExpiration = validUntil;
+							}
+						}
+					}
+					
+					if(!alerts.isEmpty() || !expired.isEmpty() || now >= deadline){
+						break;
+					}
+					
+					if(!waiting){
+						if(!WAITING_POLLS.tryAcquire()){
+							LOGGER.debug("Maximum number of waiting polls reached, returning immediately, subscription id: "+_subscriptionId);
+							break;
+						}
+						waiting = true;
+					}
+					try {
+						wait(Math.min(deadline, nextExpiration) - now);
+					} catch (InterruptedException ex) {
+						LOGGER.debug(ex, ex);
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			} finally {
+				if(waiting){
+					WAITING_POLLS.release();
+				}
+			}
+			
+			AlertSubscription subscription = new AlertSubscription();
+			subscription.setSubscriptionId(_subscriptionId);
+			if(!alerts.isEmpty()){
+				AlertList list = new AlertList();
+				list.setAlerts(alerts);
+				subscription.setAlerts(list);
+			}
+			if(!expired.isEmpty()){
+				subscription.setExpiredAlertIds(expired);
+			}
+			return subscription;
+		}
+		
+		/**
+		 * 
+		 * @param alert
+		 * @return copy of the alert with the details included in the requested data groups
+		 */
+		private Alert toResponseAlert(Alert alert) {
+			Alert copy = new Alert();
+			copy.setAlertId(alert.getAlertId());
+			copy.setAlertType(alert.getAlertType());
+			copy.setCreated(alert.getCreated());
+			copy.setDescription(alert.getDescription());
+			copy.setLocation(alert.getLocation());
+			if(_allData){
+				copy.setRange(alert.getRange());
+				copy.setUserId(alert.getUserId());
+				copy.setValidUntil(alert.getValidUntil());
+				FileDetailsList files = alert.getFiles();
+				if(!FileDetailsList.isEmpty(files)){ // create a new GUID list, the details are resolved separately for each response
+					FileDetailsList GUIDList = new FileDetailsList();
+					for(FileDetails details : files.getFiles()){
+						FileDetails GUIDDetails = new FileDetails();
+						GUIDDetails.setGUID(details.getGUID());
+						GUIDList.addFile(GUIDDetails);
+					}
+					copy.setFiles(GUIDList);
+				}
+			}
+			return copy;
+		}
+	} // class Subscription
+	
+	/**
+	 * 
+	 */
+	private AlertSubscriptions() {
+		// nothing needed
+	}
+	
+	/**
+	 * 
+	 * @param authenticatedUser
+	 * @param groupIdFilter the group id filter used to resolve the group ids, or null if none
+	 * @param groupIds the group ids the user is allowed to read
+	 * @param alertTypes optional alert type filter
+	 * @param dataGroups
+	 * @return new subscription
+	 */
+	public static Subscription createSubscription(UserIdentity authenticatedUser, long[] groupIdFilter, List<Long> groupIds, List<String> alertTypes, DataGroups dataGroups) {
+		Subscription subscription = new Subscription(UUID.randomUUID().toString(), authenticatedUser.getUserId(), groupIdFilter, groupIds, alertTypes, DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups));
+		SUBSCRIPTIONS.put(subscription.getSubscriptionId(), subscription);
+		return subscription;
+	}
+	
+	/**
+	 * 
+	 * @param subscription the subscription to remove
+	 */
+	public static void removeSubscription(Subscription subscription) {
+		SUBSCRIPTIONS.invalidate(subscription.getSubscriptionId()); // the removal listener will remove the subscription from the index
+	}
+	
+	/**
+	 * 
+	 * @param subscriptionId
+	 * @param authenticatedUser
+	 * @return the subscription or null if not found or the subscription is not owned by the user
+	 */
+	public static Subscription getSubscription(String subscriptionId, UserIdentity authenticatedUser) {
+		Subscription subscription = SUBSCRIPTIONS.getIfPresent(subscriptionId);
+		if(subscription == null){
+			LOGGER.debug("Subscription not found, id: "+subscriptionId);
+			return null;
+		}else if(!subscription._userId.equals(authenticatedUser.getUserId())){
+			LOGGER.warn("User, id: "+authenticatedUser.getUserId()+" attempted to access subscription of another user, subscription id: "+subscriptionId);
+			return null;
+		}
+		return subscription;
+	}
+	
+	/**
+	 * Update the location of the client.
+	 * 
+	 * @param subscription
+	 * @param location
+	 * @param range in km
+	 * @return true if the tracked area was moved, and the alerts for the new area should be set with {@link Subscription#setAlerts(AlertList)}
+	 */
+	public static boolean setLocation(Subscription subscription, Location location, double range) {
+		if(!subscription.setLocation(location, range)){
+			return false;
+		}
+		index(subscription);
+		return true;
+	}
+	
+	/**
+	 * Match the new alert against the subscriptions.
+	 * 
+	 * @param alert
+	 * @param groupIds the groups the alert was added to
+	 */
+	public static void alertAdded(Alert alert, Collection<Long> groupIds) {
+		Location location = alert.getLocation();
+		ArrayList<Subscription> candidates = null;
+		synchronized (CELLS) {
+			Set<Subscription> subscriptions = CELLS.get(toKey(getRow(location.getLatitude()), getColumn(location.getLongitude())));
+			if(subscriptions == null){
+				if(UNINDEXED.isEmpty()){
+					return;
+				}
+				candidates = new ArrayList<>(UNINDEXED);
+			}else{
+				candidates = new ArrayList<>(subscriptions.size() + UNINDEXED.size());
+				candidates.addAll(subscriptions);
+				candidates.addAll(UNINDEXED);
+			}
+		}
+		for(Subscription subscription : candidates){
+			subscription.alertAdded(alert, groupIds);
+		}
+	}
+	
+	/**
+	 * Add the subscription to the index using its current area, replacing the previous index entries (if any).
+	 * 
+	 * @param subscription
+	 */
+	private static void index(Subscription subscription) {
+		List<Long> cells = getCells(subscription.getAreaLocation(), subscription.getAreaRange());
+		synchronized (CELLS) {
+			unindex(subscription);
+			if(!SUBSCRIPTIONS.asMap().containsKey(subscription.getSubscriptionId())){ // removed concurrently
+				LOGGER.debug("Subscription has expired, id: "+subscription.getSubscriptionId());
+			}else if(cells == null){
+				LOGGER.debug("Area too large for the cell index, subscription id: "+subscription.getSubscriptionId());
+				UNINDEXED.add(subscription);
+			}else{
+				for(Long cell : cells){
+					Set<Subscription> subscriptions = CELLS.get(cell);
+					if(subscriptions == null){
+						subscriptions = new HashSet<>();
+						CELLS.put(cell, subscriptions);
+					}
+					subscriptions.add(subscription);
+				}
+				subscription._cells = cells;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param subscription
+	 */
+	private static void unindex(Subscription subscription) {
+		synchronized (CELLS) {
+			UNINDEXED.remove(subscription);
+			if(subscription._cells != null){
+				for(Long cell : subscription._cells){
+					Set<Subscription> subscriptions = CELLS.get(cell);
+					if(subscriptions != null){
+						subscriptions.remove(subscription);
+						if(subscriptions.isEmpty()){
+							CELLS.remove(cell);
+						}
+					}
+				}
+				subscription._cells = null;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param location
+	 * @param range in km
+	 * @return keys for all cells which may contain points within the range of the location, or null if the area covers too many cells
+	 */
+	private static List<Long> getCells(Location location, double range) {
+		double angle = range / MathUtils.EARTH_RADIUS; // central angle in radians
+		double latitudeSpan = Math.toDegrees(angle);
+		double latitude = location.getLatitude();
+		double maxLatitude = Math.abs(latitude) + latitudeSpan;
+		if(maxLatitude >= 90){ // area contains a pole
+			return null;
+		}
+		double sin = Math.sin(angle) / Math.cos(Math.toRadians(maxLatitude)); // the longitude difference is largest on the highest latitude
+		if(sin >= 1){
+			return null;
+		}
+		double longitudeSpan = Math.toDegrees(Math.asin(sin));
+		double longitude = location.getLongitude();
+		int minRow = getRow(latitude - latitudeSpan);
+		int maxRow = getRow(latitude + latitudeSpan);
+		int minColumn = (int) Math.floor((longitude - longitudeSpan + 180) / CELL_SIZE);
+		int maxColumn = (int) Math.floor((longitude + longitudeSpan + 180) / CELL_SIZE);
+		if((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS){
+			return null;
+		}
+		ArrayList<Long> cells = new ArrayList<>((maxRow - minRow + 1) * (maxColumn - minColumn + 1));
+		for(int row=minRow;row<=maxRow;++row){
+			for(int column=minColumn;column<=maxColumn;++column){
+				cells.add(toKey(row, Math.floorMod(column, COLUMNS))); // wrap around the 180th meridian
+			}
+		}
+		return cells;
+	}
+	
+	/**
+	 * 
+	 * @param latitude
+	 * @return row for the latitude
+	 */
+	private static int getRow(double latitude) {
+		return (int) Math.floor((latitude + 90) / CELL_SIZE);
+	}
+	
+	/**
+	 * 
+	 * @param longitude
+	 * @return column for the longitude
+	 */
+	private static int getColumn(double longitude) {
+		return Math.floorMod((int) Math.floor((longitude + 180) / CELL_SIZE), COLUMNS);
+	}
+	
+	/**
+	 * 
+	 * @param row
+	 * @param column
+	 * @return cell key
+	 */
+	private static Long toKey(int row, int column) {
+		return Long.valueOf(((long) row) * COLUMNS + column);
+	}
+	
+	/**
+	 * 
+	 * @param alert
+	 * @return valid until timestamp of the alert in ms, or {@link Long#MAX_VALUE} if not set
+	 */
+	private static long getValidUntil(Alert alert) {
+		Date validUntil = alert.getValidUntil();
+		return (validUntil == null ? Long.MAX_VALUE : validUntil.getTime());
+	}
+}
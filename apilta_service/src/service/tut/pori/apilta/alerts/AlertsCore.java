@@ -18,33 +18,42 @@ package service.tut.pori.apilta.alerts;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
+import org.springframework.context.ApplicationListener;
 
 import core.tut.pori.context.ServiceInitializer;
 import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
 import core.tut.pori.http.parameters.Limits;
+import core.tut.pori.users.UserEvent.EventType;
 import core.tut.pori.users.UserIdentity;
 import core.tut.pori.utils.ListUtils;
 import service.tut.pori.apilta.ApiltaProperties;
+import service.tut.pori.apilta.alerts.AlertSubscriptions.Subscription;
 import service.tut.pori.apilta.alerts.datatypes.Alert;
 import service.tut.pori.apilta.alerts.datatypes.AlertList;
+import service.tut.pori.apilta.alerts.datatypes.AlertSubscription;
 import service.tut.pori.apilta.alerts.datatypes.AlertUserIdentity.UserPermission;
 import service.tut.pori.apilta.alerts.datatypes.Location;
 import service.tut.pori.apilta.alerts.datatypes.LocationParameter;
 import service.tut.pori.apilta.files.FilesCore;
 import service.tut.pori.apilta.files.datatypes.FileDetails;
 import service.tut.pori.apilta.files.datatypes.FileDetailsList;
+import service.tut.pori.users.UserCore;
+import service.tut.pori.users.UserServiceEvent;
 
 /**
  * 
  * core methods for alerts service
  */
 public final class AlertsCore {
+	private static final DataGroups DATA_GROUPS_ALL = new DataGroups(DataGroups.DATA_GROUP_ALL);
 	private static final Logger LOGGER = Logger.getLogger(AlertsCore.class);
 	
 	/**
@@ -87,15 +96,40 @@ public final class AlertsCore {
 		}
 		
 		AlertList alertList = ServiceInitializer.getDAOHandler().getDAO(AlertsDAO.class).getAlerts(validGroupIds, alertTypeFilter, createdFilter, dataGroups, limits, location, range);
-		if(!AlertList.isEmpty(alertList)){
+		resolveFiles(alertList);
+		return alertList;
+	}
+	
+	/**
+	 * Replace the file GUIDs of the alerts with the file details.
+	 * 
+	 * @param alertList
+	 */
+	private static void resolveFiles(AlertList alertList) {
+		if(AlertList.isEmpty(alertList)){
+			return;
+		}
+		
+		HashSet<String> guids = new HashSet<>();
+		for(Alert alert : alertList.getAlerts()){
+			FileDetailsList fileDetailsList = alert.getFiles();
+			if(!FileDetailsList.isEmpty(fileDetailsList)){ // alert has file details
+				for(FileDetails GUIDDetails : fileDetailsList.getFiles()){ // the basic list only contains GUIDs
+					guids.add(GUIDDetails.getGUID());
+				}
+			}
+		}
+		
+		if(!guids.isEmpty()){
+			Map<String, FileDetails> details = FilesCore.getFileDetails(guids); // resolve file details for all alerts at once
 			for(Alert alert : alertList.getAlerts()){
 				FileDetailsList fileDetailsList = alert.getFiles();
-				if(!FileDetailsList.isEmpty(fileDetailsList)){ // alert has file details
-					List<FileDetails> GUIDList = fileDetailsList.getFiles(); // the basic list only contains GUIDs
+				if(!FileDetailsList.isEmpty(fileDetailsList)){
+					List<FileDetails> GUIDList = fileDetailsList.getFiles();
 					ArrayList<FileDetails> resolved = new ArrayList<>(GUIDList.size());
-					for(FileDetails GUIDDetails : GUIDList){ // resolve file details
+					for(FileDetails GUIDDetails : GUIDList){
 						String guid = GUIDDetails.getGUID();
-						FileDetails resolvedDetails = FilesCore.getFileDetails(guid);
+						FileDetails resolvedDetails = (details == null ? null : details.get(guid));
 						if(resolvedDetails == null){
 							LOGGER.warn("Could not resovle details for file, GUID: "+guid);
 						}else{
@@ -106,8 +140,104 @@ public final class AlertsCore {
 				}
 			}
 		}
+	}
+	
+	/**
+	 * Create a new subscription or wait for changes in an existing subscription.
+	 * 
+	 * A new subscription returns immediately with the alerts currently visible at the given location. The following calls with the returned subscription id
+	 * wait until new alerts become visible, or previously returned alerts expire or are no longer visible, or until the timeout expires.
+	 * 
+	 * @param alertGroupIdFilter ignored for existing subscriptions, the alert groups of existing subscriptions are re-checked on every call, and the subscription is removed if the groups have changed
+	 * @param alertTypeFilter ignored for existing subscriptions
+	 * @param authenticatedUser
+	 * @param dataGroups ignored for existing subscriptions
+	 * @param location required for new subscriptions, for existing subscriptions the previous location is used if not given
+	 * @param range if not given, the default range is used for new subscriptions and the previous range for existing subscriptions
+	 * @param subscriptionId if null, a new subscription is created
+	 * @param timeout in seconds, if null, the default timeout is used
+	 * @return the alert changes or null if the user has no valid alert groups
+	 * @throws IllegalArgumentException on bad input data or unknown subscription id
+	 */
+	public static AlertSubscription subscribeAlerts(long[] alertGroupIdFilter, List<String> alertTypeFilter, UserIdentity authenticatedUser, DataGroups dataGroups, Location location, Double range, String subscriptionId, Integer timeout) throws IllegalArgumentException {
+		if(timeout == null){
+			timeout = Definitions.DEFAULT_SUBSCRIPTION_TIMEOUT;
+		}else if(timeout < 0 || timeout > Definitions.MAX_SUBSCRIPTION_TIMEOUT){
+			throw new IllegalArgumentException("Invalid "+Definitions.PARAMETER_TIMEOUT+": "+timeout);
+		}
+		if(range != null && (range <= 0 || range > Definitions.MAX_SUBSCRIPTION_RANGE)){
+			throw new IllegalArgumentException("Invalid range: "+range);
+		}
+		if(location != null && !Location.isValid(location)){
+			throw new IllegalArgumentException("Invalid "+LocationParameter.PARAMETER_DEFAULT_NAME);
+		}
 		
-		return alertList;
+		Subscription subscription = null;
+		if(subscriptionId == null){
+			if(location == null){
+				throw new IllegalArgumentException(LocationParameter.PARAMETER_DEFAULT_NAME+" must be given.");
+			}
+			if(range == null){
+				LOGGER.debug("Using default range: "+Definitions.DEFAULT_RANGE);
+				range = Definitions.DEFAULT_RANGE;
+			}
+			List<Long> validGroupIds = ServiceInitializer.getDAOHandler().getDAO(AlertGroupsDAO.class).getAlertGroupIds(alertGroupIdFilter, UserPermission.READ_ALERTS, authenticatedUser);
+			if(validGroupIds == null){
+				LOGGER.debug("No valid alert groups for user, id: "+authenticatedUser.getUserId());
+				return null;
+			}
+			subscription = AlertSubscriptions.createSubscription(authenticatedUser, alertGroupIdFilter, validGroupIds, alertTypeFilter, dataGroups);
+			timeout = 0; // return the initial alerts immediately
+		}else{
+			subscription = AlertSubscriptions.getSubscription(subscriptionId, authenticatedUser);
+			if(subscription == null){
+				throw new IllegalArgumentException("Invalid or expired "+Definitions.PARAMETER_SUBSCRIPTION_ID+": "+subscriptionId);
+			}
+			List<Long> validGroupIds = ServiceInitializer.getDAOHandler().getDAO(AlertGroupsDAO.class).getAlertGroupIds(subscription.getGroupIdFilter(), UserPermission.READ_ALERTS, authenticatedUser); // the permissions may have changed after the subscription was created
+			if(validGroupIds == null){
+				LOGGER.debug("No valid alert groups for user, id: "+authenticatedUser.getUserId()+", removing subscription, id: "+subscriptionId);
+				AlertSubscriptions.removeSubscription(subscription);
+				return null;
+			}else if(!new HashSet<>(validGroupIds).equals(new HashSet<>(subscription.getGroupIds()))){ // the client must re-subscribe to receive the alerts of the current groups
+				LOGGER.debug("Alert groups have changed for user, id: "+authenticatedUser.getUserId()+", removing subscription, id: "+subscriptionId);
+				AlertSubscriptions.removeSubscription(subscription);
+				throw new IllegalArgumentException("Invalid or expired "+Definitions.PARAMETER_SUBSCRIPTION_ID+": "+subscriptionId);
+			}
+		}
+		
+		if(location != null || range != null){
+			if(!updateSubscription(subscription, location, range)){
+				throw new IllegalArgumentException("Invalid "+LocationParameter.PARAMETER_DEFAULT_NAME);
+			}
+		}
+		
+		AlertSubscription alertSubscription = subscription.poll(timeout * 1000L);
+		resolveFiles(alertSubscription.getAlerts());
+		return alertSubscription;
+	}
+	
+	/**
+	 * 
+	 * @param subscription
+	 * @param location if null, the previous location is used
+	 * @param range if null, the previous range is used
+	 * @return false if the subscription had no previous location or range to use
+	 */
+	private static boolean updateSubscription(Subscription subscription, Location location, Double range) {
+		if(location == null){
+			location = subscription.getLocation();
+		}
+		if(range == null){
+			range = subscription.getRange();
+		}
+		if(location == null || range == null){
+			return false;
+		}
+		if(AlertSubscriptions.setLocation(subscription, location, range)){ // the area has moved, retrieve the alerts for the new area
+			LOGGER.debug("Refreshing alerts for subscription, id: "+subscription.getSubscriptionId());
+			subscription.setAlerts(ServiceInitializer.getDAOHandler().getDAO(AlertsDAO.class).getAlerts(subscription.getGroupIds(), subscription.getAlertTypes(), null, DATA_GROUPS_ALL, null, subscription.getAreaLocation(), subscription.getAreaRange()));
+		}
+		return true;
 	}
 
 	/**
@@ -144,17 +274,22 @@ public final class AlertsCore {
 			alert.setValidUntil(new Date(created.getTime()+ServiceInitializer.getPropertyHandler().getSystemProperties(ApiltaProperties.class).getAlertValidityTime()*60000));
 		}
 		
-		return ServiceInitializer.getDAOHandler().getDAO(AlertsDAO.class).addAlert(alert, validGroupIds); // use valid group ids list to remove possible duplicates in the id list	
+		String alertId = ServiceInitializer.getDAOHandler().getDAO(AlertsDAO.class).addAlert(alert, validGroupIds); // use valid group ids list to remove possible duplicates in the id list
+		if(alertId != null){
+			AlertSubscriptions.alertAdded(alert, validGroupIds);
+		}
+		return alertId;
 	}
 
 	/**
 	 * 
 	 * @param file
+	 * @param contentLength length of the file in bytes or null if not known
 	 * @return details for the created file or null on failure (permission denied)
 	 * @throws IllegalArgumentException on bad data
 	 */
-	public static FileDetails createFile(InputStream file) throws IllegalArgumentException {
-		FileDetails details = FilesCore.createFile(file);
+	public static FileDetails createFile(InputStream file, Long contentLength) throws IllegalArgumentException {
+		FileDetails details = FilesCore.createFile(file, contentLength);
 		if(!FileDetails.isValid(details)){
 			throw new IllegalArgumentException("Failed to create file from the given data.");
 		}
@@ -162,6 +297,25 @@ public final class AlertsCore {
 		return details;
 	}
 	
+	/**
+	 * Event listener for user related events.
+	 * 
+	 * Automatically instantiated by Spring as a bean.
+	 */
+	@SuppressWarnings("unused")
+	private static class UserEventListener implements ApplicationListener<UserServiceEvent>{
+
+		@Override
+		public void onApplicationEvent(UserServiceEvent event) {
+			EventType type = event.getType();
+			if(type == EventType.USER_REMOVED && event.getSource().equals(UserCore.class)){
+				UserIdentity userId = event.getUserId();
+				LOGGER.debug("Detected event of type "+type.name()+", removing cached alert groups for user, id: "+userId.getUserId());
+				ServiceInitializer.getDAOHandler().getDAO(AlertGroupsDAO.class).removeCachedGroups(userId);
+			}
+		}
+	} // class UserEventListener
+	
 	//TODO "floating" rating system for alerts? possibility to confirm/reject an existing alert? (implement on web page? do not allow on the mobile app?)
 	// i.e. "alert feedback", also allow users to remove their own alerts directly?
 }
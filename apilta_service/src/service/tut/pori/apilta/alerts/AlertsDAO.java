@@ -15,6 +15,8 @@
  */
 package service.tut.pori.apilta.alerts;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -37,6 +39,7 @@ import core.tut.pori.http.parameters.SortOptions;
 import service.tut.pori.apilta.alerts.datatypes.Alert;
 import service.tut.pori.apilta.alerts.datatypes.AlertList;
 import service.tut.pori.apilta.alerts.datatypes.AndGeoFilter;
+import service.tut.pori.apilta.alerts.datatypes.AndHeadingFilter;
 import service.tut.pori.apilta.alerts.datatypes.Definitions;
 import service.tut.pori.apilta.alerts.datatypes.Location;
 
@@ -76,7 +79,9 @@ public class AlertsDAO extends SolrDAO {
 		
 		if(alertGroupIdFilter != null && !alertGroupIdFilter.isEmpty()){
 			LOGGER.debug("Using alert group id filter...");
-			solr.addCustomFilter(new AndQueryFilter(Definitions.SOLR_FIELD_ALERT_GROUP_ID, alertGroupIdFilter));
+			ArrayList<Long> groupIds = new ArrayList<>(alertGroupIdFilter);
+			Collections.sort(groupIds); // the same group set should always produce the same filter query
+			solr.addCachedFilter(new AndQueryFilter(Definitions.SOLR_FIELD_ALERT_GROUP_ID, groupIds)); // the group set of a user rarely changes, let solr reuse the cached filter results
 		}
 		
 		if(alertTypeFilter != null && !alertTypeFilter.isEmpty()){
@@ -86,12 +91,16 @@ public class AlertsDAO extends SolrDAO {
 		
 		if(location != null){
 			LOGGER.debug("Using location filter...");	
-			Double heading = location.getHeading();
-			if(heading != null){
-				LOGGER.warn("Ignored heading..."); // TODO calculate new bounding box/location based on heading ?
-			}
-			
 			solr.addCustomFilter(new AndGeoFilter(Definitions.SOLR_FIELD_LOCATION, location, range));
+			
+			if(location.getHeading() != null){
+				if(AndHeadingFilter.isSupported(location, AndHeadingFilter.DEFAULT_HEADING_RANGE, range)){
+					LOGGER.debug("Using heading filter...");
+					solr.addCustomFilter(new AndHeadingFilter(Definitions.SOLR_FIELD_LOCATION, location, range));
+				}else{
+					LOGGER.debug("Ignored heading, the heading filter is not supported near the poles.");
+				}
+			}
 		}
 		
 		if(createdFilter != null && !createdFilter.isEmpty()){
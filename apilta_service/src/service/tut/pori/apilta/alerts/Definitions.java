@@ -23,6 +23,12 @@ public final class Definitions {
 	/* common */
 	/** default range for distance calculations, in km */
 	public static final Double DEFAULT_RANGE = 1D;
+	/** default time to wait for changes in alert subscriptions, in seconds */
+	public static final int DEFAULT_SUBSCRIPTION_TIMEOUT = 30;
+	/** maximum range for alert subscriptions, in km */
+	public static final double MAX_SUBSCRIPTION_RANGE = 50;
+	/** maximum time to wait for changes in alert subscriptions, in seconds */
+	public static final int MAX_SUBSCRIPTION_TIMEOUT = 60;
 	
 	/* methods */
 	/** service method declaration */
@@ -31,6 +37,8 @@ public final class Definitions {
 	public static final String METHOD_CREATE_FILE = "createFile";
 	/** service method declaration */
 	public static final String METHOD_GET_ALERTS = "getAlerts";
+	/** service method declaration */
+	public static final String METHOD_SUBSCRIBE_ALERTS = "subscribeAlerts";
 	
 	/* parameters */
 	/** service method parameter declaration */
@@ -41,6 +49,10 @@ public final class Definitions {
 	public static final String PARAMETER_CREATED = "created";
 	/** service method parameter declaration */
 	public static final String PARAMETER_RANGE = "range";
+	/** service method parameter declaration */
+	public static final String PARAMETER_SUBSCRIPTION_ID = "subscription_id";
+	/** service method parameter declaration */
+	public static final String PARAMETER_TIMEOUT = "timeout";
 		
 	/* services */
 	/** service name declaration */
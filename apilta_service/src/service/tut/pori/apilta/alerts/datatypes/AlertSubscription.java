@@ -0,0 +1,90 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.alerts.datatypes;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import core.tut.pori.http.ResponseData;
+
+/**
+ * Alert subscription details, contains the alerts added and the alerts expired since the previous retrieval.
+ * 
+ */
+@XmlRootElement(name=Definitions.ELEMENT_ALERT_SUBSCRIPTION)
+@XmlAccessorType(value=XmlAccessType.NONE)
+public class AlertSubscription extends ResponseData {
+	@XmlElement(name = Definitions.ELEMENT_ALERT_LIST)
+	private AlertList _alerts = null;
+	@XmlElementWrapper(name = Definitions.ELEMENT_EXPIRED_ALERTS)
+	@XmlElement(name = Definitions.ELEMENT_ALERT_ID)
+	private List<String> _expiredAlertIds = null;
+	@XmlElement(name = Definitions.ELEMENT_SUBSCRIPTION_ID)
+	private String _subscriptionId = null;
+
+	/**
+	 * @return the new alerts
+	 * @see #setAlerts(AlertList)
+	 */
+	public AlertList getAlerts() {
+		return _alerts;
+	}
+
+	/**
+	 * @param alerts the alerts to set
+	 * @see #getAlerts()
+	 */
+	public void setAlerts(AlertList alerts) {
+		_alerts = alerts;
+	}
+
+	/**
+	 * @return identifiers of the previously received alerts, which are no longer valid
+	 * @see #setExpiredAlertIds(List)
+	 */
+	public List<String> getExpiredAlertIds() {
+		return _expiredAlertIds;
+	}
+
+	/**
+	 * @param expiredAlertIds the expiredAlertIds to set
+	 * @see #getExpiredAlertIds()
+	 */
+	public void setExpiredAlertIds(List<String> expiredAlertIds) {
+		_expiredAlertIds = expiredAlertIds;
+	}
+
+	/**
+	 * @return the subscriptionId
+	 * @see #setSubscriptionId(String)
+	 */
+	public String getSubscriptionId() {
+		return _subscriptionId;
+	}
+
+	/**
+	 * @param subscriptionId the subscriptionId to set
+	 * @see #getSubscriptionId()
+	 */
+	public void setSubscriptionId(String subscriptionId) {
+		_subscriptionId = subscriptionId;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.alerts.datatypes;
+
+import org.apache.commons.lang3.StringUtils;
+
+import core.tut.pori.dao.SolrQueryBuilder;
+import core.tut.pori.dao.filter.AbstractQueryFilter;
+import service.tut.pori.apilta.utils.MathUtils;
+
+/**
+ * Filter for searching documents located ahead of the given location, i.e. documents for which the bearing from the given location is within the given heading range from the heading of the location.
+ * 
+ * The filter is a circular sector (a "heading cone") with the apex at the given location, and it should generally be combined with {@link service.tut.pori.apilta.alerts.datatypes.AndGeoFilter}.
+ * The sector is given to Solr as a polygon, which requires the field to be of spatial (JTS) type. The arc of the sector is approximated with line segments, and the radius of the polygon is enlarged so that the polygon contains the whole sector.
+ * 
+ * The headings are compass bearings, the sectors crossing the north (0/360 degrees) and the 180th meridian are supported, but the sectors containing a pole are not, see {@link #isSupported(Location, double, double)}.
+ */
+public class AndHeadingFilter implements AbstractQueryFilter {
+	/** the default maximum difference (in degrees) between the heading and the bearing to the matched location */
+	public static final double DEFAULT_HEADING_RANGE = 60;
+	private static final double MAX_SEGMENT_ANGLE = 10; // in degrees, the maximum angle covered by a single polygon segment on the arc
+	private static final char SEPARATOR_COORDINATE = ' ';
+	private static final char SEPARATOR_POINT = ',';
+	private String _fieldName = null;
+	private double _headingRange = DEFAULT_HEADING_RANGE;
+	private Location _location = null;
+	private double _range = 0;
+	
+	/**
+	 * 
+	 * @param fieldName
+	 * @param location location with heading
+	 * @param range in km
+	 * @throws IllegalArgumentException
+	 */
+	public AndHeadingFilter(String fieldName, Location location, Double range) throws IllegalArgumentException {
+		this(fieldName, location, DEFAULT_HEADING_RANGE, range);
+	}
+	
+	/**
+	 * 
+	 * @param fieldName
+	 * @param location location with heading
+	 * @param headingRange the maximum difference (in degrees) between the heading and the bearing to the matched location, must be greater than 0 and less than 180
+	 * @param range in km
+	 * @throws IllegalArgumentException
+	 */
+	public AndHeadingFilter(String fieldName, Location location, double headingRange, Double range) throws IllegalArgumentException {
+		if(range == null || range <= 0){
+			throw new IllegalArgumentException("Invalid range: "+range);
+		}
+		if(StringUtils.isBlank(fieldName)){
+			throw new IllegalArgumentException("Invalid field name: "+fieldName);
+		}
+		if(!Location.isValid(location) || location.getHeading() == null){
+			throw new IllegalArgumentException("Invalid location.");
+		}
+		if(headingRange <= 0 || headingRange >= 180){
+			throw new IllegalArgumentException("Invalid heading range: "+headingRange);
+		}
+		if(!isSupported(location, headingRange, range)){
+			throw new IllegalArgumentException("Heading filter is not supported for the location.");
+		}
+		_fieldName = fieldName;
+		_location = location;
+		_headingRange = headingRange;
+		_range = range;
+	}
+
+	@Override
+	public void toFilterString(StringBuilder fq) {
+		double latitude = _location.getLatitude();
+		double longitude = _location.getLongitude();
+		int segments = getSegmentCount(_headingRange);
+		double step = 2 * _headingRange / segments;
+		double radius = getPolygonRadius(step, _range);
+		double bearing = _location.getHeading() - _headingRange; // may be negative, the bearings wrap around naturally in the trigonometric functions
+		
+		fq.append(_fieldName);
+		fq.append(SolrQueryBuilder.SEPARATOR_SOLR_FIELD_VALUE);
+		fq.append("\"Intersects(POLYGON((");
+		appendPoint(fq, latitude, longitude);
+		for(int i=0;i<=segments;++i){
+			fq.append(SEPARATOR_POINT);
+			double[] point = MathUtils.destination(latitude, longitude, bearing + i * step, radius);
+			appendPoint(fq, point[0], point[1]);
+		}
+		fq.append(SEPARATOR_POINT);
+		appendPoint(fq, latitude, longitude); // close the polygon
+		fq.append(")))\"");
+	}
+
+	@Override
+	public QueryType getQueryType() {
+		return QueryType.AND;
+	}
+	
+	/**
+	 * Append the point in WKT format (longitude latitude)
+	 * 
+	 * @param fq
+	 * @param latitude
+	 * @param longitude
+	 */
+	private static void appendPoint(StringBuilder fq, double latitude, double longitude) {
+		fq.append(longitude);
+		fq.append(SEPARATOR_COORDINATE);
+		fq.append(latitude);
+	}
+	
+	/**
+	 * 
+	 * @param headingRange
+	 * @return number of polygon segments on the arc
+	 */
+	private static int getSegmentCount(double headingRange) {
+		return (int) Math.ceil(2 * headingRange / MAX_SEGMENT_ANGLE);
+	}
+	
+	/**
+	 * 
+	 * @param step angle covered by a single segment, in degrees
+	 * @param range
+	 * @return radius for the polygon vertices, large enough for the segments to contain the arc of the given range
+	 */
+	private static double getPolygonRadius(double step, double range) {
+		return range / Math.cos(Math.toRadians(step / 2));
+	}
+	
+	/**
+	 * 
+	 * @param location
+	 * @param headingRange
+	 * @param range
+	 * @return true if the heading filter can be used for the given location, i.e. the sector does not contain a pole
+	 */
+	public static boolean isSupported(Location location, double headingRange, double range) {
+		double radius = getPolygonRadius(2 * headingRange / getSegmentCount(headingRange), range);
+		return (Math.abs(location.getLatitude()) + Math.toDegrees(radius / MathUtils.EARTH_RADIUS) < 90);
+	}
+}
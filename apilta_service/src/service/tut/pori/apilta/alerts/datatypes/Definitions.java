@@ -34,12 +34,16 @@ public final class Definitions {
 	/** xml element declaration */
 	public static final String ELEMENT_ALERT_LIST = "alertList";
 	/** xml element declaration */
+	public static final String ELEMENT_ALERT_SUBSCRIPTION = "alertSubscription";
+	/** xml element declaration */
 	public static final String ELEMENT_ALERT_TYPE = "alertType";
 	/** xml element declaration */
 	public static final String ELEMENT_CREATED_TIMESTAMP = "createdTimestamp";
 	/** xml element declaration */
 	public static final String ELEMENT_DESCRIPTION = "description";
 	/** xml element declaration */
+	public static final String ELEMENT_EXPIRED_ALERTS = "expiredAlerts";
+	/** xml element declaration */
 	public static final String ELEMENT_HEADING = "heading";
 	/** xml element declaration */
 	public static final String ELEMENT_LATITUDE = "latitude";
@@ -56,6 +60,8 @@ public final class Definitions {
 	/** xml element declaration */
 	public static final String ELEMENT_RANGE = "range";
 	/** xml element declaration */
+	public static final String ELEMENT_SUBSCRIPTION_ID = "subscriptionId";
+	/** xml element declaration */
 	public static final String ELEMENT_VALID_TIMESTAMP = "validTimestamp";
 	
 	/* solr fields */
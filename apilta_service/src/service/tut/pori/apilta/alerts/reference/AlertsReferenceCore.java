@@ -31,6 +31,7 @@ import core.tut.pori.users.UserIdentity;
 import service.tut.pori.apilta.alerts.Definitions;
 import service.tut.pori.apilta.alerts.datatypes.Alert;
 import service.tut.pori.apilta.alerts.datatypes.AlertList;
+import service.tut.pori.apilta.alerts.datatypes.AlertSubscription;
 import service.tut.pori.apilta.alerts.datatypes.Location;
 import service.tut.pori.apilta.alerts.datatypes.LocationParameter;
 
@@ -102,6 +103,39 @@ public final class AlertsReferenceCore {
 		return CREATOR.generateAlertList(alertGroupIdFilter, alertTypeFilter, createdFilter, dataGroups, limits, location, range);
 	}
 
+	/**
+	 * 
+	 * @param alertGroupIdFilter
+	 * @param alertTypeFilter
+	 * @param authenticatedUser
+	 * @param dataGroups
+	 * @param location
+	 * @param range
+	 * @param subscriptionId
+	 * @param timeout
+	 * @return randomly generated alert subscription
+	 * @throws IllegalArgumentException on bad input
+	 */
+	public static AlertSubscription subscribeAlerts(long[] alertGroupIdFilter, List<String> alertTypeFilter, UserIdentity authenticatedUser, DataGroups dataGroups, Location location, Double range, String subscriptionId, Integer timeout) throws IllegalArgumentException {
+		if(UserIdentity.isValid(authenticatedUser)){
+			LOGGER.debug("Authenticated user, id: "+authenticatedUser.getUserId()); // simply log the user id for debug
+		}
+		
+		if(timeout != null && (timeout < 0 || timeout > Definitions.MAX_SUBSCRIPTION_TIMEOUT)){
+			throw new IllegalArgumentException("Invalid "+Definitions.PARAMETER_TIMEOUT+": "+timeout);
+		}
+		if(range != null && (range <= 0 || range > Definitions.MAX_SUBSCRIPTION_RANGE)){
+			throw new IllegalArgumentException("Invalid range: "+range);
+		}
+		if(location != null && !Location.isValid(location)){
+			throw new IllegalArgumentException("Invalid "+LocationParameter.PARAMETER_DEFAULT_NAME);
+		}else if(subscriptionId == null && location == null){
+			throw new IllegalArgumentException(LocationParameter.PARAMETER_DEFAULT_NAME+" must be given.");
+		}
+		
+		return CREATOR.generateAlertSubscription(alertGroupIdFilter, alertTypeFilter, dataGroups, new Limits(0, 0), location, (range == null ? Definitions.DEFAULT_RANGE : range), subscriptionId);
+	}
+
 	/**
 	 * 
 	 * @param alert
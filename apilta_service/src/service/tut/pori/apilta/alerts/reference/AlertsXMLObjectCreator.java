@@ -34,6 +34,7 @@ import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserIdentity;
 import service.tut.pori.apilta.alerts.datatypes.Alert;
 import service.tut.pori.apilta.alerts.datatypes.AlertList;
+import service.tut.pori.apilta.alerts.datatypes.AlertSubscription;
 import service.tut.pori.apilta.alerts.datatypes.Location;
 import service.tut.pori.apilta.files.TemporaryTokenHandler;
 import service.tut.pori.apilta.files.datatypes.Definitions;
@@ -104,6 +105,31 @@ public class AlertsXMLObjectCreator {
 		return list;
 	}
 
+	/**
+	 * 
+	 * @param alertGroupId 
+	 * @param alertType
+	 * @param dataGroups 
+	 * @param limits 
+	 * @param location
+	 * @param range 
+	 * @param subscriptionId if null, a new subscription id is generated
+	 * @return alert subscription
+	 */
+	public AlertSubscription generateAlertSubscription(long[] alertGroupId, Collection<String> alertType, DataGroups dataGroups, Limits limits, Location location, Double range, String subscriptionId) {
+		AlertSubscription subscription = new AlertSubscription();
+		subscription.setAlerts(generateAlertList(alertGroupId, alertType, null, dataGroups, limits, location, range));
+		if(subscriptionId == null){
+			subscription.setSubscriptionId(UUID.randomUUID().toString());
+		}else{
+			subscription.setSubscriptionId(subscriptionId);
+			ArrayList<String> expiredAlertIds = new ArrayList<>(1); // only existing subscriptions can have expired alerts
+			expiredAlertIds.add(UUID.randomUUID().toString());
+			subscription.setExpiredAlertIds(expiredAlertIds);
+		}
+		return subscription;
+	}
+
 	/**
 	 * 
 	 * @param alertGroupId 
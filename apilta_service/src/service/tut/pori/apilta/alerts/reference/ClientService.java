@@ -33,6 +33,7 @@ import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter;
 import core.tut.pori.http.parameters.DoubleParameter;
 import core.tut.pori.http.parameters.InputStreamParameter;
+import core.tut.pori.http.parameters.IntegerParameter;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.http.parameters.LongParameter;
 import core.tut.pori.http.parameters.StringParameter;
@@ -56,6 +57,49 @@ public class ClientService {
 	private static final Logger LOGGER = Logger.getLogger(ClientService.class);
 	private XMLFormatter _formatter = new XMLFormatter();
 	
+	/**
+	 * This method can be used to subscribe to the changes in the alerts near the given location, and is meant as a replacement for repeatedly calling {@value service.tut.pori.apilta.alerts.Definitions#METHOD_GET_ALERTS}.
+	 * 
+	 * The first call (without subscription id) creates a new subscription, and returns immediately with the subscription id and the alerts currently within the range of the given location.
+	 * The following calls with the returned subscription id wait until new alerts appear within the range of the location, or until the previously returned alerts expire or are no longer within the range.
+	 * The response contains only the alerts which have not been returned previously, and the identifiers of the previously returned alerts, which are no longer valid.
+	 * If there are no changes, the call returns after the given timeout with only the subscription id. The location can be updated on each call.
+	 * 
+	 * The subscriptions which are not used within a few minutes expire, and using an expired subscription id results in an error. In this case, a new subscription should be created.
+	 * 
+	 * <h2>Example Query:</h2>
+	 *
+	 * GET /rest/{@value service.tut.pori.apilta.alerts.reference.Definitions#SERVICE_ALERTS_REFERENCE_CLIENT}/{@value service.tut.pori.apilta.alerts.Definitions#METHOD_SUBSCRIBE_ALERTS}?{@value service.tut.pori.apilta.alerts.datatypes.LocationParameter#PARAMETER_DEFAULT_NAME}={@value service.tut.pori.apilta.alerts.datatypes.LocationParameter#LOCATION_PARAMETER_COORDINATE}{@value core.tut.pori.http.Definitions#SEPARATOR_URI_QUERY_TYPE_VALUE}61.4924%2021.7940<br>
+	 *
+	 * <h2>Example Result:</h2>
+	 * 
+	 * {@doc.restlet service="[service.tut.pori.apilta.alerts.reference.Definitions#SERVICE_ALERTS_REFERENCE_CLIENT]" method="[service.tut.pori.apilta.alerts.Definitions#METHOD_SUBSCRIBE_ALERTS]" type="GET" query="[service.tut.pori.apilta.alerts.datatypes.LocationParameter#PARAMETER_DEFAULT_NAME]=[service.tut.pori.apilta.alerts.datatypes.LocationParameter#LOCATION_PARAMETER_COORDINATE][core.tut.pori.http.Definitions#SEPARATOR_URI_QUERY_TYPE_VALUE]61.4924%2021.7940" body_uri=""}
+	 * 
+	 * @param authenticatedUser
+	 * @param alertGroupIdFilter only used when creating a new subscription
+	 * @param alertTypeFilter only used when creating a new subscription
+	 * @param dataGroups only used when creating a new subscription, valid groups are {@value DataGroups#DATA_GROUP_BASIC} (default) and {@value DataGroups#DATA_GROUP_ALL}. The basic group does not contain file details or other optional elements.
+	 * @param location required when creating a new subscription, if not given for an existing subscription, the previous location is used
+	 * @param range in km, maximum is {@value service.tut.pori.apilta.alerts.Definitions#MAX_SUBSCRIPTION_RANGE}. If not given, the default range ({@link service.tut.pori.apilta.alerts.Definitions#DEFAULT_RANGE}) is used for new subscriptions and the previous range for existing subscriptions.
+	 * @param subscriptionId subscription id returned by the previous call, if not given, a new subscription is created
+	 * @param timeout maximum time to wait for changes in seconds, maximum is {@value service.tut.pori.apilta.alerts.Definitions#MAX_SUBSCRIPTION_TIMEOUT}, default is {@value service.tut.pori.apilta.alerts.Definitions#DEFAULT_SUBSCRIPTION_TIMEOUT}. Ignored when creating a new subscription.
+	 * @return see {@link service.tut.pori.apilta.alerts.datatypes.AlertSubscription}
+	 */
+	@HTTPServiceMethod(name = service.tut.pori.apilta.alerts.Definitions.METHOD_SUBSCRIBE_ALERTS, acceptedMethods={core.tut.pori.http.Definitions.METHOD_GET})
+	public Response subscribeAlerts(
+			@HTTPAuthenticationParameter(required = false) AuthenticationParameter authenticatedUser,
+			@HTTPMethodParameter(name = service.tut.pori.apilta.alerts.Definitions.PARAMETER_ALERT_GROUP_ID, required = false) LongParameter alertGroupIdFilter,
+			@HTTPMethodParameter(name = service.tut.pori.apilta.alerts.Definitions.PARAMETER_ALERT_TYPE, required = false) StringParameter alertTypeFilter,
+			@HTTPMethodParameter(name = DataGroups.PARAMETER_DEFAULT_NAME, required = false) DataGroups dataGroups,
+			@HTTPMethodParameter(name = LocationParameter.PARAMETER_DEFAULT_NAME, required = false) LocationParameter location,
+			@HTTPMethodParameter(name = service.tut.pori.apilta.alerts.Definitions.PARAMETER_RANGE, required = false) DoubleParameter range,
+			@HTTPMethodParameter(name = service.tut.pori.apilta.alerts.Definitions.PARAMETER_SUBSCRIPTION_ID, required = false) StringParameter subscriptionId,
+			@HTTPMethodParameter(name = service.tut.pori.apilta.alerts.Definitions.PARAMETER_TIMEOUT, required = false) IntegerParameter timeout
+			)
+	{
+		return new Response(AlertsReferenceCore.subscribeAlerts(alertGroupIdFilter.getValues(), alertTypeFilter.getValues(), authenticatedUser.getUserIdentity(), dataGroups, location.getValue(), range.getValue(), subscriptionId.getValue(), timeout.getValue()));
+	}
+	
 	/**
 	 * This method can be used to retrieve alerts based on the given filters
 	 * 
@@ -22,6 +22,8 @@ package service.tut.pori.apilta.files;
 public final class Definitions {
 	/* methods */
 	/** implemented by front end */
+	public static final String METHOD_GET_FILE = "getFile";
+	/** implemented by front end */
 	public static final String METHOD_GET_FILE_DETAILS = "getFileDetails";
 	
 	/* parameters */
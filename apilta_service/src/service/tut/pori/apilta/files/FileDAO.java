@@ -17,26 +17,44 @@ package service.tut.pori.apilta.files;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Logger;
-import org.jclouds.io.Payload;
-import org.jclouds.io.Payloads;
 import org.jclouds.openstack.swift.v1.domain.SwiftObject;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.io.CountingInputStream;
+
+import core.tut.pori.context.ServiceInitializer;
 import core.tut.pori.dao.DAO;
 import service.tut.pori.apilta.files.datatypes.FileDetails;
 import service.tut.pori.apilta.files.datatypes.SignedURL;
 
 /**
  * Content storage driver for accessing OpenStack Swift Object Storage.
+ * 
+ * The file metadata is stored in the database on upload, the content storage is only accessed for files that do not have the metadata available.
  */
 public class FileDAO implements DAO, DisposableBean {
 	private static final Logger LOGGER = Logger.getLogger(FileDAO.class);
+	private static final int MAX_CONCURRENT_REQUESTS = 8;
 	private static final String METADATA_MIME_TYPE = "mimeType";
+	@Autowired
+	private FileMetadataDAO _fileMetadataDAO = null;
 	private SwiftTemplate _swiftTemplate = null;
 	
 	/**
@@ -50,15 +68,48 @@ public class FileDAO implements DAO, DisposableBean {
 	 * 
 	 * @param file
 	 * @return guid of the created file or null on failure
+	 * @see #addFile(InputStream, Long)
 	 */
 	public String addFile(InputStream file) {
+		return addFile(file, null);
+	}
+	
+	/**
+	 * The content is streamed directly to the content storage without buffering.
+	 * 
+	 * @param file the stream is closed after upload
+	 * @param contentLength length of the file in bytes or null if not known
+	 * @return guid of the created file or null on failure
+	 * @see SwiftTemplate#put(String, InputStream, Long)
+	 */
+	public String addFile(InputStream file, Long contentLength) {
 		String guid = UUID.randomUUID().toString();
-		try(Payload payload = Payloads.newInputStreamPayload(file)){			
-			_swiftTemplate.put(guid, payload);
+		String checksum = null;
+		long size = 0;
+		try(CountingInputStream in = new CountingInputStream(file)){
+			checksum = _swiftTemplate.put(guid, in, contentLength);
+			size = in.getCount();
 		} catch (IOException ex) {
 			LOGGER.error(ex, ex);
 			return null;
 		}
+		if(contentLength != null && size != contentLength){
+			LOGGER.warn("Uploaded size "+size+" does not match the declared content length "+contentLength+", removing file, GUID: "+guid);
+			_swiftTemplate.delete(guid);
+			return null;
+		}
+		
+		FileDetails details = new FileDetails();
+		details.setGUID(guid);
+		details.setSize(size);
+		details.setChecksum(checksum);
+		try {
+			_fileMetadataDAO.addFiles(Collections.singletonList(details));
+		} catch (RuntimeException ex) { // do not leave an object without metadata to the content storage
+			LOGGER.warn("Failed to store metadata, removing file, GUID: "+guid);
+			_swiftTemplate.delete(guid);
+			throw ex;
+		}
 		return guid;
 	}
 	
@@ -69,31 +120,147 @@ public class FileDAO implements DAO, DisposableBean {
 	 */
 	public boolean updateFile(FileDetails details) {
 		HashMap<String, String> metadata = new HashMap<>(1);
-		metadata.put(METADATA_MIME_TYPE, details.getMimeType());
-		_swiftTemplate.update(details.getGUID(), metadata); // TODO how to know if this has succeeded?
+		String guid = details.getGUID();
+		String mimeType = details.getMimeType();
+		metadata.put(METADATA_MIME_TYPE, mimeType);
+		_swiftTemplate.update(guid, metadata); // TODO how to know if this has succeeded?
+		if(!_fileMetadataDAO.setMimeType(guid, mimeType)){
+			LOGGER.debug("No stored metadata for file, GUID: "+guid);
+		}
 		return true;
 	}
 
 	/**
 	 * 
 	 * @param guid
-	 * @return file details for the content or null if no content matching the guid was found
+	 * @return file details for the content or null if no details matching the guid were found
+	 * @see #getFileDetails(Collection)
 	 */
 	public FileDetails getFileDetails(String guid) {
-		SwiftObject object = _swiftTemplate.get(guid);
-		if(object == null){
-			LOGGER.debug("Could not find object for guid: "+guid);
-			return null;
+		Map<String, FileDetails> details = getFileDetails(Collections.singletonList(guid));
+		return (details == null ? null : details.get(guid));
+	}
+	
+	/**
+	 * The details are read from the stored metadata when available, and the urls are signed locally. 
+	 * 
+	 * Note: the returned details do not prove that the object still exists in the content storage, i.e. the url of a removed object results in an error when used.
+	 * 
+	 * @param guids
+	 * @return map of guid-file details pairs or null if none of the files were found
+	 */
+	public Map<String, FileDetails> getFileDetails(Collection<String> guids) {
+		Map<String, FileDetails> files = _fileMetadataDAO.getFiles(guids);
+		LinkedHashSet<String> missing = new LinkedHashSet<>(guids);
+		missing.removeAll(files.keySet());
+		if(!missing.isEmpty()){
+			LOGGER.debug("No stored metadata for "+missing.size()+" files, retrieving details from the content storage.");
+			List<FileDetails> retrieved = retrieveFileDetails(missing);
+			if(!retrieved.isEmpty()){
+				_fileMetadataDAO.addFiles(retrieved); // store the metadata so that the next retrieval does not require accessing the content storage
+				for(FileDetails details : retrieved){
+					files.put(details.getGUID(), details);
+				}
+			}
 		}
 		
-		FileDetails details = new FileDetails();
-		details.setGUID(guid);
-		Map<String, String> metadata = object.getMetadata();
-		details.setMimeType(metadata.get(METADATA_MIME_TYPE));
-		SignedURL signedURL = _swiftTemplate.signURL(object);
-		details.setUrl(signedURL.getUrl());
-		details.setValidUntil(signedURL.getValidUntil());
-		return details; // the only metadata that is currently used
+		for(Iterator<FileDetails> iter = files.values().iterator(); iter.hasNext();){
+			FileDetails details = iter.next();
+			SignedURL signedURL = _swiftTemplate.signURL(details.getGUID());
+			if(signedURL == null){ // only possible before the container path has been resolved
+				LOGGER.debug("Could not resolve the content storage path, ignored guid: "+details.getGUID());
+				iter.remove();
+			}else{
+				details.setUrl(signedURL.getUrl());
+				details.setValidUntil(signedURL.getValidUntil());
+			}
+		}
+		return (files.isEmpty() ? null : files);
+	}
+	
+	/**
+	 * Retrieve the details of the given files from the content storage. 
+	 * 
+	 * The objects are retrieved concurrently, at most {@value #MAX_CONCURRENT_REQUESTS} at a time. The calling thread retrieves objects until all have been taken, 
+	 * after which the helper tasks still waiting in the executor queue are cancelled, and only the helpers already retrieving an object are waited for.
+	 * 
+	 * @param guids
+	 * @return list of details for the found files, the returned details do not contain urls
+	 */
+	private List<FileDetails> retrieveFileDetails(Collection<String> guids) {
+		ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>(guids);
+		ConcurrentLinkedQueue<FileDetails> retrieved = new ConcurrentLinkedQueue<>();
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				for(String guid = queue.poll(); guid != null; guid = queue.poll()){
+					try {
+						SwiftObject object = _swiftTemplate.get(guid);
+						if(object == null){
+							LOGGER.debug("Could not find object for guid: "+guid);
+							continue;
+						}
+						FileDetails details = new FileDetails();
+						details.setGUID(guid);
+						details.setMimeType(object.getMetadata().get(METADATA_MIME_TYPE));
+						details.setSize(object.getPayload().getContentMetadata().getContentLength());
+						details.setChecksum(object.getETag());
+						retrieved.add(details);
+					} catch (RuntimeException ex) { // do not let a single failed request prevent the retrieval of other files
+						LOGGER.error(ex, ex);
+					}
+				}
+			}
+		};
+		
+		Phaser running = new Phaser(1); // the calling thread and the started helpers
+		Runnable helper = new Runnable() {
+			@Override
+			public void run() {
+				running.register();
+				try {
+					worker.run();
+				} finally {
+					running.arriveAndDeregister();
+				}
+			}
+		};
+		
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		ExecutorService executor = ServiceInitializer.getExecutorHandler().getExecutor();
+		for(int i=1, count=Math.min(guids.size(), MAX_CONCURRENT_REQUESTS);i<count;++i){ // the calling thread is used as one of the workers
+			try {
+				futures.add(executor.submit(helper));
+			} catch (RejectedExecutionException ex) {
+				LOGGER.debug("Executor rejected the request, using the available workers.");
+				break;
+			}
+		}
+		worker.run();
+		
+		for(Future<?> future : futures){ // the queue is empty, helpers which have not started have nothing left to do
+			future.cancel(false);
+		}
+		try {
+			running.awaitAdvanceInterruptibly(running.arrive()); // wait for the helpers still retrieving an object
+		} catch (InterruptedException ex) {
+			LOGGER.warn("Interrupted while waiting for file details.");
+			Thread.currentThread().interrupt();
+		}
+		return new ArrayList<>(retrieved);
+	}
+
+	/**
+	 * 
+	 * @param guid
+	 * @param start the first byte to retrieve
+	 * @param end the last byte to retrieve (inclusive)
+	 * @return stream for reading the requested range of the file contents or null if the file was not found, the caller is responsible for closing the stream
+	 * @throws IOException
+	 */
+	public InputStream getContent(String guid, long start, long end) throws IOException {
+		SwiftObject object = _swiftTemplate.get(guid, start, end);
+		return (object == null ? null : object.getPayload().openStream());
 	}
 
 	/**
@@ -102,6 +269,7 @@ public class FileDAO implements DAO, DisposableBean {
 	 */
 	public void removeFile(String guid) {
 		_swiftTemplate.delete(guid);
+		_fileMetadataDAO.removeFile(guid);
 	}
 
 	@Override
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.files;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import core.tut.pori.dao.SQLDAO;
+import core.tut.pori.dao.SQLSelectBuilder;
+import core.tut.pori.dao.clause.AndClause;
+import core.tut.pori.dao.clause.SQLClause.SQLType;
+import service.tut.pori.apilta.files.datatypes.FileDetails;
+
+/**
+ * dao for storing the metadata of the files stored in the content storage
+ * 
+ * The metadata is stored when the file is uploaded, which allows retrieving the file details without accessing the content storage.
+ */
+public class FileMetadataDAO extends SQLDAO {
+	private static final int MAX_GUIDS = 500;
+	/* tables */
+	private static final String TABLE_FILES = DATABASE+".files";
+	/* columns */
+	private static final String COLUMN_CHECKSUM = "checksum";
+	private static final String COLUMN_MIME_TYPE = "mime_type";
+	private static final String COLUMN_SIZE = "size";
+	/* sql */
+	private static final String[] SQL_COLUMNS_FILES = {COLUMN_GUID, COLUMN_MIME_TYPE, COLUMN_SIZE, COLUMN_CHECKSUM};
+	
+	private static final String SQL_DELETE_FILE = "DELETE FROM "+TABLE_FILES+" WHERE "+COLUMN_GUID+"=?";
+	private static final int[] SQL_DELETE_FILE_SQL_TYPES = {SQLType.STRING.toInt()};
+	
+	private static final String SQL_INSERT_FILE = "INSERT INTO "+TABLE_FILES+" ("+COLUMN_GUID+", "+COLUMN_MIME_TYPE+", "+COLUMN_SIZE+", "+COLUMN_CHECKSUM+", "+COLUMN_ROW_CREATED+") VALUES (?, ?, ?, ?, NOW()) ON DUPLICATE KEY UPDATE "+COLUMN_MIME_TYPE+"=VALUES("+COLUMN_MIME_TYPE+"), "+COLUMN_SIZE+"=VALUES("+COLUMN_SIZE+"), "+COLUMN_CHECKSUM+"=VALUES("+COLUMN_CHECKSUM+")";
+	private static final int[] SQL_INSERT_FILE_SQL_TYPES = {SQLType.STRING.toInt(), SQLType.STRING.toInt(), SQLType.LONG.toInt(), SQLType.STRING.toInt()};
+	
+	private static final String SQL_UPDATE_MIME_TYPE = "UPDATE "+TABLE_FILES+" SET "+COLUMN_MIME_TYPE+"=?, "+COLUMN_ROW_UPDATED+"=NOW() WHERE "+COLUMN_GUID+"=?";
+	private static final int[] SQL_UPDATE_MIME_TYPE_SQL_TYPES = {SQLType.STRING.toInt(), SQLType.STRING.toInt()};
+	
+	/**
+	 * Add or replace the metadata of the given files.
+	 * 
+	 * @param files
+	 */
+	public void addFiles(Collection<FileDetails> files) {
+		ArrayList<Object[]> args = new ArrayList<>(files.size());
+		for(FileDetails file : files){
+			args.add(new Object[]{file.getGUID(), file.getMimeType(), file.getSize(), file.getChecksum()});
+		}
+		getJdbcTemplate().batchUpdate(SQL_INSERT_FILE, args, SQL_INSERT_FILE_SQL_TYPES);
+	}
+	
+	/**
+	 * 
+	 * @param guids
+	 * @return map of guid-file details pairs for the files found, the returned details do not contain urls
+	 */
+	public Map<String, FileDetails> getFiles(Collection<String> guids) {
+		HashMap<String, FileDetails> files = new HashMap<>(guids.size());
+		List<String> guidList = new ArrayList<>(guids);
+		for(int i=0, size=guidList.size();i<size;i+=MAX_GUIDS){
+			SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_FILES);
+			sql.addSelectColumns(SQL_COLUMNS_FILES);
+			sql.addWhereClause(new AndClause(COLUMN_GUID, guidList.subList(i, Math.min(size, i+MAX_GUIDS)), SQLType.STRING));
+			getJdbcTemplate().query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+				
+				@Override
+				public void processRow(ResultSet set) throws SQLException {
+					FileDetails details = new FileDetails();
+					String guid = set.getString(COLUMN_GUID);
+					details.setGUID(guid);
+					details.setMimeType(set.getString(COLUMN_MIME_TYPE));
+					long fileSize = set.getLong(COLUMN_SIZE);
+					details.setSize((set.wasNull() ? null : fileSize));
+					details.setChecksum(set.getString(COLUMN_CHECKSUM));
+					files.put(guid, details);
+				}
+			});
+		}
+		return files;
+	}
+	
+	/**
+	 * 
+	 * @param guid
+	 * @param mimeType
+	 * @return true if the metadata was updated, false if the metadata for the file does not exist
+	 */
+	public boolean setMimeType(String guid, String mimeType) {
+		return (getJdbcTemplate().update(SQL_UPDATE_MIME_TYPE, new Object[]{mimeType, guid}, SQL_UPDATE_MIME_TYPE_SQL_TYPES) == 1);
+	}
+	
+	/**
+	 * 
+	 * @param guid
+	 */
+	public void removeFile(String guid) {
+		getJdbcTemplate().update(SQL_DELETE_FILE, new Object[]{guid}, SQL_DELETE_FILE_SQL_TYPES);
+	}
+}
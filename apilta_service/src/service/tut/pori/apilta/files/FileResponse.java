@@ -0,0 +1,166 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import core.tut.pori.context.ServiceInitializer;
+import core.tut.pori.http.Response;
+import service.tut.pori.apilta.files.datatypes.FileDetails;
+
+/**
+ * Response which streams the file contents directly from the content storage to the client, without buffering the contents in memory.
+ * 
+ * Single byte ranges (RFC 7233) are supported, requests with multiple ranges are served the full content.
+ * 
+ * Note: the content is copied while the response is being written, so storage errors cannot be reported in the response status after the output has started.
+ */
+public class FileResponse extends Response {
+	private static final Logger LOGGER = Logger.getLogger(FileResponse.class);
+	private static final String CONTENT_TYPE_DEFAULT = "application/octet-stream";
+	private static final String RANGE_UNIT = "bytes";
+	private static final String PREFIX_RANGE = RANGE_UNIT+"=";
+	private static final char SEPARATOR_RANGE = '-';
+	private static final char SEPARATOR_RANGES = ',';
+	private FileDetails _details = null;
+	private String _range = null;
+	
+	/**
+	 * 
+	 * @param details details of the file, the file must have a valid GUID and size
+	 * @param range value of the Range header or null if not given
+	 */
+	public FileResponse(FileDetails details, String range) {
+		_details = details;
+		_range = range;
+	}
+
+	@Override
+	public void writeTo(HttpServletResponse response) {
+		if(getStatus() != Status.OK) {
+			super.writeTo(response);
+			return;
+		}
+		
+		long size = _details.getSize();
+		response.setHeader(core.tut.pori.http.Definitions.HEADER_ACCEPT_RANGES, RANGE_UNIT);
+		String checksum = _details.getChecksum();
+		if(!StringUtils.isBlank(checksum)){
+			response.setHeader(core.tut.pori.http.Definitions.HEADER_ETAG, "\""+checksum+"\"");
+		}
+		
+		long[] range = parseRange(_range, size);
+		if(range == null){
+			LOGGER.debug("Unsatisfiable range: "+_range+", size: "+size);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader(core.tut.pori.http.Definitions.HEADER_CONTENT_RANGE, RANGE_UNIT+" */"+size);
+			response.setContentLength(0);
+			return;
+		}
+		
+		long start = range[0];
+		long end = range[1];
+		InputStream in = null;
+		try {
+			if(size > 0){ // the content storage does not accept a range for empty objects, so there is nothing to retrieve
+				in = ServiceInitializer.getDAOHandler().getDAO(FileDAO.class).getContent(_details.getGUID(), start, end);
+				if(in == null){
+					LOGGER.warn("Could not find content for file, GUID: "+_details.getGUID());
+					setStatus(Status.NOT_FOUND);
+					super.writeTo(response);
+					return;
+				}
+			}
+			
+			if(start > 0 || end < size - 1){
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(core.tut.pori.http.Definitions.HEADER_CONTENT_RANGE, RANGE_UNIT+" "+start+SEPARATOR_RANGE+end+"/"+size);
+			}
+			String mimeType = _details.getMimeType();
+			response.setContentType((StringUtils.isBlank(mimeType) ? CONTENT_TYPE_DEFAULT : mimeType));
+			response.setHeader(core.tut.pori.http.Definitions.HEADER_CONTENT_LENGTH, String.valueOf(end - start + 1)); // setContentLengthLong is not available in servlet 3.0
+			if(in != null){
+				IOUtils.copyLarge(in, response.getOutputStream());
+			}
+		} catch (IOException | RuntimeException ex) { // could be broken socket or a storage error
+			LOGGER.error(ex, ex);
+			setStatus(Status.INTERNAL_SERVER_ERROR);
+			if(response.isCommitted()){ // the output has already been started, the error is not visible to the client
+				LOGGER.debug("Response already committed.");
+			}else{
+				response.reset();
+				super.writeTo(response);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param range value of the Range header, if null, blank, invalid or contains multiple ranges, the full content range is returned
+	 * @param size size of the content in bytes
+	 * @return the first and the last byte (inclusive) of the range or null if the range cannot be satisfied
+	 */
+	protected static long[] parseRange(String range, long size) {
+		long[] full = new long[]{0, size - 1};
+		if(StringUtils.isBlank(range)){
+			return full;
+		}
+		range = range.trim();
+		if(!range.startsWith(PREFIX_RANGE) || range.indexOf(SEPARATOR_RANGES) >= 0){ // unsupported units or multiple ranges, the header should be ignored
+			return full;
+		}
+		
+		String spec = range.substring(PREFIX_RANGE.length()).trim();
+		int separator = spec.indexOf(SEPARATOR_RANGE);
+		if(separator < 0){
+			return full;
+		}
+		String first = spec.substring(0, separator).trim();
+		String last = spec.substring(separator + 1).trim();
+		try {
+			if(first.isEmpty()){ // suffix range, the last n bytes
+				long length = Long.parseLong(last);
+				if(length < 0){
+					return full;
+				}else if(length == 0 || size < 1){
+					return null;
+				}
+				return new long[]{Math.max(0, size - length), size - 1};
+			}
+			
+			long start = Long.parseLong(first);
+			long end = (last.isEmpty() ? size - 1 : Long.parseLong(last));
+			if(start < 0 || (!last.isEmpty() && end < start)){ // syntactically invalid, the header should be ignored
+				return full;
+			}else if(start >= size){
+				return null;
+			}
+			return new long[]{start, Math.min(end, size - 1)};
+		} catch (NumberFormatException ex) {
+			LOGGER.debug(ex, ex);
+			return full;
+		}
+	}
+}
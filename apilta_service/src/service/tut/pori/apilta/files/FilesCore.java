@@ -16,6 +16,8 @@
 package service.tut.pori.apilta.files;
 
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -42,9 +44,21 @@ public final class FilesCore {
 	 * @param file
 	 * @return details for the created file or null on failure
 	 * @throws IllegalArgumentException on bad input data
+	 * @see #createFile(InputStream, Long)
 	 */
 	public static FileDetails createFile(InputStream file) throws IllegalArgumentException{
-		if(file == null){
+		return createFile(file, null);
+	}
+	
+	/**
+	 * 
+	 * @param file
+	 * @param contentLength length of the file in bytes or null if not known
+	 * @return details for the created file or null on failure
+	 * @throws IllegalArgumentException on bad input data
+	 */
+	public static FileDetails createFile(InputStream file, Long contentLength) throws IllegalArgumentException{
+		if(file == null || (contentLength != null && contentLength < 0)){
 			throw new IllegalArgumentException("Invalid file.");
 		}
 		
@@ -52,7 +66,7 @@ public final class FilesCore {
 		if(fDao == null){
 			throw new RuntimeException("FileDAO was not initialized");
 		}
-		String guid = fDao.addFile(file);
+		String guid = fDao.addFile(file, contentLength);
 		if(guid == null){
 			LOGGER.debug("Failed to create new file.");
 			return null;
@@ -89,6 +103,19 @@ public final class FilesCore {
 		return ServiceInitializer.getDAOHandler().getDAO(FileDAO.class).getFileDetails(guid);
 	}
 	
+	/**
+	 * 
+	 * @param guids
+	 * @return map of guid-file details pairs or null if none of the files were found
+	 */
+	public static Map<String, FileDetails> getFileDetails(Collection<String> guids) {
+		if(guids == null || guids.isEmpty()){
+			LOGGER.debug("No GUIDs given.");
+			return null;
+		}
+		return ServiceInitializer.getDAOHandler().getDAO(FileDAO.class).getFileDetails(guids);
+	}
+	
 	/**
 	 * 
 	 * @param guid
@@ -19,9 +19,11 @@ import java.util.Arrays;
 
 import core.tut.pori.http.Response;
 import core.tut.pori.http.Response.Status;
+import core.tut.pori.http.annotations.HTTPHeaderParameter;
 import core.tut.pori.http.annotations.HTTPMethodParameter;
 import core.tut.pori.http.annotations.HTTPService;
 import core.tut.pori.http.annotations.HTTPServiceMethod;
+import core.tut.pori.http.headers.HTTPHeader;
 import core.tut.pori.http.parameters.StringParameter;
 import service.tut.pori.apilta.files.datatypes.FileDetails;
 import service.tut.pori.apilta.files.datatypes.FileDetailsList;
@@ -51,4 +53,25 @@ public class FilesService {
 			return new Response(list);
 		}
 	}
+	
+	/**
+	 * Download the file contents. The contents are streamed from the content storage, and single byte ranges can be requested using the HTTP Range header.
+	 * 
+	 * @param temporaryToken 
+	 * @param range 
+	 * @return the file contents
+	 */
+	@HTTPServiceMethod(name = Definitions.METHOD_GET_FILE, acceptedMethods={core.tut.pori.http.Definitions.METHOD_GET})
+	public Response getFile (
+			@HTTPMethodParameter(name = Definitions.PARAMETER_TEMPORARY_TOKEN) StringParameter temporaryToken,
+			@HTTPHeaderParameter(name = core.tut.pori.http.Definitions.HEADER_RANGE, required = false) HTTPHeader range
+			) 
+	{
+		FileDetails details = FilesCore.getFileDetailsForToken(temporaryToken.getValue());
+		if(details == null || details.getSize() == null){
+			return new Response(Status.FORBIDDEN);
+		}else{
+			return new FileResponse(details, range.getValue());
+		}
+	}
 }
@@ -17,22 +17,35 @@ package service.tut.pori.apilta.files;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 import org.jclouds.Constants;
 import org.jclouds.ContextBuilder;
 import org.jclouds.http.HttpResponseException;
+import org.jclouds.http.options.GetOptions;
 import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
 import org.jclouds.openstack.swift.v1.SwiftApi;
 import org.jclouds.openstack.swift.v1.TemporaryUrlSigner;
+import org.jclouds.openstack.swift.v1.domain.Segment;
 import org.jclouds.openstack.swift.v1.domain.SwiftObject;
 import org.jclouds.openstack.swift.v1.features.AccountApi;
 import org.jclouds.openstack.swift.v1.features.ContainerApi;
 import org.jclouds.openstack.swift.v1.features.ObjectApi;
+import org.jclouds.openstack.swift.v1.features.StaticLargeObjectApi;
+import org.jclouds.openstack.swift.v1.options.PutOptions;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteStreams;
 
 import core.tut.pori.context.ServiceInitializer;
 import core.tut.pori.http.Definitions;
@@ -44,14 +57,21 @@ import service.tut.pori.apilta.files.datatypes.SignedURL;
  * 
  */
 public class SwiftTemplate implements Closeable {
+	/** size of the segments (in bytes) used for uploading large objects, objects larger than this are uploaded as static large objects */
+	public static final long SEGMENT_SIZE = 100L * 1024 * 1024;
 	private static final long CHECK_API_INTERVAL = 1800L;
+	private static final String HEADER_STATIC_LARGE_OBJECT = "X-Static-Large-Object";
 	private static final Logger LOGGER = Logger.getLogger(SwiftTemplate.class);
 	private static final String PARAMETER_TEMP_URI_SIGNATURE = "temp_url_sig";
 	private static final String PARAMETER_TEMP_URI_EXPIRATION = "temp_url_expires";
+	private static final PutOptions PUT_OPTIONS_CHUNKED = new PutOptions().headers(ImmutableMultimap.of("Transfer-Encoding", "chunked"));
+	private static final String SEGMENT_NAME_FORMAT = "%s/segments/%08d"; // object name, segment index
 	private boolean _checkContainer = true;
 	private ObjectApi _objectApi = null;
+	private volatile String _objectPathPrefix = null; // the path of the container in the object uris, including the trailing separator
 	private ApiltaProperties _properties = null;
 	private Set<String> _regions = null;
+	private StaticLargeObjectApi _staticLargeObjectApi = null;
 	private SwiftApi _swiftApi = null;
 	private TemporaryUrlSigner _tempUriSigner = null;
 	
@@ -88,6 +108,8 @@ public class SwiftTemplate implements Closeable {
 		_tempUriSigner = null;
 		
 		_objectApi = null;
+		_objectPathPrefix = null;
+		_staticLargeObjectApi = null;
 		try {
 			_swiftApi.close();
 		} catch (IOException ex) {
@@ -106,15 +128,59 @@ public class SwiftTemplate implements Closeable {
 	 * @return details for the object matching the given GUID or null if object was not found
 	 */
 	public SwiftObject get(String objectName) {
-		return getObjectApi().getWithoutBody(objectName); //TODO add try-catch for connection refused situation, maybe try to change to another region?
+		SwiftObject object = getObjectApi().getWithoutBody(objectName); //TODO add try-catch for connection refused situation, maybe try to change to another region?
+		if(object != null && _objectPathPrefix == null){
+			String path = object.getUri().getPath();
+			if(path.endsWith(objectName)){
+				_objectPathPrefix = path.substring(0, path.length()-objectName.length());
+			}else{
+				LOGGER.warn("Could not resolve container path from object path: "+path);
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * 
+	 * @param objectName
+	 * @param start the first byte to retrieve
+	 * @param end the last byte to retrieve (inclusive)
+	 * @return the object matching the given name, with the payload containing the requested range of bytes, or null if the object was not found
+	 */
+	public SwiftObject get(String objectName, long start, long end) {
+		return getObjectApi().get(objectName, GetOptions.Builder.range(start, end));
 	}
 
 	/**
+	 * Delete the object, for static large objects the segments are also deleted.
 	 * 
 	 * @param objectName
 	 */
 	public void delete(String objectName) {
-		getObjectApi().delete(objectName);	//TODO add try-catch for connection refused situation, maybe try to change to another region?
+		SwiftObject object = getObjectApi().getWithoutBody(objectName);
+		if(object == null){
+			LOGGER.debug("Could not find object for name: "+objectName);
+		}else if(Boolean.parseBoolean(getFirstHeader(object, HEADER_STATIC_LARGE_OBJECT))){
+			LOGGER.debug("Deleting static large object, name: "+objectName);
+			getStaticLargeObjectApi().delete(objectName);
+		}else{
+			getObjectApi().delete(objectName);	//TODO add try-catch for connection refused situation, maybe try to change to another region?
+		}
+	}
+	
+	/**
+	 * 
+	 * @param object
+	 * @param headerName case-insensitive
+	 * @return the first value of the header or null if not found
+	 */
+	private static String getFirstHeader(SwiftObject object, String headerName) {
+		for(Map.Entry<String, String> e : object.getHeaders().entries()){
+			if(headerName.equalsIgnoreCase(e.getKey())){
+				return e.getValue();
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -132,6 +198,18 @@ public class SwiftTemplate implements Closeable {
 		return _objectApi;
 	}
 	
+	/**
+	 * 
+	 * @return Swift Static Large Object API for the configured container
+	 */
+	private StaticLargeObjectApi getStaticLargeObjectApi(){
+		if(_staticLargeObjectApi == null){
+			getObjectApi(); // make sure the container exists
+			_staticLargeObjectApi = _swiftApi.getStaticLargeObjectApi(resolveRegion(), _properties.getContainer());
+		}
+		return _staticLargeObjectApi;
+	}
+	
 	/**
 	 * <p>Checks for the required container, and creates it if it doesn't exist.</p>
 	 * <p>Make the method synchronized just in case.</p>
@@ -175,6 +253,76 @@ public class SwiftTemplate implements Closeable {
 	public String put(String objectName, Payload payload) {
 		return getObjectApi().put(objectName, payload); //TODO add try-catch for connection refused situation, maybe try to change to another region?
 	}
+	
+	/**
+	 * Upload the contents of the stream without buffering.
+	 * 
+	 * If the content length is known, the content is streamed using the known length, and contents larger than {@value #SEGMENT_SIZE} bytes are uploaded as a static large object.
+	 * If the content length is not known, the content is streamed as a single object using chunked transfer encoding, which limits the size to the maximum object size of the Swift cluster (5 GiB by default).
+	 * 
+	 * @param objectName
+	 * @param in the stream is not closed
+	 * @param contentLength the length of the content in bytes or null if not known
+	 * @return ETag of the object
+	 */
+	public String put(String objectName, InputStream in, Long contentLength) {
+		if(contentLength == null){
+			LOGGER.debug("No content length, using chunked transfer encoding.");
+			return getObjectApi().put(objectName, Payloads.newInputStreamPayload(new CloseShieldInputStream(in)), PUT_OPTIONS_CHUNKED);
+		}else if(contentLength > SEGMENT_SIZE){
+			return putLargeObject(objectName, in, contentLength);
+		}else{
+			return getObjectApi().put(objectName, createPayload(in, contentLength));
+		}
+	}
+	
+	/**
+	 * Upload the contents of the stream as a static large object, in segments of {@value #SEGMENT_SIZE} bytes. 
+	 * 
+	 * The segments are stored in the same container, and are named using the object name as a prefix. On failure, the already uploaded segments are removed.
+	 * 
+	 * @param objectName
+	 * @param in
+	 * @param contentLength
+	 * @return ETag of the manifest object
+	 */
+	private String putLargeObject(String objectName, InputStream in, long contentLength) {
+		ObjectApi objectApi = getObjectApi();
+		String containerPrefix = _properties.getContainer()+Definitions.SEPARATOR_URI_PATH;
+		List<Segment> segments = new ArrayList<>((int) ((contentLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+		try {
+			for(long offset = 0; offset < contentLength; offset += SEGMENT_SIZE){
+				long size = Math.min(SEGMENT_SIZE, contentLength - offset);
+				String segmentName = String.format(SEGMENT_NAME_FORMAT, objectName, segments.size());
+				LOGGER.debug("Uploading segment: "+segmentName+", size: "+size);
+				String eTag = objectApi.put(segmentName, createPayload(ByteStreams.limit(in, size), size));
+				segments.add(Segment.builder().path(containerPrefix+segmentName).etag(eTag).sizeBytes(size).build());
+			}
+			return getStaticLargeObjectApi().replaceManifest(objectName, segments, Collections.<String, String> emptyMap());
+		} catch (RuntimeException ex) {
+			LOGGER.warn("Failed to upload large object, removing "+segments.size()+" uploaded segments, name: "+objectName);
+			for(Segment segment : segments){
+				try {
+					objectApi.delete(segment.getPath().substring(containerPrefix.length()));
+				} catch (RuntimeException ex1) {
+					LOGGER.error(ex1, ex1);
+				}
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param in the stream will not be closed
+	 * @param contentLength
+	 * @return payload with the content length set
+	 */
+	private static Payload createPayload(InputStream in, long contentLength) {
+		Payload payload = Payloads.newInputStreamPayload(new CloseShieldInputStream(in));
+		payload.getContentMetadata().setContentLength(contentLength);
+		return payload;
+	}
 
 	/**
 	 * 
@@ -182,15 +330,46 @@ public class SwiftTemplate implements Closeable {
 	 * @return temporary url signed by this template
 	 */
 	public SignedURL signURL(SwiftObject object) {
+		return signPath(object.getUri().getPath());
+	}
+	
+	/**
+	 * Sign the url for the given object name without retrieving the object. 
+	 * 
+	 * The signature is calculated locally, the only remote calls made are the retrieval of the container path (once) and the periodic retrieval of the temporary url key.
+	 * 
+	 * Note: this does NOT validate the object name, using the url for a non-existent object will result in an error
+	 * 
+	 * @param objectName
+	 * @return temporary url signed by this template or null if the container path could not be resolved
+	 */
+	public SignedURL signURL(String objectName) {
+		if(_objectPathPrefix == null){ // resolve the path by retrieving the object
+			SwiftObject object = get(objectName);
+			if(object == null){
+				LOGGER.debug("Could not find object for name: "+objectName);
+				return null;
+			}
+			return signURL(object);
+		}
+		return signPath(_objectPathPrefix+objectName);
+	}
+	
+	/**
+	 * 
+	 * @param path
+	 * @return temporary url for the given object path
+	 */
+	private SignedURL signPath(String path) {
 		if(_tempUriSigner == null){
 			AccountApi accountApi = _swiftApi.getAccountApi(resolveRegion());
 			_tempUriSigner = TemporaryUrlSigner.checkApiEvery(accountApi, CHECK_API_INTERVAL);
 		}
 		long expires = System.currentTimeMillis() / 1000 + _properties.getDefaultExpirationTime();
-		String signature = _tempUriSigner.sign(Definitions.METHOD_GET, object.getUri().getPath(), expires);
+		String signature = _tempUriSigner.sign(Definitions.METHOD_GET, path, expires);
 		//TODO for some reason jclouds want to use public ip instead of internal ip when communicating service endpoints, which is kinda silly
 		//TODO Also this workaround defeats the point of having multiple regions (as it is hardcoded to a one endpoint).
-		return new SignedURL(_properties.getPublicEndpoint()+object.getUri().getPath()+Definitions.SEPARATOR_URI_METHOD_PARAMS+PARAMETER_TEMP_URI_SIGNATURE+Definitions.SEPARATOR_URI_QUERY_PARAM_VALUE+signature+Definitions.SEPARATOR_URI_QUERY_PARAMS+PARAMETER_TEMP_URI_EXPIRATION+Definitions.SEPARATOR_URI_QUERY_PARAM_VALUE+expires, new Date(expires*1000));	
+		return new SignedURL(_properties.getPublicEndpoint()+path+Definitions.SEPARATOR_URI_METHOD_PARAMS+PARAMETER_TEMP_URI_SIGNATURE+Definitions.SEPARATOR_URI_QUERY_PARAM_VALUE+signature+Definitions.SEPARATOR_URI_QUERY_PARAMS+PARAMETER_TEMP_URI_EXPIRATION+Definitions.SEPARATOR_URI_QUERY_PARAM_VALUE+expires, new Date(expires*1000));	
 	}
 	
 	/**
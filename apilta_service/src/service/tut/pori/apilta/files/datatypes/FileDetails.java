@@ -35,10 +35,12 @@ import core.tut.pori.utils.ISODateAdapter;
 @XmlAccessorType(XmlAccessType.NONE)
 public class FileDetails{
 	private static final Logger LOGGER = Logger.getLogger(FileDetails.class);
+	private String _checksum = null; // not included in the xml output
 	@XmlElement(name=Definitions.ELEMENT_GUID)
 	private String _guid = null;
 	@XmlElement(name=Definitions.ELEMENT_MIME_TYPE)
 	private String _mimeType = null;
+	private Long _size = null; // not included in the xml output
 	@XmlElement(name=Definitions.ELEMENT_URL)
 	private String _url = null;
 	@XmlJavaTypeAdapter(ISODateAdapter.class)
@@ -109,6 +111,38 @@ public class FileDetails{
 		_validUntil = validUntil;
 	}
 
+	/**
+	 * @return the checksum (ETag) of the file content or null if not known
+	 * @see #setChecksum(String)
+	 */
+	public String getChecksum() {
+		return _checksum;
+	}
+
+	/**
+	 * @param checksum the checksum to set
+	 * @see #getChecksum()
+	 */
+	public void setChecksum(String checksum) {
+		_checksum = checksum;
+	}
+
+	/**
+	 * @return the size of the file content in bytes or null if not known
+	 * @see #setSize(Long)
+	 */
+	public Long getSize() {
+		return _size;
+	}
+
+	/**
+	 * @param size the size to set
+	 * @see #getSize()
+	 */
+	public void setSize(Long size) {
+		_size = size;
+	}
+
 	/**
 	 * for sub-classing, use the static
 	 * 
@@ -15,17 +15,28 @@
  */
 package service.tut.pori.apilta.sensors;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.client.solrj.response.Group;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.GroupParams;
 
 import core.tut.pori.dao.SQLSelectBuilder.OrderDirection;
 import core.tut.pori.dao.SolrDAO;
+import core.tut.pori.dao.SimpleSolrTemplate;
 import core.tut.pori.dao.SolrQueryBuilder;
 import core.tut.pori.dao.filter.AbstractQueryFilter.QueryType;
 import core.tut.pori.dao.filter.AndQueryFilter;
@@ -36,6 +47,7 @@ import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.http.parameters.SortOptions;
 import service.tut.pori.apilta.sensors.datatypes.DataPoint;
 import service.tut.pori.apilta.sensors.datatypes.Definitions;
+import service.tut.pori.apilta.sensors.datatypes.Measurement;
 
 /**
  * DAO for accessing data points
@@ -43,12 +55,25 @@ import service.tut.pori.apilta.sensors.datatypes.Definitions;
  */
 public class DataPointDAO extends SolrDAO {
 	private static final String BEAN_ID_SOLR_SERVER = "solrServerSensorsDataPoints";
+	private static final DocumentObjectBinder BINDER = new DocumentObjectBinder();
+	/** maximum number of data points sent to solr in a single update request */
+	private static final int MAX_BATCH_SIZE = 1000;
+	/** maximum number of attempts for a single update request */
+	private static final int MAX_ATTEMPTS = 3;
+	/** delay between attempts in ms, multiplied by the number of failed attempts */
+	private static final long RETRY_DELAY = 500;
 	private static final SortOptions DEFAULT_SORT_OPTIONS;
 	static{
 		DEFAULT_SORT_OPTIONS = new SortOptions();
 		DEFAULT_SORT_OPTIONS.addSortOption(new SortOptions.Option(SOLR_FIELD_ID, OrderDirection.ASCENDING, null));
 	}
 	private static final Logger LOGGER = Logger.getLogger(DataPointDAO.class);
+	/** maximum number of data points per measurement retrieved by grouping, for larger limits the data points are retrieved without grouping */
+	private static final int MAX_GROUP_LIMIT = 1000;
+	/** maximum number of measurement ids in a single query, the default max boolean clause count of solr is 1024 */
+	private static final int MAX_MEASUREMENT_IDS = 500;
+	/** number of data points retrieved at once when the data points are retrieved without grouping */
+	private static final int PAGE_SIZE = 10000;
 	
 	/**
 	 * 
@@ -58,10 +83,125 @@ public class DataPointDAO extends SolrDAO {
 	 * @return list of data points or null if none was found
 	 */
 	public List<DataPoint> getDataPoints(Set<Interval> createdFilter, Limits limits, String measurementId) {
-		SolrQueryBuilder solr = new SolrQueryBuilder();
+		SolrQueryBuilder solr = createQuery(createdFilter, new AndQueryFilter(Definitions.SOLR_FIELD_MEASUREMENT_ID, measurementId));
 		solr.setLimits(limits);
+		return getSolrTemplate(BEAN_ID_SOLR_SERVER).queryForList(solr.toSolrQuery(Definitions.ELEMENT_DATAPOINT_LIST), DataPoint.class);
+	}
+	
+	/**
+	 * Retrieve data points for multiple measurements. 
+	 * 
+	 * The data points are retrieved using a single query for up to {@value #MAX_MEASUREMENT_IDS} measurements. 
+	 * The limits are applied separately for each measurement, i.e. the result for each measurement is the same as {@link #getDataPoints(Set, Limits, String)} would return.
+	 * 
+	 * @param createdFilter optional filter for created timestamps
+	 * @param limits
+	 * @param measurementIds
+	 * @return map of measurement id - data point list pairs, measurements with no data points are not included in the map
+	 */
+	public Map<String, List<DataPoint>> getDataPoints(Set<Interval> createdFilter, Limits limits, Collection<String> measurementIds) {
+		HashMap<String, List<DataPoint>> dataPoints = new HashMap<>(measurementIds.size());
+		int start = (limits == null ? 0 : limits.getStartItem(Definitions.ELEMENT_DATAPOINT_LIST));
+		int maxItems = (limits == null ? MAX_DOCUMENT_COUNT : limits.getMaxItems(Definitions.ELEMENT_DATAPOINT_LIST));
+		boolean grouped = ((long) start + (long) maxItems <= MAX_GROUP_LIMIT); // solr allocates space for the group limit for each group, so use grouping only for small limits
+		SimpleSolrTemplate template = getSolrTemplate(BEAN_ID_SOLR_SERVER);
+		ArrayList<String> ids = new ArrayList<>(Math.min(measurementIds.size(), MAX_MEASUREMENT_IDS));
+		for(Iterator<String> iter = measurementIds.iterator(); iter.hasNext();){
+			ids.add(iter.next());
+			if(ids.size() < MAX_MEASUREMENT_IDS && iter.hasNext()){
+				continue;
+			}
+			
+			SolrQuery query = createQuery(createdFilter, new AndQueryFilter(Definitions.SOLR_FIELD_MEASUREMENT_ID, ids)).toSolrQuery(Definitions.ELEMENT_DATAPOINT_LIST);
+			if(grouped){
+				getGroupedDataPoints(template, query, start, maxItems, ids.size(), dataPoints);
+			}else{
+				getDataPoints(template, query, start, maxItems, dataPoints);
+			}
+			ids.clear();
+		}
+		return dataPoints;
+	}
+	
+	/**
+	 * Retrieve the data points grouped by measurement id, the limits are applied by solr.
+	 * 
+	 * @param template
+	 * @param query
+	 * @param start
+	 * @param maxItems
+	 * @param measurementCount number of measurements in the query
+	 * @param dataPoints the retrieved data points are added to this map
+	 */
+	private void getGroupedDataPoints(SimpleSolrTemplate template, SolrQuery query, int start, int maxItems, int measurementCount, Map<String, List<DataPoint>> dataPoints) {
+		query.setStart(0);
+		query.setRows(measurementCount); // the number of groups
+		query.set(GroupParams.GROUP, true);
+		query.set(GroupParams.GROUP_FIELD, Definitions.SOLR_FIELD_MEASUREMENT_ID);
+		query.set(GroupParams.GROUP_OFFSET, start);
+		query.set(GroupParams.GROUP_LIMIT, maxItems);
+		GroupResponse response = template.query(query).getGroupResponse();
+		if(response == null){
+			LOGGER.warn("No group response.");
+			return;
+		}
+		for(GroupCommand command : response.getValues()){
+			for(Group group : command.getValues()){
+				if(!group.getResult().isEmpty()){
+					dataPoints.put(group.getGroupValue(), BINDER.getBeans(DataPoint.class, group.getResult()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Retrieve the data points without grouping, the limits are applied to the results.
+	 * 
+	 * @param template
+	 * @param query
+	 * @param start
+	 * @param maxItems
+	 * @param dataPoints the retrieved data points are added to this map
+	 */
+	private void getDataPoints(SimpleSolrTemplate template, SolrQuery query, int start, int maxItems, Map<String, List<DataPoint>> dataPoints) {
+		HashMap<String, Integer> skipped = (start > 0 ? new HashMap<>() : null);
+		query.setRows(PAGE_SIZE);
+		for(int offset = 0;;offset += PAGE_SIZE){
+			query.setStart(offset);
+			List<DataPoint> page = template.queryForList(query, DataPoint.class);
+			for(DataPoint dp : page){ // the data points are sorted, so the limits can be applied in the same order as solr would
+				String measurementId = dp.getMeasurementId();
+				if(skipped != null){
+					int count = skipped.merge(measurementId, 1, Integer::sum);
+					if(count <= start){
+						continue;
+					}
+				}
+				List<DataPoint> list = dataPoints.get(measurementId);
+				if(list == null){
+					list = new ArrayList<>();
+					dataPoints.put(measurementId, list);
+				}
+				if(list.size() < maxItems){
+					list.add(dp);
+				}
+			}
+			if(page.size() < PAGE_SIZE){
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param createdFilter optional filter for created timestamps
+	 * @param measurementFilter
+	 * @return query builder for data points
+	 */
+	private SolrQueryBuilder createQuery(Set<Interval> createdFilter, AndQueryFilter measurementFilter) {
+		SolrQueryBuilder solr = new SolrQueryBuilder();
 		solr.setSortOptions(DEFAULT_SORT_OPTIONS);
-		solr.addCustomFilter(new AndQueryFilter(Definitions.SOLR_FIELD_MEASUREMENT_ID, measurementId));
+		solr.addCustomFilter(measurementFilter);
 
 		if(createdFilter != null && !createdFilter.isEmpty()){
 			LOGGER.debug("Using created filter...");
@@ -71,44 +211,107 @@ public class DataPointDAO extends SolrDAO {
 			}
 			solr.addCustomFilter(cf);
 		}
-		
-		return getSolrTemplate(BEAN_ID_SOLR_SERVER).queryForList(solr.toSolrQuery(Definitions.ELEMENT_DATAPOINT_LIST), DataPoint.class);
+		return solr;
 	}
 	
 	/**
-	 * create points for the given measurement id
+	 * Create the data points for all of the given measurements. 
 	 * 
-	 * @param dataPoints
-	 * @param measurementId
+	 * The data points are sent to solr in batches of {@value #MAX_BATCH_SIZE} data points, and failed batches are retried. 
+	 * Retrying is safe as the data point ids are generated before the first attempt, and re-sending a data point overwrites the previous copy.
+	 * If a batch cannot be sent, the already sent data points of the measurements are removed.
+	 * 
+	 * Note: this method should not be called within a database transaction, as the retries are delayed and the transaction would be kept open for the whole delay.
+	 * 
+	 * @param measurements measurements with measurement ids
+	 * @throws SolrException if the data points could not be created
 	 */
-	public void createDataPoints(List<DataPoint> dataPoints, String measurementId) {
-		for(DataPoint dp : dataPoints) { // populate id and timestamps
-			dp.setDataPointId(UUID.randomUUID().toString());
-			dp.setMeasurementId(measurementId);
-			Date created = dp.getCreated();
-			if(created == null){
-				LOGGER.debug("No created timestamp, using current timestamp for data point, id: "+dp.getDataPointId());
-				created = new Date();
-				dp.setCreated(created);
+	public void createDataPoints(Collection<Measurement> measurements) throws SolrException {
+		ArrayList<String> measurementIds = new ArrayList<>(measurements.size());
+		ArrayList<DataPoint> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		SimpleSolrTemplate template = getSolrTemplate(BEAN_ID_SOLR_SERVER);
+		try{
+			for(Measurement measurement : measurements){
+				String measurementId = measurement.getMeasurementId();
+				measurementIds.add(measurementId);
+				for(DataPoint dp : measurement.getDataPoints()) { // populate id and timestamps
+					dp.setDataPointId(UUID.randomUUID().toString());
+					dp.setMeasurementId(measurementId);
+					if(dp.getCreated() == null){
+						LOGGER.debug("No created timestamp, using current timestamp for data point, id: "+dp.getDataPointId());
+						dp.setCreated(new Date());
+					}
+					batch.add(dp);
+					if(batch.size() >= MAX_BATCH_SIZE){
+						addBeans(template, batch);
+						batch.clear();
+					}
+				}
+			}
+			if(!batch.isEmpty()){
+				addBeans(template, batch);
 			}
+		} catch (SolrException ex) {
+			LOGGER.warn("Failed to create data points, removing data points for "+measurementIds.size()+" measurement(s).");
+			try{
+				deleteDataPoints(measurementIds);
+			} catch (SolrException ex1) { // the original error is more important
+				LOGGER.error(ex1, ex1);
+			}
+			throw ex;
 		}
-		
-		int status = getSolrTemplate(BEAN_ID_SOLR_SERVER).addBeans(dataPoints).getStatus();
-		if(status != SolrException.ErrorCode.UNKNOWN.code){
-			LOGGER.warn("Failed to create data points for measurement, id: "+measurementId+", status: "+status);
+	}
+	
+	/**
+	 * 
+	 * @param template
+	 * @param dataPoints
+	 * @throws SolrException if the data points could not be added after {@value #MAX_ATTEMPTS} attempts
+	 */
+	private void addBeans(SimpleSolrTemplate template, List<DataPoint> dataPoints) throws SolrException {
+		for(int attempt = 1;;++attempt){
+			try{
+				int status = template.addBeans(dataPoints).getStatus();
+				if(status == SolrException.ErrorCode.UNKNOWN.code){
+					return;
+				}
+				LOGGER.warn("Failed to create data points, status: "+status+", attempt: "+attempt);
+			} catch (SolrException ex) {
+				LOGGER.warn("Failed to create data points, attempt: "+attempt, ex);
+			}
+			if(attempt >= MAX_ATTEMPTS){
+				throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Failed to create data points.");
+			}
+			try {
+				Thread.sleep(RETRY_DELAY*attempt);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted while creating data points.");
+			}
 		}
 	}
 	
 	/**
+	 * The data points are deleted using a single query for up to {@value #MAX_MEASUREMENT_IDS} measurements.
 	 * 
 	 * @param measurementIds
 	 */
-	public void deleteDataPoints(Collection<Long> measurementIds) {
-		SolrQueryBuilder solr = new SolrQueryBuilder();
-		solr.addCustomFilter(new AndQueryFilter(Definitions.SOLR_FIELD_MEASUREMENT_ID, measurementIds));
-		int status = getSolrTemplate(BEAN_ID_SOLR_SERVER).deleteByQuery(solr.toSolrQuery()).getStatus();
-		if(status != SolrException.ErrorCode.UNKNOWN.code){
-			LOGGER.warn("Failed to delete data points, status: "+status);
+	public void deleteDataPoints(Collection<?> measurementIds) {
+		SimpleSolrTemplate template = getSolrTemplate(BEAN_ID_SOLR_SERVER);
+		ArrayList<Object> ids = new ArrayList<>(Math.min(measurementIds.size(), MAX_MEASUREMENT_IDS));
+		for(Iterator<?> iter = measurementIds.iterator(); iter.hasNext();){
+			ids.add(iter.next());
+			if(ids.size() < MAX_MEASUREMENT_IDS && iter.hasNext()){
+				continue;
+			}
+			
+			SolrQueryBuilder solr = new SolrQueryBuilder();
+			solr.addCustomFilter(new AndQueryFilter(Definitions.SOLR_FIELD_MEASUREMENT_ID, ids));
+			int status = template.deleteByQuery(solr.toSolrQuery()).getStatus();
+			if(status != SolrException.ErrorCode.UNKNOWN.code){
+				LOGGER.warn("Failed to delete data points, status: "+status);
+			}
+			ids.clear();
 		}
 	}
 }
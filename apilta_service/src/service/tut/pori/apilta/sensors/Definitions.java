@@ -24,6 +24,10 @@ public final class Definitions {
 	/** task identifier */
 	protected static final String COLUMN_TASK_ID = "task_id";
 	
+	/* common */
+	/** maximum number of measurements parsed and added at once when processing task results */
+	public static final int MEASUREMENT_CHUNK_SIZE = 100;
+	
 	/* data groups */
 	/** data group for retrieving data point details */
 	public static final String DATA_GROUP_DATA_POINTS = "data_points";
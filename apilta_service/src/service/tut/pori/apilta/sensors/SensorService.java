@@ -47,7 +47,7 @@ public class SensorService {
 	/**
 	 * 
 	 * @param authenticatedUser 
-	 * @param xml Only the result data should be in the body. See {@link service.tut.pori.apilta.sensors.datatypes.SensorTask}
+	 * @param xml Only the result data should be in the body. See {@link service.tut.pori.apilta.sensors.datatypes.SensorTask}. The task details must precede the measurement list.
 	 */
 	@HTTPServiceMethod(name = service.tut.pori.tasks.Definitions.METHOD_TASK_FINISHED, acceptedMethods={core.tut.pori.http.Definitions.METHOD_POST})
 	public void taskFinished (
@@ -55,7 +55,7 @@ public class SensorService {
 			@HTTPMethodParameter(name = InputStreamParameter.PARAMETER_DEFAULT_NAME, bodyParameter = true) InputStreamParameter xml
 			) 
 	{
-		SensorsCore.taskFinished(authenticatedUser.getUserIdentity(), _formatter.toObject(xml.getValue(), SensorTask.class));
+		SensorsCore.taskFinished(authenticatedUser.getUserIdentity(), xml.getValue());
 	}
 	
 	/**
@@ -141,7 +141,7 @@ public class SensorService {
 			@HTTPMethodParameter(name = InputStreamParameter.PARAMETER_DEFAULT_NAME, bodyParameter = true) InputStreamParameter file
 			) 
 	{
-		FileDetails details = SensorsCore.createFile(authenticatedUser.getUserIdentity(), backendId.getValue(), file.getValue());
+		FileDetails details = SensorsCore.createFile(authenticatedUser.getUserIdentity(), backendId.getValue(), file.getValue(), file.getContentLength());
 		if(details == null){
 			return new Response(Status.FORBIDDEN);
 		}else{
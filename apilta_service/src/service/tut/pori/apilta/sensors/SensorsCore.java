@@ -19,6 +19,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -46,6 +47,7 @@ import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserGroup.Permission;
 import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.XMLFormatter;
 
 /**
  * the core methods for sensor service
@@ -53,6 +55,7 @@ import core.tut.pori.users.UserIdentity;
  */
 public final class SensorsCore {
 	private static final EnumSet<UserPermission> ENUMSET_AUTH_BACKENDS = EnumSet.of(UserPermission.AUTH_BACKENDS);
+	private static final XMLFormatter FORMATTER = new XMLFormatter();
 	private static final Logger LOGGER = Logger.getLogger(SensorsCore.class);
 	
 	/**
@@ -69,15 +72,79 @@ public final class SensorsCore {
 	 * @throws IllegalArgumentException on invalid task
 	 */
 	public static void taskFinished(UserIdentity authenticatedUser, SensorTask task) throws IllegalArgumentException {
+		if(!SensorTask.isValid(task) || task.getConditions() != null){ // it is enough to check that either conditions or output is not present as the validity is checked through isValid()
+			throw new IllegalArgumentException("Invalid task.");
+		}
+		
+		List<String> validTaskIds = taskStarted(authenticatedUser, task);
+		addMeasurements(task.getBackends(), task.getMeasurements().getMeasurements(), validTaskIds); // finally, add the measurements for all valid identifiers
+	}
+	
+	/**
+	 * Streaming variant of {@link #taskFinished(UserIdentity, SensorTask)}.
+	 * 
+	 * The measurements are read from the given xml input and validated in chunks of {@value service.tut.pori.apilta.sensors.Definitions#MEASUREMENT_CHUNK_SIZE} measurements, and the data points of each chunk are created before reading the next chunk.
+	 * The measurements are buffered until the task identifiers and back ends have been read, i.e. if the task details are located after the measurement list in the input, the entire measurement list is kept in memory.
+	 * 
+	 * The measurements are added in a single transaction after the entire input has been processed. If the task or any of the measurements is invalid, none of the measurements are added, and the already created data points are removed.
+	 * 
+	 * @param authenticatedUser
+	 * @param xml {@link SensorTask}
+	 * @throws IllegalArgumentException on bad xml, invalid task or invalid measurement
+	 */
+	public static void taskFinished(UserIdentity authenticatedUser, InputStream xml) throws IllegalArgumentException {
+		SensorsDAO sensorsDAO = ServiceInitializer.getDAOHandler().getDAO(SensorsDAO.class);
+		ArrayList<String> validTaskIds = new ArrayList<>();
+		ArrayList<Measurement> created = new ArrayList<>(); // measurements with created data points
+		try{
+			FORMATTER.toObjects(xml, SensorTask.class, Measurement.class, Definitions.MEASUREMENT_CHUNK_SIZE, (task) -> (task.getTaskIds() != null && task.getBackends() != null), (task, measurements, position) -> {
+				if(validTaskIds.isEmpty()){ // first chunk, validate the task details
+					List<TaskBackend> backends = task.getBackends();
+					if(backends == null || backends.isEmpty() || task.getConditions() != null || task.getOutput() != null){
+						throw new IllegalArgumentException("Invalid task.");
+					}
+					for(TaskBackend backend : backends){
+						if(!TaskBackend.isValid(backend)){
+							throw new IllegalArgumentException("Invalid task: invalid back end.");
+						}
+					}
+					validTaskIds.addAll(taskStarted(authenticatedUser, task));
+				}
+				validateMeasurements(sensorsDAO, task.getBackends(), measurements, position);
+				sensorsDAO.createDataPoints(measurements);
+				created.addAll(measurements);
+				for(Measurement measurement : measurements){
+					measurement.setDataPoints(null); // only the identifiers are needed for adding the measurements
+				}
+			});
+			
+			if(validTaskIds.isEmpty()){
+				throw new IllegalArgumentException("Invalid task: no measurements.");
+			}
+		} catch (RuntimeException ex) {
+			if(!created.isEmpty()){
+				LOGGER.debug("Failed to process the task, removing created data points.");
+				sensorsDAO.removeDataPoints(created);
+			}
+			throw ex;
+		}
+		sensorsDAO.addMeasurements(created, validTaskIds, true); // finally, add the measurements for all valid identifiers
+	}
+	
+	/**
+	 * Check the permissions of the user for the task, and update the status of the task back ends.
+	 * 
+	 * @param authenticatedUser
+	 * @param task
+	 * @return list of valid task identifiers
+	 * @throws IllegalArgumentException on invalid task
+	 */
+	private static List<String> taskStarted(UserIdentity authenticatedUser, SensorTask task) throws IllegalArgumentException {
 		List<String> taskIds = task.getTaskIds();
 		if(taskIds == null || taskIds.isEmpty()){
 			throw new IllegalArgumentException("Invalid task: task identifier missing.");
 		}
 		
-		if(!SensorTask.isValid(task) || task.getConditions() != null){ // it is enough to check that either conditions or output is not present as the validity is checked through isValid()
-			throw new IllegalArgumentException("Invalid task.");
-		}
-		
 		List<TaskBackend> backends = task.getBackends();
 		
 		ArrayList<String> validTaskIds = new ArrayList<>(taskIds.size());
@@ -105,19 +172,56 @@ public final class SensorsCore {
 				}
 			}
 		}
-		
+		return validTaskIds;
+	}
+	
+	/**
+	 * Validate and add the measurements for the given tasks.
+	 * 
+	 * @param backends the back ends of the task
+	 * @param measurements
+	 * @param taskIds
+	 * @throws IllegalArgumentException on invalid measurement, no measurements are added if any of the given measurements are invalid
+	 */
+	private static void addMeasurements(List<TaskBackend> backends, List<Measurement> measurements, List<String> taskIds) throws IllegalArgumentException {
 		SensorsDAO sensorsDAO = ServiceInitializer.getDAOHandler().getDAO(SensorsDAO.class);
-		List<Measurement> measurements = task.getMeasurements().getMeasurements();
-		for(Measurement measurement : measurements){ // check that the file GUIDs (if present) has been associated with the given back ends (i.e. the back end has previously uploaded the file)
+		validateMeasurements(sensorsDAO, backends, measurements, 0);
+		sensorsDAO.addMeasurements(measurements, taskIds);
+	}
+	
+	/**
+	 * 
+	 * @param sensorsDAO
+	 * @param backends the back ends of the task
+	 * @param measurements
+	 * @param position position of the first measurement in the task, used for error reporting
+	 * @throws IllegalArgumentException on invalid measurement
+	 */
+	private static void validateMeasurements(SensorsDAO sensorsDAO, List<TaskBackend> backends, List<Measurement> measurements, int position) throws IllegalArgumentException {
+		for(Measurement measurement : measurements){
+			if(!Measurement.isValid(measurement)){
+				throw new IllegalArgumentException("Invalid measurement at position: "+position);
+			}
+			
 			Long backendId = measurement.getBackendId();
-			for(DataPoint dp : measurement.getDataPoints()){ 
+			boolean found = false;
+			for(TaskBackend backend : backends){ // check that the measurements do not contain back end identifiers that are not present in the task back end list
+				if(backend.getBackendId().equals(backendId)){
+					found = true;
+					break;
+				}
+			}
+			if(!found){
+				throw new IllegalArgumentException("Back end, id: "+backendId+" of the measurement at position: "+position+" is not present in the task back end list.");
+			}
+			
+			for(DataPoint dp : measurement.getDataPoints()){ // check that the file GUIDs (if present) has been associated with the given back ends (i.e. the back end has previously uploaded the file)
 				if(Definitions.DATA_POINT_KEY_FILE_GUID.equals(dp.getKey()) && !sensorsDAO.backendHasGUID(backendId, dp.getValue())){
-					throw new IllegalArgumentException("File GUID: "+dp.getValue()+" is not associated with back end, id: "+backendId);
+					throw new IllegalArgumentException("File GUID: "+dp.getValue()+" of the measurement at position: "+position+" is not associated with back end, id: "+backendId);
 				} // if
 			} // for
+			++position;
 		}
-		
-		sensorsDAO.addMeasurements(measurements, validTaskIds); // finally, add the measurements for all valid identifiers
 	}
 
 	/**
@@ -135,11 +239,11 @@ public final class SensorsCore {
 		if(backends == null){
 			throw new IllegalArgumentException("Invalid task: no back ends.");
 		}
-		BackendDAO backendDAO = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class);
+		Map<Long, Set<UserPermission>> permissions = getBackendPermissions(authenticatedUser, backends);
 		for(TaskBackend backend : backends){ // reset all status information to not started before task validation
 			Long backendId = backend.getBackendId();
-			Set<UserPermission> permissions = backendDAO.getBackendPermissions(backendId, authenticatedUser);
-			if(permissions == null || !permissions.contains(UserPermission.TASKS)){
+			Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+			if(p == null || !p.contains(UserPermission.TASKS)){
 				LOGGER.warn("User, id: "+authenticatedUser.getUserId()+" is not allowed to create tasks for back end, id: "+backendId);
 				return null;
 			}
@@ -175,6 +279,20 @@ public final class SensorsCore {
 		return TasksCore.scheduleTask(task);
 	}
 	
+	/**
+	 * 
+	 * @param authenticatedUser
+	 * @param backends
+	 * @return the permissions of the user for the given back ends or null if none
+	 */
+	private static Map<Long, Set<UserPermission>> getBackendPermissions(UserIdentity authenticatedUser, List<TaskBackend> backends) {
+		List<Long> backendIds = new ArrayList<>(backends.size());
+		for(TaskBackend backend : backends){
+			backendIds.add(backend.getBackendId());
+		}
+		return ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class).getBackendPermissions(backendIds, authenticatedUser);
+	}
+	
 	/**
 	 * 
 	 * Task identifier, if given is ignored and a new identifier is generated.
@@ -204,11 +322,11 @@ public final class SensorsCore {
 			throw new IllegalArgumentException("Invalid task: no back ends.");
 		}
 		
-		BackendDAO backendDAO = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class);
+		Map<Long, Set<UserPermission>> permissions = getBackendPermissions(authenticatedUser, backends);
 		for(TaskBackend backend : backends){ // reset all status information to not started before task validation
 			Long backendId = backend.getBackendId();
-			Set<UserPermission> permissions = backendDAO.getBackendPermissions(backendId, authenticatedUser);
-			if(permissions == null || !permissions.contains(UserPermission.TASKS)){
+			Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+			if(p == null || !p.contains(UserPermission.TASKS)){
 				LOGGER.warn("User, id: "+authenticatedUser.getUserId()+" is not allowed to use tasks for back end, id: "+backendId);
 				return null;
 			}
@@ -241,17 +359,18 @@ public final class SensorsCore {
 	 * @param authenticatedUser
 	 * @param backendId 
 	 * @param file
+	 * @param contentLength length of the file in bytes or null if not known
 	 * @return details for the created file or null on failure (permission denied)
 	 * @throws IllegalArgumentException on bad data
 	 */
-	public static FileDetails createFile(UserIdentity authenticatedUser, Long backendId, InputStream file) throws IllegalArgumentException {
+	public static FileDetails createFile(UserIdentity authenticatedUser, Long backendId, InputStream file, Long contentLength) throws IllegalArgumentException {
 		Set<UserPermission> permissions = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class).getBackendPermissions(backendId, authenticatedUser);
 		if(permissions == null || !permissions.contains(UserPermission.AUTH_BACKENDS)){
 			LOGGER.warn("User, id: "+authenticatedUser.getUserId()+" does not have permission "+UserPermission.AUTH_BACKENDS.name());
 			return null;
 		}
 		
-		FileDetails details = FilesCore.createFile(file);
+		FileDetails details = FilesCore.createFile(file, contentLength);
 		if(!FileDetails.isValid(details)){
 			throw new IllegalArgumentException("Failed to create file from the given data.");
 		}
@@ -26,12 +26,13 @@ import java.util.UUID;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 
+import service.tut.pori.apilta.sensors.datatypes.DataPoint;
 import service.tut.pori.apilta.sensors.datatypes.Measurement;
 import service.tut.pori.apilta.sensors.datatypes.MeasurementList;
 import core.tut.pori.dao.SQLDAO;
@@ -68,7 +69,6 @@ public class SensorsDAO extends SQLDAO {
 	private static final String SQL_BACKEND_HAS_GUID = "SELECT "+COLUMN_COUNT+" FROM "+TABLE_MEASUREMENTS_FILES+" WHERE "+COLUMN_BACKEND_ID+"=? AND "+COLUMN_GUID+"=? LIMIT 1";
 	private static final int[] SQL_BACKEND_HAS_GUID_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.STRING.toInt()};
 	private static final String[] SQL_COLUMNS_GET_MEASUREMENTS = {TABLE_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID, TABLE_MEASUREMENTS+"."+COLUMN_BACKEND_ID}; // also used in the where filters of getMeasurements(), check before making modifications
-	private static final String[] SQL_COLUMNS_INSERT_MEASUREMENT = {COLUMN_BACKEND_ID, COLUMN_MEASUREMENT_ID, COLUMN_ROW_CREATED};
 	private static final String SQL_DELETE_FILES = "DELETE FROM "+TABLE_MEASUREMENTS_FILES+" WHERE "+COLUMN_BACKEND_ID+"=?";
 	private static final String SQL_DELETE_MEASUREMENTS = "DELETE FROM "+TABLE_MEASUREMENTS+" WHERE "+COLUMN_BACKEND_ID+"=?";
 	private static final String SQL_GET_BACKEND_ID = "SELECT "+COLUMN_BACKEND_ID+", "+COLUMN_COUNT+" FROM "+TABLE_MEASUREMENTS_FILES+" WHERE "+COLUMN_GUID+"=? LIMIT 1";
@@ -77,6 +77,8 @@ public class SensorsDAO extends SQLDAO {
 	private static final String SQL_GET_MEASUREMENT_IDS = "SELECT "+COLUMN_MEASUREMENT_ID+" FROM "+TABLE_MEASUREMENTS+" WHERE "+COLUMN_BACKEND_ID+"=?";
 	private static final String SQL_INSERT_FILE = "INSERT INTO "+TABLE_MEASUREMENTS_FILES+" ("+COLUMN_BACKEND_ID+", "+COLUMN_GUID+", "+COLUMN_ROW_CREATED+") VALUES (?,?,NOW())";
 	private static final int[] SQL_INSERT_FILE_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.STRING.toInt()};
+	private static final String SQL_INSERT_MEASUREMENT = "INSERT INTO "+TABLE_MEASUREMENTS+" ("+COLUMN_BACKEND_ID+", "+COLUMN_MEASUREMENT_ID+", "+COLUMN_ROW_CREATED+") VALUES (?,?,NOW())";
+	private static final int[] SQL_INSERT_MEASUREMENT_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.STRING.toInt()};
 	private static final String SQL_INSERT_MEASUREMENT_TASK = "INSERT INTO "+TABLE_MEASUREMENTS_TASKS+" ("+COLUMN_MEASUREMENT_ID+", "+Definitions.COLUMN_TASK_ID+", "+COLUMN_ROW_CREATED+") VALUES (?,?,NOW())";
 	private static final int[] SQL_INSERT_MEASUREMENT_TASK_SQL_TYPES =  {SQLType.STRING.toInt(), SQLType.STRING.toInt()};
 	private static final JoinClause SQL_JOIN_TASKS = new JoinClause("INNER JOIN "+TABLE_MEASUREMENTS_TASKS+" ON "+TABLE_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID+"="+TABLE_MEASUREMENTS_TASKS+"."+COLUMN_MEASUREMENT_ID);
@@ -128,10 +130,21 @@ public class SensorsDAO extends SQLDAO {
 			return null;
 		}
 		
-		boolean getDataPoints = (DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups) || DataGroups.hasDataGroup(Definitions.DATA_GROUP_DATA_POINTS, dataGroups));
 		ArrayList<Measurement> measurements = new ArrayList<>(rows.size());
 		for(Map<String, Object> row : rows){
-			measurements.add(extractMeasurement(row, createdFilter, getDataPoints, limits));
+			measurements.add(extractMeasurement(row));
+		}
+		
+		if(DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups) || DataGroups.hasDataGroup(Definitions.DATA_GROUP_DATA_POINTS, dataGroups)){
+			HashMap<String, Measurement> idMeasurementMap = new HashMap<>(measurements.size());
+			for(Measurement m : measurements){
+				if(m != null){
+					idMeasurementMap.put(m.getMeasurementId(), m);
+				}
+			}
+			for(Entry<String, List<DataPoint>> e : _dataPointDAO.getDataPoints(createdFilter, limits, idMeasurementMap.keySet()).entrySet()){ // retrieve the data points for all measurements at once
+				idMeasurementMap.get(e.getKey()).setDataPoints(e.getValue());
+			}
 		}
 		
 		MeasurementList list = new MeasurementList();
@@ -142,19 +155,14 @@ public class SensorsDAO extends SQLDAO {
 	/**
 	 * 
 	 * @param row
-	 * @param createdFilter 
-	 * @param getDataPoints if true, data points for the measuremnt will be retrieved
-	 * @param limits 
 	 * @return measurement extracted from the given row
 	 */
-	private Measurement extractMeasurement(Map<String, Object> row, Set<Interval> createdFilter, boolean getDataPoints, Limits limits) {
+	private Measurement extractMeasurement(Map<String, Object> row) {
 		Measurement m = new Measurement();
-		String measurementId = null;
 		for(Entry<String, Object> entry : row.entrySet()){
 			switch(entry.getKey()){
 				case COLUMN_MEASUREMENT_ID:
-					measurementId = (String) entry.getValue();
-					m.setMeasurementId(measurementId);
+					m.setMeasurementId((String) entry.getValue());
 					break;
 				case COLUMN_BACKEND_ID:
 					m.setBackendId((Long) entry.getValue());
@@ -167,9 +175,6 @@ public class SensorsDAO extends SQLDAO {
 					break;
 			}
 		}
-		if(getDataPoints){
-			m.setDataPoints(_dataPointDAO.getDataPoints(createdFilter, limits, measurementId));
-		}
 		return m;
 	}
 	
@@ -177,71 +182,139 @@ public class SensorsDAO extends SQLDAO {
 	 * 
 	 * Add measurements, the generated measurement identifiers are set to the passed objects
 	 * 
+	 * The data points of all measurements are first added in batches by {@link DataPointDAO#createDataPoints(Collection)}, outside of the transaction as the failed batches may be retried after a delay.
+	 * The measurements are then inserted using batch updates in a single transaction. If adding the data points fails, no measurements are added, and if adding the measurements fails, the data points are removed.
+	 * 
 	 * @param measurements the measurements to add
 	 * @param taskIds the tasks which are to be associated with the measurements
 	 */
 	public void addMeasurements(Collection<Measurement> measurements, Collection<String> taskIds) {
-		getTransactionTemplate().execute(new TransactionCallback<Void>() {
-
-			@Override
-			public Void doInTransaction(TransactionStatus status) {
-				JdbcTemplate t = getJdbcTemplate();
-				SimpleJdbcInsert sql = new SimpleJdbcInsert(t);
-				sql.withTableName(TABLE_MEASUREMENTS);
-				sql.withoutTableColumnMetaDataAccess();
-				sql.usingColumns(SQL_COLUMNS_INSERT_MEASUREMENT);
-				
-				HashMap<String, Object> params = new HashMap<>(SQL_COLUMNS_INSERT_MEASUREMENT.length);
-				params.put(COLUMN_ROW_CREATED, null);
-				Object[] ob = new Object[2];
-				for(Measurement m : measurements){
-					params.put(COLUMN_BACKEND_ID, m.getBackendId());
-					String measurementId = UUID.randomUUID().toString();
-					params.put(COLUMN_MEASUREMENT_ID, measurementId);
-					sql.execute(params);
-					
-					ob[0] = measurementId;
-					for(String taskId : taskIds) {
-						ob[1] = taskId;
-						t.update(SQL_INSERT_MEASUREMENT_TASK, ob, SQL_INSERT_MEASUREMENT_TASK_SQL_TYPES);
-					}
-					
-					m.setMeasurementId(measurementId);
-					_dataPointDAO.createDataPoints(m.getDataPoints(), measurementId);
+		createDataPoints(measurements);
+		addMeasurements(measurements, taskIds, true);
+	}
+	
+	/**
+	 * Create the data points of the given measurements without adding the measurements, the generated measurement identifiers are set to the passed objects.
+	 * 
+	 * The measurements can be added later by {@link #addMeasurements(Collection, Collection, boolean)}. The data points are not accessible through this DAO before the measurements have been added.
+	 * 
+	 * @param measurements
+	 * @throws SolrException if the data points could not be created, in this case none of the data points of the given measurements are created
+	 */
+	public void createDataPoints(Collection<Measurement> measurements) throws SolrException {
+		setMeasurementIds(measurements);
+		_dataPointDAO.createDataPoints(measurements);
+	}
+	
+	/**
+	 * Add the given measurements in a single transaction.
+	 * 
+	 * @param measurements the measurements to add, the data points must have already been created by {@link #createDataPoints(Collection)}
+	 * @param taskIds the tasks which are to be associated with the measurements
+	 * @param removeOnFailure if true, the data points of the measurements are removed if the measurements could not be added
+	 */
+	public void addMeasurements(Collection<Measurement> measurements, Collection<String> taskIds, boolean removeOnFailure) {
+		try{
+			getTransactionTemplate().execute(new TransactionCallback<Void>() {
+	
+				@Override
+				public Void doInTransaction(TransactionStatus status) {
+					insertMeasurements(measurements, taskIds);
+					return null;
 				}
-				return null;
+			});
+		} catch (RuntimeException ex) {
+			if(removeOnFailure){
+				removeDataPoints(measurements);
 			}
-		});
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Remove the data points of the given measurements. Failures are logged, but not thrown.
+	 * 
+	 * @param measurements measurements with measurement identifiers
+	 */
+	public void removeDataPoints(Collection<Measurement> measurements) {
+		ArrayList<String> measurementIds = new ArrayList<>(measurements.size());
+		for(Measurement m : measurements){
+			measurementIds.add(m.getMeasurementId());
+		}
+		LOGGER.debug("Removing data points for "+measurementIds.size()+" measurement(s).");
+		try{
+			_dataPointDAO.deleteDataPoints(measurementIds);
+		} catch (SolrException ex) {
+			LOGGER.error(ex, ex);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param measurements the generated measurement identifiers are set to the passed objects
+	 */
+	private void setMeasurementIds(Collection<Measurement> measurements) {
+		for(Measurement m : measurements){
+			m.setMeasurementId(UUID.randomUUID().toString());
+		}
+	}
+	
+	/**
+	 * Insert the measurements using batch updates, this should be called within a transaction
+	 * 
+	 * @param measurements measurements with measurement identifiers
+	 * @param taskIds
+	 */
+	private void insertMeasurements(Collection<Measurement> measurements, Collection<String> taskIds) {
+		ArrayList<Object[]> measurementArgs = new ArrayList<>(measurements.size());
+		ArrayList<Object[]> taskArgs = new ArrayList<>(measurements.size()*taskIds.size());
+		for(Measurement m : measurements){
+			String measurementId = m.getMeasurementId();
+			measurementArgs.add(new Object[]{m.getBackendId(), measurementId});
+			for(String taskId : taskIds) {
+				taskArgs.add(new Object[]{measurementId, taskId});
+			}
+		}
+		
+		JdbcTemplate t = getJdbcTemplate();
+		t.batchUpdate(SQL_INSERT_MEASUREMENT, measurementArgs, SQL_INSERT_MEASUREMENT_SQL_TYPES);
+		if(!taskArgs.isEmpty()){
+			t.batchUpdate(SQL_INSERT_MEASUREMENT_TASK, taskArgs, SQL_INSERT_MEASUREMENT_TASK_SQL_TYPES);
+		}
 	}
 	
 	/**
 	 * delete all measurements taken by the back end
 	 * 
+	 * The data points of the measurements are deleted after the measurements have been deleted, i.e. the solr requests are not made within the transaction.
+	 * 
 	 * @param backendId
 	 */
 	public void deleteMeasurements(Long backendId) {
-		getTransactionTemplate().execute(new TransactionCallback<Void>() {
+		List<String> measurementIds = getTransactionTemplate().execute(new TransactionCallback<List<String>>() {
 
 			@Override
-			public Void doInTransaction(TransactionStatus status) {
+			public List<String> doInTransaction(TransactionStatus status) {
 				JdbcTemplate t = getJdbcTemplate();
 				Object[] ob = {backendId};
-				List<Long> measurementIds = t.queryForList(SQL_GET_MEASUREMENT_IDS, ob, SQL_TYPE_BACKEND_ID, Long.class);
+				List<String> measurementIds = t.queryForList(SQL_GET_MEASUREMENT_IDS, ob, SQL_TYPE_BACKEND_ID, String.class);
 				if(measurementIds.isEmpty()){
 					LOGGER.debug("No measurements for back end, id: "+backendId);
 					return null;
 				}
 				
-				_dataPointDAO.deleteDataPoints(measurementIds);
-				
 				t.update(SQL_DELETE_MEASUREMENTS, ob, SQL_TYPE_BACKEND_ID);
 				
 				SQLDeleteBuilder sql = new SQLDeleteBuilder(TABLE_MEASUREMENTS_TASKS);
-				sql.addWhereClause(new AndClause(COLUMN_MEASUREMENT_ID, measurementIds, SQLType.LONG));
+				sql.addWhereClause(new AndClause(COLUMN_MEASUREMENT_ID, measurementIds, SQLType.STRING));
 				sql.execute(getJdbcTemplate());
-				return null;
+				return measurementIds;
 			}
 		});
+		
+		if(measurementIds != null){
+			_dataPointDAO.deleteDataPoints(measurementIds);
+		}
 	}
 	
 	/**
@@ -30,12 +30,20 @@ public final class Definitions {
 	/** service method declaration */
 	public static final String METHOD_CREATE_MEASUREMENT = "createMeasurement";
 	/** service method declaration */
+	public static final String METHOD_EXPORT_MEASUREMENTS = "exportMeasurements";
+	/** service method declaration */
 	public static final String METHOD_GET_MEASUREMENTS = "getMeasurements";
 	/** service method declaration */
 	public static final String METHOD_GET_HIGHLIGHTS = "getHighlights";
+	/** service method declaration */
+	public static final String METHOD_GET_TILES = "getTiles";
 	
 	/* parameters */
 	/** service method parameter declaration */
+	public static final String PARAMETER_AFTER = "after";
+	/** service method parameter declaration */
+	public static final String PARAMETER_FORMAT = "format";
+	/** service method parameter declaration */
 	public static final String PARAMETER_GROUP_METHOD = "group_method";
 	/** service method parameter declaration */
 	public static final String PARAMETER_GROUP_RANGE = "group_range";
@@ -44,13 +52,35 @@ public final class Definitions {
 	/** service method parameter declaration */
 	public static final String PARAMETER_RANGE = "range";
 	/** service method parameter declaration */
+	public static final String PARAMETER_MAX_MEASUREMENTS = "max_measurements";
+	/** service method parameter declaration */
 	public static final String PARAMETER_MIN_MEASUREMENTS = "min_measurements";
 	/** service method parameter declaration */
 	public static final String PARAMETER_TIMESTAMP = "timestamp";
+	/** service method parameter declaration */
+	public static final String PARAMETER_X = "x";
+	/** service method parameter declaration */
+	public static final String PARAMETER_Y = "y";
+	/** service method parameter declaration */
+	public static final String PARAMETER_ZOOM = "zoom";
 	
 	/* common */
 	/** default measurement visibility */
 	public static final Visibility DEFAULT_VISIBILITY = Visibility.PRIVATE;
+	/** the highest zoom level of the pre-calculated shock tiles, the tiles are stored for zoom levels 0 - MAX_TILE_ZOOM */
+	public static final int MAX_TILE_ZOOM = 18;
+	/** maximum number of tiles returned by a single tile query */
+	public static final int MAX_TILES = 4096;
+	/** maximum number of measurements parsed and created at once when processing measurement uploads */
+	public static final int MEASUREMENT_CHUNK_SIZE = 500;
+	
+	/* export formats */
+	/** export format for comma separated values */
+	public static final String FORMAT_CSV = "csv";
+	/** export format for xml, this is the default format */
+	public static final String FORMAT_XML = "xml";
+	/** content type for comma separated values */
+	public static final String CONTENT_TYPE_CSV = "text/csv";
 	
 	/* data groups */
 	/** data group for selecting accelerometer data */
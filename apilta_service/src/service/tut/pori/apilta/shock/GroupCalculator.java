@@ -16,10 +16,8 @@
 package service.tut.pori.apilta.shock;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
 
 import org.apache.commons.lang3.ArrayUtils;
 
@@ -27,7 +25,9 @@ import core.tut.pori.context.ServiceInitializer;
 import service.tut.pori.apilta.ApiltaProperties;
 import service.tut.pori.apilta.shock.datatypes.LocationData;
 import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+import service.tut.pori.apilta.utils.GeoPoints;
 import service.tut.pori.apilta.utils.MathUtils;
+import service.tut.pori.apilta.utils.SpatialGrid;
 
 /**
  * calculate measurement grouping based on the given data
@@ -124,50 +124,23 @@ public class GroupCalculator {
 	 * @return values grouped by median
 	 */
 	private List<ShockMeasurement> groupMedian(List<ShockMeasurement> measurements) {
+		Groups groups = new Groups(measurements, _range);
 		ArrayList<ShockMeasurement> grouped = new ArrayList<>();
 		
-		int levelSum = 0;
-		int levelCount = 0;
 		ShockMeasurement center = null;
-		double centerLat = 0;
-		double centerLon = 0;
-		Iterator<ShockMeasurement> iter = measurements.iterator();
-		while(iter.hasNext()) {
-			while(iter.hasNext()) {
-				ShockMeasurement m = iter.next();
-				Integer level = m.getLevel();
-				if(level == null) { // ignore measurements without known level
-					iter.remove();
-					continue;
-				}
-				
-				LocationData d = m.getLocationData();
-				if(center == null) {
-					center = m;
-					centerLat = d.getLatitude();
-					centerLon = d.getLongitude();
-					levelSum += level;
-					++levelCount;
-					iter.remove();
-				}else if(MathUtils.haversine(centerLat, centerLon, d.getLatitude(), d.getLongitude()) < _range) {
-					levelSum += level;
-					++levelCount;
-					iter.remove();
-				} // if
-			} // while
-			
-			if(levelCount > 0) {
-				int level = Math.round(levelSum/levelCount);
-				if(_levelFilter == null || ArrayUtils.contains(_levelFilter, level)) {
-					center.setLevel(level);
-					grouped.add(center);
-				}
+		while((center = groups.next()) != null) {
+			int[] levels = groups.getLevels();
+			int levelCount = groups.getLevelCount();
+			int levelSum = 0;
+			for(int i=0;i<levelCount;++i) {
+				levelSum += levels[i];
 			}
-			center = null;
-			levelCount = 0;
-			levelSum = 0;
-			iter = measurements.iterator();
-		} // for
+			int level = Math.round(levelSum/levelCount);
+			if(_levelFilter == null || ArrayUtils.contains(_levelFilter, level)) {
+				center.setLevel(level);
+				grouped.add(center);
+			}
+		}
 		
 		return (grouped.isEmpty() ? null : grouped);
 	}
@@ -178,67 +151,157 @@ public class GroupCalculator {
 	 * @return values grouped by median
 	 */
 	private List<ShockMeasurement> groupAverage(List<ShockMeasurement> measurements) {
+		Groups groups = new Groups(measurements, _range);
 		ArrayList<ShockMeasurement> grouped = new ArrayList<>();
 		
-		LinkedList<Integer> groupLevels = new LinkedList<>();
-		int levelCount = 0;
 		ShockMeasurement center = null;
-		double centerLat = 0;
-		double centerLon = 0;
-		Iterator<ShockMeasurement> iter = measurements.iterator();
-		while(iter.hasNext()) {
-			while(iter.hasNext()) {
-				ShockMeasurement m = iter.next();
-				Integer level = m.getLevel();
-				if(level == null) { // ignore measurements without known level
-					iter.remove();
-					continue;
-				}
-				
-				LocationData d = m.getLocationData();
-				if(center == null) {
-					center = m;
-					centerLat = d.getLatitude();
-					centerLon = d.getLongitude();
-					groupLevels.add(level);
-					++levelCount;
-					iter.remove();
-				}else if(MathUtils.haversine(centerLat, centerLon, d.getLatitude(), d.getLongitude()) < _range) {
-					int sLevel = level;
-					ListIterator<Integer> lIter = groupLevels.listIterator(levelCount);
-					while(true) {
-						if(sLevel >= lIter.previous()) {
-							lIter.add(level);
-							break;
-						}else if(!lIter.hasPrevious()) {
-							groupLevels.addFirst(level);
-							break;
-						}
-					}
-					++levelCount;
-					iter.remove();
-				} // if
-			} // while
-			
-			if(levelCount == 0) {
-				continue;
-			}else if(levelCount % 2 == 0) {
+		while((center = groups.next()) != null) {
+			int[] levels = groups.getLevels();
+			int levelCount = groups.getLevelCount();
+			if(levelCount % 2 == 0) {
 				int mIndex = levelCount/2;
-				int level = Math.round((groupLevels.get(mIndex)+groupLevels.get(mIndex-1))/2);
+				int level = Math.round((select(levels, levelCount, mIndex)+select(levels, levelCount, mIndex-1))/2);
 				if(_levelFilter == null || ArrayUtils.contains(_levelFilter, level)) {
 					center.setLevel(level);
 					grouped.add(center);
 				}
 			}else {
-				center.setLevel(groupLevels.get(levelCount/2));
+				center.setLevel(select(levels, levelCount, levelCount/2));
 				grouped.add(center);
 			}
-			center = null;
-			levelCount = 0;
-			groupLevels.clear();
-			iter = measurements.iterator();
-		} // for
+		}
 		
 		return (grouped.isEmpty() ? null : grouped);
 	}
+	
+	/**
+	 * 
+	 * @param values
+	 * @param count number of values to use from the beginning of the array
+	 * @param k
+	 * @return the k:th smallest value (0-based)
+	 */
+	private static int select(int[] values, int count, int k) {
+		int min = values[0];
+		int max = min;
+		for(int i=1;i<count;++i) {
+			int value = values[i];
+			if(value < min) {
+				min = value;
+			}else if(value > max) {
+				max = value;
+			}
+		}
+		
+		long width = (long) max - min + 1;
+		if(width > count) { // the values are too sparse for counting sort
+			int[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+			return sorted[k];
+		}
+		
+		int[] counts = new int[(int) width];
+		for(int i=0;i<count;++i) {
+			++counts[values[i]-min];
+		}
+		for(int i=0;;++i) {
+			k -= counts[i];
+			if(k < 0) {
+				return min+i;
+			}
+		}
+	}
+	
+	/**
+	 * Splits the measurements into groups. 
+	 * 
+	 * The first measurement not yet belonging to a group (in list order) is used as the center of a new group, and all remaining measurements within the range of the center are added to the group.
+	 * 
+	 * Measurements without level or location are ignored.
+	 */
+	private static class Groups {
+		private ShockMeasurement[] _measurements = null;
+		private int[] _levels = null;
+		private int _levelCount = 0;
+		private int[] _groupLevels = null;
+		private SpatialGrid _grid = null;
+		private GeoPoints _points = null;
+		private int _position = 0;
+		private double _threshold = 0; // the range as haversine threshold
+		private int _size = 0;
+		
+		/**
+		 * 
+		 * @param measurements
+		 * @param range in km
+		 */
+		public Groups(List<ShockMeasurement> measurements, double range) {
+			_threshold = MathUtils.toHaversineThreshold(range);
+			int size = measurements.size();
+			_measurements = new ShockMeasurement[size];
+			_levels = new int[size];
+			double[] latitudes = new double[size];
+			double[] longitudes = new double[size];
+			for(ShockMeasurement m : measurements) {
+				Integer level = m.getLevel();
+				LocationData d = m.getLocationData();
+				if(level == null || d == null) { // ignore measurements without known level or location
+					continue;
+				}
+				_measurements[_size] = m;
+				_levels[_size] = level;
+				latitudes[_size] = d.getLatitude();
+				longitudes[_size] = d.getLongitude();
+				++_size;
+			}
+			if(_size < size) {
+				latitudes = Arrays.copyOf(latitudes, _size);
+				longitudes = Arrays.copyOf(longitudes, _size);
+			}
+			_grid = new SpatialGrid(latitudes, longitudes, range);
+			_points = new GeoPoints(latitudes, longitudes);
+			_groupLevels = new int[_size];
+		}
+		
+		/**
+		 * 
+		 * @return center of the next group or null if there are no more groups
+		 */
+		public ShockMeasurement next() {
+			while(_position < _size && !_grid.contains(_position)) {
+				++_position;
+			}
+			if(_position >= _size) {
+				return null;
+			}
+			
+			int center = _position++;
+			_grid.remove(center);
+			_levelCount = 0;
+			_groupLevels[_levelCount++] = _levels[center];
+			for(int i : _grid.getCandidates(_grid.getLatitude(center), _grid.getLongitude(center))) {
+				if(_points.isWithin(center, i, _threshold)) {
+					_groupLevels[_levelCount++] = _levels[i];
+					_grid.remove(i);
+				}
+			}
+			return _measurements[center];
+		}
+		
+		/**
+		 * 
+		 * @return levels of the current group, only the first {@link #getLevelCount()} values are valid
+		 */
+		public int[] getLevels() {
+			return _groupLevels;
+		}
+		
+		/**
+		 * 
+		 * @return number of levels in the current group
+		 */
+		public int getLevelCount() {
+			return _levelCount;
+		}
+	} // class Groups
 }
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import service.tut.pori.apilta.shock.datatypes.LocationData;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+
+/**
+ * Level, location, timestamp and user of measurements stored as primitive arrays.
+ * 
+ * Contains only measurements which have both level and location.
+ */
+public final class MeasurementColumns {
+	private static final Logger LOGGER = Logger.getLogger(MeasurementColumns.class);
+	private double[] _latitudes = null;
+	private int[] _levels = null;
+	private double[] _longitudes = null;
+	private int _size = 0;
+	private long[] _timestamps = null;
+	private long[] _userIds = null;
+	
+	/**
+	 * 
+	 * @param capacity
+	 */
+	protected MeasurementColumns(int capacity) {
+		_latitudes = new double[capacity];
+		_levels = new int[capacity];
+		_longitudes = new double[capacity];
+		_timestamps = new long[capacity];
+		_userIds = new long[capacity];
+	}
+	
+	/**
+	 * 
+	 * @param measurements
+	 * @return the measurements with level and location as columns
+	 */
+	public static MeasurementColumns fromMeasurements(List<ShockMeasurement> measurements) {
+		MeasurementColumns columns = new MeasurementColumns(measurements.size());
+		for(ShockMeasurement m : measurements) {
+			Integer level = m.getLevel();
+			LocationData location = m.getLocationData();
+			if(level == null || location == null) {
+				LOGGER.debug("Ignored measurement without level or location data, id: "+m.getMeasurementId());
+				continue;
+			}
+			columns.add(location.getLatitude(), location.getLongitude(), level, m.getTimestamp().getTime(), m.getUserId().getUserId());
+		}
+		return columns;
+	}
+	
+	/**
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @param level
+	 * @param timestamp
+	 * @param userId
+	 */
+	protected void add(double latitude, double longitude, int level, long timestamp, long userId) {
+		_latitudes[_size] = latitude;
+		_longitudes[_size] = longitude;
+		_levels[_size] = level;
+		_timestamps[_size] = timestamp;
+		_userIds[_size] = userId;
+		++_size;
+	}
+	
+	/**
+	 * 
+	 * @return number of measurements
+	 */
+	public int size() {
+		return _size;
+	}
+	
+	/**
+	 * 
+	 * @return latitudes, the length of the array equals to {@link #size()}
+	 */
+	public double[] getLatitudes() {
+		trim();
+		return _latitudes;
+	}
+	
+	/**
+	 * 
+	 * @return longitudes, the length of the array equals to {@link #size()}
+	 */
+	public double[] getLongitudes() {
+		trim();
+		return _longitudes;
+	}
+	
+	/**
+	 * 
+	 * @param index
+	 * @return level of the measurement
+	 */
+	public int getLevel(int index) {
+		return _levels[index];
+	}
+	
+	/**
+	 * 
+	 * @param index
+	 * @return timestamp of the measurement in milliseconds
+	 */
+	public long getTimestamp(int index) {
+		return _timestamps[index];
+	}
+	
+	/**
+	 * 
+	 * @param index
+	 * @return user id of the measurement
+	 */
+	public long getUserId(int index) {
+		return _userIds[index];
+	}
+	
+	/**
+	 * shrink the coordinate arrays to the number of measurements
+	 */
+	private void trim() {
+		if(_latitudes.length > _size) {
+			_latitudes = Arrays.copyOf(_latitudes, _size);
+			_longitudes = Arrays.copyOf(_longitudes, _size);
+		}
+	}
+}
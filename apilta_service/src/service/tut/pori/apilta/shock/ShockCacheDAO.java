@@ -0,0 +1,629 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import core.tut.pori.context.ServiceInitializer;
+import core.tut.pori.dao.SQLDAO;
+import core.tut.pori.dao.clause.SQLClause.SQLType;
+import core.tut.pori.http.parameters.DataGroups;
+import core.tut.pori.http.parameters.DateIntervalParameter;
+import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
+import core.tut.pori.http.parameters.Limits;
+import core.tut.pori.users.UserIdentity;
+import service.tut.pori.apilta.ApiltaProperties;
+import service.tut.pori.apilta.shock.datatypes.LocationData;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits.LatLng;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+import service.tut.pori.tasks.datatypes.Task.Visibility;
+
+/**
+ * Read-through in-memory cache for recent shock measurements.
+ * 
+ * The measurements (with location data, but without accelerometer data) are stored in column arrays, one segment per day (UTC). 
+ * The cache covers a continuous range of days from the oldest loaded day onwards, including measurements with future timestamps. 
+ * Missing days are loaded from the database when a query needs them, and days older than the configured number of days ({@link service.tut.pori.apilta.ApiltaProperties#getShockCacheDays()}) are evicted.
+ * 
+ * Only queries with a date filter starting within the cached period can be answered from the cache, for other queries the methods of this class return null, and the database should be used instead.
+ * 
+ * New measurements must be reported using {@link #beginUpdate()} and {@link #endUpdate(Collection)}.
+ * 
+ * Note: the cache assumes that all measurements are created through the same service instance. Measurements added through other instances (or directly to the database) are not seen until the day is evicted and reloaded, so the cache is disabled by default.
+ */
+public class ShockCacheDAO extends SQLDAO {
+	private static final long DAY = 86400000; // in ms
+	private static final Logger LOGGER = Logger.getLogger(ShockCacheDAO.class);
+	private static final byte NO_LEVEL = Byte.MIN_VALUE;
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	/* tables */
+	private static final String TABLE_SHOCK_LOCATION_DATA = DATABASE+".shock_location_data";
+	private static final String TABLE_SHOCK_MEASUREMENTS = DATABASE+".shock_measurements";
+	/* sql strings */
+	private static final String SQL_GET_MEASUREMENTS = "SELECT m.measurement_id, m.data_visibility, m.user_id, m.timestamp, m.level, l.latitude, l.longitude, l.heading, l.speed, l.timestamp FROM "+TABLE_SHOCK_MEASUREMENTS+" m LEFT JOIN "+TABLE_SHOCK_LOCATION_DATA+" l ON m.measurement_id=l.measurement_id WHERE m.timestamp>=?";
+	private static final String SQL_GET_MEASUREMENTS_BEFORE = SQL_GET_MEASUREMENTS+" AND m.timestamp<?";
+	private static final String SQL_ORDER_BY_TIMESTAMP = " ORDER BY m.timestamp";
+	private static final int[] SQL_GET_MEASUREMENTS_VALUE_TYPES = {SQLType.TIMESTAMP.toInt()};
+	private static final int[] SQL_GET_MEASUREMENTS_BEFORE_VALUE_TYPES = {SQLType.TIMESTAMP.toInt(), SQLType.TIMESTAMP.toInt()};
+	private ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private long _coveredFrom = Long.MAX_VALUE; // the first cached day, all days from this day on are in the cache
+	private long _modCount = 0; // incremented on every change, and when updates are started
+	private int _pendingUpdates = 0; // number of measurement inserts in progress
+	private TreeMap<Long, Segment> _segments = new TreeMap<>(); // day, segment
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dataGroups
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param limits
+	 * @param userIdFilter
+	 * @return the measurements in the same order and with the same details as {@link service.tut.pori.apilta.shock.ShockDAO#getMeasurements(UserIdentity, LocationLimits, DataGroups, DateIntervalParameter, int[], Limits, long[])} would return, empty list if no measurements were found or null if the query cannot be answered from the cache
+	 */
+	public List<ShockMeasurement> getMeasurements(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
+		boolean dataGroupAll = DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups);
+		if(dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_ACCELEROMETER_DATA, dataGroups)) {
+			LOGGER.debug("Accelerometer data is not cached.");
+			return null;
+		}
+		boolean retrieveLocations = DataGroups.hasDataGroup(Definitions.DATA_GROUP_LOCATION_DATA, dataGroups);
+		
+		Query query = createQuery(userIdentity, locationLimits, dateInterval, levelFilter, limits, userIdFilter);
+		if(query == null) {
+			return null;
+		}
+		
+		ArrayList<ShockMeasurement> measurements = new ArrayList<>();
+		_lock.readLock().lock();
+		try {
+			if(!query.execute(false)) {
+				return null;
+			}
+			for(int i=0, size=query._size;i<size;++i) {
+				measurements.add(query._segments[i].toMeasurement(query._rows[i], retrieveLocations));
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+		return measurements;
+	}
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param limits
+	 * @param userIdFilter
+	 * @return the measurements with level and location, in the same order as {@link #getMeasurements(UserIdentity, LocationLimits, DataGroups, DateIntervalParameter, int[], Limits, long[])} would return them, or null if the query cannot be answered from the cache
+	 */
+	public MeasurementColumns getMeasurementColumns(UserIdentity userIdentity, LocationLimits locationLimits, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
+		Query query = createQuery(userIdentity, locationLimits, dateInterval, levelFilter, limits, userIdFilter);
+		if(query == null) {
+			return null;
+		}
+		
+		_lock.readLock().lock();
+		try {
+			if(!query.execute(true)) {
+				return null;
+			}
+			int size = query._size;
+			MeasurementColumns columns = new MeasurementColumns(size);
+			for(int i=0;i<size;++i) {
+				Segment segment = query._segments[i];
+				int row = query._rows[i];
+				if(segment._levels[row] == NO_LEVEL || Double.isNaN(segment._latitudes[row])) { // limits are applied before dropping measurements without level or location, as in the database query
+					continue;
+				}
+				columns.add(segment._latitudes[row], segment._longitudes[row], segment._levels[row], segment._timestamps[row], segment._userIds[row]);
+			}
+			return columns;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Must be called before new measurements are inserted into the database. 
+	 * 
+	 * Each call must be followed by a call to {@link #endUpdate(Collection)}, also if the insert fails.
+	 */
+	public void beginUpdate() {
+		_lock.writeLock().lock();
+		try {
+			++_pendingUpdates;
+			++_modCount; // prevents installing database results which may or may not contain the new measurements
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param measurements the measurements which were inserted into the database, or null if the insert failed. The measurements must have measurement id.
+	 * @see #beginUpdate()
+	 */
+	public void endUpdate(Collection<ShockMeasurement> measurements) {
+		_lock.writeLock().lock();
+		try {
+			--_pendingUpdates;
+			++_modCount;
+			if(measurements == null) {
+				return;
+			}
+			for(ShockMeasurement measurement : measurements) { // the timestamps are cached with the same (whole second) precision as they are stored in the database
+				long timestamp = ShockDAO.truncateToSeconds(measurement.getTimestamp().getTime());
+				Long day = toDay(timestamp);
+				if(day < _coveredFrom) { // the day is not in the cache, it will be loaded from the database when needed
+					continue;
+				}
+				Segment segment = _segments.get(day);
+				if(segment == null) {
+					segment = new Segment();
+					_segments.put(day, segment);
+				}
+				LocationData location = measurement.getLocationData();
+				if(location == null) {
+					segment.add(measurement.getMeasurementId(), measurement.getVisibility().toInt(), measurement.getUserId().getUserId(), timestamp, measurement.getLevel(), Double.NaN, Double.NaN, null, null, NO_TIMESTAMP);
+				}else {
+					Date locationTimestamp = location.getTimestamp();
+					segment.add(measurement.getMeasurementId(), measurement.getVisibility().toInt(), measurement.getUserId().getUserId(), timestamp, measurement.getLevel(), location.getLatitude(), location.getLongitude(), location.getHeading(), location.getSpeed(), (locationTimestamp == null ? NO_TIMESTAMP : ShockDAO.truncateToSeconds(locationTimestamp.getTime())));
+				}
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param limits
+	 * @param userIdFilter
+	 * @return the query or null if the query cannot be answered from the cache
+	 */
+	private Query createQuery(UserIdentity userIdentity, LocationLimits locationLimits, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
+		int cacheDays = ServiceInitializer.getPropertyHandler().getSystemProperties(ApiltaProperties.class).getShockCacheDays();
+		if(cacheDays < 1) {
+			return null;
+		}
+		if(!dateInterval.hasValues()) {
+			LOGGER.debug("No date filter, the query cannot be answered from the cache.");
+			return null;
+		}
+		
+		long firstDay = toDay(System.currentTimeMillis()) - cacheDays + 1;
+		Set<Interval> intervals = dateInterval.getValues();
+		long[] starts = new long[intervals.size()];
+		long[] ends = new long[starts.length];
+		long startDay = Long.MAX_VALUE;
+		int index = 0;
+		for(Interval interval : intervals) {
+			starts[index] = interval.getStart().getTime();
+			ends[index] = interval.getEnd().getTime();
+			long day = toDay(starts[index]);
+			if(day < firstDay) {
+				LOGGER.debug("Date filter starts before the cached period.");
+				return null;
+			}
+			if(day < startDay) {
+				startDay = day;
+			}
+			++index;
+		}
+		
+		evict(firstDay);
+		if(!load(startDay)) {
+			return null;
+		}
+		
+		Query query = new Query(startDay, starts, ends);
+		query._userId = userIdentity.getUserId();
+		query._userIdFilter = (ArrayUtils.isEmpty(userIdFilter) ? null : userIdFilter);
+		query._levelFilter = (ArrayUtils.isEmpty(levelFilter) ? null : levelFilter);
+		if(locationLimits.hasValues()) {
+			LatLng lowerLeft = locationLimits.getLowerLeft();
+			LatLng upperRight = locationLimits.getUpperRight();
+			query._minLatitude = lowerLeft.getLatitude();
+			query._minLongitude = lowerLeft.getLongitude();
+			query._maxLatitude = upperRight.getLatitude();
+			query._maxLongitude = upperRight.getLongitude();
+			query._useLocationLimits = true;
+		}
+		if(limits != null) {
+			String type = service.tut.pori.apilta.sensors.datatypes.Definitions.ELEMENT_MEASUREMENT_LIST; // the same type as used with the database query
+			query._startItem = limits.getStartItem(type);
+			query._maxItems = limits.getMaxItems(type);
+		}
+		return query;
+	}
+	
+	/**
+	 * Remove the days before the given day from the cache
+	 * 
+	 * @param firstDay
+	 */
+	private void evict(long firstDay) {
+		_lock.readLock().lock();
+		try {
+			if(_coveredFrom >= firstDay) {
+				return;
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+		
+		_lock.writeLock().lock();
+		try {
+			if(_coveredFrom < firstDay) {
+				LOGGER.debug("Evicting days before "+firstDay+" from the cache.");
+				_segments.headMap(firstDay).clear();
+				_coveredFrom = firstDay;
+				++_modCount;
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Make sure that all days starting from the given day are in the cache.
+	 * 
+	 * @param startDay
+	 * @return true if the days are in the cache, false if the days could not be added to the cache because of concurrent modifications
+	 */
+	private boolean load(long startDay) {
+		long coveredFrom = 0;
+		long modCount = 0;
+		_lock.readLock().lock();
+		try {
+			if(_coveredFrom <= startDay) {
+				return true;
+			}else if(_pendingUpdates > 0) {
+				LOGGER.debug("Measurements are being inserted, not loading the cache.");
+				return false;
+			}
+			coveredFrom = _coveredFrom;
+			modCount = _modCount;
+		} finally {
+			_lock.readLock().unlock();
+		}
+		
+		LOGGER.debug("Loading days "+startDay+" - "+(coveredFrom == Long.MAX_VALUE ? "" : coveredFrom-1)+" to the cache.");
+		TreeMap<Long, Segment> segments = new TreeMap<>();
+		RowCallbackHandler handler = new RowCallbackHandler() {
+			private Long _day = null;
+			private Segment _segment = null;
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				long timestamp = set.getTimestamp(4).getTime();
+				Long day = toDay(timestamp);
+				if(!day.equals(_day)) {
+					_day = day;
+					_segment = new Segment();
+					segments.put(day, _segment);
+				}
+				int level = set.getInt(5);
+				Integer levelValue = (set.wasNull() ? null : level);
+				double latitude = set.getDouble(6);
+				if(set.wasNull()) { // no location data
+					_segment.add(set.getString(1), set.getInt(2), set.getLong(3), timestamp, levelValue, Double.NaN, Double.NaN, null, null, NO_TIMESTAMP);
+				}else {
+					double heading = set.getDouble(8);
+					Double headingValue = (set.wasNull() ? null : heading);
+					double speed = set.getDouble(9);
+					Double speedValue = (set.wasNull() ? null : speed);
+					java.sql.Timestamp locationTimestamp = set.getTimestamp(10);
+					_segment.add(set.getString(1), set.getInt(2), set.getLong(3), timestamp, levelValue, latitude, set.getDouble(7), headingValue, speedValue, (locationTimestamp == null ? NO_TIMESTAMP : locationTimestamp.getTime()));
+				}
+			}
+		};
+		if(coveredFrom == Long.MAX_VALUE) { // nothing cached yet, load everything from the start day on
+			getJdbcTemplate().query(SQL_GET_MEASUREMENTS+SQL_ORDER_BY_TIMESTAMP, new Object[]{new Date(startDay * DAY)}, SQL_GET_MEASUREMENTS_VALUE_TYPES, handler);
+		}else {
+			getJdbcTemplate().query(SQL_GET_MEASUREMENTS_BEFORE+SQL_ORDER_BY_TIMESTAMP, new Object[]{new Date(startDay * DAY), new Date(coveredFrom * DAY)}, SQL_GET_MEASUREMENTS_BEFORE_VALUE_TYPES, handler);
+		}
+		
+		_lock.writeLock().lock();
+		try {
+			if(modCount != _modCount) { // something changed while loading, the loaded data may not be up-to-date
+				LOGGER.debug("The cache was modified while loading.");
+				return false;
+			}
+			_segments.putAll(segments);
+			_coveredFrom = startDay;
+			++_modCount;
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param timestamp
+	 * @return the day (UTC) of the timestamp as days since the epoch
+	 */
+	private static Long toDay(long timestamp) {
+		return Long.valueOf(Math.floorDiv(timestamp, DAY));
+	}
+	
+	/**
+	 * Filters and limits for a cache query
+	 *
+	 */
+	private class Query {
+		private long[] _ends = null;
+		private int[] _levelFilter = null;
+		private double _maxLatitude = 0;
+		private int _maxItems = Integer.MAX_VALUE;
+		private double _maxLongitude = 0;
+		private double _minLatitude = 0;
+		private double _minLongitude = 0;
+		private int[] _rows = new int[16];
+		private Segment[] _segments = new Segment[16];
+		private int _size = 0;
+		private int _startItem = 0;
+		private long _startDay = 0;
+		private long[] _starts = null;
+		private boolean _useLocationLimits = false;
+		private long _userId = 0;
+		private long[] _userIdFilter = null;
+		
+		/**
+		 * 
+		 * @param startDay
+		 * @param starts interval start timestamps
+		 * @param ends interval end timestamps
+		 */
+		public Query(long startDay, long[] starts, long[] ends) {
+			_startDay = startDay;
+			_starts = starts;
+			_ends = ends;
+		}
+		
+		/**
+		 * Collect the matching rows, ordered by timestamp (newest first), the caller must hold the read lock.
+		 * 
+		 * @param levelAsInt if true, the results are used as int levels, otherwise as Integer objects
+		 * @return false if the query could not be executed from the cache
+		 */
+		public boolean execute(boolean levelAsInt) {
+			if(_coveredFrom > _startDay) { // evicted after loading
+				return false;
+			}
+			
+			NavigableMap<Long, Segment> segments = ShockCacheDAO.this._segments.tailMap(_startDay, true).descendingMap();
+			for(Segment segment : segments.values()) {
+				if(segment._unsupported) {
+					LOGGER.debug("The cache contains levels which cannot be cached.");
+					return false;
+				}
+			}
+			
+			int skip = _startItem;
+			for(Iterator<Entry<Long, Segment>> iter = segments.entrySet().iterator(); iter.hasNext() && _size < _maxItems;) {
+				Segment segment = iter.next().getValue();
+				for(int row=segment._size-1;row>=0;--row) {
+					if(!matches(segment, row)) {
+						continue;
+					}
+					if(skip > 0) {
+						--skip;
+						continue;
+					}
+					add(segment, row);
+					if(_size >= _maxItems) {
+						break;
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * 
+		 * @param segment
+		 * @param row
+		 * @return true if the row matches the filters
+		 */
+		private boolean matches(Segment segment, int row) {
+			long userId = segment._userIds[row];
+			if(userId != _userId && segment._visibilities[row] != Visibility.PUBLIC.toInt()) {
+				return false;
+			}
+			
+			long timestamp = segment._timestamps[row];
+			boolean inInterval = false;
+			for(int i=0;i<_starts.length;++i) {
+				if(timestamp >= _starts[i] && timestamp <= _ends[i]) {
+					inInterval = true;
+					break;
+				}
+			}
+			if(!inInterval) {
+				return false;
+			}
+			
+			if(_userIdFilter != null && !ArrayUtils.contains(_userIdFilter, userId)) {
+				return false;
+			}
+			
+			if(_levelFilter != null) {
+				byte level = segment._levels[row];
+				if(level == NO_LEVEL || !ArrayUtils.contains(_levelFilter, level)) {
+					return false;
+				}
+			}
+			
+			if(_useLocationLimits) {
+				double latitude = segment._latitudes[row];
+				double longitude = segment._longitudes[row];
+				if(Double.isNaN(latitude) || latitude < _minLatitude || latitude > _maxLatitude || longitude < _minLongitude || longitude > _maxLongitude) { // borders are included, as with the database query
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * 
+		 * @param segment
+		 * @param row
+		 */
+		private void add(Segment segment, int row) {
+			if(_size == _rows.length) {
+				_rows = Arrays.copyOf(_rows, _size * 2);
+				_segments = Arrays.copyOf(_segments, _size * 2);
+			}
+			_rows[_size] = row;
+			_segments[_size] = segment;
+			++_size;
+		}
+	} // class Query
+	
+	/**
+	 * Measurements of a single day in column arrays, ordered by timestamp (oldest first)
+	 *
+	 */
+	private static class Segment {
+		private double[] _headings = new double[16]; // NaN for null
+		private double[] _latitudes = new double[16]; // NaN if there is no location data
+		private byte[] _levels = new byte[16]; // NO_LEVEL for null
+		private long[] _locationTimestamps = new long[16]; // NO_TIMESTAMP for null
+		private double[] _longitudes = new double[16];
+		private String[] _measurementIds = new String[16];
+		private int _size = 0;
+		private double[] _speeds = new double[16]; // NaN for null
+		private long[] _timestamps = new long[16];
+		private boolean _unsupported = false; // true if the segment contains levels which cannot be stored as bytes
+		private long[] _userIds = new long[16];
+		private byte[] _visibilities = new byte[16];
+		
+		/**
+		 * 
+		 * @param measurementId
+		 * @param visibility
+		 * @param userId
+		 * @param timestamp
+		 * @param level
+		 * @param latitude NaN if no location data
+		 * @param longitude
+		 * @param heading
+		 * @param speed
+		 * @param locationTimestamp
+		 */
+		public void add(String measurementId, int visibility, long userId, long timestamp, Integer level, double latitude, double longitude, Double heading, Double speed, long locationTimestamp) {
+			if(_size == _timestamps.length) {
+				int capacity = _size * 2;
+				_headings = Arrays.copyOf(_headings, capacity);
+				_latitudes = Arrays.copyOf(_latitudes, capacity);
+				_levels = Arrays.copyOf(_levels, capacity);
+				_locationTimestamps = Arrays.copyOf(_locationTimestamps, capacity);
+				_longitudes = Arrays.copyOf(_longitudes, capacity);
+				_measurementIds = Arrays.copyOf(_measurementIds, capacity);
+				_speeds = Arrays.copyOf(_speeds, capacity);
+				_timestamps = Arrays.copyOf(_timestamps, capacity);
+				_userIds = Arrays.copyOf(_userIds, capacity);
+				_visibilities = Arrays.copyOf(_visibilities, capacity);
+			}
+			
+			int row = _size;
+			while(row > 0 && _timestamps[row-1] > timestamp) { // new measurements are usually the newest ones, so search from the end
+				--row;
+			}
+			if(row < _size) {
+				int length = _size - row;
+				for(Object array : new Object[]{_headings, _latitudes, _levels, _locationTimestamps, _longitudes, _measurementIds, _speeds, _timestamps, _userIds, _visibilities}) {
+					System.arraycopy(array, row, array, row + 1, length);
+				}
+			}
+			
+			if(level == null) {
+				_levels[row] = NO_LEVEL;
+			}else if(level > Byte.MAX_VALUE || level <= NO_LEVEL) {
+				LOGGER.warn("Level "+level+" cannot be cached, measurement id: "+measurementId);
+				_unsupported = true;
+			}else {
+				_levels[row] = level.byteValue();
+			}
+			_headings[row] = (heading == null ? Double.NaN : heading);
+			_latitudes[row] = latitude;
+			_locationTimestamps[row] = locationTimestamp;
+			_longitudes[row] = longitude;
+			_measurementIds[row] = measurementId;
+			_speeds[row] = (speed == null ? Double.NaN : speed);
+			_timestamps[row] = timestamp;
+			_userIds[row] = userId;
+			_visibilities[row] = (byte) visibility;
+			++_size;
+		}
+		
+		/**
+		 * 
+		 * @param row
+		 * @param withLocation
+		 * @return the row as a measurement
+		 */
+		public ShockMeasurement toMeasurement(int row, boolean withLocation) {
+			ShockMeasurement m = new ShockMeasurement();
+			m.setMeasurementId(_measurementIds[row]);
+			m.setVisibility(Visibility.fromInt(_visibilities[row]));
+			m.setUserId(new UserIdentity(_userIds[row]));
+			m.setTimestamp(new Date(_timestamps[row]));
+			byte level = _levels[row];
+			m.setLevel(level == NO_LEVEL ? null : Integer.valueOf(level));
+			if(withLocation && !Double.isNaN(_latitudes[row])) {
+				LocationData lData = new LocationData();
+				lData.setLatitude(_latitudes[row]);
+				lData.setLongitude(_longitudes[row]);
+				double heading = _headings[row];
+				lData.setHeading(Double.isNaN(heading) ? null : heading);
+				double speed = _speeds[row];
+				lData.setSpeed(Double.isNaN(speed) ? null : speed);
+				long locationTimestamp = _locationTimestamps[row];
+				lData.setTimestamp(locationTimestamp == NO_TIMESTAMP ? null : new Date(locationTimestamp));
+				m.setLocationData(lData);
+			}
+			return m;
+		}
+	} // class Segment
+}
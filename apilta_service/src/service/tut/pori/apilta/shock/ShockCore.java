@@ -15,12 +15,13 @@
  */
 package service.tut.pori.apilta.shock;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
 import core.tut.pori.context.ServiceInitializer;
@@ -28,15 +29,19 @@ import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.XMLFormatter;
 import service.tut.pori.apilta.ApiltaProperties;
 import service.tut.pori.apilta.shock.GroupCalculator.GroupMethod;
-import service.tut.pori.apilta.shock.datatypes.LocationData;
 import service.tut.pori.apilta.shock.datatypes.LocationLimits;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits.LatLng;
 import service.tut.pori.apilta.shock.datatypes.ShockHighlight;
 import service.tut.pori.apilta.shock.datatypes.ShockHighlightList;
 import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
 import service.tut.pori.apilta.shock.datatypes.ShockMeasurementList;
+import service.tut.pori.apilta.shock.datatypes.ShockTileList;
+import service.tut.pori.apilta.utils.GeoPoints;
 import service.tut.pori.apilta.utils.MathUtils;
+import service.tut.pori.apilta.utils.SpatialGrid;
 
 /**
  * 
@@ -44,6 +49,7 @@ import service.tut.pori.apilta.utils.MathUtils;
  */
 public final class ShockCore {
 	private static final DataGroups DATAGROUP_LOCATION_DATA = new DataGroups(Definitions.DATA_GROUP_LOCATION_DATA);
+	private static final XMLFormatter FORMATTER = new XMLFormatter();
 	private static final Logger LOGGER = Logger.getLogger(ShockCore.class);
 	
 	/**
@@ -54,27 +60,160 @@ public final class ShockCore {
 	}
 
 	/**
+	 * Creates all valid measurements from the given list in a single batch. Invalid measurements are ignored.
 	 * 
 	 * @param userIdentity
 	 * @param list
-	 * @throws IllegalArgumentException on invalid data
+	 * @return list containing a measurement for each measurement in the given list, in the same order. The returned measurements contain only the generated measurement id, or no id if the measurement at that position was invalid and was not created.
+	 * @throws IllegalArgumentException on empty list or if none of the measurements were valid
 	 */
-	public static void createMeasurement(UserIdentity userIdentity, ShockMeasurementList list) throws IllegalArgumentException {
-		if(!ShockMeasurementList.isValid(list)){
+	public static ShockMeasurementList createMeasurement(UserIdentity userIdentity, ShockMeasurementList list) throws IllegalArgumentException {
+		if(ShockMeasurementList.isEmpty(list)){
 			throw new IllegalArgumentException("Empty or invalid measurement list provided.");
 		}
 		
-		ShockDAO dao = ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class);
-		for(ShockMeasurement measurement : list.getShockMeasurements()){
-			measurement.setUserId(userIdentity); // set the authenticated user as the owner for all measurements
+		List<ShockMeasurement> result = createMeasurements(userIdentity, list.getShockMeasurements());
+		if(!hasMeasurementIds(result)) {
+			throw new IllegalArgumentException("No valid measurements in the list.");
+		}
+		return ShockMeasurementList.getShockMeasurementList(result);
+	}
+	
+	/**
+	 * Creates all valid measurements from the given xml input. 
+	 * 
+	 * The input is parsed in chunks of {@value service.tut.pori.apilta.shock.Definitions#MEASUREMENT_CHUNK_SIZE} measurements, and each chunk is created as a separate batch, 
+	 * i.e. the entire measurement list is never kept in memory. All chunks are created in a single transaction, so on error (e.g. bad xml after the first chunk) none of the measurements are stored. 
+	 * Invalid measurements are ignored.
+	 * 
+	 * @param userIdentity
+	 * @param xml {@link ShockMeasurementList}
+	 * @return list containing a measurement for each measurement in the given list, in the same order. The returned measurements contain only the generated measurement id, or no id if the measurement at that position was invalid and was not created.
+	 * @throws IllegalArgumentException on bad xml, on empty list or if none of the measurements were valid
+	 * @see #createMeasurement(UserIdentity, ShockMeasurementList)
+	 */
+	public static ShockMeasurementList createMeasurement(UserIdentity userIdentity, InputStream xml) throws IllegalArgumentException {
+		ArrayList<ShockMeasurement> result = new ArrayList<>();
+		ArrayList<ShockMeasurement> created = new ArrayList<>();
+		ShockDAO shockDAO = ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class);
+		createMeasurements(() -> shockDAO.executeInTransaction(() -> FORMATTER.toObjects(xml, ShockMeasurementList.class, ShockMeasurement.class, Definitions.MEASUREMENT_CHUNK_SIZE, (list, measurements, position) -> {
+			List<ShockMeasurement> valid = getValidMeasurements(userIdentity, measurements);
+			if(!valid.isEmpty()) {
+				shockDAO.createMeasurements(valid); // joins the transaction
+				for(ShockMeasurement measurement : valid) {
+					measurement.setAccelerometerData(null); // not needed by the cache or the highlights, release the memory
+				}
+				created.addAll(valid);
+			}
+			result.addAll(getMeasurementIds(measurements));
+		})), created);
+		if(result.isEmpty()){
+			throw new IllegalArgumentException("Empty or invalid measurement list provided.");
+		}else if(!hasMeasurementIds(result)) {
+			throw new IllegalArgumentException("No valid measurements in the list.");
+		}
+		return ShockMeasurementList.getShockMeasurementList(result);
+	}
+	
+	/**
+	 * 
+	 * @param measurements
+	 * @return true if at least one of the measurements has measurement id
+	 */
+	private static boolean hasMeasurementIds(List<ShockMeasurement> measurements) {
+		for(ShockMeasurement measurement : measurements){
+			if(measurement.getMeasurementId() != null){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Creates all valid measurements from the given list in a single batch. Invalid measurements are ignored.
+	 * 
+	 * @param userIdentity
+	 * @param measurements
+	 * @return list containing a measurement for each measurement in the given list, in the same order, see {@link #createMeasurement(UserIdentity, ShockMeasurementList)}
+	 */
+	private static List<ShockMeasurement> createMeasurements(UserIdentity userIdentity, List<ShockMeasurement> measurements) {
+		List<ShockMeasurement> valid = getValidMeasurements(userIdentity, measurements);
+		if(!valid.isEmpty()) {
+			createMeasurements(() -> ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class).createMeasurements(valid), valid);
+		}
+		return getMeasurementIds(measurements);
+	}
+	
+	/**
+	 * Runs the given insert between the update calls of the measurement cache and the highlights. 
+	 * 
+	 * The cache and the highlights are updated with the given measurements only if the insert completes without an exception.
+	 * 
+	 * @param insert inserts the measurements into the database
+	 * @param measurements the measurements inserted by the given insert, the list may be filled by the insert
+	 */
+	private static void createMeasurements(Runnable insert, List<ShockMeasurement> measurements) {
+		ShockCacheDAO cacheDAO = ServiceInitializer.getDAOHandler().getDAO(ShockCacheDAO.class);
+		ShockHighlightDAO highlightDAO = ServiceInitializer.getDAOHandler().getDAO(ShockHighlightDAO.class);
+		boolean created = false;
+		cacheDAO.beginUpdate();
+		try {
+			highlightDAO.beginUpdate();
+			try {
+				insert.run();
+				created = true;
+			} finally { // each successful beginUpdate is paired with endUpdate, also if the other DAO fails
+				highlightDAO.endUpdate(created ? measurements : null);
+			}
+		} finally {
+			cacheDAO.endUpdate(created ? measurements : null);
+		}
+	}
+	
+	/**
+	 * Sets the authenticated user as the owner and the default visibility for the valid measurements.
+	 * 
+	 * @param userIdentity
+	 * @param measurements
+	 * @return the valid measurements from the given list, in the same order
+	 */
+	private static List<ShockMeasurement> getValidMeasurements(UserIdentity userIdentity, List<ShockMeasurement> measurements) {
+		ArrayList<ShockMeasurement> valid = new ArrayList<>(measurements.size());
+		for(ShockMeasurement measurement : measurements){
+			if(!ShockMeasurement.isValid(measurement)) {
+				continue;
+			}
 			
+			measurement.setUserId(userIdentity); // set the authenticated user as the owner for all measurements
 			if(measurement.getVisibility() == null){
 				LOGGER.debug("Empty visibility for measurement provided by user, id: "+userIdentity.getUserId()+", defaulting to: "+Definitions.DEFAULT_VISIBILITY);
 				measurement.setVisibility(Definitions.DEFAULT_VISIBILITY);
 			}
-			
-			dao.createMeasurement(measurement);
+			valid.add(measurement);
+		}
+		
+		int invalidCount = measurements.size() - valid.size();
+		if(invalidCount > 0) {
+			LOGGER.debug("Ignored "+invalidCount+" invalid measurement(s) provided by user, id: "+userIdentity.getUserId());
+		}
+		return valid;
+	}
+	
+	/**
+	 * 
+	 * @param measurements
+	 * @return list containing a measurement for each measurement in the given list, in the same order. The returned measurements contain only the measurement id, or no id if the measurement at that position was not created.
+	 */
+	private static List<ShockMeasurement> getMeasurementIds(List<ShockMeasurement> measurements) {
+		ArrayList<ShockMeasurement> result = new ArrayList<>(measurements.size());
+		for(ShockMeasurement measurement : measurements){
+			ShockMeasurement m = new ShockMeasurement();
+			if(measurement != null) {
+				m.setMeasurementId(measurement.getMeasurementId()); // null for invalid measurements
+			}
+			result.add(m);
 		}
+		return result;
 	}
 
 	/**
@@ -91,7 +230,8 @@ public final class ShockCore {
 	 * @return measurement list or null if nothing was found
 	 */
 	public static ShockMeasurementList getMeasurements(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, GroupMethod groupMethod, Integer groupRange, long[] userIdFilter) {
-		ShockMeasurementList measurements = ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class).getMeasurements(userIdentity, locationLimits, dataGroups, dateInterval, levelFilter, limits, userIdFilter);
+		List<ShockMeasurement> cached = ServiceInitializer.getDAOHandler().getDAO(ShockCacheDAO.class).getMeasurements(userIdentity, locationLimits, dataGroups, dateInterval, levelFilter, limits, userIdFilter);
+		ShockMeasurementList measurements = (cached == null ? ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class).getMeasurements(userIdentity, locationLimits, dataGroups, dateInterval, levelFilter, limits, userIdFilter) : ShockMeasurementList.getShockMeasurementList(cached));
 		if(!ShockMeasurementList.isEmpty(measurements) && groupMethod != null) {
 			GroupCalculator gc = new GroupCalculator(groupMethod, groupRange);
 			gc.setLevelFilter(levelFilter);
@@ -105,6 +245,53 @@ public final class ShockCore {
 	}
 
 	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dataGroups
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param userIdFilter
+	 * @param after optional timestamp and measurement id of the last measurement of the previous export, in format ISO_DATE{@value core.tut.pori.http.Definitions#SEPARATOR_URI_QUERY_TYPE_VALUE}MEASUREMENT_ID
+	 * @param maxMeasurements optional maximum number of measurements
+	 * @param format {@value service.tut.pori.apilta.shock.Definitions#FORMAT_XML} (default) or {@value service.tut.pori.apilta.shock.Definitions#FORMAT_CSV}
+	 * @return response, which will write the measurements
+	 * @throws IllegalArgumentException on invalid parameters
+	 */
+	public static ShockExportResponse exportMeasurements(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, long[] userIdFilter, String after, Integer maxMeasurements, String format) throws IllegalArgumentException {
+		boolean csv = false;
+		if(format != null) {
+			if(Definitions.FORMAT_CSV.equalsIgnoreCase(format)) {
+				csv = true;
+			}else if(!Definitions.FORMAT_XML.equalsIgnoreCase(format)) {
+				throw new IllegalArgumentException("Unsupported format: "+format);
+			}
+		}
+		
+		int max = 0;
+		if(maxMeasurements != null) {
+			if(maxMeasurements < 1) {
+				throw new IllegalArgumentException("Invalid maximum number of measurements: "+maxMeasurements);
+			}
+			max = maxMeasurements;
+		}
+		
+		Date afterTimestamp = null;
+		String afterMeasurementId = null;
+		if(!StringUtils.isBlank(after)) {
+			String[] parts = StringUtils.split(after, core.tut.pori.http.Definitions.SEPARATOR_URI_QUERY_TYPE_VALUE);
+			if(parts.length != 2) {
+				throw new IllegalArgumentException("Invalid value for parameter "+Definitions.PARAMETER_AFTER+": "+after);
+			}
+			afterTimestamp = core.tut.pori.utils.StringUtils.ISOStringToDate(parts[0]);
+			afterMeasurementId = parts[1];
+		}
+		
+		return new ShockExportResponse(userIdentity, locationLimits, dataGroups, dateInterval, levelFilter, userIdFilter, afterTimestamp, afterMeasurementId, max, csv);
+	}
+
+	/**
+	 * If the parameters match the configured highlight parameters, the highlights are resolved from the pre-calculated clusters of {@link service.tut.pori.apilta.shock.ShockHighlightDAO}, otherwise the highlights are calculated on request.
 	 * 
 	 * @param userIdentity
 	 * @param minMeasurements the highlight group's minimum number of measurements
@@ -117,61 +304,78 @@ public final class ShockCore {
 	 * @return highlight list of null if nothing was found
 	 */
 	public static ShockHighlightList getHighlights(UserIdentity userIdentity, int minMeasurements, double range, LocationLimits locationLimits, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
-		ShockMeasurementList list = getMeasurements(userIdentity, locationLimits, DATAGROUP_LOCATION_DATA, dateInterval, levelFilter, limits, null, null, userIdFilter);
-		if(ShockMeasurementList.isEmpty(list)) {
-			LOGGER.debug("No measurements found with the given values.");
+		List<ShockHighlight> precalculated = ServiceInitializer.getDAOHandler().getDAO(ShockHighlightDAO.class).getHighlights(userIdentity, minMeasurements, range, locationLimits, dateInterval, levelFilter, limits, userIdFilter);
+		if(precalculated != null) {
+			return ShockHighlightList.getShockMeasurementList(precalculated);
+		}
+		
+		MeasurementColumns columns = ServiceInitializer.getDAOHandler().getDAO(ShockCacheDAO.class).getMeasurementColumns(userIdentity, locationLimits, dateInterval, levelFilter, limits, userIdFilter);
+		if(columns == null) {
+			ShockMeasurementList list = ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class).getMeasurements(userIdentity, locationLimits, DATAGROUP_LOCATION_DATA, dateInterval, levelFilter, limits, userIdFilter);
+			if(ShockMeasurementList.isEmpty(list)) {
+				LOGGER.debug("No measurements found with the given values.");
+				return null;
+			}
+			columns = MeasurementColumns.fromMeasurements(list.getShockMeasurements()); // measurements without location data or level are ignored
+		}
+		int size = columns.size();
+		if(size < 1) {
+			LOGGER.debug("No measurements with location data found with the given values.");
 			return null;
 		}
+		double[] latitudes = columns.getLatitudes();
+		double[] longitudes = columns.getLongitudes();
 		
 		ArrayList<ShockHighlight> highlights = new ArrayList<>();
 		HashSet<Long> userIds = new HashSet<>();
 		long minTimeDifference = ServiceInitializer.getPropertyHandler().getSystemProperties(ApiltaProperties.class).getShockGroupTimeDifference();
-		List<ShockMeasurement> measurements = list.getShockMeasurements();
-		int size = 0;
-		while((size = measurements.size()) > minMeasurements) {
-			ShockMeasurement center = measurements.remove(size-1);
-			Date from = center.getTimestamp();
-			Date to = from;
-			long centerTimestamp = center.getTimestamp().getTime();
-			int minLevel = center.getLevel();
+		SpatialGrid grid = new SpatialGrid(latitudes, longitudes, range);
+		GeoPoints points = new GeoPoints(latitudes, longitudes);
+		double threshold = MathUtils.toHaversineThreshold(range);
+		for(int c = size-1; c >= 0 && grid.size() > minMeasurements; --c) { // use the oldest remaining measurement as the next center
+			if(!grid.contains(c)) { // already part of a previous group
+				continue;
+			}
+			grid.remove(c);
+			long from = columns.getTimestamp(c);
+			long to = from;
+			long centerTimestamp = from;
+			int minLevel = columns.getLevel(c);
 			int maxLevel = minLevel;
 			double maxRange = 0;
 			int measurementCount = 0;
 			userIds.clear();
-			Long userId = center.getUserId().getUserId();
+			long userId = columns.getUserId(c);
 			userIds.add(userId);
-			LocationData location = center.getLocationData();
-			double lat = location.getLatitude();
-			double lon = location.getLongitude();
+			double lat = latitudes[c];
+			double lon = longitudes[c];
 			
-			for(Iterator<ShockMeasurement> iter = measurements.iterator(); iter.hasNext();){
-				ShockMeasurement m = iter.next();
-				Date mt = m.getTimestamp();
-				UserIdentity mUserId = m.getUserId();
-				if(UserIdentity.equals(mUserId, userId) && Math.abs(mt.getTime()-centerTimestamp) < minTimeDifference){ // if the measurements are from the same user, check that the measurements are from different sessions
+			for(int i : grid.getCandidates(lat, lon)){ // only the measurements in the neighbouring cells can be within the range
+				long mt = columns.getTimestamp(i);
+				long mUserId = columns.getUserId(i);
+				if(mUserId == userId && Math.abs(mt-centerTimestamp) < minTimeDifference){ // if the measurements are from the same user, check that the measurements are from different sessions
 					continue;
 				}
-				location = m.getLocationData();
-				double tRange = MathUtils.haversine(lat, lon, location.getLatitude(), location.getLongitude());
-				if(tRange < range){
-					userIds.add(mUserId.getUserId());
+				if(points.isWithin(c, i, threshold)){
+					double tRange = points.haversine(c, i);
+					userIds.add(mUserId);
 					++measurementCount;
 					if(tRange > maxRange){
 						maxRange = tRange;
 					}
-					int level = m.getLevel();
+					int level = columns.getLevel(i);
 					if(level < minLevel){
 						minLevel = level;
 					}else if(level > maxLevel){
 						maxLevel = level;
 					}
 					
-					if(mt.before(from)) {
+					if(mt < from) {
 						from = mt;
-					}else if(mt.after(to)) {
+					}else if(mt > to) {
 						to = mt;
 					}
-					iter.remove();
+					grid.remove(i);
 				} // if
 			} // for
 			
@@ -179,8 +383,8 @@ public final class ShockCore {
 				ShockHighlight hl = new ShockHighlight();
 				hl.setLatitude(lat); // naively use the center point even though it may not be the exact center
 				hl.setLongitude(lon); // naively use the center point even though it may not be the exact center
-				hl.setFrom(from);
-				hl.setTo(to);
+				hl.setFrom(new Date(from));
+				hl.setTo(new Date(to));
 				hl.setMaxLevel(maxLevel);
 				hl.setMinLevel(minLevel);
 				hl.setUserCount(userIds.size());
@@ -192,4 +396,47 @@ public final class ShockCore {
 		
 		return ShockHighlightList.getShockMeasurementList(highlights);
 	}
+	
+	/**
+	 * The tiles are selected either by the location limits, or by the given x and y tile indexes. The tiles contain only public measurements.
+	 * 
+	 * @param zoom 0-{@value service.tut.pori.apilta.shock.Definitions#MAX_TILE_ZOOM}
+	 * @param locationLimits if given, all tiles overlapping the area are returned
+	 * @param x used if location limits is not given, a single x index or an inclusive range of two indexes
+	 * @param y used if location limits is not given, a single y index or an inclusive range of two indexes
+	 * @return list of non-empty tiles or null if none was found
+	 * @throws IllegalArgumentException on invalid parameters
+	 */
+	public static ShockTileList getTiles(int zoom, LocationLimits locationLimits, int[] x, int[] y) throws IllegalArgumentException {
+		if(zoom < 0 || zoom > Definitions.MAX_TILE_ZOOM) {
+			throw new IllegalArgumentException("Invalid zoom level: "+zoom);
+		}
+		
+		int minX, maxX, minY, maxY;
+		if(locationLimits != null && locationLimits.hasValues()) {
+			LatLng lowerLeft = locationLimits.getLowerLeft();
+			LatLng upperRight = locationLimits.getUpperRight();
+			minX = MathUtils.toTileX(lowerLeft.getLongitude(), zoom);
+			maxX = MathUtils.toTileX(upperRight.getLongitude(), zoom);
+			minY = MathUtils.toTileY(upperRight.getLatitude(), zoom); // tile y grows towards south
+			maxY = MathUtils.toTileY(lowerLeft.getLatitude(), zoom);
+		}else if(x != null && y != null && x.length > 0 && x.length < 3 && y.length > 0 && y.length < 3) {
+			minX = x[0];
+			maxX = x[x.length-1];
+			minY = y[0];
+			maxY = y[y.length-1];
+		}else {
+			throw new IllegalArgumentException("Location limits or x and y must be given.");
+		}
+		
+		int max = (1 << zoom) - 1;
+		if(minX < 0 || minY < 0 || maxX > max || maxY > max || minX > maxX || minY > maxY) {
+			throw new IllegalArgumentException("Invalid tile range for zoom level "+zoom+": x "+minX+"-"+maxX+", y "+minY+"-"+maxY);
+		}
+		if(((long) (maxX - minX + 1)) * (maxY - minY + 1) > Definitions.MAX_TILES) {
+			throw new IllegalArgumentException("Too many tiles requested, maximum is "+Definitions.MAX_TILES+".");
+		}
+		
+		return ServiceInitializer.getDAOHandler().getDAO(ShockTileDAO.class).getTiles(zoom, minX, maxX, minY, maxY);
+	}
 }
@@ -15,15 +15,27 @@
  */
 package service.tut.pori.apilta.shock;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.UUID;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ArgumentTypePreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 
@@ -37,8 +49,10 @@ import core.tut.pori.dao.clause.AndSubClause;
 import core.tut.pori.dao.clause.JoinClause;
 import core.tut.pori.dao.clause.OrClause;
 import core.tut.pori.dao.clause.OrSubClause;
+import core.tut.pori.dao.clause.RawClause;
 import core.tut.pori.dao.clause.SQLClause.SQLType;
 import core.tut.pori.dao.clause.WhereClause;
+import core.tut.pori.dao.clause.WhereClause.ClauseType;
 import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter;
 import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
@@ -67,10 +81,12 @@ public class ShockDAO extends SQLDAO {
 	private static final String COLUMN_LATITUDE = "latitude";
 	private static final String COLUMN_LONGITUDE = "longitude";
 	private static final String COLUMN_LEVEL = "level";
+	private static final String COLUMN_LOCATION = "location";
 	private static final String COLUMN_HEADING = "heading";
 	private static final String COLUMN_SPEED = "speed";
 	private static final String COLUMN_MEASUREMENT_ID = "measurement_id";
 	private static final String COLUMN_TIMESTAMP = "timestamp";
+	private static final String COLUMN_MEASUREMENTS_MEASUREMENT_ID = TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID;
 	private static final String COLUMN_MEASUREMENTS_LEVEL = TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_LEVEL;
 	private static final String COLUMN_MEASUREMENTS_TIMESTAMP = TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_TIMESTAMP;
 	private static final String COLUMN_SYSTEMATIC_ERROR = "systematic_error";
@@ -78,7 +94,13 @@ public class ShockDAO extends SQLDAO {
 	private static final String COLUMN_Y_ACCELERATION = "y_acc";
 	private static final String COLUMN_Z_ACCELERATION = "z_acc";
 	
+	/* aliases */
+	private static final String SQL_ALIAS_ACCELEROMETER_TIMESTAMP = "accelerometer_timestamp";
+	private static final String SQL_ALIAS_LOCATION_TIMESTAMP = "location_timestamp";
+	
 	private static final String[] COLUMNS_GET_MEASUREMENTS = {TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID, TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_DATA_VISIBILITY, TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_USER_ID, COLUMN_MEASUREMENTS_TIMESTAMP, COLUMN_MEASUREMENTS_LEVEL};
+	private static final String[] COLUMNS_GET_ACCELEROMETER_DATA = {TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_X_ACCELERATION, TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_Y_ACCELERATION, TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_Z_ACCELERATION, TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_SYSTEMATIC_ERROR, TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_TIMESTAMP+" AS "+SQL_ALIAS_ACCELEROMETER_TIMESTAMP};
+	private static final String[] COLUMNS_GET_LOCATION_DATA = {TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_LATITUDE, TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_LONGITUDE, TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_HEADING, TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_SPEED, TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_TIMESTAMP+" AS "+SQL_ALIAS_LOCATION_TIMESTAMP};
 	/* sql strings */
 	private static final String SQL_INSERT_MEASUREMENT = "INSERT INTO "+TABLE_SHOCK_MEASUREMENTS+" ("+COLUMN_MEASUREMENT_ID+", "+COLUMN_LEVEL+", "+COLUMN_DATA_VISIBILITY+", "+COLUMN_USER_ID+", "+COLUMN_TIMESTAMP+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,?,NOW())";
 	private static final int[] SQL_INSERT_MEASUREMENT_VALUE_TYPES = {SQLType.STRING.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.LONG.toInt(), SQLType.TIMESTAMP.toInt()};
@@ -86,19 +108,20 @@ public class ShockDAO extends SQLDAO {
 	private static final String SQL_INSERT_ACCELEROMETER_DATA = "INSERT INTO "+TABLE_SHOCK_ACCELEROMETER_DATA+" ("+COLUMN_MEASUREMENT_ID+", "+COLUMN_X_ACCELERATION+", "+COLUMN_Y_ACCELERATION+", "+COLUMN_Z_ACCELERATION+", "+COLUMN_SYSTEMATIC_ERROR+", "+COLUMN_TIMESTAMP+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,?,?,NOW())";
 	private static final int[] SQL_INSERT_ACCELEROMETER_DATA_VALUE_TYPES = {SQLType.STRING.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.TIMESTAMP.toInt()};
 	
-	private static final String SQL_INSERT_LOCATION_DATA = "INSERT INTO "+TABLE_SHOCK_LOCATION_DATA+" ("+COLUMN_MEASUREMENT_ID+", "+COLUMN_HEADING+", "+COLUMN_LATITUDE+", "+COLUMN_LONGITUDE+", "+COLUMN_SPEED+", "+COLUMN_TIMESTAMP+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,?,?,NOW())";
-	private static final int[] SQL_INSERT_LOCATION_DATA_VALUE_TYPES = {SQLType.STRING.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.TIMESTAMP.toInt()};
+	private static final String SQL_INSERT_LOCATION_DATA = "INSERT INTO "+TABLE_SHOCK_LOCATION_DATA+" ("+COLUMN_MEASUREMENT_ID+", "+COLUMN_HEADING+", "+COLUMN_LATITUDE+", "+COLUMN_LONGITUDE+", "+COLUMN_SPEED+", "+COLUMN_TIMESTAMP+", "+COLUMN_LOCATION+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,?,?,POINT(?,?),NOW())";
+	private static final int[] SQL_INSERT_LOCATION_DATA_VALUE_TYPES = {SQLType.STRING.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt(), SQLType.TIMESTAMP.toInt(), SQLType.DOUBLE.toInt(), SQLType.DOUBLE.toInt()};
 	
 	private static final WhereClause SQL_DATA_VISIBILITY_PUBLIC = new OrClause(COLUMN_DATA_VISIBILITY, Visibility.PUBLIC.toInt(), SQLType.INTEGER);
 	
-	private static final String SQL_GET_ACCELEROMETER_DATA = "SELECT "+COLUMN_X_ACCELERATION+", "+COLUMN_Y_ACCELERATION+", "+COLUMN_Z_ACCELERATION+", "+COLUMN_TIMESTAMP+", "+COLUMN_SYSTEMATIC_ERROR+" FROM "+TABLE_SHOCK_ACCELEROMETER_DATA+" WHERE "+COLUMN_MEASUREMENT_ID+"=?";
-	private static final int[] SQL_MEASUREMENT_ID_VALUE_TYPE = {SQLType.STRING.toInt()};
-	
-	private static final String SQL_GET_LOCATION_DATA = "SELECT "+COLUMN_LATITUDE+", "+COLUMN_LONGITUDE+", "+COLUMN_SPEED+", "+COLUMN_HEADING+", "+COLUMN_TIMESTAMP+" FROM "+TABLE_SHOCK_LOCATION_DATA+" WHERE "+COLUMN_MEASUREMENT_ID+"=?";
-	
+	private static final JoinClause SQL_JOIN_ACCELEROMETER_DATA = new JoinClause("LEFT JOIN "+TABLE_SHOCK_ACCELEROMETER_DATA+" ON "+TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID+"="+TABLE_SHOCK_ACCELEROMETER_DATA+"."+COLUMN_MEASUREMENT_ID);
 	private static final JoinClause SQL_JOIN_LOCATION_DATA = new JoinClause("LEFT JOIN "+TABLE_SHOCK_LOCATION_DATA+" ON "+TABLE_SHOCK_MEASUREMENTS+"."+COLUMN_MEASUREMENT_ID+"="+TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_MEASUREMENT_ID);
+	private static final String SQL_LOCATION_COVERED_BY = "MBRCovers(LineString(POINT(?,?), POINT(?,?)), "+TABLE_SHOCK_LOCATION_DATA+"."+COLUMN_LOCATION+")"; // the bounding rectangle of the line from lower left to upper right corner is the requested area, covers includes the points on the boundary
+	private static final SQLType[] SQL_LOCATION_COVERED_BY_VALUE_TYPES = {SQLType.DOUBLE, SQLType.DOUBLE, SQLType.DOUBLE, SQLType.DOUBLE};
+	private static final String SQL_MEASUREMENTS_AFTER = "("+COLUMN_MEASUREMENTS_TIMESTAMP+">? OR ("+COLUMN_MEASUREMENTS_TIMESTAMP+"=? AND "+COLUMN_MEASUREMENTS_MEASUREMENT_ID+">?))";
+	private static final SQLType[] SQL_MEASUREMENTS_AFTER_VALUE_TYPES = {SQLType.TIMESTAMP, SQLType.TIMESTAMP, SQLType.STRING};
 	private static final AndClause SQL_CLAUSE_LEVEL_NOT_NULL = new AndClause(COLUMN_LEVEL, (Object) null, SQLType.INTEGER).setNot(true);
-	
+	@Autowired
+	private ShockTileDAO _shockTileDAO = null;
 	
 	/**
 	 * 
@@ -112,11 +135,99 @@ public class ShockDAO extends SQLDAO {
 	 * @return list of measurements or null if none was found
 	 */
 	public ShockMeasurementList getMeasurements(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
-		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_SHOCK_MEASUREMENTS);
+		boolean dataGroupAll = DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups);
+		boolean retrieveLocations = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_LOCATION_DATA, dataGroups));
+		boolean retrieveAccelerometer = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_ACCELEROMETER_DATA, dataGroups));
+		
+		SQLSelectBuilder sql = createMeasurementQuery(userIdentity, locationLimits, dateInterval, levelFilter, userIdFilter, retrieveLocations, retrieveAccelerometer);
 		sql.setLimits(limits);
+		sql.addOrderBy(COLUMN_MEASUREMENTS_TIMESTAMP, OrderDirection.DESCENDING);
+		
+		List<ShockMeasurement> measurements = getJdbcTemplate().query(sql.toSQLString(service.tut.pori.apilta.sensors.datatypes.Definitions.ELEMENT_MEASUREMENT_LIST), sql.getValues(), sql.getValueTypes(), new MeasurementRowMapper(retrieveLocations, retrieveAccelerometer));
+		if(measurements.isEmpty()) {
+			LOGGER.debug("No measurements founds.");
+			return null;
+		}
+		
+		return ShockMeasurementList.getShockMeasurementList(measurements);
+	}
+	
+	/**
+	 * Streams the measurements to the given handler one at a time, without keeping the measurements in memory.
+	 * 
+	 * The measurements are ordered by timestamp and measurement id (both ascending), which can be used for continuing the export from the last received measurement (keyset pagination).
+	 * 
+	 * Note: the database connection is reserved until all rows have been processed, the handler should not perform database operations.
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dataGroups
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param userIdFilter
+	 * @param afterTimestamp if given, only measurements after the given timestamp and measurement id are returned
+	 * @param afterMeasurementId required if afterTimestamp is given
+	 * @param maxMeasurements maximum number of measurements, &lt; 1 for no limit
+	 * @param handler
+	 * @throws UncheckedIOException if the handler failed to process a measurement, no more measurements will be processed after the failure
+	 */
+	public void exportMeasurements(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, long[] userIdFilter, Date afterTimestamp, String afterMeasurementId, int maxMeasurements, MeasurementHandler handler) throws UncheckedIOException {
+		boolean dataGroupAll = DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups);
+		boolean retrieveLocations = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_LOCATION_DATA, dataGroups));
+		boolean retrieveAccelerometer = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_ACCELEROMETER_DATA, dataGroups));
+		
+		SQLSelectBuilder sql = createMeasurementQuery(userIdentity, locationLimits, dateInterval, levelFilter, userIdFilter, retrieveLocations, retrieveAccelerometer);
+		if(afterTimestamp != null) {
+			LOGGER.debug("Continuing after measurement, id: "+afterMeasurementId);
+			sql.addWhereClause(new RawClause(SQL_MEASUREMENTS_AFTER, new Object[]{afterTimestamp, afterTimestamp, afterMeasurementId}, SQL_MEASUREMENTS_AFTER_VALUE_TYPES, ClauseType.AND));
+		}
+		if(maxMeasurements > 0) {
+			sql.setMaxItems(maxMeasurements);
+		}
+		sql.addOrderBy(COLUMN_MEASUREMENTS_TIMESTAMP, OrderDirection.ASCENDING);
+		sql.addOrderBy(COLUMN_MEASUREMENTS_MEASUREMENT_ID, OrderDirection.ASCENDING);
+		
+		String query = sql.toSQLString();
+		PreparedStatementSetter setter = new ArgumentTypePreparedStatementSetter(sql.getValues(), sql.getValueTypes());
+		MeasurementRowMapper mapper = new MeasurementRowMapper(retrieveLocations, retrieveAccelerometer);
+		getJdbcTemplate().query(new PreparedStatementCreator() {
+			
+			@Override
+			public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+				PreparedStatement ps = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				ps.setFetchSize(Integer.MIN_VALUE); // makes MySQL driver stream the rows one by one instead of reading the whole result set into memory
+				setter.setValues(ps);
+				return ps;
+			}
+		}, new RowCallbackHandler() {
+			private int _rowNum = 0;
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				try {
+					handler.handle(mapper.mapRow(set, _rowNum++));
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param userIdFilter
+	 * @param retrieveLocations
+	 * @param retrieveAccelerometer
+	 * @return select builder with the columns, joins and filters for the measurement query
+	 */
+	private SQLSelectBuilder createMeasurementQuery(UserIdentity userIdentity, LocationLimits locationLimits, DateIntervalParameter dateInterval, int[] levelFilter, long[] userIdFilter, boolean retrieveLocations, boolean retrieveAccelerometer) {
+		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_SHOCK_MEASUREMENTS);
 		sql.addWhereClause(new AndSubClause(new WhereClause[]{new OrClause(COLUMN_USER_ID, userIdentity.getUserId(), SQLType.LONG), SQL_DATA_VISIBILITY_PUBLIC}));
 		sql.addSelectColumns(COLUMNS_GET_MEASUREMENTS);
-		sql.addOrderBy(COLUMN_MEASUREMENTS_TIMESTAMP, OrderDirection.DESCENDING);
 		
 		if(dateInterval.hasValues()){
 			LOGGER.debug("Using date filter...");
@@ -137,217 +248,252 @@ public class ShockDAO extends SQLDAO {
 			sql.addWhereClause(new AndSubClause(new WhereClause[]{SQL_CLAUSE_LEVEL_NOT_NULL, new AndClause(COLUMN_LEVEL, levelFilter)}));
 		}
 		
-		if(locationLimits.hasValues()) {
-			LOGGER.debug("Using location limits filter...");
-			sql.addJoin(SQL_JOIN_LOCATION_DATA); // note: we could also select all data from location table if location datagroup is given (same for accelerometer data)
-			
-			LatLng lowerLeft = locationLimits.getLowerLeft(); // column >= lat, column >= lon
-			sql.addWhereClause(new AndCompareClause(COLUMN_LATITUDE, lowerLeft.getLatitude(), CompareType.GREATER_OR_EQUAL, SQLType.DOUBLE));
-			sql.addWhereClause(new AndCompareClause(COLUMN_LONGITUDE, lowerLeft.getLongitude(), CompareType.GREATER_OR_EQUAL, SQLType.DOUBLE));
-			
-			LatLng upperRight = locationLimits.getUpperRight(); // column <= lat, column <= lon
-			sql.addWhereClause(new AndCompareClause(COLUMN_LATITUDE, upperRight.getLatitude(), CompareType.LESS_OR_EQUAL, SQLType.DOUBLE));
-			sql.addWhereClause(new AndCompareClause(COLUMN_LONGITUDE, upperRight.getLongitude(), CompareType.LESS_OR_EQUAL, SQLType.DOUBLE));
+		if(retrieveLocations || locationLimits.hasValues()) {
+			sql.addJoin(SQL_JOIN_LOCATION_DATA);
 		}
-		
-		List<Map<String, Object>> rows = getJdbcTemplate().queryForList(sql.toSQLString(service.tut.pori.apilta.sensors.datatypes.Definitions.ELEMENT_MEASUREMENT_LIST), sql.getValues(), sql.getValueTypes());
-		int size = rows.size();
-		if(size < 1) {
-			LOGGER.debug("No measurements founds.");
-			return null;
+		if(retrieveLocations) {
+			sql.addSelectColumns(COLUMNS_GET_LOCATION_DATA);
 		}
-		
-		boolean dataGroupAll = DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups);
-		boolean retrieveLocations = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_LOCATION_DATA, dataGroups));
-		boolean retrieveAccelerometer = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_ACCELEROMETER_DATA, dataGroups));
-		
-		LinkedList<ShockMeasurement> measurements = new LinkedList<>();
-		for(Map<String, Object> row : rows) {
-			measurements.add(extractMeasurement(row, retrieveLocations, retrieveAccelerometer));
+		if(retrieveAccelerometer) {
+			sql.addJoin(SQL_JOIN_ACCELEROMETER_DATA);
+			sql.addSelectColumns(COLUMNS_GET_ACCELEROMETER_DATA);
 		}
 		
-		return ShockMeasurementList.getShockMeasurementList(measurements);
+		if(locationLimits.hasValues()) {
+			LOGGER.debug("Using location limits filter...");
+			
+			LatLng lowerLeft = locationLimits.getLowerLeft();
+			LatLng upperRight = locationLimits.getUpperRight();
+			sql.addWhereClause(new RawClause(SQL_LOCATION_COVERED_BY, new Object[]{lowerLeft.getLongitude(), lowerLeft.getLatitude(), upperRight.getLongitude(), upperRight.getLatitude()}, SQL_LOCATION_COVERED_BY_VALUE_TYPES, ClauseType.AND)); // uses the spatial index instead of range checks for latitude and longitude columns
+		}
+		return sql;
 	}
 	
 	/**
+	 * Handler for measurements streamed by {@link ShockDAO#exportMeasurements(UserIdentity, LocationLimits, DataGroups, DateIntervalParameter, int[], long[], Date, String, int, MeasurementHandler)}
+	 *
+	 */
+	public interface MeasurementHandler {
+		/**
+		 * 
+		 * @param measurement
+		 * @throws IOException on failure, this will stop the export
+		 */
+		public void handle(ShockMeasurement measurement) throws IOException;
+	} // interface MeasurementHandler
+	
+	/**
+	 * Maps the rows of a measurement query (with optional location and accelerometer data joined) to measurements.
+	 * 
+	 * The column indexes are resolved from the first row, and the same indexes are used for all following rows.
 	 * 
-	 * @param row
-	 * @param getLocations
-	 * @param getAccelerometer
-	 * @return the extracted measurement
+	 * Not thread-safe, a new instance should be created for each query.
 	 */
-	private ShockMeasurement extractMeasurement(Map<String, Object> row, boolean getLocations, boolean getAccelerometer) {
-		ShockMeasurement m = new ShockMeasurement();
-		Object[] measurementId = new Object[1];
-		for(Entry<String, Object> e : row.entrySet()) {
-			String column = e.getKey();
-			switch(column) {
-				case COLUMN_MEASUREMENT_ID:
-					measurementId[0] = e.getValue();
-					m.setMeasurementId((String) measurementId[0]);
-					break;
-				case COLUMN_DATA_VISIBILITY:
-					m.setVisibility(Visibility.fromInt((int) e.getValue()));
-					break;
-				case COLUMN_USER_ID:
-					m.setUserId(new UserIdentity((Long) e.getValue()));
-					break;
-				case COLUMN_TIMESTAMP:
-					m.setTimestamp((Date) e.getValue());
-					break;
-				case COLUMN_LEVEL:
-					m.setLevel((Integer) e.getValue());
-					break;
-				default:
-					if(checkCountColumn(column, e.getValue()) < 1){	// this should be count(*)
-						LOGGER.warn("Unknown column name, or no results, column: "+column);
-						return null;
-					}
-					break;
-			}
+	private static class MeasurementRowMapper implements RowMapper<ShockMeasurement> {
+		private boolean _getAccelerometer = false;
+		private boolean _getLocations = false;
+		private int _indexMeasurementId = -1;
+		private int _indexDataVisibility = -1;
+		private int _indexUserId = -1;
+		private int _indexTimestamp = -1;
+		private int _indexLevel = -1;
+		private int _indexXAcceleration = -1;
+		private int _indexYAcceleration = -1;
+		private int _indexZAcceleration = -1;
+		private int _indexSystematicError = -1;
+		private int _indexAccelerometerTimestamp = -1;
+		private int _indexLatitude = -1;
+		private int _indexLongitude = -1;
+		private int _indexHeading = -1;
+		private int _indexSpeed = -1;
+		private int _indexLocationTimestamp = -1;
+		
+		/**
+		 * 
+		 * @param getLocations
+		 * @param getAccelerometer
+		 */
+		public MeasurementRowMapper(boolean getLocations, boolean getAccelerometer) {
+			_getLocations = getLocations;
+			_getAccelerometer = getAccelerometer;
 		}
 		
-		if(getAccelerometer) {
-			List<Map<String, Object>> rows = getJdbcTemplate().queryForList(SQL_GET_ACCELEROMETER_DATA, measurementId, SQL_MEASUREMENT_ID_VALUE_TYPE);
-			if(rows.isEmpty()) {
-				LOGGER.debug("No accelerometer data for measurement, id: "+measurementId[0]);
-			}else {
-				m.setAccelerometerData(extractAccelerometerData(rows.iterator().next()));
+		@Override
+		public ShockMeasurement mapRow(ResultSet set, int rowNum) throws SQLException {
+			if(_indexMeasurementId < 0) {
+				resolveIndexes(set);
+			}
+			
+			ShockMeasurement m = new ShockMeasurement();
+			m.setMeasurementId(set.getString(_indexMeasurementId));
+			m.setVisibility(Visibility.fromInt(set.getInt(_indexDataVisibility)));
+			m.setUserId(new UserIdentity(set.getLong(_indexUserId)));
+			m.setTimestamp(set.getTimestamp(_indexTimestamp));
+			int level = set.getInt(_indexLevel);
+			m.setLevel(set.wasNull() ? null : level);
+			
+			if(_getAccelerometer) {
+				double x = set.getDouble(_indexXAcceleration);
+				if(set.wasNull()) { // the column is not nullable, so no accelerometer data row was joined
+					LOGGER.debug("No accelerometer data for measurement, id: "+m.getMeasurementId());
+				}else {
+					AccelerometerData aData = new AccelerometerData();
+					aData.setxAcceleration(x);
+					aData.setyAcceleration(set.getDouble(_indexYAcceleration));
+					aData.setzAcceleration(set.getDouble(_indexZAcceleration));
+					aData.setSystematicError(getDouble(set, _indexSystematicError));
+					aData.setTimestamp(set.getTimestamp(_indexAccelerometerTimestamp));
+					m.setAccelerometerData(aData);
+				}
 			}
+			
+			if(_getLocations) {
+				double latitude = set.getDouble(_indexLatitude);
+				if(set.wasNull()) { // the column is not nullable, so no location data row was joined
+					LOGGER.debug("No location data for measurement, id: "+m.getMeasurementId());
+				}else {
+					LocationData lData = new LocationData();
+					lData.setLatitude(latitude);
+					lData.setLongitude(set.getDouble(_indexLongitude));
+					lData.setHeading(getDouble(set, _indexHeading));
+					lData.setSpeed(getDouble(set, _indexSpeed));
+					lData.setTimestamp(set.getTimestamp(_indexLocationTimestamp));
+					m.setLocationData(lData);
+				}
+			}
+			
+			return m;
 		}
 		
-		if(getLocations) {
-			List<Map<String, Object>> rows = getJdbcTemplate().queryForList(SQL_GET_LOCATION_DATA, measurementId, SQL_MEASUREMENT_ID_VALUE_TYPE);
-			if(rows.isEmpty()) {
-				LOGGER.debug("No location data for measurement, id: "+measurementId[0]);
-			}else {
-				m.setLocationData(extractLocationData(rows.iterator().next()));
+		/**
+		 * 
+		 * @param set
+		 * @throws SQLException
+		 */
+		private void resolveIndexes(ResultSet set) throws SQLException {
+			_indexMeasurementId = set.findColumn(COLUMN_MEASUREMENT_ID);
+			_indexDataVisibility = set.findColumn(COLUMN_DATA_VISIBILITY);
+			_indexUserId = set.findColumn(COLUMN_USER_ID);
+			_indexTimestamp = set.findColumn(COLUMN_TIMESTAMP);
+			_indexLevel = set.findColumn(COLUMN_LEVEL);
+			if(_getAccelerometer) {
+				_indexXAcceleration = set.findColumn(COLUMN_X_ACCELERATION);
+				_indexYAcceleration = set.findColumn(COLUMN_Y_ACCELERATION);
+				_indexZAcceleration = set.findColumn(COLUMN_Z_ACCELERATION);
+				_indexSystematicError = set.findColumn(COLUMN_SYSTEMATIC_ERROR);
+				_indexAccelerometerTimestamp = set.findColumn(SQL_ALIAS_ACCELEROMETER_TIMESTAMP);
+			}
+			if(_getLocations) {
+				_indexLatitude = set.findColumn(COLUMN_LATITUDE);
+				_indexLongitude = set.findColumn(COLUMN_LONGITUDE);
+				_indexHeading = set.findColumn(COLUMN_HEADING);
+				_indexSpeed = set.findColumn(COLUMN_SPEED);
+				_indexLocationTimestamp = set.findColumn(SQL_ALIAS_LOCATION_TIMESTAMP);
 			}
 		}
 		
-		return m;
-	}
-	
+		/**
+		 * 
+		 * @param set
+		 * @param index
+		 * @return the value or null if the column value was null
+		 * @throws SQLException
+		 */
+		private static Double getDouble(ResultSet set, int index) throws SQLException {
+			double value = set.getDouble(index);
+			return (set.wasNull() ? null : value);
+		}
+	} // class MeasurementRowMapper
+
 	/**
+	 * The timestamp columns are DATETIME with whole second precision. The timestamps are truncated before insert, so that the stored values are predictable (the server would otherwise round the fractional seconds) and match the values cached by {@link ShockCacheDAO}.
 	 * 
-	 * @param row
-	 * @return the extracted data
+	 * @param date
+	 * @return the date truncated to whole seconds or null if null was passed
 	 */
-	private AccelerometerData extractAccelerometerData(Map<String, Object> row) {
-		AccelerometerData aData = new AccelerometerData();
-		for(Entry<String, Object> e : row.entrySet()) {
-			String column = e.getKey();
-			switch(column) {
-				case COLUMN_X_ACCELERATION:
-					aData.setxAcceleration((Double) e.getValue());
-					break;
-				case COLUMN_Y_ACCELERATION:
-					aData.setyAcceleration((Double) e.getValue());
-					break;
-				case COLUMN_Z_ACCELERATION:
-					aData.setzAcceleration((Double) e.getValue());
-					break;
-				case COLUMN_TIMESTAMP:
-					aData.setTimestamp((Date) e.getValue());
-					break;
-				case COLUMN_SYSTEMATIC_ERROR:
-					aData.setSystematicError((Double) e.getValue());
-					break;
-				case COLUMN_MEASUREMENT_ID: // valid column, but not used in data object
-					break;
-				default:
-					if(checkCountColumn(column, e.getValue()) < 1){	// this should be count(*)
-						LOGGER.warn("Unknown column name, or no results, column: "+column);
-						return null;
-					}
-					break;
-			}
-		}
-		return aData;
+	static Date truncateToSeconds(Date date) {
+		return (date == null ? null : new Date(truncateToSeconds(date.getTime())));
 	}
 	
 	/**
 	 * 
-	 * @param row
-	 * @return the extracted data
+	 * @param timestamp in ms
+	 * @return the timestamp truncated to whole seconds
+	 * @see #truncateToSeconds(Date)
 	 */
-	private LocationData extractLocationData(Map<String, Object> row) {
-		LocationData lData = new LocationData();
-		for(Entry<String, Object> e : row.entrySet()) {
-			String column = e.getKey();
-			switch(column) {
-				case COLUMN_LATITUDE:
-					lData.setLatitude((Double) e.getValue());
-					break;
-				case COLUMN_LONGITUDE:
-					lData.setLongitude((Double) e.getValue());
-					break;
-				case COLUMN_HEADING:
-					lData.setHeading((Double) e.getValue());
-					break;
-				case COLUMN_SPEED:
-					lData.setSpeed((Double) e.getValue());
-					break;
-				case COLUMN_TIMESTAMP:
-					lData.setTimestamp((Date) e.getValue());
-					break;
-				case COLUMN_MEASUREMENT_ID: // valid column, but not not used in the data object
-					break;
-				default:
-					if(checkCountColumn(column, e.getValue()) < 1){	// this should be count(*)
-						LOGGER.warn("Unknown column name, or no results, column: "+column);
-						return null;
-					}
-					break;
-			}
-		}
-		return lData;
+	static long truncateToSeconds(long timestamp) {
+		return Math.floorDiv(timestamp, 1000L) * 1000L;
 	}
-
+	
 	/**
+	 * Create all of the given measurements in a single transaction.
+	 * 
+	 * The pre-calculated tiles are updated in the same transaction, so that the tiles always match the stored measurements.
+	 * 
+	 * On success, the generated measurement ids are set to the measurement objects.
 	 * 
-	 * @param measurement
-	 * @return measurement id for the created measurement
+	 * @param measurements
+	 * @return measurement ids for the created measurements, in the order of the given list
 	 */
-	public String createMeasurement(ShockMeasurement measurement) {
-		return getTransactionTemplate().execute(new TransactionCallback<String>() {
+	public List<String> createMeasurements(List<ShockMeasurement> measurements) {
+		return getTransactionTemplate().execute(new TransactionCallback<List<String>>() {
 
 			@Override
-			public String doInTransaction(TransactionStatus status) {
-				String measurementId = UUID.randomUUID().toString();
-				getJdbcTemplate().update(SQL_INSERT_MEASUREMENT, new Object[]{measurementId, measurement.getLevel(), measurement.getVisibility().toInt(), measurement.getUserId().getUserId(), measurement.getTimestamp()}, SQL_INSERT_MEASUREMENT_VALUE_TYPES);
-				
-				AccelerometerData aData = measurement.getAccelerometerData();
-				if(aData != null){
-					insertData(measurementId, aData);
+			public List<String> doInTransaction(TransactionStatus status) {
+				int size = measurements.size();
+				ArrayList<String> measurementIds = new ArrayList<>(size);
+				ArrayList<Object[]> measurementArgs = new ArrayList<>(size);
+				ArrayList<Object[]> accelerometerArgs = new ArrayList<>(size);
+				ArrayList<Object[]> locationArgs = new ArrayList<>(size);
+				for(ShockMeasurement measurement : measurements) {
+					String measurementId = UUID.randomUUID().toString();
+					measurementIds.add(measurementId);
+					measurementArgs.add(new Object[]{measurementId, measurement.getLevel(), measurement.getVisibility().toInt(), measurement.getUserId().getUserId(), truncateToSeconds(measurement.getTimestamp())});
+					
+					AccelerometerData aData = measurement.getAccelerometerData();
+					if(aData != null){
+						accelerometerArgs.add(new Object[]{measurementId, aData.getxAcceleration(), aData.getyAcceleration(), aData.getzAcceleration(), aData.getSystematicError(), truncateToSeconds(aData.getTimestamp())});
+					}
+					
+					LocationData lData = measurement.getLocationData();
+					if(lData != null){
+						locationArgs.add(new Object[]{measurementId, lData.getHeading(), lData.getLatitude(), lData.getLongitude(), lData.getSpeed(), truncateToSeconds(lData.getTimestamp()), lData.getLongitude(), lData.getLatitude()});
+					}
 				}
 				
-				LocationData lData = measurement.getLocationData();
-				if(lData != null){
-					insertData(measurementId, lData);
+				JdbcTemplate t = getJdbcTemplate();
+				t.batchUpdate(SQL_INSERT_MEASUREMENT, measurementArgs, SQL_INSERT_MEASUREMENT_VALUE_TYPES);
+				if(!accelerometerArgs.isEmpty()) {
+					t.batchUpdate(SQL_INSERT_ACCELEROMETER_DATA, accelerometerArgs, SQL_INSERT_ACCELEROMETER_DATA_VALUE_TYPES);
+				}
+				if(!locationArgs.isEmpty()) {
+					t.batchUpdate(SQL_INSERT_LOCATION_DATA, locationArgs, SQL_INSERT_LOCATION_DATA_VALUE_TYPES);
 				}
+				_shockTileDAO.addMeasurements(measurements); // joins this transaction
 				
-				measurement.setMeasurementId(measurementId);
-				return measurementId;
+				Iterator<String> idIter = measurementIds.iterator();
+				for(ShockMeasurement measurement : measurements) {
+					measurement.setMeasurementId(idIter.next());
+				}
+				return measurementIds;
 			}
 		});
 	}
 	
 	/**
+	 * Runs the given task in a single transaction. Measurements created by the task using {@link #createMeasurements(List)} join the transaction, 
+	 * i.e. either all or none of them are stored. Throwing a runtime exception from the task rolls back the transaction.
 	 * 
-	 * @param measurementId 
-	 * @param data
-	 */
-	private void insertData(String measurementId, AccelerometerData data) {
-		getJdbcTemplate().update(SQL_INSERT_ACCELEROMETER_DATA, new Object[]{measurementId, data.getxAcceleration(), data.getyAcceleration(), data.getzAcceleration(), data.getSystematicError(), data.getTimestamp()}, SQL_INSERT_ACCELEROMETER_DATA_VALUE_TYPES);
-	}
-	
-	/**
-	 * 
-	 * @param measurementId
-	 * @param data
+	 * @param task
 	 */
-	private void insertData(String measurementId, LocationData data) {
-		getJdbcTemplate().update(SQL_INSERT_LOCATION_DATA, new Object[]{measurementId, data.getHeading(), data.getLatitude(), data.getLongitude(), data.getSpeed(), data.getTimestamp()}, SQL_INSERT_LOCATION_DATA_VALUE_TYPES);
+	public void executeInTransaction(Runnable task) {
+		getTransactionTemplate().execute(new TransactionCallback<Void>() {
+
+			@Override
+			public Void doInTransaction(TransactionStatus status) {
+				task.run();
+				return null;
+			}
+		});
 	}
 }
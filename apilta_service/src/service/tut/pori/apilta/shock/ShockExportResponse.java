@@ -0,0 +1,284 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+
+import core.tut.pori.context.ServiceInitializer;
+import core.tut.pori.http.Response;
+import core.tut.pori.http.parameters.DataGroups;
+import core.tut.pori.http.parameters.DateIntervalParameter;
+import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.StringUtils;
+import core.tut.pori.utils.XMLFormatter;
+import service.tut.pori.apilta.shock.ShockDAO.MeasurementHandler;
+import service.tut.pori.apilta.shock.datatypes.AccelerometerData;
+import service.tut.pori.apilta.shock.datatypes.LocationData;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+
+/**
+ * Response which streams shock measurements directly from the database to the client as XML or CSV, without keeping the measurements in memory.
+ * 
+ * The XML output has the same format as the {@link service.tut.pori.apilta.shock.datatypes.ShockMeasurementList} response of {@link service.tut.pori.apilta.shock.ShockService#getMeasurements(core.tut.pori.http.parameters.AuthenticationParameter, LocationLimits, DataGroups, core.tut.pori.http.parameters.IntegerParameter, DateIntervalParameter, core.tut.pori.http.parameters.Limits, core.tut.pori.http.parameters.StringParameter, core.tut.pori.http.parameters.IntegerParameter, core.tut.pori.http.parameters.LongParameter)}.
+ * 
+ * Note: the export is performed while the response is being written, so database errors cannot be reported in the response status after the output has started.
+ */
+public class ShockExportResponse extends Response {
+	private static final String CSV_NEW_LINE = "\r\n";
+	private static final char CSV_SEPARATOR = ',';
+	private static final String[] CSV_HEADERS_ACCELEROMETER_DATA = {"x_acc", "y_acc", "z_acc", "systematic_error", "accelerometer_timestamp"};
+	private static final String[] CSV_HEADERS_LOCATION_DATA = {"latitude", "longitude", "heading", "speed", "location_timestamp"};
+	private static final String[] CSV_HEADERS_MEASUREMENT = {"measurement_id", "user_id", "data_visibility", "timestamp", "level"};
+	private static final Logger LOGGER = Logger.getLogger(ShockExportResponse.class);
+	/* the response envelope, these must match the annotations of core.tut.pori.http.Response */
+	private static final String XML_ATTRIBUTE_METHOD = "method";
+	private static final String XML_ATTRIBUTE_SERVICE = "service";
+	private static final String XML_ELEMENT_RESPONSE = "response";
+	private static final String XML_ELEMENT_STATUS = "status";
+	private Date _afterTimestamp = null;
+	private String _afterMeasurementId = null;
+	private boolean _csv = false;
+	private DataGroups _dataGroups = null;
+	private DateIntervalParameter _dateInterval = null;
+	private int[] _levelFilter = null;
+	private LocationLimits _locationLimits = null;
+	private int _maxMeasurements = 0;
+	private long[] _userIdFilter = null;
+	private UserIdentity _userIdentity = null;
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param locationLimits
+	 * @param dataGroups
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param userIdFilter
+	 * @param afterTimestamp
+	 * @param afterMeasurementId
+	 * @param maxMeasurements
+	 * @param csv if true, the measurements are written as comma separated values, otherwise as XML
+	 * @see service.tut.pori.apilta.shock.ShockDAO#exportMeasurements(UserIdentity, LocationLimits, DataGroups, DateIntervalParameter, int[], long[], Date, String, int, MeasurementHandler)
+	 */
+	protected ShockExportResponse(UserIdentity userIdentity, LocationLimits locationLimits, DataGroups dataGroups, DateIntervalParameter dateInterval, int[] levelFilter, long[] userIdFilter, Date afterTimestamp, String afterMeasurementId, int maxMeasurements, boolean csv) {
+		_userIdentity = userIdentity;
+		_locationLimits = locationLimits;
+		_dataGroups = dataGroups;
+		_dateInterval = dateInterval;
+		_levelFilter = levelFilter;
+		_userIdFilter = userIdFilter;
+		_afterTimestamp = afterTimestamp;
+		_afterMeasurementId = afterMeasurementId;
+		_maxMeasurements = maxMeasurements;
+		_csv = csv;
+	}
+
+	@Override
+	public void writeTo(HttpServletResponse response) {
+		if(getStatus() != Status.OK) {
+			super.writeTo(response);
+			return;
+		}
+		
+		ShockDAO dao = ServiceInitializer.getDAOHandler().getDAO(ShockDAO.class);
+		try {
+			response.setContentType((_csv ? Definitions.CONTENT_TYPE_CSV : core.tut.pori.http.Definitions.CONTENT_TYPE_XML));
+			response.setCharacterEncoding(core.tut.pori.http.Definitions.ENCODING_UTF8);
+			Writer writer = response.getWriter();
+			if(_csv) {
+				writeCSV(dao, writer);
+			}else {
+				writeXML(dao, writer);
+			}
+			writer.flush();
+		} catch (IOException | UncheckedIOException | XMLStreamException | JAXBException | DataAccessException ex) { // could be broken socket or a database error
+			LOGGER.error(ex, ex);
+			setStatus(Status.INTERNAL_SERVER_ERROR); // the output may have already been started, so this is not necessarily visible to the client
+		}
+	}
+	
+	/**
+	 * 
+	 * @param dao
+	 * @param writer
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	private void writeXML(ShockDAO dao, Writer writer) throws XMLStreamException, JAXBException {
+		XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+		xml.writeStartDocument(core.tut.pori.http.Definitions.ENCODING_UTF8, "1.0");
+		xml.writeStartElement(XML_ELEMENT_RESPONSE);
+		String methodName = getMethod();
+		if(methodName != null) {
+			xml.writeAttribute(XML_ATTRIBUTE_METHOD, methodName);
+		}
+		String serviceName = getService(); // note: do not name this "service", it would hide the service package
+		if(serviceName != null) {
+			xml.writeAttribute(XML_ATTRIBUTE_SERVICE, serviceName);
+		}
+		xml.writeStartElement(service.tut.pori.apilta.sensors.datatypes.Definitions.ELEMENT_MEASUREMENT_LIST);
+		
+		Marshaller marshaller = XMLFormatter.getContext(ShockMeasurement.class).createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+		dao.exportMeasurements(_userIdentity, _locationLimits, _dataGroups, _dateInterval, _levelFilter, _userIdFilter, _afterTimestamp, _afterMeasurementId, _maxMeasurements, new MeasurementHandler() {
+			
+			@Override
+			public void handle(ShockMeasurement measurement) throws IOException {
+				try {
+					marshaller.marshal(measurement, xml);
+				} catch (JAXBException ex) {
+					throw new IOException(ex);
+				}
+			}
+		});
+		
+		xml.writeEndElement(); // measurement list
+		xml.writeStartElement(XML_ELEMENT_STATUS);
+		xml.writeCharacters(Status.OK.name());
+		xml.writeEndElement();
+		xml.writeEndElement(); // response
+		xml.writeEndDocument();
+		xml.close(); // does not close the underlying writer
+	}
+	
+	/**
+	 * 
+	 * @param dao
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeCSV(ShockDAO dao, Writer writer) throws IOException {
+		boolean dataGroupAll = DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, _dataGroups);
+		boolean writeLocations = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_LOCATION_DATA, _dataGroups));
+		boolean writeAccelerometer = (dataGroupAll || DataGroups.hasDataGroup(Definitions.DATA_GROUP_ACCELEROMETER_DATA, _dataGroups));
+		
+		StringBuilder row = new StringBuilder();
+		appendHeaders(row, CSV_HEADERS_MEASUREMENT);
+		if(writeLocations) {
+			appendHeaders(row, CSV_HEADERS_LOCATION_DATA);
+		}
+		if(writeAccelerometer) {
+			appendHeaders(row, CSV_HEADERS_ACCELEROMETER_DATA);
+		}
+		row.setLength(row.length()-1); // chop the tailing separator
+		row.append(CSV_NEW_LINE);
+		writer.write(row.toString());
+		
+		dao.exportMeasurements(_userIdentity, _locationLimits, _dataGroups, _dateInterval, _levelFilter, _userIdFilter, _afterTimestamp, _afterMeasurementId, _maxMeasurements, new MeasurementHandler() {
+			
+			@Override
+			public void handle(ShockMeasurement measurement) throws IOException {
+				row.setLength(0);
+				row.append(measurement.getMeasurementId()); // the measurement ids are UUIDs, and the other values are numbers or dates, so no value contains the separator and no quoting is required
+				row.append(CSV_SEPARATOR);
+				row.append(measurement.getUserId().getUserId());
+				row.append(CSV_SEPARATOR);
+				row.append(measurement.getVisibility().name());
+				row.append(CSV_SEPARATOR);
+				append(row, measurement.getTimestamp());
+				append(row, measurement.getLevel());
+				if(writeLocations) {
+					LocationData lData = measurement.getLocationData();
+					if(lData == null) {
+						appendEmpty(row, CSV_HEADERS_LOCATION_DATA.length);
+					}else {
+						append(row, lData.getLatitude());
+						append(row, lData.getLongitude());
+						append(row, lData.getHeading());
+						append(row, lData.getSpeed());
+						append(row, lData.getTimestamp());
+					}
+				}
+				if(writeAccelerometer) {
+					AccelerometerData aData = measurement.getAccelerometerData();
+					if(aData == null) {
+						appendEmpty(row, CSV_HEADERS_ACCELEROMETER_DATA.length);
+					}else {
+						append(row, aData.getxAcceleration());
+						append(row, aData.getyAcceleration());
+						append(row, aData.getzAcceleration());
+						append(row, aData.getSystematicError());
+						append(row, aData.getTimestamp());
+					}
+				}
+				row.setLength(row.length()-1); // chop the tailing separator
+				row.append(CSV_NEW_LINE);
+				writer.write(row.toString());
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 * @param row
+	 * @param headers
+	 */
+	private static void appendHeaders(StringBuilder row, String[] headers) {
+		for(String header : headers) {
+			row.append(header);
+			row.append(CSV_SEPARATOR);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param row
+	 * @param count number of empty values to append
+	 */
+	private static void appendEmpty(StringBuilder row, int count) {
+		for(int i=0;i<count;++i) {
+			row.append(CSV_SEPARATOR);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param row
+	 * @param value if null, empty value is appended
+	 */
+	private static void append(StringBuilder row, Object value) {
+		if(value != null) {
+			row.append(value);
+		}
+		row.append(CSV_SEPARATOR);
+	}
+	
+	/**
+	 * 
+	 * @param row
+	 * @param value if null, empty value is appended
+	 */
+	private static void append(StringBuilder row, Date value) {
+		if(value != null) {
+			row.append(StringUtils.dateToISOString(value));
+		}
+		row.append(CSV_SEPARATOR);
+	}
+}
@@ -0,0 +1,581 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import core.tut.pori.context.ServiceInitializer;
+import core.tut.pori.dao.SQLDAO;
+import core.tut.pori.dao.clause.SQLClause.SQLType;
+import core.tut.pori.http.parameters.DateIntervalParameter;
+import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
+import core.tut.pori.http.parameters.Limits;
+import core.tut.pori.users.UserIdentity;
+import service.tut.pori.apilta.ApiltaProperties;
+import service.tut.pori.apilta.shock.datatypes.LocationData;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits;
+import service.tut.pori.apilta.shock.datatypes.LocationLimits.LatLng;
+import service.tut.pori.apilta.shock.datatypes.ShockHighlight;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+import service.tut.pori.apilta.utils.MathUtils;
+import service.tut.pori.tasks.datatypes.Task.Visibility;
+
+/**
+ * Maintains pre-calculated highlight clusters for the public shock measurements of the recent days.
+ * 
+ * The clusters are calculated using the minimum number of measurements and range configured in {@link service.tut.pori.apilta.ApiltaProperties}. 
+ * New measurements are merged into the nearest cluster within the range, or they will start a new cluster. 
+ * The clusters are not persisted, they are calculated from the database on the first query and updated incrementally after that.
+ * When the oldest days are dropped from the calculation, the clusters centered on the dropped measurements are split and their remaining measurements re-clustered.
+ * 
+ * The clusters are an approximation of the highlights calculated by {@link service.tut.pori.apilta.shock.ShockCore#getHighlights(UserIdentity, int, double, LocationLimits, DateIntervalParameter, int[], Limits, long[])}: each measurement is assigned to the nearest cluster center instead of the oldest one.
+ * The query filters are applied to the cluster members, and the matching members of each cluster are grouped in the same way as in the on-request calculation: the center is used if it matches the filters, otherwise the oldest matching member becomes the new center, and the members out of its range form further groups.
+ * 
+ * New measurements must be reported using {@link #beginUpdate()} and {@link #endUpdate(Collection)}.
+ */
+public class ShockHighlightDAO extends SQLDAO {
+	private static final long DAY = 86400000; // in ms
+	private static final Logger LOGGER = Logger.getLogger(ShockHighlightDAO.class);
+	private static final double RANGE_TOLERANCE = 0.000001; // in km
+	/* tables */
+	private static final String TABLE_SHOCK_LOCATION_DATA = DATABASE+".shock_location_data";
+	private static final String TABLE_SHOCK_MEASUREMENTS = DATABASE+".shock_measurements";
+	/* sql strings */
+	private static final String SQL_GET_MEASUREMENTS = "SELECT m.user_id, m.timestamp, m.level, l.latitude, l.longitude FROM "+TABLE_SHOCK_MEASUREMENTS+" m INNER JOIN "+TABLE_SHOCK_LOCATION_DATA+" l ON m.measurement_id=l.measurement_id WHERE m.data_visibility="+Visibility.PUBLIC.toInt()+" AND m.level IS NOT NULL AND m.timestamp>=? ORDER BY m.timestamp";
+	private static final int[] SQL_GET_MEASUREMENTS_VALUE_TYPES = {SQLType.TIMESTAMP.toInt()};
+	private static final String SQL_HAS_NON_PUBLIC_MEASUREMENTS = "SELECT 1 FROM "+TABLE_SHOCK_MEASUREMENTS+" WHERE user_id=? AND data_visibility<>"+Visibility.PUBLIC.toInt()+" AND timestamp>=? LIMIT 1";
+	private static final int[] SQL_HAS_NON_PUBLIC_MEASUREMENTS_VALUE_TYPES = {SQLType.LONG.toInt(), SQLType.TIMESTAMP.toInt()};
+	private Clusters _clusters = null; // null if not loaded
+	private ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private long _modCount = 0; // incremented on every change, and when updates are started
+	private int _pendingUpdates = 0; // number of measurement inserts in progress
+	
+	/**
+	 * 
+	 * @param userIdentity
+	 * @param minMeasurements
+	 * @param range in km
+	 * @param locationLimits
+	 * @param dateInterval
+	 * @param levelFilter
+	 * @param limits
+	 * @param userIdFilter
+	 * @return list of highlights, empty list if none were found or null if the highlights cannot be resolved from the pre-calculated clusters
+	 */
+	public List<ShockHighlight> getHighlights(UserIdentity userIdentity, int minMeasurements, double range, LocationLimits locationLimits, DateIntervalParameter dateInterval, int[] levelFilter, Limits limits, long[] userIdFilter) {
+		ApiltaProperties properties = ServiceInitializer.getPropertyHandler().getSystemProperties(ApiltaProperties.class);
+		int days = properties.getShockHighlightDays();
+		if(days < 1 || minMeasurements != properties.getShockHighlightMinMeasurements() || Math.abs(range - properties.getShockHighlightRange()) > RANGE_TOLERANCE) {
+			return null;
+		}
+		if(!ArrayUtils.isEmpty(userIdFilter) || (limits != null && limits.hasValues()) || !dateInterval.hasValues()) {
+			LOGGER.debug("User id filter, limits or missing date filter, the highlights cannot be resolved from the pre-calculated clusters.");
+			return null;
+		}
+		
+		long firstDay = toDay(System.currentTimeMillis()) - days + 1;
+		Set<Interval> intervals = dateInterval.getValues();
+		long[] starts = new long[intervals.size()];
+		long[] ends = new long[starts.length];
+		int index = 0;
+		for(Interval interval : intervals) {
+			starts[index] = interval.getStart().getTime();
+			ends[index] = interval.getEnd().getTime();
+			if(toDay(starts[index]) < firstDay) {
+				LOGGER.debug("Date filter starts before the pre-calculated period.");
+				return null;
+			}
+			++index;
+		}
+		
+		if(getJdbcTemplate().queryForRowSet(SQL_HAS_NON_PUBLIC_MEASUREMENTS, new Object[]{userIdentity.getUserId(), new Date(firstDay * DAY)}, SQL_HAS_NON_PUBLIC_MEASUREMENTS_VALUE_TYPES).next()) {
+			LOGGER.debug("The user has non-public measurements, which are not included in the pre-calculated clusters.");
+			return null;
+		}
+		
+		if(!load(firstDay, range)) {
+			return null;
+		}
+		
+		double minLatitude = -Double.MAX_VALUE;
+		double minLongitude = -Double.MAX_VALUE;
+		double maxLatitude = Double.MAX_VALUE;
+		double maxLongitude = Double.MAX_VALUE;
+		if(locationLimits.hasValues()) {
+			LatLng lowerLeft = locationLimits.getLowerLeft();
+			LatLng upperRight = locationLimits.getUpperRight();
+			minLatitude = lowerLeft.getLatitude();
+			minLongitude = lowerLeft.getLongitude();
+			maxLatitude = upperRight.getLatitude();
+			maxLongitude = upperRight.getLongitude();
+		}
+		if(ArrayUtils.isEmpty(levelFilter)) {
+			levelFilter = null;
+		}
+		
+		ArrayList<Cluster> matching = new ArrayList<>();
+		ArrayList<ShockHighlight> highlights = new ArrayList<>();
+		HashSet<Long> userIds = new HashSet<>();
+		_lock.readLock().lock();
+		try {
+			if(_clusters == null || _clusters._firstDay > firstDay) { // the clusters were reset or calculated for a different period
+				return null;
+			}
+			for(ArrayList<Cluster> clusters : _clusters._clusters.values()) {
+				matching.addAll(clusters);
+			}
+			matching.sort((c1, c2) -> Long.compare(c1._timestamps[0], c2._timestamps[0])); // in the order the centers were selected, the oldest first
+			long minTimeDifference = _clusters._minTimeDifference;
+			int[] members = new int[0];
+			for(Cluster cluster : matching) {
+				if(members.length < cluster._size) {
+					members = new int[cluster._size];
+				}
+				int memberCount = cluster.getMatching(starts, ends, levelFilter, minLatitude, minLongitude, maxLatitude, maxLongitude, members);
+				int first = 0;
+				while(memberCount - first > minMeasurements) { // the members are split into groups as in the on-request calculation, the oldest remaining member is used as the next center
+					int c = members[first++];
+					long from = cluster._timestamps[c];
+					long to = from;
+					int minLevel = cluster._levels[c];
+					int maxLevel = minLevel;
+					double maxRange = 0;
+					int measurementCount = 0;
+					long userId = cluster._userIds[c];
+					userIds.clear();
+					userIds.add(userId);
+					double lat = cluster._latitudes[c];
+					double lon = cluster._longitudes[c];
+					int remaining = first;
+					for(int m=first;m<memberCount;++m) {
+						int i = members[m];
+						long timestamp = cluster._timestamps[i];
+						double distance = (c == 0 ? cluster._distances[i] : MathUtils.haversine(lat, lon, cluster._latitudes[i], cluster._longitudes[i])); // all members are within the range of the original center
+						if(distance >= range || (cluster._userIds[i] == userId && Math.abs(timestamp - cluster._timestamps[c]) < minTimeDifference)) { // not in this group, keep for the next center
+							members[remaining++] = i;
+							continue;
+						}
+						userIds.add(cluster._userIds[i]);
+						++measurementCount;
+						if(distance > maxRange) {
+							maxRange = distance;
+						}
+						int level = cluster._levels[i];
+						if(level < minLevel) {
+							minLevel = level;
+						}else if(level > maxLevel) {
+							maxLevel = level;
+						}
+						if(timestamp < from) {
+							from = timestamp;
+						}else if(timestamp > to) {
+							to = timestamp;
+						}
+					}
+					memberCount = remaining;
+					
+					if(measurementCount > minMeasurements) {
+						ShockHighlight hl = new ShockHighlight();
+						hl.setLatitude(lat);
+						hl.setLongitude(lon);
+						hl.setFrom(new Date(from));
+						hl.setTo(new Date(to));
+						hl.setMaxLevel(maxLevel);
+						hl.setMinLevel(minLevel);
+						hl.setUserCount(userIds.size());
+						hl.setMaxRange(maxRange);
+						hl.setMeasurementCount(measurementCount);
+						highlights.add(hl);
+					}
+				}
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+		return highlights;
+	}
+	
+	/**
+	 * Must be called before new measurements are inserted into the database. 
+	 * 
+	 * Each call must be followed by a call to {@link #endUpdate(Collection)}, also if the insert fails.
+	 */
+	public void beginUpdate() {
+		_lock.writeLock().lock();
+		try {
+			++_pendingUpdates;
+			++_modCount; // prevents installing clusters calculated from database results which may or may not contain the new measurements
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Merges the new public measurements with level and location into the clusters.
+	 * 
+	 * @param measurements the measurements which were inserted into the database, or null if the insert failed
+	 * @see #beginUpdate()
+	 */
+	public void endUpdate(Collection<ShockMeasurement> measurements) {
+		_lock.writeLock().lock();
+		try {
+			--_pendingUpdates;
+			++_modCount;
+			if(_clusters == null || measurements == null) {
+				return;
+			}
+			long minTimestamp = _clusters._firstDay * DAY;
+			for(ShockMeasurement measurement : measurements) {
+				LocationData location = measurement.getLocationData();
+				Integer level = measurement.getLevel();
+				long timestamp = ShockDAO.truncateToSeconds(measurement.getTimestamp().getTime()); // same precision as in the database
+				if(location == null || level == null || timestamp < minTimestamp || measurement.getVisibility() != Visibility.PUBLIC) {
+					continue;
+				}
+				_clusters.add(location.getLatitude(), location.getLongitude(), level, timestamp, measurement.getUserId().getUserId());
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Make sure that the clusters are calculated for the period starting from the given day with the given range.
+	 * 
+	 * @param firstDay
+	 * @param range
+	 * @return true if the clusters are available, false if the clusters could not be calculated because of concurrent modifications
+	 */
+	private boolean load(long firstDay, double range) {
+		long modCount = 0;
+		_lock.readLock().lock();
+		try {
+			if(_clusters != null && _clusters._firstDay == firstDay && _clusters.hasRange(range)) {
+				return true;
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+		
+		_lock.writeLock().lock();
+		try {
+			if(_clusters != null && _clusters.hasRange(range) && _clusters._firstDay < firstDay) { // the period has moved forward, expire the oldest measurements
+				LOGGER.debug("Expiring highlight clusters before day "+firstDay);
+				_clusters.expire(firstDay);
+				++_modCount;
+				return true;
+			}else if(_clusters != null && _clusters._firstDay == firstDay && _clusters.hasRange(range)) { // calculated by another thread
+				return true;
+			}else if(_pendingUpdates > 0) {
+				LOGGER.debug("Measurements are being inserted, not calculating the clusters.");
+				return false;
+			}
+			_clusters = null;
+			modCount = _modCount;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+		
+		LOGGER.debug("Calculating highlight clusters from day "+firstDay);
+		Clusters clusters = new Clusters(firstDay, range, ServiceInitializer.getPropertyHandler().getSystemProperties(ApiltaProperties.class).getShockGroupTimeDifference());
+		getJdbcTemplate().query(SQL_GET_MEASUREMENTS, new Object[]{new Date(firstDay * DAY)}, SQL_GET_MEASUREMENTS_VALUE_TYPES, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				clusters.add(set.getDouble(4), set.getDouble(5), set.getInt(3), set.getTimestamp(2).getTime(), set.getLong(1));
+			}
+		});
+		
+		_lock.writeLock().lock();
+		try {
+			if(modCount != _modCount) { // something changed while calculating, the results may not be up-to-date
+				LOGGER.debug("Measurements were modified while calculating the clusters.");
+				return false;
+			}
+			_clusters = clusters;
+			++_modCount;
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param timestamp
+	 * @return the day (UTC) of the timestamp as days since the epoch
+	 */
+	private static long toDay(long timestamp) {
+		return Math.floorDiv(timestamp, DAY);
+	}
+	
+	/**
+	 * Set of clusters, indexed by the latitude of the cluster center
+	 *
+	 */
+	private static class Clusters {
+		private TreeMap<Double, ArrayList<Cluster>> _clusters = new TreeMap<>(); // center latitude, clusters
+		private long _firstDay = 0;
+		private double _latitudeRange = 0; // in degrees
+		private long _minTimeDifference = 0;
+		private double _range = 0;
+		
+		/**
+		 * 
+		 * @param firstDay
+		 * @param range in km
+		 * @param minTimeDifference
+		 */
+		public Clusters(long firstDay, double range, long minTimeDifference) {
+			_firstDay = firstDay;
+			_range = range;
+			_latitudeRange = Math.toDegrees(range / MathUtils.EARTH_RADIUS); // latitude difference can never be larger than the central angle
+			_minTimeDifference = minTimeDifference;
+		}
+		
+		/**
+		 * 
+		 * @param range in km
+		 * @return true if the clusters were calculated for the given range, within {@value ShockHighlightDAO#RANGE_TOLERANCE} km
+		 */
+		public boolean hasRange(double range) {
+			return (Math.abs(_range - range) <= RANGE_TOLERANCE);
+		}
+		
+		/**
+		 * Add the measurement to the nearest cluster within the range, or create a new cluster centered on the measurement
+		 * 
+		 * @param latitude
+		 * @param longitude
+		 * @param level
+		 * @param timestamp
+		 * @param userId
+		 */
+		public void add(double latitude, double longitude, int level, long timestamp, long userId) {
+			Cluster nearest = null;
+			double nearestDistance = Double.MAX_VALUE;
+			for(ArrayList<Cluster> clusters : _clusters.subMap(latitude - _latitudeRange, true, latitude + _latitudeRange, true).values()) {
+				for(Cluster cluster : clusters) {
+					if(cluster._userIds[0] == userId && Math.abs(cluster._timestamps[0] - timestamp) < _minTimeDifference) { // if the measurements are from the same user, check that the measurements are from different sessions
+						continue;
+					}
+					double distance = MathUtils.haversine(cluster._latitudes[0], cluster._longitudes[0], latitude, longitude);
+					if(distance < _range && distance < nearestDistance) {
+						nearest = cluster;
+						nearestDistance = distance;
+					}
+				}
+			}
+			
+			if(nearest == null) {
+				nearest = new Cluster();
+				Double key = latitude;
+				ArrayList<Cluster> clusters = _clusters.get(key);
+				if(clusters == null) {
+					clusters = new ArrayList<>(1);
+					_clusters.put(key, clusters);
+				}
+				clusters.add(nearest);
+				nearestDistance = 0;
+			}
+			nearest.add(latitude, longitude, level, timestamp, userId, nearestDistance);
+		}
+		
+		/**
+		 * Remove the measurements before the given day. Clusters with removed center are split, and the remaining measurements are re-clustered.
+		 * 
+		 * @param firstDay
+		 */
+		public void expire(long firstDay) {
+			long minTimestamp = firstDay * DAY;
+			Cluster orphans = new Cluster(); // the measurements of removed clusters, used only as storage
+			for(Iterator<ArrayList<Cluster>> iter = _clusters.values().iterator(); iter.hasNext();) {
+				ArrayList<Cluster> clusters = iter.next();
+				for(Iterator<Cluster> cIter = clusters.iterator(); cIter.hasNext();) {
+					Cluster cluster = cIter.next();
+					if(cluster._timestamps[0] < minTimestamp) {
+						for(int i=1;i<cluster._size;++i) {
+							if(cluster._timestamps[i] >= minTimestamp) {
+								orphans.add(cluster._latitudes[i], cluster._longitudes[i], cluster._levels[i], cluster._timestamps[i], cluster._userIds[i], 0);
+							}
+						}
+						cIter.remove();
+					}else {
+						cluster.removeBefore(minTimestamp);
+					}
+				}
+				if(clusters.isEmpty()) {
+					iter.remove();
+				}
+			}
+			_firstDay = firstDay;
+			
+			Integer[] order = new Integer[orphans._size];
+			for(int i=0;i<order.length;++i) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (i1, i2) -> Long.compare(orphans._timestamps[i1], orphans._timestamps[i2])); // the oldest measurements are used as the new centers
+			for(Integer i : order) {
+				add(orphans._latitudes[i], orphans._longitudes[i], orphans._levels[i], orphans._timestamps[i], orphans._userIds[i]);
+			}
+		}
+	} // class Clusters
+	
+	/**
+	 * Measurements of a single cluster, the first measurement is the center of the cluster
+	 *
+	 */
+	private static class Cluster {
+		private double[] _distances = new double[4]; // distance to the center in km
+		private double[] _latitudes = new double[4];
+		private int[] _levels = new int[4];
+		private double[] _longitudes = new double[4];
+		private int _size = 0;
+		private long[] _timestamps = new long[4];
+		private long[] _userIds = new long[4];
+		
+		/**
+		 * 
+		 * @param latitude
+		 * @param longitude
+		 * @param level
+		 * @param timestamp
+		 * @param userId
+		 * @param distance
+		 */
+		public void add(double latitude, double longitude, int level, long timestamp, long userId, double distance) {
+			if(_size == _timestamps.length) {
+				int capacity = _size * 2;
+				_distances = Arrays.copyOf(_distances, capacity);
+				_latitudes = Arrays.copyOf(_latitudes, capacity);
+				_levels = Arrays.copyOf(_levels, capacity);
+				_longitudes = Arrays.copyOf(_longitudes, capacity);
+				_timestamps = Arrays.copyOf(_timestamps, capacity);
+				_userIds = Arrays.copyOf(_userIds, capacity);
+			}
+			_distances[_size] = distance;
+			_latitudes[_size] = latitude;
+			_levels[_size] = level;
+			_longitudes[_size] = longitude;
+			_timestamps[_size] = timestamp;
+			_userIds[_size] = userId;
+			++_size;
+		}
+		
+		/**
+		 * Remove the members (excluding the center) older than the given timestamp
+		 * 
+		 * @param minTimestamp
+		 */
+		public void removeBefore(long minTimestamp) {
+			int size = 1;
+			for(int i=1;i<_size;++i) {
+				if(_timestamps[i] < minTimestamp) {
+					continue;
+				}
+				_distances[size] = _distances[i];
+				_latitudes[size] = _latitudes[i];
+				_levels[size] = _levels[i];
+				_longitudes[size] = _longitudes[i];
+				_timestamps[size] = _timestamps[i];
+				_userIds[size] = _userIds[i];
+				++size;
+			}
+			_size = size;
+		}
+		
+		/**
+		 * Collect the indexes of the measurements matching the filters. 
+		 * 
+		 * If the center matches, it is the first index, the other matching measurements follow ordered by timestamp (the oldest first).
+		 * 
+		 * @param starts
+		 * @param ends
+		 * @param levelFilter
+		 * @param minLatitude
+		 * @param minLongitude
+		 * @param maxLatitude
+		 * @param maxLongitude
+		 * @param indexes the array the matching indexes are written to, must have at least the size of this cluster
+		 * @return the number of matching measurements
+		 */
+		public int getMatching(long[] starts, long[] ends, int[] levelFilter, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int[] indexes) {
+			int count = 0;
+			int first = 0;
+			if(matches(0, starts, ends, levelFilter, minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+				indexes[count++] = 0;
+				first = 1; // the center is kept as the first, even if it is not the oldest
+			}
+			for(int i=1;i<_size;++i) {
+				if(!matches(i, starts, ends, levelFilter, minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+					continue;
+				}
+				int position = count++;
+				long timestamp = _timestamps[i];
+				while(position > first && _timestamps[indexes[position-1]] > timestamp) { // the members are mostly in timestamp order, insertion sort is sufficient
+					indexes[position] = indexes[position-1];
+					--position;
+				}
+				indexes[position] = i;
+			}
+			return count;
+		}
+		
+		/**
+		 * 
+		 * @param index
+		 * @param starts
+		 * @param ends
+		 * @param levelFilter
+		 * @param minLatitude
+		 * @param minLongitude
+		 * @param maxLatitude
+		 * @param maxLongitude
+		 * @return true if the measurement at the given index matches the filters
+		 */
+		public boolean matches(int index, long[] starts, long[] ends, int[] levelFilter, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+			if(levelFilter != null && !ArrayUtils.contains(levelFilter, _levels[index])) {
+				return false;
+			}
+			double latitude = _latitudes[index];
+			double longitude = _longitudes[index];
+			if(latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude || longitude > maxLongitude) { // borders are included, as with the database query
+				return false;
+			}
+			long timestamp = _timestamps[index];
+			for(int i=0;i<starts.length;++i) {
+				if(timestamp >= starts[i] && timestamp <= ends[i]) {
+					return true;
+				}
+			}
+			return false;
+		}
+	} // class Cluster
+}
@@ -17,6 +17,7 @@ package service.tut.pori.apilta.shock;
 
 import service.tut.pori.apilta.shock.GroupCalculator.GroupMethod;
 import service.tut.pori.apilta.shock.datatypes.LocationLimits;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
 import service.tut.pori.apilta.shock.datatypes.ShockMeasurementList;
 import core.tut.pori.http.Response;
 import core.tut.pori.http.annotations.HTTPAuthenticationParameter;
@@ -32,27 +33,43 @@ import core.tut.pori.http.parameters.IntegerParameter;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.http.parameters.LongParameter;
 import core.tut.pori.http.parameters.StringParameter;
-import core.tut.pori.utils.XMLFormatter;
 
 /**
  * 
  */
 @HTTPService(name = Definitions.SERVICE_SHOCK)
 public class ShockService {
-	private XMLFormatter _formatter = new XMLFormatter();
-	
 	/**
+	 * Invalid measurements in the list are ignored, and the rest of the measurements are created. The positions of the ignored measurements are listed in the response message.
+	 * 
+	 * The measurement list is processed in chunks, and the chunks processed before a possible parse error remain created.
 	 * 
 	 * @param authenticatedUser
 	 * @param xml {@link ShockMeasurementList}
+	 * @return see {@link service.tut.pori.apilta.shock.datatypes.ShockMeasurementList}, containing the generated measurement ids in the order of the given measurements. The ignored measurements do not have measurement id.
 	 */
 	@HTTPServiceMethod(name = Definitions.METHOD_CREATE_MEASUREMENT, acceptedMethods={core.tut.pori.http.Definitions.METHOD_POST})
-	public void createMeasurement (
+	public Response createMeasurement (
 			@HTTPAuthenticationParameter AuthenticationParameter authenticatedUser,
 			@HTTPMethodParameter(name = InputStreamParameter.PARAMETER_DEFAULT_NAME, bodyParameter = true) InputStreamParameter xml
 			) 
 	{
-		ShockCore.createMeasurement(authenticatedUser.getUserIdentity(), _formatter.toObject(xml.getValue(), ShockMeasurementList.class));
+		ShockMeasurementList created = ShockCore.createMeasurement(authenticatedUser.getUserIdentity(), xml.getValue());
+		Response r = new Response(created);
+		StringBuilder invalid = new StringBuilder();
+		int position = 0;
+		for(ShockMeasurement m : created.getShockMeasurements()) {
+			if(m.getMeasurementId() == null) {
+				invalid.append(position);
+				invalid.append(',');
+			}
+			++position;
+		}
+		if(invalid.length() > 0) {
+			invalid.setLength(invalid.length()-1); // chop the tailing ,
+			r.setMessage("Ignored invalid measurements at positions: "+invalid.toString());
+		}
+		return r;
 	}
 	
 	/**
@@ -84,6 +101,38 @@ public class ShockService {
 		return new Response(ShockCore.getMeasurements(authenticatedUser.getUserIdentity(), locationLimits, dataGroups, dateInterval, levelFilter.getValues(), limits, (groupMethod.hasValues() ? GroupMethod.fromString(groupMethod.getValue()) : null), groupRange.getValue(), userIdFilter.getValues()));
 	}
 	
+	/**
+	 * Export measurements without the memory constraints of {@link #getMeasurements(AuthenticationParameter, LocationLimits, DataGroups, IntegerParameter, DateIntervalParameter, Limits, StringParameter, IntegerParameter, LongParameter)}. The measurements are streamed directly from the database, and are ordered by timestamp and measurement id (oldest first).
+	 * 
+	 * To continue an export, pass the timestamp and measurement id of the last received measurement as the after parameter: after=ISO_DATE{@value core.tut.pori.http.Definitions#SEPARATOR_URI_QUERY_TYPE_VALUE}MEASUREMENT_ID
+	 * 
+	 * @param authenticatedUser
+	 * @param locationLimits
+	 * @param dataGroups
+	 * @param levelFilter
+	 * @param dateInterval
+	 * @param userIdFilter
+	 * @param after
+	 * @param maxMeasurements maximum number of measurements to return, if not given all matching measurements are returned
+	 * @param format {@value service.tut.pori.apilta.shock.Definitions#FORMAT_XML} (default) or {@value service.tut.pori.apilta.shock.Definitions#FORMAT_CSV}
+	 * @return see {@link service.tut.pori.apilta.shock.datatypes.ShockMeasurementList} or comma separated values with a header row
+	 */
+	@HTTPServiceMethod(name = Definitions.METHOD_EXPORT_MEASUREMENTS, acceptedMethods={core.tut.pori.http.Definitions.METHOD_GET})
+	public Response exportMeasurements (
+			@HTTPAuthenticationParameter AuthenticationParameter authenticatedUser,
+			@HTTPMethodParameter(name = LocationLimits.PARAMETER_DEFAULT_NAME, required = false) LocationLimits locationLimits,
+			@HTTPMethodParameter(name = DataGroups.PARAMETER_DEFAULT_NAME, required = false) DataGroups dataGroups,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_LEVEL, required = false) IntegerParameter levelFilter,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_TIMESTAMP, required = false) DateIntervalParameter dateInterval,
+			@HTTPMethodParameter(name = service.tut.pori.users.Definitions.PARAMETER_USER_ID, required = false) LongParameter userIdFilter,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_AFTER, required = false) StringParameter after,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_MAX_MEASUREMENTS, required = false) IntegerParameter maxMeasurements,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_FORMAT, required = false) StringParameter format
+			) 
+	{
+		return ShockCore.exportMeasurements(authenticatedUser.getUserIdentity(), locationLimits, dataGroups, dateInterval, levelFilter.getValues(), userIdFilter.getValues(), after.getValue(), maxMeasurements.getValue(), format.getValue());
+	}
+	
 	/**
 	 * 
 	 * @param authenticatedUser
@@ -110,4 +159,26 @@ public class ShockService {
 	{
 		return new Response(ShockCore.getHighlights(authenticatedUser.getUserIdentity(), minMeasurements.getValue(), range.getValue(), locationLimits, dateInterval, levelFilter.getValues(), limits, userIdFilter.getValues()));
 	}
+	
+	/**
+	 * Returns the pre-calculated tiles (web mercator zoom/x/y numbering) containing public shock measurements. The tiles can be selected by location limits, or by the x and y parameters.
+	 * 
+	 * @param authenticatedUser
+	 * @param zoom 0-{@value service.tut.pori.apilta.shock.Definitions#MAX_TILE_ZOOM}
+	 * @param locationLimits
+	 * @param x one value or inclusive range of two values, ignored if location limits are given
+	 * @param y one value or inclusive range of two values, ignored if location limits are given
+	 * @return see {@link service.tut.pori.apilta.shock.datatypes.ShockTileList}
+	 */
+	@HTTPServiceMethod(name = Definitions.METHOD_GET_TILES, acceptedMethods={core.tut.pori.http.Definitions.METHOD_GET})
+	public Response getTiles (
+			@HTTPAuthenticationParameter AuthenticationParameter authenticatedUser,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_ZOOM) IntegerParameter zoom,
+			@HTTPMethodParameter(name = LocationLimits.PARAMETER_DEFAULT_NAME, required = false) LocationLimits locationLimits,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_X, required = false) IntegerParameter x,
+			@HTTPMethodParameter(name = Definitions.PARAMETER_Y, required = false) IntegerParameter y
+			) 
+	{
+		return new Response(ShockCore.getTiles(zoom.getValue(), locationLimits, x.getValues(), y.getValues()));
+	}
 }
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import core.tut.pori.dao.SQLDAO;
+import core.tut.pori.dao.clause.SQLClause.SQLType;
+import service.tut.pori.apilta.shock.datatypes.LocationData;
+import service.tut.pori.apilta.shock.datatypes.ShockMeasurement;
+import service.tut.pori.apilta.shock.datatypes.ShockTile;
+import service.tut.pori.apilta.shock.datatypes.ShockTileList;
+import service.tut.pori.apilta.utils.MathUtils;
+import service.tut.pori.tasks.datatypes.Task.Visibility;
+
+/**
+ * DAO for the pre-calculated shock measurement tiles.
+ * 
+ * The tiles are maintained for all zoom levels 0-{@value service.tut.pori.apilta.shock.Definitions#MAX_TILE_ZOOM}, and contain per-level measurement counts, so that the level statistics (min, max, median) can be calculated without accessing the individual measurements.
+ * 
+ * Only public measurements with level and location data are included in the tiles.
+ */
+public class ShockTileDAO extends SQLDAO {
+	private static final Logger LOGGER = Logger.getLogger(ShockTileDAO.class);
+	/* tables */
+	private static final String TABLE_SHOCK_TILES = DATABASE+".shock_tiles";
+	private static final String TABLE_SHOCK_TILES_USERS = DATABASE+".shock_tiles_users";
+	/* columns */
+	private static final String COLUMN_FROM_TIMESTAMP = "from_timestamp";
+	private static final String COLUMN_LEVEL = "level";
+	private static final String COLUMN_MEASUREMENT_COUNT = "measurement_count";
+	private static final String COLUMN_TO_TIMESTAMP = "to_timestamp";
+	private static final String COLUMN_X = "x";
+	private static final String COLUMN_Y = "y";
+	private static final String COLUMN_ZOOM = "zoom";
+	/* sql strings */
+	private static final String SQL_INSERT_TILE = "INSERT INTO "+TABLE_SHOCK_TILES+" ("+COLUMN_ZOOM+", "+COLUMN_X+", "+COLUMN_Y+", "+COLUMN_LEVEL+", "+COLUMN_MEASUREMENT_COUNT+", "+COLUMN_FROM_TIMESTAMP+", "+COLUMN_TO_TIMESTAMP+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,?,?,?,NOW()) "
+			+ "ON DUPLICATE KEY UPDATE "+COLUMN_MEASUREMENT_COUNT+"="+COLUMN_MEASUREMENT_COUNT+"+VALUES("+COLUMN_MEASUREMENT_COUNT+"), "+COLUMN_FROM_TIMESTAMP+"=LEAST("+COLUMN_FROM_TIMESTAMP+", VALUES("+COLUMN_FROM_TIMESTAMP+")), "+COLUMN_TO_TIMESTAMP+"=GREATEST("+COLUMN_TO_TIMESTAMP+", VALUES("+COLUMN_TO_TIMESTAMP+"))";
+	private static final int[] SQL_INSERT_TILE_VALUE_TYPES = {SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.LONG.toInt(), SQLType.TIMESTAMP.toInt(), SQLType.TIMESTAMP.toInt()};
+	
+	private static final String SQL_INSERT_TILE_USER = "INSERT INTO "+TABLE_SHOCK_TILES_USERS+" ("+COLUMN_ZOOM+", "+COLUMN_X+", "+COLUMN_Y+", "+COLUMN_USER_ID+", "+COLUMN_ROW_CREATED+") VALUES (?,?,?,?,NOW()) ON DUPLICATE KEY UPDATE "+COLUMN_ROW_UPDATED+"=NOW()";
+	private static final int[] SQL_INSERT_TILE_USER_VALUE_TYPES = {SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.LONG.toInt()};
+	
+	private static final String SQL_TILE_RANGE = " WHERE "+COLUMN_ZOOM+"=? AND "+COLUMN_X+" BETWEEN ? AND ? AND "+COLUMN_Y+" BETWEEN ? AND ?";
+	private static final int[] SQL_TILE_RANGE_VALUE_TYPES = {SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt()};
+	private static final String SQL_GET_TILES = "SELECT "+COLUMN_X+", "+COLUMN_Y+", "+COLUMN_LEVEL+", "+COLUMN_MEASUREMENT_COUNT+", "+COLUMN_FROM_TIMESTAMP+", "+COLUMN_TO_TIMESTAMP+" FROM "+TABLE_SHOCK_TILES+SQL_TILE_RANGE+" ORDER BY "+COLUMN_X+", "+COLUMN_Y+", "+COLUMN_LEVEL;
+	private static final String SQL_GET_TILE_USER_COUNTS = "SELECT "+COLUMN_X+", "+COLUMN_Y+", "+COLUMN_COUNT+" FROM "+TABLE_SHOCK_TILES_USERS+SQL_TILE_RANGE+" GROUP BY "+COLUMN_X+", "+COLUMN_Y;
+	
+	/**
+	 * Add the given measurements to the tiles. Measurements which are not public, or which do not have level or location data are ignored.
+	 * 
+	 * The measurements are first combined in memory so that each affected tile is updated only once per zoom level and measurement level.
+	 * 
+	 * The counters are incremented, not recalculated, so this must be called exactly once for each stored measurement. If there is an active transaction (e.g. {@link ShockDAO#createMeasurements(List)}), the update is performed within it.
+	 * 
+	 * @param measurements
+	 */
+	public void addMeasurements(Collection<ShockMeasurement> measurements) {
+		TreeMap<TileKey, TileValue> tiles = new TreeMap<>(); // ordered, so that concurrent updates lock the rows in the same order
+		TreeSet<TileKey> users = new TreeSet<>(); // tile + user id
+		for(ShockMeasurement measurement : measurements) {
+			Integer level = measurement.getLevel();
+			LocationData location = measurement.getLocationData();
+			if(level == null || location == null || measurement.getVisibility() != Visibility.PUBLIC) {
+				continue;
+			}
+			double latitude = location.getLatitude();
+			double longitude = location.getLongitude();
+			Date timestamp = ShockDAO.truncateToSeconds(measurement.getTimestamp()); // same precision as in the database
+			Long userId = measurement.getUserId().getUserId();
+			for(int zoom=0;zoom<=Definitions.MAX_TILE_ZOOM;++zoom) {
+				int x = MathUtils.toTileX(longitude, zoom);
+				int y = MathUtils.toTileY(latitude, zoom);
+				TileKey key = new TileKey(zoom, x, y, level);
+				TileValue value = tiles.get(key);
+				if(value == null) {
+					tiles.put(key, new TileValue(timestamp));
+				}else {
+					value.add(timestamp);
+				}
+				users.add(new TileKey(zoom, x, y, userId));
+			}
+		}
+		
+		if(tiles.isEmpty()) {
+			LOGGER.debug("No public measurements with level and location data.");
+			return;
+		}
+		
+		ArrayList<Object[]> tileArgs = new ArrayList<>(tiles.size());
+		for(Entry<TileKey, TileValue> e : tiles.entrySet()) {
+			TileKey key = e.getKey();
+			TileValue value = e.getValue();
+			tileArgs.add(new Object[]{key._zoom, key._x, key._y, (int) key._value, value._count, value._from, value._to});
+		}
+		ArrayList<Object[]> userArgs = new ArrayList<>(users.size());
+		for(TileKey key : users) {
+			userArgs.add(new Object[]{key._zoom, key._x, key._y, key._value});
+		}
+		
+		getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+			
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				JdbcTemplate t = getJdbcTemplate();
+				t.batchUpdate(SQL_INSERT_TILE, tileArgs, SQL_INSERT_TILE_VALUE_TYPES);
+				t.batchUpdate(SQL_INSERT_TILE_USER, userArgs, SQL_INSERT_TILE_USER_VALUE_TYPES);
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 * @param zoom
+	 * @param minX inclusive
+	 * @param maxX inclusive
+	 * @param minY inclusive
+	 * @param maxY inclusive
+	 * @return the non-empty tiles in the given range or null if none was found
+	 */
+	public ShockTileList getTiles(int zoom, int minX, int maxX, int minY, int maxY) {
+		Object[] args = {zoom, minX, maxX, minY, maxY};
+		TileRowHandler handler = new TileRowHandler(zoom);
+		JdbcTemplate t = getJdbcTemplate();
+		t.query(SQL_GET_TILES, args, SQL_TILE_RANGE_VALUE_TYPES, handler);
+		List<ShockTile> tiles = handler.getTiles();
+		if(tiles.isEmpty()) {
+			LOGGER.debug("No tiles found.");
+			return null;
+		}
+		
+		HashMap<Long, ShockTile> tileMap = new HashMap<>(tiles.size());
+		for(ShockTile tile : tiles) {
+			tileMap.put(toTileId(tile.getX(), tile.getY()), tile);
+		}
+		t.query(SQL_GET_TILE_USER_COUNTS, args, SQL_TILE_RANGE_VALUE_TYPES, new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				ShockTile tile = tileMap.get(toTileId(set.getInt(1), set.getInt(2)));
+				if(tile != null) {
+					tile.setUserCount(set.getLong(3));
+				}
+			}
+		});
+		
+		return ShockTileList.getShockTileList(tiles);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param y
+	 * @return unique id for the tile within a zoom level
+	 */
+	private static Long toTileId(int x, int y) {
+		return Long.valueOf((((long) x) << 32) | (y & 0xFFFFFFFFL));
+	}
+	
+	/**
+	 * Combines the per-level rows (ordered by x, y and level) into tiles.
+	 *
+	 */
+	private static class TileRowHandler implements RowCallbackHandler {
+		private int _zoom = 0;
+		private ArrayList<ShockTile> _tiles = new ArrayList<>();
+		private ShockTile _current = null;
+		private ArrayList<long[]> _levelCounts = new ArrayList<>(); // level, count pairs of the current tile, in ascending level order
+		
+		/**
+		 * 
+		 * @param zoom
+		 */
+		public TileRowHandler(int zoom) {
+			_zoom = zoom;
+		}
+
+		@Override
+		public void processRow(ResultSet set) throws SQLException {
+			int x = set.getInt(1);
+			int y = set.getInt(2);
+			if(_current == null || _current.getX() != x || _current.getY() != y) {
+				finishTile();
+				_current = new ShockTile();
+				_current.setZoom(_zoom);
+				_current.setX(x);
+				_current.setY(y);
+			}
+			
+			int level = set.getInt(3);
+			long count = set.getLong(4);
+			Date from = set.getTimestamp(5);
+			Date to = set.getTimestamp(6);
+			if(_current.getMinLevel() == null) { // rows are in ascending level order
+				_current.setMinLevel(level);
+			}
+			_current.setMaxLevel(level);
+			_current.setMeasurementCount(_current.getMeasurementCount() + count);
+			if(_current.getFrom() == null || from.before(_current.getFrom())) {
+				_current.setFrom(from);
+			}
+			if(_current.getTo() == null || to.after(_current.getTo())) {
+				_current.setTo(to);
+			}
+			_levelCounts.add(new long[]{level, count});
+		}
+		
+		/**
+		 * Calculate the median level for the current tile, and add it to the list of tiles
+		 */
+		private void finishTile() {
+			if(_current == null) {
+				return;
+			}
+			long total = _current.getMeasurementCount();
+			long lowerPosition = (total - 1) / 2; // zero-based positions of the middle measurements, equal for odd counts
+			long upperPosition = total / 2;
+			Integer lower = null;
+			long seen = 0;
+			for(long[] levelCount : _levelCounts) {
+				seen += levelCount[1];
+				if(lower == null && seen > lowerPosition) {
+					lower = (int) levelCount[0];
+				}
+				if(seen > upperPosition) {
+					_current.setMedianLevel((lower + levelCount[0]) / 2.0);
+					break;
+				}
+			}
+			_levelCounts.clear();
+			_tiles.add(_current);
+			_current = null;
+		}
+		
+		/**
+		 * 
+		 * @return the tiles
+		 */
+		public List<ShockTile> getTiles() {
+			finishTile();
+			return _tiles;
+		}
+	} // class TileRowHandler
+	
+	/**
+	 * Key for a tile and an additional value (level or user id)
+	 *
+	 */
+	private static class TileKey implements Comparable<TileKey> {
+		private int _zoom = 0;
+		private int _x = 0;
+		private int _y = 0;
+		private long _value = 0;
+		
+		/**
+		 * 
+		 * @param zoom
+		 * @param x
+		 * @param y
+		 * @param value
+		 */
+		public TileKey(int zoom, int x, int y, long value) {
+			_zoom = zoom;
+			_x = x;
+			_y = y;
+			_value = value;
+		}
+
+		@Override
+		public int compareTo(TileKey o) {
+			int c = Integer.compare(_zoom, o._zoom);
+			if(c == 0) {
+				c = Integer.compare(_x, o._x);
+				if(c == 0) {
+					c = Integer.compare(_y, o._y);
+					if(c == 0) {
+						c = Long.compare(_value, o._value);
+					}
+				}
+			}
+			return c;
+		}
+	} // class TileKey
+	
+	/**
+	 * Measurement count and time range of a tile level
+	 *
+	 */
+	private static class TileValue {
+		private long _count = 1;
+		private Date _from = null;
+		private Date _to = null;
+		
+		/**
+		 * 
+		 * @param timestamp
+		 */
+		public TileValue(Date timestamp) {
+			_from = timestamp;
+			_to = timestamp;
+		}
+		
+		/**
+		 * 
+		 * @param timestamp
+		 */
+		public void add(Date timestamp) {
+			++_count;
+			if(timestamp.before(_from)) {
+				_from = timestamp;
+			}else if(timestamp.after(_to)) {
+				_to = timestamp;
+			}
+		}
+	} // class TileValue
+}
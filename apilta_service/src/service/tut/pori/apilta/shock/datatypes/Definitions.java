@@ -38,6 +38,8 @@ public final class Definitions {
 	/** xml element declaration */
 	public static final String ELEMENT_MEASUREMENT_COUNT = "measurementCount";
 	/** xml element declaration */
+	public static final String ELEMENT_MEDIAN_LEVEL = "medianLevel";
+	/** xml element declaration */
 	public static final String ELEMENT_MIN_LEVEL = "minLevel";
 	/** xml element declaration */
 	public static final String ELEMENT_MAX_LEVEL = "maxLevel";
@@ -48,6 +50,10 @@ public final class Definitions {
 	/** xml element declaration */
 	public static final String ELEMENT_SHOCK_HIGHLIGHT_LIST = "highlightList";
 	/** xml element declaration */
+	public static final String ELEMENT_SHOCK_TILE = "tile";
+	/** xml element declaration */
+	public static final String ELEMENT_SHOCK_TILE_LIST = "tileList";
+	/** xml element declaration */
 	public static final String ELEMENT_SPEED = "speed";
 	/** xml element declaration */
 	public static final String ELEMENT_SYSTEMATIC_ERROR = "systematicError";
@@ -62,7 +68,13 @@ public final class Definitions {
 	/** xml element declaration */
 	public static final String ELEMENT_Y_ACCELERATION = "y_acc";
 	/** xml element declaration */
+	public static final String ELEMENT_X = "x";
+	/** xml element declaration */
+	public static final String ELEMENT_Y = "y";
+	/** xml element declaration */
 	public static final String ELEMENT_Z_ACCELERATION = "z_acc";
+	/** xml element declaration */
+	public static final String ELEMENT_ZOOM = "zoom";
 	
 	/**
 	 */
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock.datatypes;
+
+import java.util.Date;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import core.tut.pori.utils.ISODateAdapter;
+
+/**
+ * Aggregated shock measurement details for a single map tile.
+ * 
+ * The tiles use the common web map (slippy map) zoom/x/y numbering.
+ * 
+ */
+@XmlRootElement(name=Definitions.ELEMENT_SHOCK_TILE)
+@XmlAccessorType(XmlAccessType.NONE)
+public class ShockTile {
+	@XmlJavaTypeAdapter(ISODateAdapter.class)
+	@XmlElement(name=Definitions.ELEMENT_FROM_TIMESTAMP)
+	private Date _from = null;
+	@XmlElement(name=Definitions.ELEMENT_MAX_LEVEL)
+	private Integer _maxLevel = null;
+	@XmlElement(name=Definitions.ELEMENT_MEASUREMENT_COUNT)
+	private long _measurementCount = 0;
+	@XmlElement(name=Definitions.ELEMENT_MEDIAN_LEVEL)
+	private Double _medianLevel = null;
+	@XmlElement(name=Definitions.ELEMENT_MIN_LEVEL)
+	private Integer _minLevel = null;
+	@XmlJavaTypeAdapter(ISODateAdapter.class)
+	@XmlElement(name=Definitions.ELEMENT_TO_TIMESTAMP)
+	private Date _to = null;
+	@XmlElement(name=Definitions.ELEMENT_USER_COUNT)
+	private long _userCount = 0;
+	@XmlElement(name=Definitions.ELEMENT_X)
+	private int _x = 0;
+	@XmlElement(name=Definitions.ELEMENT_Y)
+	private int _y = 0;
+	@XmlElement(name=Definitions.ELEMENT_ZOOM)
+	private int _zoom = 0;
+	
+	/**
+	 * @return the from
+	 */
+	public Date getFrom() {
+		return _from;
+	}
+	
+	/**
+	 * @param from the from to set
+	 */
+	public void setFrom(Date from) {
+		_from = from;
+	}
+	
+	/**
+	 * @return the maxLevel
+	 */
+	public Integer getMaxLevel() {
+		return _maxLevel;
+	}
+	
+	/**
+	 * @param maxLevel the maxLevel to set
+	 */
+	public void setMaxLevel(Integer maxLevel) {
+		_maxLevel = maxLevel;
+	}
+	
+	/**
+	 * @return the measurementCount
+	 */
+	public long getMeasurementCount() {
+		return _measurementCount;
+	}
+	
+	/**
+	 * @param measurementCount the measurementCount to set
+	 */
+	public void setMeasurementCount(long measurementCount) {
+		_measurementCount = measurementCount;
+	}
+	
+	/**
+	 * @return the medianLevel
+	 */
+	public Double getMedianLevel() {
+		return _medianLevel;
+	}
+	
+	/**
+	 * @param medianLevel the medianLevel to set
+	 */
+	public void setMedianLevel(Double medianLevel) {
+		_medianLevel = medianLevel;
+	}
+	
+	/**
+	 * @return the minLevel
+	 */
+	public Integer getMinLevel() {
+		return _minLevel;
+	}
+	
+	/**
+	 * @param minLevel the minLevel to set
+	 */
+	public void setMinLevel(Integer minLevel) {
+		_minLevel = minLevel;
+	}
+	
+	/**
+	 * @return the to
+	 */
+	public Date getTo() {
+		return _to;
+	}
+	
+	/**
+	 * @param to the to to set
+	 */
+	public void setTo(Date to) {
+		_to = to;
+	}
+	
+	/**
+	 * @return the number of distinct users with measurements in this tile
+	 */
+	public long getUserCount() {
+		return _userCount;
+	}
+	
+	/**
+	 * @param userCount the userCount to set
+	 */
+	public void setUserCount(long userCount) {
+		_userCount = userCount;
+	}
+	
+	/**
+	 * @return the x
+	 */
+	public int getX() {
+		return _x;
+	}
+	
+	/**
+	 * @param x the x to set
+	 */
+	public void setX(int x) {
+		_x = x;
+	}
+	
+	/**
+	 * @return the y
+	 */
+	public int getY() {
+		return _y;
+	}
+	
+	/**
+	 * @param y the y to set
+	 */
+	public void setY(int y) {
+		_y = y;
+	}
+	
+	/**
+	 * @return the zoom
+	 */
+	public int getZoom() {
+		return _zoom;
+	}
+	
+	/**
+	 * @param zoom the zoom to set
+	 */
+	public void setZoom(int zoom) {
+		_zoom = zoom;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.shock.datatypes;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import core.tut.pori.http.ResponseData;
+
+/**
+ * 
+ * 
+ */
+@XmlRootElement(name=Definitions.ELEMENT_SHOCK_TILE_LIST)
+@XmlAccessorType(XmlAccessType.NONE)
+public class ShockTileList extends ResponseData {
+	@XmlElementRef
+	private List<ShockTile> _shockTiles = null;
+	
+	/**
+	 * @return the shockTiles
+	 */
+	public List<ShockTile> getShockTiles() {
+		return _shockTiles;
+	}
+
+	/**
+	 * @param shockTiles the shockTiles to set
+	 */
+	public void setShockTiles(List<ShockTile> shockTiles) {
+		_shockTiles = shockTiles;
+	}
+
+	/**
+	 * for sub-classing, use the static
+	 * 
+	 * @return true if list is empty
+	 */
+	protected boolean isEmpty() {
+		return (_shockTiles == null || _shockTiles.isEmpty());
+	}
+	
+	/**
+	 * 
+	 * @param list
+	 * @return true if the list is null or empty
+	 */
+	public static boolean isEmpty(ShockTileList list) {
+		return (list == null || list.isEmpty());
+	}
+	
+	/**
+	 * 
+	 * @param tiles
+	 * @return return list object containing the given list or null if null or empty list was passed
+	 */
+	public static ShockTileList getShockTileList(List<ShockTile> tiles) {
+		if(tiles == null || tiles.isEmpty()) {
+			return null;
+		}
+		ShockTileList list = new ShockTileList();
+		list._shockTiles = tiles;
+		return list;
+	}
+}
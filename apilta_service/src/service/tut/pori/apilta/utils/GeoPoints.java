@@ -0,0 +1,137 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.utils;
+
+/**
+ * Distance calculations for a fixed set of points.
+ * 
+ * The coordinates are converted to radians and the cosines of the latitudes are calculated once when the object is created, so repeated distance calculations between the points only require the calculations that depend on both points.
+ * 
+ * The points are referenced by their index in the coordinate arrays given in the constructor.
+ * 
+ * @see MathUtils#haversine(double, double, double, double)
+ */
+public final class GeoPoints {
+	private double[] _cosLatitudes = null;
+	private double[] _latitudes = null; // in radians
+	private double[] _longitudes = null; // in radians
+	
+	/**
+	 * 
+	 * @param latitudes in degrees
+	 * @param longitudes in degrees
+	 * @throws IllegalArgumentException on invalid arrays
+	 */
+	public GeoPoints(double[] latitudes, double[] longitudes) throws IllegalArgumentException {
+		if(latitudes == null || longitudes == null || latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("Invalid coordinate arrays.");
+		}
+		int size = latitudes.length;
+		_latitudes = new double[size];
+		_longitudes = new double[size];
+		_cosLatitudes = new double[size];
+		for(int i=0;i<size;++i) {
+			double latitude = Math.toRadians(latitudes[i]);
+			_latitudes[i] = latitude;
+			_longitudes[i] = Math.toRadians(longitudes[i]);
+			_cosLatitudes[i] = Math.cos(latitude);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return number of points
+	 */
+	public int size() {
+		return _latitudes.length;
+	}
+	
+	/**
+	 * 
+	 * @param i
+	 * @param j
+	 * @return distance between the points in km
+	 */
+	public double haversine(int i, int j) {
+		return 2 * MathUtils.EARTH_RADIUS * Math.asin(Math.sqrt(haversineValue(i, j)));
+	}
+	
+	/**
+	 * Calculate the distances from the given coordinate to all points.
+	 * 
+	 * @param latitude in degrees
+	 * @param longitude in degrees
+	 * @param distances array for the distances (in km), the distance to point i is set at index i. The array must be at least of length {@link #size()}.
+	 * @return the given distances array
+	 */
+	public double[] haversine(double latitude, double longitude, double[] distances) {
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		for(int i=0;i<_latitudes.length;++i) {
+			double sinLat = Math.sin((_latitudes[i] - lat) / 2);
+			double sinLon = Math.sin((_longitudes[i] - lon) / 2);
+			double a = sinLat * sinLat + sinLon * sinLon * cosLat * _cosLatitudes[i];
+			distances[i] = 2 * MathUtils.EARTH_RADIUS * Math.asin(Math.sqrt(a));
+		}
+		return distances;
+	}
+	
+	/**
+	 * Check if the haversine distance between the points is less than the range, without calculating the distance.
+	 * 
+	 * @param i
+	 * @param j
+	 * @param threshold the range converted with {@link MathUtils#toHaversineThreshold(double)}
+	 * @return true if the distance between the points is less than the range
+	 */
+	public boolean isWithin(int i, int j, double threshold) {
+		return haversineValue(i, j) < threshold;
+	}
+	
+	/**
+	 * Fast approximation of the distance using the equirectangular projection.
+	 * 
+	 * The approximation is intended for short distances. For distances up to {@value MathUtils#EQUIRECTANGULAR_MAX_RANGE} km between points at latitudes up to {@value MathUtils#EQUIRECTANGULAR_MAX_LATITUDE} degrees, the error compared to {@link #haversine(int, int)} is less than {@value MathUtils#EQUIRECTANGULAR_MAX_ERROR} km.
+	 * 
+	 * @param i
+	 * @param j
+	 * @return approximate distance between the points in km
+	 */
+	public double equirectangular(int i, int j) {
+		double dLon = _longitudes[j] - _longitudes[i];
+		if(dLon > Math.PI) { // use the shorter way around the globe
+			dLon -= 2 * Math.PI;
+		}else if(dLon < -Math.PI) {
+			dLon += 2 * Math.PI;
+		}
+		double x = dLon * (_cosLatitudes[i] + _cosLatitudes[j]) / 2; // the average of the cosines approximates the cosine of the mean latitude
+		double y = _latitudes[j] - _latitudes[i];
+		return MathUtils.EARTH_RADIUS * Math.sqrt(x * x + y * y);
+	}
+	
+	/**
+	 * 
+	 * @param i
+	 * @param j
+	 * @return the haversine of the central angle between the points
+	 */
+	private double haversineValue(int i, int j) {
+		double sinLat = Math.sin((_latitudes[j] - _latitudes[i]) / 2);
+		double sinLon = Math.sin((_longitudes[j] - _longitudes[i]) / 2);
+		return sinLat * sinLat + sinLon * sinLon * _cosLatitudes[i] * _cosLatitudes[j];
+	}
+}
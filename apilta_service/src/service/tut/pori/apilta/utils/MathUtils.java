@@ -20,7 +20,16 @@ package service.tut.pori.apilta.utils;
  *
  */
 public final class MathUtils {
-	private static final double R = 6372.8; // In kilometers
+	/** earth radius used in distance calculations, in kilometers */
+	public static final double EARTH_RADIUS = 6372.8;
+	/** maximum distance (in km) for which the error of the equirectangular approximation is guaranteed to be below {@value #EQUIRECTANGULAR_MAX_ERROR} */
+	public static final double EQUIRECTANGULAR_MAX_RANGE = 100;
+	/** maximum latitude (in degrees) for which the error of the equirectangular approximation is guaranteed to be below {@value #EQUIRECTANGULAR_MAX_ERROR} */
+	public static final double EQUIRECTANGULAR_MAX_LATITUDE = 80;
+	/** maximum error (in km) of the equirectangular approximation for distances up to {@value #EQUIRECTANGULAR_MAX_RANGE} km at latitudes up to {@value #EQUIRECTANGULAR_MAX_LATITUDE} degrees */
+	public static final double EQUIRECTANGULAR_MAX_ERROR = 0.05;
+	/** maximum latitude covered by the web mercator projection used in map tiles */
+	public static final double MAX_TILE_LATITUDE = 85.05112878;
 	
 	/**
 	 * 
@@ -36,9 +45,93 @@ public final class MathUtils {
         lat1 = Math.toRadians(lat1);
         lat2 = Math.toRadians(lat2);
  
-        double a = Math.pow(Math.sin(dLat / 2),2) + Math.pow(Math.sin(dLon / 2),2) * Math.cos(lat1) * Math.cos(lat2);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat + sinLon * sinLon * Math.cos(lat1) * Math.cos(lat2);
         double c = 2 * Math.asin(Math.sqrt(a));
-        return R * c;
+        return EARTH_RADIUS * c;
+    }
+
+    /**
+     * 
+     * @param lat latitude of the starting point
+     * @param lon longitude of the starting point
+     * @param bearing initial bearing in degrees, clockwise from north
+     * @param distance in km
+     * @return the point (latitude, longitude) reached by travelling the given distance along the great circle, longitude is normalized to [-180, 180]
+     */
+    public static double[] destination(double lat, double lon, double bearing, double distance) {
+    	double angle = distance / EARTH_RADIUS;
+    	double theta = Math.toRadians(bearing);
+    	double phi1 = Math.toRadians(lat);
+    	double sinPhi2 = Math.sin(phi1) * Math.cos(angle) + Math.cos(phi1) * Math.sin(angle) * Math.cos(theta);
+    	double phi2 = Math.asin(sinPhi2);
+    	double lambda2 = Math.toRadians(lon) + Math.atan2(Math.sin(theta) * Math.sin(angle) * Math.cos(phi1), Math.cos(angle) - Math.sin(phi1) * sinPhi2);
+    	double lon2 = Math.toDegrees(lambda2);
+    	lon2 = ((lon2 + 540) % 360) - 180;
+    	return new double[]{Math.toDegrees(phi2), lon2};
+    }
+
+    /**
+     *
+     * @param lat1 latitude of the starting point
+     * @param lon1 longitude of the starting point
+     * @param lat2 latitude of the end point
+     * @param lon2 longitude of the end point
+     * @return initial bearing from the starting point to the end point along the great circle, in degrees clockwise from north, in range [0, 360)
+     */
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+    	double phi1 = Math.toRadians(lat1);
+    	double phi2 = Math.toRadians(lat2);
+    	double dLambda = Math.toRadians(lon2 - lon1);
+    	double y = Math.sin(dLambda) * Math.cos(phi2);
+    	double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLambda);
+    	return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+
+    /**
+     * Convert the range to a threshold value, which can be compared to the haversine of the central angle between two points.
+     * 
+     * This allows checking whether two points are within the range without the square root and arcsine calculations needed for the actual distance.
+     * 
+     * @param range in km
+     * @return the threshold value
+     * @see GeoPoints#isWithin(int, int, double)
+     */
+    public static double toHaversineThreshold(double range) {
+    	if(!(range > 0)) { // nothing is within zero or negative range
+    		return 0;
+    	}else if(range >= Math.PI * EARTH_RADIUS) { // everything is within the range
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	double sin = Math.sin(range / (2 * EARTH_RADIUS));
+    	return sin * sin;
+    }
+    
+    /**
+     * 
+     * @param longitude
+     * @param zoom
+     * @return x index of the map tile (web mercator, slippy map numbering) containing the given longitude
+     */
+    public static int toTileX(double longitude, int zoom) {
+    	int tiles = 1 << zoom;
+    	int x = (int) Math.floor((longitude + 180) / 360 * tiles);
+    	return (x < 0 ? 0 : (x >= tiles ? tiles - 1 : x));
+    }
+    
+    /**
+     * Latitudes outside of {@value #MAX_TILE_LATITUDE} are clamped to the topmost or bottommost tile.
+     * 
+     * @param latitude
+     * @param zoom
+     * @return y index of the map tile (web mercator, slippy map numbering) containing the given latitude
+     */
+    public static int toTileY(double latitude, int zoom) {
+    	int tiles = 1 << zoom;
+    	double lat = Math.toRadians(Math.max(-MAX_TILE_LATITUDE, Math.min(MAX_TILE_LATITUDE, latitude)));
+    	int y = (int) Math.floor((1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * tiles);
+    	return (y < 0 ? 0 : (y >= tiles ? tiles - 1 : y));
     }
 
     /**
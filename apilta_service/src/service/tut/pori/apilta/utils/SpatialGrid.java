@@ -0,0 +1,248 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.utils;
+
+import java.util.HashMap;
+
+/**
+ * Uniform latitude/longitude grid index for a fixed set of points.
+ *
+ * The cell size is derived from the given range so that all points within the range (as calculated by {@link MathUtils#haversine(double, double, double, double)}) of any indexed point are located in the neighbouring cells of the point.
+ *
+ * The points are referenced by their index in the coordinate arrays given in the constructor. Points can be removed from the index, but new points cannot be added.
+ *
+ * This class is not thread-safe.
+ */
+public final class SpatialGrid {
+	private static final int[] EMPTY = new int[0];
+	private HashMap<Long, Cell> _cells = null;
+	private Cell[] _pointCells = null;
+	private int[] _pointPositions = null;
+	private double _cellHeight = 0; // in degrees
+	private double _cellWidth = 0; // in degrees
+	private int _columns = 0;
+	private boolean _emptyRange = false;
+	private double[] _latitudes = null;
+	private double[] _longitudes = null;
+	private int _size = 0;
+
+	/**
+	 * A single grid cell
+	 *
+	 */
+	private static class Cell {
+		private int[] _points = new int[4];
+		private int _size = 0;
+
+		/**
+		 *
+		 * @param index
+		 * @return position of the added point in this cell
+		 */
+		private int add(int index) {
+			if(_size == _points.length) {
+				int[] points = new int[_size*2];
+				System.arraycopy(_points, 0, points, 0, _size);
+				_points = points;
+			}
+			_points[_size] = index;
+			return _size++;
+		}
+	} // class Cell
+
+	/**
+	 *
+	 * @param latitudes
+	 * @param longitudes
+	 * @param range in km
+	 * @throws IllegalArgumentException on invalid arrays
+	 */
+	public SpatialGrid(double[] latitudes, double[] longitudes, double range) throws IllegalArgumentException {
+		if(latitudes == null || longitudes == null || latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("Invalid coordinate arrays.");
+		}
+		_latitudes = latitudes;
+		_longitudes = longitudes;
+		_size = latitudes.length;
+		_pointCells = new Cell[_size];
+		_pointPositions = new int[_size];
+		_cells = new HashMap<>();
+
+		double maxLatitude = 0;
+		for(double latitude : latitudes) {
+			double abs = Math.abs(latitude);
+			if(abs > maxLatitude) {
+				maxLatitude = abs;
+			}
+		}
+
+		double halfAngle = range / (2 * MathUtils.EARTH_RADIUS); // half of the central angle in radians
+		if(!(range > 0)) { // nothing can be within the range, use a single cell
+			_emptyRange = true;
+			_cellHeight = 180;
+			_cellWidth = 360;
+		}else if(halfAngle >= Math.PI / 2) { // the entire globe is within the range
+			_cellHeight = 180;
+			_cellWidth = 360;
+		}else {
+			_cellHeight = Math.toDegrees(2 * halfAngle); // latitude difference can never be larger than the central angle
+			double sin = Math.sin(halfAngle) / Math.cos(Math.toRadians(maxLatitude)); // the longitude difference is largest when both points are on the highest latitude
+			_cellWidth = (sin >= 1 ? 360 : Math.toDegrees(2 * Math.asin(sin)));
+		}
+		_columns = Math.max(1, (int) (360 / _cellWidth));
+		_cellWidth = 360.0 / _columns; // stretch the cells to cover the whole longitude range evenly, this also makes wrapping around the 180th meridian work
+
+		for(int i=0;i<_size;++i) {
+			Long key = toKey(getRow(latitudes[i]), getColumn(longitudes[i]));
+			Cell cell = _cells.get(key);
+			if(cell == null) {
+				cell = new Cell();
+				_cells.put(key, cell);
+			}
+			_pointPositions[i] = cell.add(i);
+			_pointCells[i] = cell;
+		}
+	}
+
+	/**
+	 *
+	 * @return number of points currently in the index
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return true if the point is in the index
+	 */
+	public boolean contains(int index) {
+		return (_pointCells[index] != null);
+	}
+
+	/**
+	 * Remove the point from the index. Removing already removed point does nothing.
+	 *
+	 * @param index
+	 */
+	public void remove(int index) {
+		Cell cell = _pointCells[index];
+		if(cell == null) {
+			return;
+		}
+		int position = _pointPositions[index];
+		int last = cell._points[--cell._size];
+		cell._points[position] = last; // replace the removed point with the last one in the cell
+		_pointPositions[last] = position;
+		_pointCells[index] = null;
+		--_size;
+	}
+
+	/**
+	 * Note: the returned points may be outside the range, the caller is responsible for checking the exact distance.
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @return indexes of all points in the index which may be within the range of the given coordinate, or empty array if none
+	 */
+	public int[] getCandidates(double latitude, double longitude) {
+		if(_size < 1 || _emptyRange) {
+			return EMPTY;
+		}
+
+		int row = getRow(latitude);
+		int column = getColumn(longitude);
+		int[] columns = null;
+		if(_columns <= 3) {
+			columns = new int[_columns];
+			for(int i=0;i<_columns;++i) {
+				columns[i] = i;
+			}
+		}else {
+			columns = new int[]{(column + _columns - 1) % _columns, column, (column + 1) % _columns};
+		}
+
+		Cell[] cells = new Cell[columns.length * 3];
+		int count = 0;
+		int cellCount = 0;
+		for(int r=row-1;r<=row+1;++r) {
+			for(int c : columns) {
+				Cell cell = _cells.get(toKey(r, c));
+				if(cell != null && cell._size > 0) {
+					cells[cellCount++] = cell;
+					count += cell._size;
+				}
+			}
+		}
+
+		int[] candidates = new int[count];
+		count = 0;
+		for(int i=0;i<cellCount;++i) {
+			Cell cell = cells[i];
+			System.arraycopy(cell._points, 0, candidates, count, cell._size);
+			count += cell._size;
+		}
+		return candidates;
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return latitude of the point
+	 */
+	public double getLatitude(int index) {
+		return _latitudes[index];
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return longitude of the point
+	 */
+	public double getLongitude(int index) {
+		return _longitudes[index];
+	}
+
+	/**
+	 *
+	 * @param latitude
+	 * @return row for the latitude
+	 */
+	private int getRow(double latitude) {
+		return (int) Math.floor((latitude + 90) / _cellHeight);
+	}
+
+	/**
+	 *
+	 * @param longitude
+	 * @return column for the longitude
+	 */
+	private int getColumn(double longitude) {
+		int column = (int) Math.floor((longitude + 180) / _cellWidth) % _columns;
+		return (column < 0 ? column + _columns : column);
+	}
+
+	/**
+	 *
+	 * @param row
+	 * @param column
+	 * @return cell key
+	 */
+	private Long toKey(int row, int column) {
+		return Long.valueOf(((long) row) * _columns + column);
+	}
+}
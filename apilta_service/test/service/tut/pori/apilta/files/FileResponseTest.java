@@ -0,0 +1,103 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package service.tut.pori.apilta.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Range header parsing of {@link FileResponse}.
+ *
+ */
+public class FileResponseTest {
+	private static final long SIZE = 1000;
+	private static final long[] FULL = {0, SIZE - 1};
+	
+	/**
+	 * Missing, blank and unsupported headers return the full content.
+	 */
+	@Test
+	public void testNoRange() {
+		assertArrayEquals(FULL, FileResponse.parseRange(null, SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("  ", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("items=0-10", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=10", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=a-b", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=20-10", SIZE));
+	}
+	
+	/**
+	 * Closed ranges, the end is limited to the last byte.
+	 */
+	@Test
+	public void testClosedRange() {
+		assertArrayEquals(new long[]{0, 0}, FileResponse.parseRange("bytes=0-0", SIZE));
+		assertArrayEquals(new long[]{100, 199}, FileResponse.parseRange(" bytes= 100 - 199 ", SIZE));
+		assertArrayEquals(new long[]{500, SIZE - 1}, FileResponse.parseRange("bytes=500-5000", SIZE));
+	}
+	
+	/**
+	 * Ranges without the end continue to the last byte.
+	 */
+	@Test
+	public void testOpenEnd() {
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=0-", SIZE));
+		assertArrayEquals(new long[]{SIZE - 1, SIZE - 1}, FileResponse.parseRange("bytes=999-", SIZE));
+	}
+	
+	/**
+	 * Suffix ranges return the last n bytes, or the full content if n is larger than the content.
+	 */
+	@Test
+	public void testSuffixRange() {
+		assertArrayEquals(new long[]{SIZE - 100, SIZE - 1}, FileResponse.parseRange("bytes=-100", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=-5000", SIZE));
+		assertNull(FileResponse.parseRange("bytes=-0", SIZE));
+	}
+	
+	/**
+	 * Ranges starting at or after the end of the content cannot be satisfied.
+	 */
+	@Test
+	public void testUnsatisfiable() {
+		assertNull(FileResponse.parseRange("bytes=1000-", SIZE));
+		assertNull(FileResponse.parseRange("bytes=1000-1100", SIZE));
+		assertNull(FileResponse.parseRange("bytes=5000-", SIZE));
+	}
+	
+	/**
+	 * The full range of an empty file is empty, and no byte range can be satisfied.
+	 */
+	@Test
+	public void testEmptyFile() {
+		long[] empty = {0, -1};
+		assertArrayEquals(empty, FileResponse.parseRange(null, 0));
+		assertArrayEquals(empty, FileResponse.parseRange("bytes=0-1,5-6", 0));
+		assertNull(FileResponse.parseRange("bytes=0-", 0));
+		assertNull(FileResponse.parseRange("bytes=-10", 0));
+	}
+	
+	/**
+	 * Multiple ranges are not supported, the header is ignored.
+	 */
+	@Test
+	public void testMultipleRanges() {
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=0-10,20-30", SIZE));
+		assertArrayEquals(FULL, FileResponse.parseRange("bytes=-10, 5000-", SIZE));
+	}
+}
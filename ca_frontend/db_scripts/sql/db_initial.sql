@@ -150,10 +150,13 @@ CREATE TABLE IF NOT EXISTS `tasks_backends` (
   `backend_id` bigint(20) NOT NULL,
   `status` int(11) NOT NULL,
   `message` varchar(1024) DEFAULT NULL,
+  `delivery_attempts` int(11) NOT NULL DEFAULT '0',
+  `next_delivery` timestamp NULL DEFAULT NULL,
   `row_updated` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `row_created` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00',
   UNIQUE KEY `task_id_backend_id_UNIQUE` (`task_id`,`backend_id`),
-  KEY `status_INDEX` (`status`)
+  KEY `status_INDEX` (`status`),
+  KEY `next_delivery_INDEX` (`next_delivery`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 -- Data exporting was unselected.
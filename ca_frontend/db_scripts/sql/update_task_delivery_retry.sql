@@ -0,0 +1,25 @@
+--
+-- Copyright 2018 Tampere University of Technology, Pori Department
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--   http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- --------------------------------------------------------
+-- Updates an existing ca_frontend database created with an earlier version of db_initial.sql
+-- to contain the delivery retry state of the task back ends.
+-- --------------------------------------------------------
+
+ALTER TABLE `ca_frontend`.`tasks_backends`
+  ADD COLUMN `delivery_attempts` INT(11) NOT NULL DEFAULT '0' AFTER `message`,
+  ADD COLUMN `next_delivery` TIMESTAMP NULL DEFAULT NULL AFTER `delivery_attempts`,
+  ADD INDEX `next_delivery_INDEX` (`next_delivery`);
@@ -16,24 +16,32 @@
 package core.tut.pori.context;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import core.tut.pori.http.Definitions;
 import core.tut.pori.http.Response;
+import core.tut.pori.http.Response.ContentEncoding;
+import core.tut.pori.http.Response.Format;
 import core.tut.pori.http.Response.Status;
 import core.tut.pori.http.ServiceRequest;
 import core.tut.pori.users.UserIdentity;
 
 /**
  * Servlet class which processes the incoming requests to service requests and delegates them to the service handler.
+ * 
+ * The response format is selected by the {@value core.tut.pori.http.Definitions#PARAMETER_FORMAT} parameter, or if not given, by the {@value core.tut.pori.http.Definitions#HEADER_ACCEPT} header of the request. 
+ * The response is compressed if allowed by the {@value core.tut.pori.http.Definitions#HEADER_ACCEPT_ENCODING} header.
  *
  */
 public class RESTHandler extends HttpServlet{
@@ -94,9 +102,103 @@ public class RESTHandler extends HttpServlet{
 		}else{
 			LOGGER.warn("Failed to create "+ServiceRequest.class.toString());
 		}
+		
+		r.setFormat(getFormat(serviceRequest, req));
+		r.setContentEncoding(getContentEncoding(req));
+		resp.setHeader(Definitions.HEADER_VARY, Definitions.HEADER_ACCEPT+", "+Definitions.HEADER_ACCEPT_ENCODING);
 		r.writeTo(resp);
 	}
 	
+	/**
+	 * 
+	 * @param serviceRequest the request, can be null
+	 * @param req
+	 * @return the format requested by the client, XML if the client does not prefer JSON
+	 */
+	private static Format getFormat(ServiceRequest serviceRequest, HttpServletRequest req){
+		if(serviceRequest != null){
+			List<String> values = serviceRequest.getRawParameters().get(Definitions.PARAMETER_FORMAT);
+			if(values != null && !values.isEmpty()){
+				Format format = Format.fromFormatString(values.get(0));
+				if(format != null){
+					return format;
+				}
+			}
+		}
+		
+		String accept = req.getHeader(Definitions.HEADER_ACCEPT);
+		if(StringUtils.isBlank(accept)){
+			return Format.XML;
+		}
+		double jsonQuality = 0;
+		double xmlQuality = 0;
+		for(String mediaRange : StringUtils.split(accept, ',')){
+			String[] parts = StringUtils.split(mediaRange, ';');
+			if(parts.length < 1){
+				continue;
+			}
+			double quality = getQuality(parts);
+			String type = parts[0].trim();
+			if(Definitions.CONTENT_TYPE_JSON.equalsIgnoreCase(type)){
+				jsonQuality = Math.max(jsonQuality, quality);
+			}else if(Definitions.CONTENT_TYPE_XML.equalsIgnoreCase(type) || Definitions.CONTENT_TYPE_XML_APPLICATION.equalsIgnoreCase(type) || "*/*".equals(type)){ // xml is the default for wildcard
+				xmlQuality = Math.max(xmlQuality, quality);
+			}
+		}
+		return (jsonQuality > xmlQuality ? Format.JSON : Format.XML);
+	}
+	
+	/**
+	 * 
+	 * @param req
+	 * @return the preferred content encoding allowed by the client or null if none
+	 */
+	private static ContentEncoding getContentEncoding(HttpServletRequest req){
+		String acceptEncoding = req.getHeader(Definitions.HEADER_ACCEPT_ENCODING);
+		if(StringUtils.isBlank(acceptEncoding)){
+			return null;
+		}
+		double gzipQuality = 0;
+		double deflateQuality = 0;
+		for(String coding : StringUtils.split(acceptEncoding, ',')){
+			String[] parts = StringUtils.split(coding, ';');
+			if(parts.length < 1){
+				continue;
+			}
+			double quality = getQuality(parts);
+			String name = parts[0].trim();
+			if(Definitions.CONTENT_ENCODING_GZIP.equalsIgnoreCase(name) || "*".equals(name)){
+				gzipQuality = Math.max(gzipQuality, quality);
+			}else if(Definitions.CONTENT_ENCODING_DEFLATE.equalsIgnoreCase(name)){
+				deflateQuality = Math.max(deflateQuality, quality);
+			}
+		}
+		if(gzipQuality <= 0 && deflateQuality <= 0){
+			return null;
+		}else{
+			return (gzipQuality >= deflateQuality ? ContentEncoding.GZIP : ContentEncoding.DEFLATE); // prefer gzip on ties
+		}
+	}
+	
+	/**
+	 * 
+	 * @param parts header value parts, the first part is the value, the others are its parameters
+	 * @return the value of the q parameter or 1 if not present or invalid
+	 */
+	private static double getQuality(String[] parts){
+		for(int i=1;i<parts.length;++i){
+			String parameter = parts[i].trim();
+			if(parameter.startsWith("q=")){
+				try{
+					return Double.parseDouble(parameter.substring(2));
+				}catch(NumberFormatException ex){
+					LOGGER.debug(ex, ex);
+				}
+			}
+		}
+		return 1;
+	}
+	
 	/**
 	 * 
 	 * @return authenticated user or null if user has not authenticated
@@ -16,6 +16,11 @@
 package core.tut.pori.context;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -44,6 +49,7 @@ import core.tut.pori.http.annotations.HTTPServiceMethod;
 import core.tut.pori.http.headers.HTTPHeader;
 import core.tut.pori.http.parameters.AuthenticationParameter;
 import core.tut.pori.http.parameters.HTTPParameter;
+import core.tut.pori.http.parameters.InputStreamParameter;
 import core.tut.pori.users.UserIdentity;
 import core.tut.pori.utils.StringUtils;
 
@@ -54,6 +60,8 @@ import core.tut.pori.utils.StringUtils;
  * 
  * The service initialization happens automatically based on the rest servlet configuration and annotated classes, 
  * the services are automatically invoked when called through the associated web application URI paths.
+ * 
+ * The service methods and the parameter constructors are resolved to method handles and generated factories on initialization, so that no reflection is needed when a service is invoked.
  *
  * One should not initialize this handler directly, as an instantiated version is available from ServiceInitializer.
  */
@@ -150,7 +158,7 @@ public class ServiceHandler {
 
 		int parameterCount = method.getParameterCount();
 		if(parameterCount < 1){	// no required arguments
-			return invoke(method.getMethod(), null, method.getReturnType(), service.getServiceObject());
+			return invoke(method, null);
 		}
 
 		Object[] args = new Object[parameterCount];
@@ -158,7 +166,7 @@ public class ServiceHandler {
 		try { // catch instantation exceptions, which should never really happen
 			AuthParameter authParam = method.getAuthParam();
 			if(!setAuthParam(authParam, args, serviceRequest)){ // check if authentication is required
-				Response response = method.getReturnType().newInstance();
+				Response response = method.newResponse();
 				if(authParam.isShowLoginPrompt()){
 					response.setStatus(Status.UNAUTHORIZED);
 				}else{
@@ -172,7 +180,7 @@ public class ServiceHandler {
 				setMethodParams(args, method.getMethodParams(), serviceRequest);
 			}catch(IllegalArgumentException ex){
 				LOGGER.debug(ex, ex);
-				Response response = method.getReturnType().newInstance();
+				Response response = method.newResponse();
 				response.setStatus(Status.BAD_REQUEST);
 				response.setMessage(ex.getMessage());
 				return response;
@@ -182,30 +190,27 @@ public class ServiceHandler {
 			return new Response(Status.INTERNAL_SERVER_ERROR);
 		}
 
-		return invoke(method.getMethod(), args, method.getReturnType(), service.getServiceObject());
+		return invoke(method, args);
 	}
 
 	/**
 	 * 
 	 * @param method
 	 * @param methodArgs
-	 * @param returnType
-	 * @param serviceObject
 	 * @return response
 	 */
-	private Response invoke(Method method, Object[] methodArgs, Class<? extends Response> returnType, Object serviceObject){
+	private Response invoke(ServiceMethod method, Object[] methodArgs){
 		try{
 			try {
-				Object retval = method.invoke(serviceObject, methodArgs);
+				Object retval = method.getInvoker().invoke(methodArgs);
 				if(retval == null){
-					return returnType.newInstance();	// return default OK for void
+					return method.newResponse();	// return default OK for void
 				}else{
 					return (Response) retval;	// this is checked by the initializer to be the only possible return type
 				}
-			} catch (InvocationTargetException ex) {
-				Throwable cause = ex.getCause();
-				LOGGER.error(ex, cause);	// print exception and the actual cause
-				Response response = returnType.newInstance();
+			} catch (Throwable cause) {	// the invoker does not wrap the exceptions thrown by the method
+				LOGGER.error(cause, cause);	// print the actual cause
+				Response response = method.newResponse();
 				if(cause instanceof IllegalArgumentException){	// accept as bad request
 					response.setStatus(Status.BAD_REQUEST);
 					response.setMessage(cause.getMessage());
@@ -227,7 +232,7 @@ public class ServiceHandler {
 	 * @param serviceRequest
 	 * @throws IllegalArgumentException on bad request argument
 	 */
-	private void setMethodParams(Object[] methodArgs, Map<String,MethodParameter> params, ServiceRequest serviceRequest) throws IllegalArgumentException{
+	private void setMethodParams(Object[] methodArgs, MethodParameter[] params, ServiceRequest serviceRequest) throws IllegalArgumentException{
 		if(params == null){
 			return;
 		}
@@ -235,13 +240,15 @@ public class ServiceHandler {
 		Map<String,List<String>> paramMap = serviceRequest.getRawParameters();
 
 		try {
-			for(Map.Entry<String, MethodParameter> e : params.entrySet()){
-				String paramName = e.getKey();
-				MethodParameter param = e.getValue();
-				HTTPParameter p = param.getParameter().newInstance();
+			for(MethodParameter param : params){
+				String paramName = param.getName();
+				HTTPParameter p = param.newParameter();
 				p.setParameterName(paramName);
 				if(param.isBodyParameter()){
 					p.initialize(serviceRequest.getBody());
+					if(p instanceof InputStreamParameter){
+						((InputStreamParameter) p).setContentLength(serviceRequest.getBodyLength());
+					}
 				}else{
 					List<String> values = (paramMap == null ? null : paramMap.get(paramName));
 					if(param.isRequired() && values == null){
@@ -278,21 +285,20 @@ public class ServiceHandler {
 	 * @param serviceRequest
 	 * @throws IllegalArgumentException on bad request argument
 	 */
-	private void setHeaderParams(Object[] methodArgs, Map<String, HeaderParameter> params, ServiceRequest serviceRequest) throws IllegalArgumentException{
+	private void setHeaderParams(Object[] methodArgs, HeaderParameter[] params, ServiceRequest serviceRequest) throws IllegalArgumentException{
 		if(params == null){
 			return;
 		}
 
 		try {
-			for(Map.Entry<String, HeaderParameter> e : params.entrySet()){
-				String headerName = e.getKey();
-				HeaderParameter param = e.getValue();
+			for(HeaderParameter param : params){
+				String headerName = param.getName();
 				String value = serviceRequest.getHeaderValue(headerName);
 				if(param.isRequired() && value == null){
 					throw new IllegalArgumentException("Requested Header field "+headerName+" was not found.");
 				}
 
-				HTTPHeader header = param.getParameter().newInstance();
+				HTTPHeader header = param.newParameter();
 				header.setName(headerName);
 				if(value == null){
 					value = param.getDefaultValue();
@@ -321,7 +327,7 @@ public class ServiceHandler {
 				return false;
 			}else{
 				try {
-					AuthenticationParameter p = authParam.getParameter().newInstance();
+					AuthenticationParameter p = authParam.newParameter();
 					if(!p.initialize(serviceRequest)){
 						LOGGER.warn("Failed to initialize authentication parameter.");
 						return false;
@@ -374,6 +380,91 @@ public class ServiceHandler {
 		}
 	}
 
+	/**
+	 * 
+	 * @param cls
+	 * @return factory for creating new instances of the given class using the public no-args constructor
+	 * @throws IllegalArgumentException if the class has no public no-args constructor
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Factory<T> createFactory(Class<T> cls) throws IllegalArgumentException{
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle constructor = null;
+		try {
+			constructor = lookup.findConstructor(cls, MethodType.methodType(Void.TYPE));
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			LOGGER.debug(ex, ex);
+			throw new IllegalArgumentException("No no-args constructor available for the type: "+cls.toString());
+		}
+		try {
+			CallSite site = LambdaMetafactory.metafactory(lookup, "newInstance", MethodType.methodType(Factory.class), MethodType.methodType(Object.class), constructor, MethodType.methodType(cls));
+			return (Factory<T>) site.getTarget().invoke();
+		} catch (Throwable ex) {	// the factory cannot be generated, e.g. because of class loader restrictions
+			LOGGER.warn("Failed to generate factory for "+cls.toString()+", using reflection: "+ex.toString());
+			return cls::newInstance;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param method
+	 * @param serviceObject
+	 * @return invoker for calling the given method of the service object
+	 */
+	private static Invoker createInvoker(Method method, Object serviceObject){
+		try {
+			MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(serviceObject);
+			int parameterCount = method.getParameterCount();
+			if(parameterCount < 1){
+				MethodHandle noArgs = handle.asType(MethodType.methodType(Object.class));
+				return (args) -> noArgs.invokeExact();
+			}else{
+				MethodHandle spread = handle.asSpreader(Object[].class, parameterCount).asType(MethodType.methodType(Object.class, Object[].class));
+				return (args) -> spread.invokeExact(args);
+			}
+		} catch (IllegalAccessException ex) {	// the method is not accessible from this class, e.g. it is declared by a non-public class
+			LOGGER.warn("Failed to create method handle for "+method.toString()+", using reflection: "+ex.toString());
+			return (args) -> {
+				try {
+					return method.invoke(serviceObject, args);
+				} catch (InvocationTargetException ex1) {
+					throw ex1.getCause();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Creates new instances of a class
+	 *
+	 * @param <T>
+	 */
+	@FunctionalInterface
+	private interface Factory<T>{
+		/**
+		 * 
+		 * @return new instance
+		 * @throws InstantiationException
+		 * @throws IllegalAccessException
+		 */
+		public T newInstance() throws InstantiationException, IllegalAccessException;
+	} // interface Factory
+	
+	/**
+	 * Invokes a service method
+	 *
+	 */
+	@FunctionalInterface
+	private interface Invoker{
+		/**
+		 * 
+		 * @param args the method arguments, can be null if the method has no arguments
+		 * @return the return value of the method, null for void methods
+		 * @throws Throwable any exception thrown by the method, as-is
+		 */
+		public Object invoke(Object[] args) throws Throwable;
+	} // interface Invoker
+
 	/**
 	 * Defines a single service invokable by the handler.
 	 *
@@ -406,7 +497,7 @@ public class ServiceHandler {
 				if(_methods.containsKey(methodPair)){			
 					throw new IllegalArgumentException("Duplicate methodName: "+methodName+" and/or method type "+httpMethod+" for "+method.toString());
 				}else{
-					_methods.put(methodPair, new ServiceMethod(method));
+					_methods.put(methodPair, new ServiceMethod(method, _service));
 				}
 			}
 
@@ -437,20 +528,25 @@ public class ServiceHandler {
 	 */
 	private static class ServiceMethod{
 		private AuthParameter _authParam = null;
-		private Map<String,HeaderParameter> _headerParams = null;	// parameter name-parameter_type map
+		private HeaderParameter[] _headerParams = null;
+		private Invoker _invoker = null;
 		private Method _method = null;
-		private Map<String,MethodParameter> _methodParams = null;	// parameter name-parameter_type map
+		private MethodParameter[] _methodParams = null;
 		private int _parameterCount = 0;
+		private Factory<? extends Response> _responseFactory = null;
 		private Class<? extends Response> _returnType = null;
 
 		/**
 		 * 
 		 * @param method
+		 * @param serviceObject the object the method is invoked on
 		 * @throws IllegalArgumentException on bad Method
 		 */
-		public ServiceMethod(Method method) throws IllegalArgumentException{
+		public ServiceMethod(Method method, Object serviceObject) throws IllegalArgumentException{
 			_method = method;
 			initialize();
+			_invoker = createInvoker(method, serviceObject);
+			_responseFactory = createFactory(_returnType);
 		}
 
 		/**
@@ -472,8 +568,8 @@ public class ServiceHandler {
 			if(annotations.length < 1){	// no parameters
 				return;
 			}
-			_methodParams = new HashMap<>();
-			_headerParams = new HashMap<>();
+			HashMap<String, MethodParameter> methodParams = new HashMap<>();	// parameter name-parameter_type map
+			HashMap<String, HeaderParameter> headerParams = new HashMap<>();	// parameter name-parameter_type map
 
 			Class<?>[] paramTypes = _method.getParameterTypes();	// get types of the parameters
 			boolean bodyParameterGiven = false;
@@ -519,11 +615,11 @@ public class ServiceHandler {
 					String name = parameterAnnotation.name();
 					if(org.apache.commons.lang3.StringUtils.isBlank(name)){
 						throw new IllegalArgumentException("Invalid parameter name "+name+" in "+_method.toString());
-					}else if(_methodParams.containsKey(name)){
+					}else if(methodParams.containsKey(name)){
 						throw new IllegalArgumentException("Duplicate parameter name "+name+" in "+_method.toString());
 					}
 
-					_methodParams.put(name, new MethodParameter(parameterAnnotation.defaultValue(), isBody, (Class<? extends HTTPParameter>) paramTypes[i], i,parameterAnnotation.required()));	// not really "unchecked" cast
+					methodParams.put(name, new MethodParameter(name, parameterAnnotation.defaultValue(), isBody, (Class<? extends HTTPParameter>) paramTypes[i], i,parameterAnnotation.required()));	// not really "unchecked" cast
 				}else if(HTTPHeader.class.isAssignableFrom(paramTypes[i])){ // this is a header
 					HTTPHeaderParameter parameterAnnotation = null;
 					for(Annotation annotation : annotations[i]){	// check that the required annotation is present
@@ -539,11 +635,11 @@ public class ServiceHandler {
 					String name = parameterAnnotation.name();
 					if(org.apache.commons.lang3.StringUtils.isBlank(name)){
 						throw new IllegalArgumentException("Invalid header name "+name+" in "+_method.toString());
-					}else if(_headerParams.containsKey(name)){
+					}else if(headerParams.containsKey(name)){
 						throw new IllegalArgumentException("Duplicate header name "+name+" in "+_method.toString());
 					}
 
-					_headerParams.put(name, new HeaderParameter(parameterAnnotation.defaultValue(), (Class<? extends HTTPHeader>) paramTypes[i], i, parameterAnnotation.required()));	// not really "unchecked" cast
+					headerParams.put(name, new HeaderParameter(name, parameterAnnotation.defaultValue(), (Class<? extends HTTPHeader>) paramTypes[i], i, parameterAnnotation.required()));	// not really "unchecked" cast
 				}else{	// unknown type
 					throw new IllegalArgumentException(paramTypes[i].toString()+" is not subclass of "+HTTPParameter.class.toString()+" in "+_method.toString());
 				}
@@ -559,11 +655,11 @@ public class ServiceHandler {
 					throw new IllegalArgumentException("No no-args constructor available for the type: "+paramTypes[i].toString()+" in "+_method.toString());
 				}
 			}	// for types
-			if(_headerParams.isEmpty()){
-				_headerParams = null;	// empty list not needed
+			if(!headerParams.isEmpty()){	// empty list not needed
+				_headerParams = headerParams.values().toArray(new HeaderParameter[headerParams.size()]);
 			}
-			if(_methodParams.isEmpty()){
-				_methodParams = null;	// empty list not needed
+			if(!methodParams.isEmpty()){	// empty list not needed
+				_methodParams = methodParams.values().toArray(new MethodParameter[methodParams.size()]);
 			}
 			_parameterCount = annotations.length;	// get the argument count
 		}
@@ -576,16 +672,23 @@ public class ServiceHandler {
 		}
 
 		/**
-		 * @return the methodParams
+		 * @return the invoker for the method
+		 */
+		public Invoker getInvoker() {
+			return _invoker;
+		}
+
+		/**
+		 * @return the methodParams or null if none
 		 */
-		public Map<String, MethodParameter> getMethodParams() {
+		public MethodParameter[] getMethodParams() {
 			return _methodParams;
 		}
 
 		/**
-		 * @return the headerParams
+		 * @return the headerParams or null if none
 		 */
-		public Map<String, HeaderParameter> getHeaderParams() {
+		public HeaderParameter[] getHeaderParams() {
 			return _headerParams;
 		}
 
@@ -609,6 +712,15 @@ public class ServiceHandler {
 		public Class<? extends Response> getReturnType() {
 			return _returnType;
 		}
+
+		/**
+		 * @return new instance of the return type
+		 * @throws InstantiationException
+		 * @throws IllegalAccessException
+		 */
+		public Response newResponse() throws InstantiationException, IllegalAccessException {
+			return _responseFactory.newInstance();
+		}
 	} // class ServiceMethod
 
 	/**
@@ -640,21 +752,26 @@ public class ServiceHandler {
 	 */
 	private static class MethodParameter extends Parameter{
 		private List<String> _defaultValues = null;
+		private Factory<? extends HTTPParameter> _factory = null;	// for instantiating new classes for parsing process
 		private boolean _isBodyParameter = false;
-		private Class<? extends HTTPParameter> _parameter = null;	// for instantiating new classes for parsing process, if null, null will be returned as value
+		private String _name = null;
+		private Class<? extends HTTPParameter> _parameter = null;
 		private boolean _required = false;
 
 		/**
 		 * 
+		 * @param name
 		 * @param defaultValue
 		 * @param isBodyParameter
 		 * @param parameterClass
 		 * @param parameterIndex
 		 * @param required
 		 */
-		public MethodParameter(String defaultValue, boolean isBodyParameter, Class<? extends HTTPParameter> parameterClass, int parameterIndex, boolean required){
+		public MethodParameter(String name, String defaultValue, boolean isBodyParameter, Class<? extends HTTPParameter> parameterClass, int parameterIndex, boolean required){
 			super(parameterIndex);
+			_name = name;
 			_parameter = parameterClass;
+			_factory = createFactory(parameterClass);
 			if(org.apache.commons.lang3.StringUtils.isBlank(defaultValue)){
 				_defaultValues = null;
 			}else{
@@ -671,6 +788,22 @@ public class ServiceHandler {
 			return _parameter;
 		}
 
+		/**
+		 * @return new instance of the parameter
+		 * @throws InstantiationException
+		 * @throws IllegalAccessException
+		 */
+		public HTTPParameter newParameter() throws InstantiationException, IllegalAccessException {
+			return _factory.newInstance();
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return _name;
+		}
+
 		/**
 		 * @return the defaultValue or null if none available
 		 */
@@ -698,6 +831,7 @@ public class ServiceHandler {
 	 *
 	 */
 	private static class AuthParameter extends Parameter{
+		private Factory<? extends AuthenticationParameter> _factory = null;
 		private Class<? extends AuthenticationParameter> _parameter = null;
 		private boolean _required = false;
 		private boolean _showLoginPrompt = false;
@@ -712,6 +846,7 @@ public class ServiceHandler {
 		public AuthParameter(Class<? extends AuthenticationParameter> parameter, int parameterIndex, boolean required, boolean showLoginPrompt){
 			super(parameterIndex);
 			_parameter = parameter;
+			_factory = createFactory(parameter);
 			_required = required;
 			_showLoginPrompt = showLoginPrompt;
 		}
@@ -723,6 +858,15 @@ public class ServiceHandler {
 			return _parameter;
 		}
 
+		/**
+		 * @return new instance of the parameter
+		 * @throws InstantiationException
+		 * @throws IllegalAccessException
+		 */
+		public AuthenticationParameter newParameter() throws InstantiationException, IllegalAccessException {
+			return _factory.newInstance();
+		}
+
 		/**
 		 * @return the required
 		 */
@@ -744,19 +888,24 @@ public class ServiceHandler {
 	 */
 	private static class HeaderParameter extends Parameter{
 		private String _defaultValue = null;
+		private Factory<? extends HTTPHeader> _factory = null;
+		private String _name = null;
 		private Class<? extends HTTPHeader> _parameter = null;
 		private boolean _required = false;
 
 		/**
 		 * 
+		 * @param name
 		 * @param defaultValue
 		 * @param parameter
 		 * @param parameterIndex
 		 * @param required
 		 */
-		public HeaderParameter(String defaultValue, Class<? extends HTTPHeader> parameter, int parameterIndex, boolean required){
+		public HeaderParameter(String name, String defaultValue, Class<? extends HTTPHeader> parameter, int parameterIndex, boolean required){
 			super(parameterIndex);
+			_name = name;
 			_parameter = parameter;
+			_factory = createFactory(parameter);
 			_defaultValue = defaultValue;
 			if(org.apache.commons.lang3.StringUtils.isBlank(_defaultValue)){
 				_defaultValue = null;
@@ -771,6 +920,22 @@ public class ServiceHandler {
 			return _parameter;
 		}
 
+		/**
+		 * @return new instance of the parameter
+		 * @throws InstantiationException
+		 * @throws IllegalAccessException
+		 */
+		public HTTPHeader newParameter() throws InstantiationException, IllegalAccessException {
+			return _factory.newInstance();
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return _name;
+		}
+
 		/**
 		 * @return the defaultValue
 		 */
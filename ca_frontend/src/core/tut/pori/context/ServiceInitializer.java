@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 
 import core.tut.pori.properties.PropertyHandler;
 import core.tut.pori.utils.StringUtils;
+import core.tut.pori.utils.XMLFormatter;
 
 /**
  * Initializes and destroys the web application (service) context, and loads all other handlers during context initialization.
@@ -36,6 +37,7 @@ import core.tut.pori.utils.StringUtils;
  *
  */
 public class ServiceInitializer implements ServletContextListener{
+	private static final String[] SERVICE_BASE_PACKAGES = {"core", "service"};
 	private static ConfigHandler CONFIG_HANDLER = null;
 	private static DAOHandler DAO_HANDLER = null;
 	private static EventHandler EVENT_HANDLER = null;
@@ -81,6 +83,12 @@ public class ServiceInitializer implements ServletContextListener{
 		SERVICE_HANDLER = new ServiceHandler();
 		EXECUTOR_HANDLER = new ExecutorHandler();
 		EVENT_HANDLER = new EventHandler();
+		EXECUTOR_HANDLER.getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				XMLFormatter.initializeContexts(SERVICE_BASE_PACKAGES);	// create the xml contexts in the background to speed up the first requests
+			}
+		});
 		LOGGER.info("Context initialized in "+StringUtils.getDurationString(started, new Date()));
 	}
 	
@@ -52,6 +52,8 @@ public class SolrQueryBuilder {
 	private static final String SOLR_SELECT = "/select";
 	private static final String SOLR_QUERY = "/query";
 	private static final String SOLR_SUGGEST = "/suggest";
+	private static final String SOLR_CACHED_FILTER = "{!cache=true}";
+	private List<AbstractQueryFilter> _cachedFilters = null;
 	private List<AbstractQueryFilter> _customFilters = null;
 	private Map<String, String> _elementFieldMap = null;
 	private Limits _limits = null;
@@ -194,9 +196,35 @@ public class SolrQueryBuilder {
 	}
 	
 	/**
-	 * clear the list of currently set custom filters
+	 * Add new filter query, which is sent as a separate cached filter query.
+	 * 
+	 * Solr caches the results of each filter query separately, and reuses the results for identical filter queries. Use this for filters which are likely to be repeated in other queries
+	 * with exactly the same values (in the same order), and which are not combined into the same filter query with per-request filters (e.g. location or time based). 
+	 * 
+	 * Cached filters always have AND relation to the other filters.
+	 * 
+	 * @param filter
+	 * @throws IllegalArgumentException if the filter is not of type {@link core.tut.pori.dao.filter.AbstractQueryFilter.QueryType#AND}
+	 */
+	public void addCachedFilter(AbstractQueryFilter filter) throws IllegalArgumentException {
+		if(filter == null){
+			LOGGER.warn("Ignored null filter.");
+			return;
+		}
+		if(filter.getQueryType() != AbstractQueryFilter.QueryType.AND){
+			throw new IllegalArgumentException("Only filters of type "+AbstractQueryFilter.QueryType.AND.name()+" can be cached.");
+		}
+		if(_cachedFilters == null){
+			_cachedFilters = new ArrayList<>();
+		}
+		_cachedFilters.add(filter);
+	}
+	
+	/**
+	 * clear the list of currently set custom filters, including cached filters
 	 */
 	public void clearCustomFilters(){
+		_cachedFilters = null;
 		_customFilters = null;
 	}
 
@@ -221,6 +249,14 @@ public class SolrQueryBuilder {
 			}
 			query.addFilterQuery(filter.toString());
 		}
+		
+		if(_cachedFilters != null){
+			for(AbstractQueryFilter fq : _cachedFilters){
+				StringBuilder filter = new StringBuilder(SOLR_CACHED_FILTER);
+				fq.toFilterString(filter);
+				query.addFilterQuery(filter.toString());
+			}
+		}
 
 		boolean querySet = false;
 		Set<String> queryParams = QueryParameter.getValues(_queryParameter, type);
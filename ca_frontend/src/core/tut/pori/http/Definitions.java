@@ -72,6 +72,24 @@ public final class Definitions {
 	 * @see core.tut.pori.http.Definitions#HEADER_AUTHENTICATE
 	 * */
 	public static final String HEADER_AUTHENTICATE_VALUE = "Basic realm=\"CAFrontend\"";
+	/** HTTP Accept header */
+	public static final String HEADER_ACCEPT = "Accept";
+	/** HTTP Accept-Encoding header */
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	/** HTTP Content-Encoding header */
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	/** HTTP Accept-Ranges header */
+	public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	/** HTTP Content-Length header */
+	public static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	/** HTTP Content-Range header */
+	public static final String HEADER_CONTENT_RANGE = "Content-Range";
+	/** HTTP ETag header */
+	public static final String HEADER_ETAG = "ETag";
+	/** HTTP Range header */
+	public static final String HEADER_RANGE = "Range";
+	/** HTTP Vary header */
+	public static final String HEADER_VARY = "Vary";
 	
 	/* uri separators */
 	/** separator used in the service uri path to separate methods from parameters i.e. www.domain.fi/somethingSEPARATOR_URI_METHOD_PARAMSparam=value */
@@ -96,8 +114,22 @@ public final class Definitions {
 	public static final String CONTENT_TYPE_JSON = "application/json";
 	/** HTTP content type for XML */
 	public static final String CONTENT_TYPE_XML = "text/xml";
+	/** alternative HTTP content type for XML */
+	public static final String CONTENT_TYPE_XML_APPLICATION = "application/xml";
 	/** HTTP content type for plain text */
 	public static final String CONTENT_TYPE_TEXT = "text/plain";
+	/** gzip content encoding */
+	public static final String CONTENT_ENCODING_GZIP = "gzip";
+	/** deflate content encoding */
+	public static final String CONTENT_ENCODING_DEFLATE = "deflate";
+	
+	/* response format */
+	/** optional query parameter for selecting the response format, overrides the Accept header */
+	public static final String PARAMETER_FORMAT = "format";
+	/** value of {@value core.tut.pori.http.Definitions#PARAMETER_FORMAT} for JSON output */
+	public static final String FORMAT_JSON = "json";
+	/** value of {@value core.tut.pori.http.Definitions#PARAMETER_FORMAT} for XML output */
+	public static final String FORMAT_XML = "xml";
 	
 	/**
 	 * 
@@ -16,6 +16,10 @@
 package core.tut.pori.http;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.annotation.XmlAccessType;
@@ -28,19 +32,28 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import org.apache.log4j.Logger;
 
+import core.tut.pori.utils.JSONFormatter;
 import core.tut.pori.utils.XMLFormatter;
 
 
 /**
  * Basic HTTP response, which prints the given ResponseData as an xml.
  * 
+ * The output format can be changed to JSON by {@link #setFormat(Format)}, and the output can be compressed by {@link #setContentEncoding(ContentEncoding)}.
+ * 
  * By default, the status of the response is 200 OK
  */
 @XmlRootElement(name=Definitions.ELEMENT_RESPONSE)
 @XmlAccessorType(XmlAccessType.NONE)
 public class Response {
-	private static final XMLFormatter FORMATTER = new XMLFormatter();
+	private static final XMLFormatter FORMATTER;
+	static{
+		FORMATTER = new XMLFormatter();
+		FORMATTER.setFormattedOutput(false);
+	}
 	private static final Logger LOGGER = Logger.getLogger(Response.class);
+	private ContentEncoding _contentEncoding = null;
+	private Format _format = Format.XML;
 	@XmlElementRef
 	private ResponseData _responseData = null;
 	@XmlAttribute(name=Definitions.ATTRIBUTE_METHOD)
@@ -112,6 +125,73 @@ public class Response {
 		}
 	} // enum Status
 	
+	/**
+	 * Output format of the response.
+	 */
+	public enum Format{
+		/** xml output ({@value core.tut.pori.http.Definitions#CONTENT_TYPE_XML}), the default */
+		XML,
+		/** json output ({@value core.tut.pori.http.Definitions#CONTENT_TYPE_JSON}), written based on the JAXB annotations of the response */
+		JSON;
+		
+		/**
+		 * 
+		 * @param value
+		 * @return the format or null if the value is not a valid format
+		 */
+		public static Format fromFormatString(String value){
+			if(Definitions.FORMAT_XML.equalsIgnoreCase(value)){
+				return XML;
+			}else if(Definitions.FORMAT_JSON.equalsIgnoreCase(value)){
+				return JSON;
+			}else{
+				return null;
+			}
+		}
+	} // enum Format
+	
+	/**
+	 * HTTP content encoding of the response.
+	 */
+	public enum ContentEncoding{
+		/** gzip compression */
+		GZIP(Definitions.CONTENT_ENCODING_GZIP),
+		/** deflate (zlib) compression */
+		DEFLATE(Definitions.CONTENT_ENCODING_DEFLATE);
+		
+		private String _value;
+		
+		/**
+		 * 
+		 * @param value
+		 */
+		private ContentEncoding(String value){
+			_value = value;
+		}
+		
+		/**
+		 * 
+		 * @return the encoding as HTTP header value
+		 */
+		public String toContentEncodingString(){
+			return _value;
+		}
+		
+		/**
+		 * 
+		 * @param value
+		 * @return the encoding or null if the value is not a supported content encoding
+		 */
+		public static ContentEncoding fromContentEncodingString(String value){
+			for(ContentEncoding e : ContentEncoding.values()){
+				if(e._value.equalsIgnoreCase(value)){
+					return e;
+				}
+			}
+			return null;
+		}
+	} // enum ContentEncoding
+	
 	/**
 	 * for serialization
 	 */
@@ -150,10 +230,13 @@ public class Response {
 	 * 
 	 * This method can be overridden to provide custom responses.
 	 * 
-	 * By default this method writes this object to the stream as XML based on JAXB annotations
+	 * By default this method writes this object to the stream as (non-indented) XML based on JAXB annotations
 	 * and sets the encoding ({@value core.tut.pori.http.Definitions#ENCODING_UTF8}) and content type ({@value core.tut.pori.http.Definitions#CONTENT_TYPE_XML}) to appropriate values.
 	 * These to parameters should be changed for the response if format is changed in the overriding method.
 	 * 
+	 * If format is set to {@link core.tut.pori.http.Response.Format#JSON}, the object is written as JSON with content type {@value core.tut.pori.http.Definitions#CONTENT_TYPE_JSON},
+	 * and if content encoding is set, the output is compressed and the {@value core.tut.pori.http.Definitions#HEADER_CONTENT_ENCODING} header is set.
+	 * 
 	 * Additionally this method sets the HTTP basic authentication header if the status is set {@link core.tut.pori.http.Response.Status#UNAUTHORIZED}.
 	 * 
 	 * @param response
@@ -169,15 +252,35 @@ public class Response {
 		}
 		
 		try {
-			response.setContentType(Definitions.CONTENT_TYPE_XML);
+			response.setContentType((_format == Format.JSON ? Definitions.CONTENT_TYPE_JSON : Definitions.CONTENT_TYPE_XML));
 			response.setCharacterEncoding(Definitions.ENCODING_UTF8);
-			FORMATTER.toWriter(this, response.getWriter());
+			if(_contentEncoding == null){
+				write(response.getWriter());
+			}else{
+				response.setHeader(Definitions.HEADER_CONTENT_ENCODING, _contentEncoding.toContentEncodingString());
+				try(Writer writer = new OutputStreamWriter((_contentEncoding == ContentEncoding.GZIP ? new GZIPOutputStream(response.getOutputStream()) : new DeflaterOutputStream(response.getOutputStream())), Definitions.CHARSET_UTF8)){
+					write(writer);
+				}
+			}
 		} catch (IOException ex) { // could be broken socket or other unresolvable error
 			LOGGER.error(ex, ex);
 			_status = Status.INTERNAL_SERVER_ERROR; // mark as internal error as we don't know the real reason
 		}
 	}
 	
+	/**
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void write(Writer writer) throws IOException {
+		if(_format == Format.JSON){
+			JSONFormatter.toJSON(this, writer);
+		}else{
+			FORMATTER.toWriter(this, writer);
+		}
+	}
+	
 	/**
 	 * Set the default HTTP authentication header in the response.
 	 * 
@@ -253,6 +356,40 @@ public class Response {
 		return _message;
 	}
 
+	/**
+	 * 
+	 * @return the output format of this response
+	 */
+	public Format getFormat() {
+		return _format;
+	}
+
+	/**
+	 * Note: the format is only used by the default implementation of {@link #writeTo(HttpServletResponse)}, and may be ignored by overriding classes.
+	 * 
+	 * @param format the output format, null resets to the default ({@link core.tut.pori.http.Response.Format#XML})
+	 */
+	public void setFormat(Format format) {
+		_format = (format == null ? Format.XML : format);
+	}
+
+	/**
+	 * 
+	 * @return the content encoding of this response or null if not set
+	 */
+	public ContentEncoding getContentEncoding() {
+		return _contentEncoding;
+	}
+
+	/**
+	 * Note: the content encoding is only used by the default implementation of {@link #writeTo(HttpServletResponse)}, and may be ignored by overriding classes.
+	 * 
+	 * @param contentEncoding the content encoding, null for uncompressed output
+	 */
+	public void setContentEncoding(ContentEncoding contentEncoding) {
+		_contentEncoding = contentEncoding;
+	}
+
 	/**
 	 * Set an optional message to be shown with the response
 	 * 
@@ -119,6 +119,24 @@ public class ServiceRequest {
 		return null;
 	}
 
+	/**
+	 * 
+	 * @return the length of the body in bytes as declared by the client or null if not known (e.g. chunked transfer encoding is used)
+	 */
+	public Long getBodyLength(){
+		String value = getHeaderValue(Definitions.HEADER_CONTENT_LENGTH);
+		if(StringUtils.isBlank(value)){
+			return null;
+		}
+		try {
+			long length = Long.parseLong(value.trim());
+			return (length < 0 ? null : Long.valueOf(length));
+		} catch (NumberFormatException ex) {
+			LOGGER.warn("Invalid content length: "+value);
+			return null;
+		}
+	}
+
 	/**
 	 * @return the serviceName
 	 */
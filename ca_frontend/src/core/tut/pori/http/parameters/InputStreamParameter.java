@@ -27,6 +27,7 @@ import java.util.List;
 public class InputStreamParameter extends HTTPParameter{
 	/** Default parameter name to use for a body parameter. If the parameter is defined as being a body parameter, the name has no effect. */
 	public static final String PARAMETER_DEFAULT_NAME = "body";
+	private Long _contentLength = null;
 	private InputStream _stream = null;
 
 	@Override
@@ -59,4 +60,20 @@ public class InputStreamParameter extends HTTPParameter{
 	public InputStream getValue(){
 		return _stream;
 	}
+
+	/**
+	 * 
+	 * @return the length of the stream in bytes as declared by the client, or null if not known (e.g. chunked transfer encoding was used)
+	 */
+	public Long getContentLength() {
+		return _contentLength;
+	}
+
+	/**
+	 * @param contentLength the contentLength to set
+	 * @see #getContentLength()
+	 */
+	public void setContentLength(Long contentLength) {
+		_contentLength = contentLength;
+	}
 }
@@ -15,8 +15,34 @@
  */
 package core.tut.pori.utils;
 
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import org.apache.log4j.Logger;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -27,6 +53,7 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * JSON formatter.
@@ -34,8 +61,17 @@ import com.google.gson.JsonSerializer;
  * This class can be used to create formatter/parser for marshaling objects to JSON output, and unmarshaling objects from JSON input.
  * 
  * Creates a default GSON parser with extended support for ISODATE (ISO 8601) using java date objects.
+ * 
+ * In addition, JAXB annotated objects can be written as JSON using {@link #toJSON(Object, Writer)}.
  */
 public final class JSONFormatter {
+	private static final String JAXB_DEFAULT_NAME = "##default";
+	private static final String[] PREFIXES_GETTER = {"get", "is"};
+	private static final String PREFIX_SETTER = "set";
+	private static final ConcurrentHashMap<Class<?>, String[]> ENUM_VALUES = new ConcurrentHashMap<>();
+	private static final Logger LOGGER = Logger.getLogger(JSONFormatter.class);
+	private static final ConcurrentHashMap<Class<?>, List<Property>> PROPERTIES = new ConcurrentHashMap<>();
+	
 	/**
 	 * 
 	 */
@@ -79,4 +115,351 @@ public final class JSONFormatter {
 			}
 		});
 	}
+	
+	/**
+	 * Write the given JAXB annotated object to the writer as a JSON object. The writer is not closed.
+	 * 
+	 * The fields and properties (getter or setter methods) annotated with {@link javax.xml.bind.annotation.XmlElement}, {@link javax.xml.bind.annotation.XmlAttribute} and {@link javax.xml.bind.annotation.XmlElementRef} are written as members of the object using the names of the xml elements and attributes. 
+	 * Lists are written as arrays, using the name of the {@link javax.xml.bind.annotation.XmlElementWrapper} when present, and dates are written as ISO 8601 strings.
+	 * Fields with {@link javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter} are written using the marshalled value, and null values are omitted.
+	 * 
+	 * @param object
+	 * @param writer
+	 * @throws IOException
+	 * @throws IllegalArgumentException on invalid object
+	 */
+	public static void toJSON(Object object, Writer writer) throws IOException, IllegalArgumentException {
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		writeValue(jsonWriter, object);
+		jsonWriter.flush();
+	}
+	
+	/**
+	 * 
+	 * @param writer
+	 * @param value
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 */
+	private static void writeValue(JsonWriter writer, Object value) throws IOException, IllegalArgumentException {
+		if(value == null){
+			writer.nullValue();
+		}else if(value instanceof String){
+			writer.value((String) value);
+		}else if(value instanceof Boolean){
+			writer.value(((Boolean) value).booleanValue());
+		}else if(value instanceof Double || value instanceof Float){
+			double d = ((Number) value).doubleValue();
+			if(Double.isNaN(d) || Double.isInfinite(d)){ // not valid in JSON
+				writer.nullValue();
+			}else{
+				writer.value(d);
+			}
+		}else if(value instanceof Number){
+			writer.value((Number) value);
+		}else if(value instanceof Character){
+			writer.value(value.toString());
+		}else if(value instanceof Date){
+			writer.value(StringUtils.dateToISOString((Date) value));
+		}else if(value instanceof Enum){
+			writer.value(getEnumValue((Enum<?>) value));
+		}else if(value instanceof Collection){
+			writer.beginArray();
+			for(Object o : (Collection<?>) value){
+				writeValue(writer, o);
+			}
+			writer.endArray();
+		}else if(value.getClass().isArray()){
+			writer.beginArray();
+			for(int i=0, length=Array.getLength(value);i<length;++i){
+				writeValue(writer, Array.get(value, i));
+			}
+			writer.endArray();
+		}else{
+			writer.beginObject();
+			for(Property property : getProperties(value.getClass())){
+				Object propertyValue = property.getValue(value);
+				if(propertyValue == null){
+					continue;
+				}
+				writer.name(property.getName(propertyValue));
+				writeValue(writer, propertyValue);
+			}
+			writer.endObject();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param adapter
+	 * @param value
+	 * @return the marshalled value
+	 * @throws IllegalArgumentException
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object marshal(XmlAdapter<?, ?> adapter, Object value) throws IllegalArgumentException {
+		try {
+			return ((XmlAdapter<?, Object>) adapter).marshal(value);
+		} catch (Exception ex) {
+			LOGGER.error(ex, ex);
+			throw new IllegalArgumentException("Failed to marshal value of type: "+value.getClass().toString());
+		}
+	}
+	
+	/**
+	 * 
+	 * @param value
+	 * @return the class of the value, or the class of the first element if the value is a collection
+	 */
+	private static Class<?> getElementClass(Object value) {
+		if(value instanceof Collection){
+			for(Object o : (Collection<?>) value){
+				if(o != null){
+					return o.getClass();
+				}
+			}
+		}
+		return value.getClass();
+	}
+	
+	/**
+	 * 
+	 * @param cls
+	 * @return the xml root element name of the class
+	 */
+	private static String getRootElementName(Class<?> cls) {
+		XmlRootElement root = cls.getAnnotation(XmlRootElement.class);
+		if(root == null || JAXB_DEFAULT_NAME.equals(root.name())){
+			return Introspector.decapitalize(cls.getSimpleName());
+		}else{
+			return root.name();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param value
+	 * @return the xml value of the enum
+	 */
+	private static String getEnumValue(Enum<?> value) {
+		Class<?> cls = value.getDeclaringClass();
+		String[] values = ENUM_VALUES.get(cls);
+		if(values == null){
+			Object[] constants = cls.getEnumConstants();
+			values = new String[constants.length];
+			for(int i=0;i<constants.length;++i){
+				values[i] = ((Enum<?>) constants[i]).name();
+				try {
+					XmlEnumValue enumValue = cls.getField(values[i]).getAnnotation(XmlEnumValue.class);
+					if(enumValue != null){
+						values[i] = enumValue.value();
+					}
+				} catch (NoSuchFieldException | SecurityException ex) { // should not happen
+					LOGGER.warn(ex, ex);
+				}
+			}
+			ENUM_VALUES.putIfAbsent(cls, values);
+		}
+		return values[value.ordinal()];
+	}
+	
+	/**
+	 * 
+	 * @param cls
+	 * @return the annotated properties of the class, including the properties of the super classes
+	 * @throws IllegalArgumentException on unsupported class
+	 */
+	private static List<Property> getProperties(Class<?> cls) throws IllegalArgumentException {
+		List<Property> properties = PROPERTIES.get(cls);
+		if(properties != null){
+			return properties;
+		}
+		
+		ArrayList<Class<?>> classes = new ArrayList<>();
+		for(Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()){
+			classes.add(0, c); // super class properties first
+		}
+		properties = new ArrayList<>();
+		HashMap<String, Property> names = new HashMap<>();
+		ArrayList<Property> declared = new ArrayList<>();
+		for(Class<?> c : classes){
+			declared.clear();
+			for(Field field : c.getDeclaredFields()){
+				if(Modifier.isStatic(field.getModifiers())){
+					continue;
+				}
+				Property property = Property.getProperty(field, field.getGenericType(), org.apache.commons.lang3.StringUtils.removeStart(field.getName(), "_"));
+				if(property != null){
+					field.setAccessible(true);
+					property._field = field;
+					declared.add(property);
+				}
+			}
+			for(Method method : c.getDeclaredMethods()){
+				if(Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.isSynthetic()){
+					continue;
+				}
+				Method getter = getGetter(c, method);
+				if(getter == null){
+					continue;
+				}
+				Property property = Property.getProperty(method, getter.getGenericReturnType(), getPropertyName(method));
+				if(property != null){
+					getter.setAccessible(true);
+					property._getter = getter; // called virtually, so that overriding methods of the sub classes are used
+					declared.add(property);
+				}
+			}
+			
+			for(Property property : declared){
+				if(property._name != null){
+					Property previous = names.put(property._name, property);
+					if(previous != null){ // the sub class overrides the element
+						properties.remove(previous);
+					}
+				}
+				properties.add(property);
+			}
+		}
+		PROPERTIES.putIfAbsent(cls, properties);
+		return properties;
+	}
+	
+	/**
+	 * 
+	 * @param cls the declaring class of the method
+	 * @param method
+	 * @return the method itself if it is a getter, the matching getter if the method is a setter, or null if the method is not a property method
+	 */
+	private static Method getGetter(Class<?> cls, Method method) {
+		int parameterCount = method.getParameterCount();
+		if(parameterCount == 0 && method.getReturnType() != Void.TYPE){
+			return method;
+		}else if(parameterCount != 1 || !method.getName().startsWith(PREFIX_SETTER)){
+			return null;
+		}
+		String suffix = method.getName().substring(PREFIX_SETTER.length());
+		for(Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()){
+			for(String prefix : PREFIXES_GETTER){
+				try {
+					Method getter = c.getDeclaredMethod(prefix+suffix);
+					if(getter.getReturnType() != Void.TYPE){
+						return getter;
+					}
+				} catch (NoSuchMethodException ex) { // try the next
+					continue;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 * @param method getter or setter
+	 * @return the JAXB default name of the property
+	 */
+	private static String getPropertyName(Method method) {
+		String name = method.getName();
+		for(String prefix : PREFIXES_GETTER){
+			if(name.startsWith(prefix) && name.length() > prefix.length()){
+				return Introspector.decapitalize(name.substring(prefix.length()));
+			}
+		}
+		if(name.startsWith(PREFIX_SETTER) && name.length() > PREFIX_SETTER.length()){
+			return Introspector.decapitalize(name.substring(PREFIX_SETTER.length()));
+		}
+		return name;
+	}
+	
+	/**
+	 * An annotated field or property of a JAXB class
+	 *
+	 */
+	private static class Property {
+		private XmlAdapter<?, ?> _adapter = null;
+		private Class<?> _elementType = null; // for element references with known type
+		private Field _field = null; // null for properties accessed using the getter
+		private Method _getter = null; // null for fields
+		private String _name = null; // null for element references
+		
+		/**
+		 * 
+		 * @param member field or method
+		 * @param type the generic type of the value
+		 * @param defaultName the name used when the annotation has the default name
+		 * @return property for the member or null if the member is not annotated, the caller must set the field or getter
+		 * @throws IllegalArgumentException on unsupported member
+		 */
+		public static Property getProperty(AnnotatedElement member, Type type, String defaultName) throws IllegalArgumentException {
+			String name = null;
+			Class<?> elementType = null;
+			XmlElementWrapper wrapper = member.getAnnotation(XmlElementWrapper.class);
+			XmlElement element = member.getAnnotation(XmlElement.class);
+			XmlAttribute attribute = member.getAnnotation(XmlAttribute.class);
+			if(wrapper != null){
+				name = wrapper.name();
+			}else if(element != null){
+				name = element.name();
+			}else if(attribute != null){
+				name = attribute.name();
+			}else if(member.getAnnotation(XmlElementRef.class) != null){
+				if(type instanceof ParameterizedType){ // use the declared type of the list, if sub classes are not possible
+					Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+					if(arguments.length == 1 && arguments[0] instanceof Class && Modifier.isFinal(((Class<?>) arguments[0]).getModifiers())){
+						elementType = (Class<?>) arguments[0];
+					}
+				}
+			}else{
+				return null;
+			}
+			
+			Property property = new Property();
+			if(JAXB_DEFAULT_NAME.equals(name)){
+				name = defaultName;
+			}
+			property._name = name;
+			property._elementType = elementType;
+			XmlJavaTypeAdapter adapter = member.getAnnotation(XmlJavaTypeAdapter.class);
+			if(adapter != null){
+				try {
+					property._adapter = adapter.value().newInstance();
+				} catch (InstantiationException | IllegalAccessException ex) {
+					LOGGER.error(ex, ex);
+					throw new IllegalArgumentException("Failed to create adapter for: "+member.toString());
+				}
+			}
+			return property;
+		}
+		
+		/**
+		 * 
+		 * @param object
+		 * @return the value of this property in the given object, marshalled with the adapter if one is defined, or null if no value
+		 * @throws IllegalArgumentException on failure
+		 */
+		public Object getValue(Object object) throws IllegalArgumentException {
+			Object value = null;
+			try {
+				value = (_field == null ? _getter.invoke(object) : _field.get(object));
+			} catch (IllegalAccessException | InvocationTargetException ex) { // should not happen, the members are set accessible and the getters are simple
+				LOGGER.error(ex, ex);
+				throw new IllegalArgumentException("Failed to access object: "+object.getClass().toString());
+			}
+			return (value != null && _adapter != null ? marshal(_adapter, value) : value);
+		}
+		
+		/**
+		 * 
+		 * @param value the non-null value of this property
+		 * @return the name of this property
+		 */
+		public String getName(Object value) {
+			if(_name == null){ // element reference, use the name of the root element
+				return getRootElementName(_elementType == null ? getElementClass(value) : _elementType);
+			}else{
+				return _name;
+			}
+		}
+	} // class Property
 }
@@ -19,13 +19,30 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
 
+import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.ValidationEvent;
 import javax.xml.bind.ValidationEventHandler;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -37,7 +54,11 @@ import javax.xml.transform.stream.StreamResult;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import core.tut.pori.http.Response;
@@ -48,9 +69,22 @@ import core.tut.pori.http.ResponseData;
  * XML formatter.
  * 
  * This class can be used to marshal objects to xml output, and unmarshal objects from xml input.
+ * 
+ * The JAXB contexts are shared by all formatter instances, and the created marshallers and unmarshallers are pooled and re-used.
+ * 
+ * Large documents containing lists of repeated elements can be processed in chunks using {@link #toObjects(InputStream, Class, Class, int, ChunkHandler)}.
  */
 public class XMLFormatter {
+	private static final ConcurrentHashMap<Set<Class<?>>, ContextPool> CONTEXTS = new ConcurrentHashMap<>();
+	private static final XMLInputFactory INPUT_FACTORY;
+	static{
+		INPUT_FACTORY = XMLInputFactory.newInstance();
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE); // do not allow DTDs or external entities
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+	}
 	private static final Logger LOGGER = Logger.getLogger(XMLFormatter.class);
+	private boolean _formattedOutput = true;
 	private boolean _omitXMLDeclaration = false;
 	private boolean _throwOnError = true;
 	
@@ -69,9 +103,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try (StringReader reader = new StringReader(string)) {
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(reader);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -99,9 +134,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try{
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(in);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -129,9 +165,10 @@ public class XMLFormatter {
 			return null;
 		}
 		try{
-			JAXBContext context = JAXBContext.newInstance(ArrayUtils.add(requiredClasses, objectClass));
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(ArrayUtils.add(requiredClasses, objectClass));
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(in);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != objectClass){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -143,6 +180,195 @@ public class XMLFormatter {
 		}
 	}
 	
+	/**
+	 * Callback for processing chunks of elements.
+	 * 
+	 * @param <H> the type of the document header
+	 * @param <T> the type of the elements
+	 * @see XMLFormatter#toObjects(InputStream, Class, Class, int, ChunkHandler)
+	 */
+	@FunctionalInterface
+	public interface ChunkHandler<H, T> {
+		/**
+		 * 
+		 * @param header the document parsed so far, without any of the elements
+		 * @param elements the parsed elements, the list is not re-used by the formatter
+		 * @param position position of the first element of the chunk in the document, starting from 0
+		 * @throws IllegalArgumentException on invalid elements, this will abort the processing
+		 */
+		public void handle(H header, List<T> elements, int position) throws IllegalArgumentException;
+	} // interface ChunkHandler
+	
+	/**
+	 * Parse the input stream in chunks. 
+	 * 
+	 * The header given to the handler contains at least the parts of the document located before the first element, the returned header contains the entire document without the elements.
+	 * 
+	 * @param in
+	 * @param headerClass class of the document root element
+	 * @param elementClass class of the repeated elements
+	 * @param chunkSize maximum number of elements passed to the handler at once
+	 * @param handler
+	 * @return the header or null if null input
+	 * @throws IllegalArgumentException on bad xml or if the handler rejects a chunk
+	 * @see #toObjects(InputStream, Class, Class, int, Predicate, ChunkHandler)
+	 */
+	public <H, T> H toObjects(InputStream in, Class<H> headerClass, Class<T> elementClass, int chunkSize, ChunkHandler<H, T> handler) throws IllegalArgumentException{
+		return toObjects(in, headerClass, elementClass, chunkSize, null, handler);
+	}
+	
+	/**
+	 * Parse the input stream in chunks.
+	 * 
+	 * The elements of the given element class (matched by the name of the {@link javax.xml.bind.annotation.XmlRootElement}) are unmarshalled one at a time and passed to the handler in chunks of the given size.
+	 * The rest of the document (the header) is collected and unmarshalled as the header class.
+	 * 
+	 * The elements are not passed to the handler before the header parsed so far is accepted by the given predicate. The header is re-checked each time a child element of the document root ends,
+	 * and the elements parsed before that are buffered, i.e. if the required header details are located after the elements in the document, all of the elements are kept in memory.
+	 * Once the header has been accepted, only the header and a single chunk of elements are kept in memory at any time. If the predicate never accepts the header, the buffered elements are passed to the handler with the complete header at the end of the document.
+	 * 
+	 * @param in
+	 * @param headerClass class of the document root element
+	 * @param elementClass class of the repeated elements
+	 * @param chunkSize maximum number of elements passed to the handler at once
+	 * @param headerComplete if null, the elements are passed to the handler with the header parsed up to the first element
+	 * @param handler
+	 * @return the header (the entire document without the elements) or null if null input
+	 * @throws IllegalArgumentException on bad xml or if the handler rejects a chunk
+	 */
+	public <H, T> H toObjects(InputStream in, Class<H> headerClass, Class<T> elementClass, int chunkSize, Predicate<H> headerComplete, ChunkHandler<H, T> handler) throws IllegalArgumentException{
+		if(in == null){
+			LOGGER.debug("Input was null.");
+			return null;
+		}
+		if(chunkSize < 1){
+			throw new IllegalArgumentException("Invalid chunk size: "+chunkSize);
+		}
+		XmlRootElement root = elementClass.getAnnotation(XmlRootElement.class);
+		if(root == null){
+			throw new IllegalArgumentException(elementClass.toString()+" is not an xml root element.");
+		}
+		String elementName = root.name();
+		
+		XMLStreamReader reader = null;
+		ContextPool pool = null;
+		Unmarshaller um = null;
+		int position = 0; // position of the first element in the current chunk
+		List<T> chunk = new ArrayList<>(chunkSize);
+		try{
+			pool = getContextPool(elementClass);
+			um = getUnmarshaller(pool);
+			reader = INPUT_FACTORY.createXMLStreamReader(in);
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			Document document = factory.newDocumentBuilder().newDocument();
+			Node current = document;
+			H header = null;
+			boolean ready = false; // true if the header has been accepted
+			for(int event = reader.getEventType(); event != XMLStreamConstants.END_DOCUMENT; event = reader.next()){
+				while(event == XMLStreamConstants.START_ELEMENT && current != document && elementName.equals(reader.getLocalName())){
+					if(header == null){
+						header = toObject(document.getDocumentElement(), headerClass);
+						ready = (headerComplete == null || headerComplete.test(header));
+					}
+					try{
+						chunk.add(um.unmarshal(reader, elementClass).getValue()); // this leaves the reader to the event after the end of the element
+					} catch (JAXBException ex){
+						LOGGER.debug(ex, ex);
+						throw new IllegalArgumentException("Failed to parse element at position: "+(position+chunk.size()));
+					}
+					if(ready && chunk.size() >= chunkSize){
+						handler.handle(header, chunk, position);
+						position += chunk.size();
+						chunk = new ArrayList<>(chunkSize);
+					}
+					event = reader.getEventType();
+				}
+				
+				switch(event){
+					case XMLStreamConstants.START_ELEMENT:
+						Element element = document.createElementNS(reader.getNamespaceURI(), (StringUtils.isEmpty(reader.getPrefix()) ? reader.getLocalName() : reader.getPrefix()+":"+reader.getLocalName()));
+						for(int i=0, count=reader.getNamespaceCount();i<count;++i){
+							String prefix = reader.getNamespacePrefix(i);
+							element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, (StringUtils.isEmpty(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE+":"+prefix), reader.getNamespaceURI(i));
+						}
+						for(int i=0, count=reader.getAttributeCount();i<count;++i){
+							String prefix = reader.getAttributePrefix(i);
+							element.setAttributeNS(reader.getAttributeNamespace(i), (StringUtils.isEmpty(prefix) ? reader.getAttributeLocalName(i) : prefix+":"+reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+						}
+						current.appendChild(element);
+						current = element;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						current = current.getParentNode();
+						if(!ready && header != null && current == document.getDocumentElement()){ // elements have been buffered, check if the header is now complete
+							header = toObject(current, headerClass);
+							if(headerComplete.test(header)){
+								ready = true;
+								position = handleChunks(header, chunk, position, chunkSize, handler);
+								chunk = new ArrayList<>(chunkSize);
+							}
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if(current != document){
+							current.appendChild(document.createTextNode(reader.getText()));
+						}
+						break;
+					default: // ignore comments, processing instructions and others
+						break;
+				}
+			}
+			
+			header = toObject(document.getDocumentElement(), headerClass);
+			if(!chunk.isEmpty()){
+				handleChunks(header, chunk, position, chunkSize, handler);
+			}
+			return header;
+		} catch(JAXBException | XMLStreamException | ParserConfigurationException ex){
+			LOGGER.error(ex, ex);
+			throw new IllegalArgumentException("Failed to parse xml.");
+		} finally {
+			if(um != null){
+				releaseUnmarshaller(pool, um);
+			}
+			if(reader != null){
+				try {
+					reader.close();
+				} catch (XMLStreamException ex) {
+					LOGGER.warn(ex, ex);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Pass the given elements to the handler in chunks of the given size.
+	 * 
+	 * @param header
+	 * @param elements
+	 * @param position position of the first element in the document
+	 * @param chunkSize
+	 * @param handler
+	 * @return position of the element following the given elements
+	 * @throws IllegalArgumentException if the handler rejects a chunk
+	 */
+	private static <H, T> int handleChunks(H header, List<T> elements, int position, int chunkSize, ChunkHandler<H, T> handler) throws IllegalArgumentException{
+		int size = elements.size();
+		if(size <= chunkSize){
+			if(size > 0){
+				handler.handle(header, elements, position);
+			}
+			return position+size;
+		}
+		for(int start=0;start<size;start+=chunkSize){
+			handler.handle(header, new ArrayList<>(elements.subList(start, Math.min(start+chunkSize, size))), position+start);
+		}
+		return position+size;
+	}
+	
 	/**
 	 * 
 	 * @param node
@@ -158,9 +384,10 @@ public class XMLFormatter {
 		}
 		T retval = null;
 		try{
-			JAXBContext context = JAXBContext.newInstance(cls);
-			Unmarshaller um = createUnMarshaller(context);
+			ContextPool pool = getContextPool(cls);
+			Unmarshaller um = getUnmarshaller(pool);
 			Object o = um.unmarshal(node);
+			releaseUnmarshaller(pool, um);
 			if(o.getClass() != cls){
 				throw new IllegalArgumentException("Contents not of expected type.");
 			}else{
@@ -185,15 +412,16 @@ public class XMLFormatter {
 			return;
 		}
 		try {
-			JAXBContext context = null;
+			ContextPool pool = null;
 			ResponseData t = r.getResponseData();
 			if(t == null){
-				context = JAXBContext.newInstance(Response.class);
+				pool = getContextPool(Response.class);
 			}else{
-				context = JAXBContext.newInstance(ArrayUtils.add(t.getDataClasses(), Response.class));
+				pool = getContextPool(ArrayUtils.add(t.getDataClasses(), Response.class));
 			}	
-			Marshaller marshaller = createMarshaller(context);
+			Marshaller marshaller = getMarshaller(pool);
 			marshaller.marshal(r, writer);
+			releaseMarshaller(pool, marshaller);
 		} catch (JAXBException ex) {
 			LOGGER.error(ex, ex);
 			throw new IllegalArgumentException("Failed to generate xml.");
@@ -213,9 +441,11 @@ public class XMLFormatter {
 		}
 		String retval = null;
 		try {
-			Marshaller marshaller = createMarshaller(JAXBContext.newInstance(o.getClass()));
+			ContextPool pool = getContextPool(o.getClass());
+			Marshaller marshaller = getMarshaller(pool);
 			StringWriter w = new StringWriter();
 			marshaller.marshal(o, w);
+			releaseMarshaller(pool, marshaller);
 			retval = w.toString();
 		} catch (JAXBException ex) {
 			LOGGER.error(ex, ex);
@@ -254,8 +484,112 @@ public class XMLFormatter {
 		return result;
 	}
 	
+	/**
+	 * 
+	 * @param classes
+	 * @return shared context for the given classes, the order of the classes does not matter
+	 * @throws JAXBException
+	 */
+	public static JAXBContext getContext(Class<?>... classes) throws JAXBException {
+		return getContextPool(classes)._context;
+	}
+	
+	/**
+	 * Create the contexts for all concrete {@link core.tut.pori.http.ResponseData} classes annotated with {@link javax.xml.bind.annotation.XmlRootElement} found in the given packages.
+	 * 
+	 * This method can be called on start-up to avoid creating the contexts on the first requests. Errors are logged, but otherwise ignored.
+	 * 
+	 * @param basePackages
+	 */
+	public static void initializeContexts(String... basePackages) {
+		Date started = new Date();
+		ClassPathScanningCandidateComponentProvider provider = new ClassPathScanningCandidateComponentProvider(false);
+		provider.addIncludeFilter(new AnnotationTypeFilter(XmlRootElement.class, false));
+		int count = 0;
+		for(String basePackage : basePackages){
+			for(BeanDefinition definition : provider.findCandidateComponents(basePackage)){
+				try {
+					Class<?> cls = Class.forName(definition.getBeanClassName());
+					if(ResponseData.class.isAssignableFrom(cls)){
+						getContextPool(cls, Response.class);	// the default data classes, as used by toWriter()
+						++count;
+					}
+				} catch (ClassNotFoundException | JAXBException | LinkageError ex) {
+					LOGGER.warn("Failed to initialize context for class: "+definition.getBeanClassName(), ex);
+				}
+			}
+		}
+		LOGGER.debug("Initialized "+count+" context(s) in "+core.tut.pori.utils.StringUtils.getDurationString(started, new Date()));
+	}
+	
+	/**
+	 * 
+	 * @param classes
+	 * @return context pool for the given classes
+	 * @throws JAXBException
+	 */
+	private static ContextPool getContextPool(Class<?>... classes) throws JAXBException {
+		Set<Class<?>> key = new HashSet<>(Arrays.asList(classes));
+		ContextPool pool = CONTEXTS.get(key);
+		if(pool == null){	// concurrent calls may create the context more than once, but only the first one is stored
+			pool = new ContextPool(JAXBContext.newInstance(classes));
+			ContextPool previous = CONTEXTS.putIfAbsent(key, pool);
+			if(previous != null){
+				pool = previous;
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * 
+	 * @param pool
+	 * @return pooled marshaller or a new marshaller with the settings of this formatter
+	 * @throws JAXBException
+	 * @throws IllegalArgumentException
+	 */
+	private Marshaller getMarshaller(ContextPool pool) throws JAXBException, IllegalArgumentException {
+		Marshaller m = pool.getMarshallers(_throwOnError, _omitXMLDeclaration, _formattedOutput).poll();
+		return (m == null ? createMarshaller(pool._context) : m);
+	}
+	
+	/**
+	 * Return the marshaller to the pool. Marshallers should only be released after a successful marshal.
+	 * 
+	 * @param pool
+	 * @param marshaller
+	 */
+	private void releaseMarshaller(ContextPool pool, Marshaller marshaller) {
+		pool.getMarshallers(_throwOnError, _omitXMLDeclaration, _formattedOutput).offer(marshaller);
+	}
+	
+	/**
+	 * 
+	 * @param pool
+	 * @return pooled unmarshaller or a new unmarshaller with the settings of this formatter
+	 * @throws JAXBException
+	 * @throws IllegalArgumentException
+	 */
+	private Unmarshaller getUnmarshaller(ContextPool pool) throws JAXBException, IllegalArgumentException {
+		Unmarshaller um = pool.getUnmarshallers(_throwOnError).poll();
+		return (um == null ? createUnMarshaller(pool._context) : um);
+	}
+	
+	/**
+	 * Return the unmarshaller to the pool. Unmarshallers can also be released after a failed unmarshal, as the unmarshal state is reset on each unmarshal.
+	 * 
+	 * @param pool
+	 * @param unmarshaller
+	 */
+	private void releaseUnmarshaller(ContextPool pool, Unmarshaller unmarshaller) {
+		pool.getUnmarshallers(_throwOnError).offer(unmarshaller);
+	}
+	
 	/**
 	 * create and return new marshaller, and set the default values
+	 * 
+	 * Note: the created marshallers are pooled and re-used for formatters with the same settings.
+	 * 
 	 * @param context
 	 * @return marshaller for the given context
 	 * @throws JAXBException
@@ -271,7 +605,7 @@ public class XMLFormatter {
 				}
 			});
 		}
-		m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.valueOf(_formattedOutput));
 		m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
 		if(_omitXMLDeclaration){
 			m.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
@@ -280,6 +614,7 @@ public class XMLFormatter {
 	}
 	
 	/**
+	 * Note: the created unmarshallers are pooled and re-used for formatters with the same settings.
 	 * 
 	 * @param context
 	 * @return unmarshaller for the given context
@@ -315,6 +650,22 @@ public class XMLFormatter {
 		_omitXMLDeclaration = omitXML;
 	}
 
+	/**
+	 * 
+	 * @return true if the output is indented, true by default
+	 */
+	public boolean isFormattedOutput() {
+		return _formattedOutput;
+	}
+
+	/**
+	 * 
+	 * @param formattedOutput
+	 */
+	public void setFormattedOutput(boolean formattedOutput) {
+		_formattedOutput = formattedOutput;
+	}
+
 	/**
 	 * @return the throwOnError
 	 */
@@ -354,4 +705,48 @@ public class XMLFormatter {
 		}
 		return retval;
 	}
+	
+	/**
+	 * A shared context with pooled marshallers and unmarshallers for each combination of formatter settings
+	 *
+	 */
+	private static class ContextPool {
+		private JAXBContext _context = null;
+		private List<ConcurrentLinkedQueue<Marshaller>> _marshallers = new ArrayList<>(8);
+		private List<ConcurrentLinkedQueue<Unmarshaller>> _unmarshallers = new ArrayList<>(2);
+		
+		/**
+		 * 
+		 * @param context
+		 */
+		public ContextPool(JAXBContext context) {
+			_context = context;
+			for(int i=0;i<8;++i){
+				_marshallers.add(new ConcurrentLinkedQueue<Marshaller>());
+			}
+			for(int i=0;i<2;++i){
+				_unmarshallers.add(new ConcurrentLinkedQueue<Unmarshaller>());
+			}
+		}
+		
+		/**
+		 * 
+		 * @param throwOnError
+		 * @param omitXMLDeclaration
+		 * @param formattedOutput
+		 * @return the marshallers for the given settings
+		 */
+		public ConcurrentLinkedQueue<Marshaller> getMarshallers(boolean throwOnError, boolean omitXMLDeclaration, boolean formattedOutput) {
+			return _marshallers.get((throwOnError ? 1 : 0) + (omitXMLDeclaration ? 2 : 0) + (formattedOutput ? 4 : 0));
+		}
+		
+		/**
+		 * 
+		 * @param throwOnError
+		 * @return the unmarshallers for the given settings
+		 */
+		public ConcurrentLinkedQueue<Unmarshaller> getUnmarshallers(boolean throwOnError) {
+			return _unmarshallers.get(throwOnError ? 1 : 0);
+		}
+	} // class ContextPool
 }
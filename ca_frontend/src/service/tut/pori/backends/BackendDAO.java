@@ -15,16 +15,19 @@
  */
 package service.tut.pori.backends;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections4.IterableUtils;
 import org.apache.commons.collections4.Predicate;
@@ -60,9 +63,16 @@ import core.tut.pori.utils.ListUtils;
 /**
  * dao for handling back ends
  * 
+ * The permissions resolved by {@link #getBackendPermissions(Collection, UserIdentity)} are cached per user and back end. The cache is invalidated by the modification methods of this class, and by the user and back end events published through {@link core.tut.pori.context.EventHandler}.
+ * The cached permissions also expire after {@value #CACHE_TIMEOUT} ms in case a modification is made without invalidating the cache.
+ * 
  */
 public class BackendDAO extends SQLDAO {
+	private static final long CACHE_TIMEOUT = 300000; // in ms, the maximum time the permissions are cached
 	private static final Logger LOGGER = Logger.getLogger(BackendDAO.class);
+	private static final int MAX_CACHED_USERS = 10000;
+	private static final int MAX_PERMISSION_QUERY_IDS = 500;
+	private static final Set<UserPermission> NO_PERMISSIONS = Collections.emptySet();
 	/* table names */
 	private static final String TABLE_BACKEND_GROUPS = DATABASE+".backend_groups";
 	private static final String TABLE_BACKEND_GROUPS_BACKENDS = DATABASE+".backend_groups_backends";
@@ -84,9 +94,6 @@ public class BackendDAO extends SQLDAO {
 	private static final String COLUMN_TASK_PUBLIC = "task_public";
 	private static final String COLUMN_USER_ID_WITH_TABLE_NAME = TABLE_BACKEND_GROUPS_PERMISSIONS+"."+COLUMN_USER_ID;
 	/* sql */
-	private static final String SQL_ALIAS_TASK_PUBLIC_SUM = COLUMN_TASK_PUBLIC+"_sum";
-	private static final String SQL_ALIAS_READ_PUBLIC_SUM = COLUMN_READ_PUBLIC+"_sum";
-	
 	private static final WhereClause SQL_AND_PUBLIC_READ = new AndClause(TABLE_BACKEND_GROUPS+"."+COLUMN_READ_PUBLIC, UserPermission.READ_BACKENDS.toInt(), SQLType.INTEGER);
 	
 	private static final String SQL_ASSOCIATE_BACKEND = "INSERT INTO "+TABLE_BACKEND_GROUPS_BACKENDS+" ("+COLUMN_BACKEND_GROUP_ID+", "+COLUMN_BACKEND_ID+", "+COLUMN_ROW_CREATED+") VALUES (?,?,NOW())";
@@ -100,8 +107,9 @@ public class BackendDAO extends SQLDAO {
 	private static final String[] SQL_COLUMNS_CREATE_BACKEND_GROUP = {COLUMN_NAME, COLUMN_DESCRIPTION, COLUMN_READ_PUBLIC, COLUMN_TASK_PUBLIC, COLUMN_ROW_CREATED};
 	private static final String[] SQL_COLUMNS_GET_BACKEND = {TABLE_BACKENDS+"."+COLUMN_BACKEND_ID, TABLE_BACKENDS+"."+COLUMN_NAME, TABLE_BACKENDS+"."+COLUMN_ANALYSIS_URI, TABLE_BACKENDS+"."+COLUMN_ENABLED, TABLE_BACKENDS+"."+COLUMN_DESCRIPTION, TABLE_BACKENDS+"."+COLUMN_DEFAULT_TASK_DATAGROUPS};
 	private static final String[] SQL_COLUMNS_GET_BACKEND_GROUP = {TABLE_BACKEND_GROUPS+"."+COLUMN_NAME, TABLE_BACKEND_GROUPS+"."+COLUMN_DESCRIPTION, TABLE_BACKEND_GROUPS+"."+COLUMN_READ_PUBLIC, TABLE_BACKEND_GROUPS+"."+COLUMN_TASK_PUBLIC};
+	private static final String[] SQL_COLUMNS_GET_BACKEND_PERMISSIONS = {TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_ID, TABLE_BACKEND_GROUPS_PERMISSIONS+"."+COLUMN_PERMISSION};
+	private static final String[] SQL_COLUMNS_GET_BACKEND_PUBLIC_PERMISSIONS = {TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_ID, TABLE_BACKEND_GROUPS+"."+COLUMN_READ_PUBLIC, TABLE_BACKEND_GROUPS+"."+COLUMN_TASK_PUBLIC};
 	private static final String[] SQL_COLUMNS_GET_PERMISSIONS = {COLUMN_USER_ID, COLUMN_PERMISSION};
-	private static final String[] SQL_COLUMNS_PUBLIC = {COLUMN_COUNT, "SUM("+COLUMN_TASK_PUBLIC+") AS "+SQL_ALIAS_TASK_PUBLIC_SUM, "SUM("+COLUMN_READ_PUBLIC+") AS "+SQL_ALIAS_READ_PUBLIC_SUM};
 	
 	private static final String SQL_BACKEND_GROUP_EXISTS = "SELECT "+COLUMN_COUNT+" FROM "+TABLE_BACKEND_GROUPS+" WHERE "+COLUMN_BACKEND_GROUP_ID+"=?";
 	private static final int[] SQL_BACKEND_GROUP_EXISTS_SQL_TYPES = {SQLType.LONG.toInt()};
@@ -121,8 +129,6 @@ public class BackendDAO extends SQLDAO {
 	
 	private static final String SQL_GET_BACKEND_CAPABILITIES = "SELECT "+COLUMN_CAPABILITY+" FROM "+TABLE_BACKENDS_CAPABILITIES+" WHERE "+COLUMN_BACKEND_ID+"=?";
 	
-	private static final String SQL_GET_BACKEND_GROUP_IDS = "SELECT "+COLUMN_BACKEND_GROUP_ID+" FROM "+TABLE_BACKEND_GROUPS_BACKENDS+" WHERE "+COLUMN_BACKEND_ID+"=?";
-	
 	private static final String SQL_GET_BACKEND_IDS = "SELECT "+COLUMN_BACKEND_ID+" FROM "+TABLE_BACKEND_GROUPS_BACKENDS+" WHERE "+COLUMN_BACKEND_GROUP_ID+"=?";
 	
 	private static final String SQL_GET_BACKEND_GROUP_PERMISSIONS = "SELECT "+COLUMN_COUNT+", "+COLUMN_READ_PUBLIC+", "+COLUMN_TASK_PUBLIC+" FROM "+TABLE_BACKEND_GROUPS+" WHERE "+COLUMN_BACKEND_GROUP_ID+"=?";
@@ -130,6 +136,7 @@ public class BackendDAO extends SQLDAO {
 	private static final String SQL_GET_BACKEND_GROUP_USER_PERMISSIONS_FOR_USER = "SELECT "+COLUMN_PERMISSION+" FROM "+TABLE_BACKEND_GROUPS_PERMISSIONS+" WHERE "+COLUMN_BACKEND_GROUP_ID+"=? AND "+COLUMN_USER_ID+"=?";
 	private static final int[] SQL_GET_BACKEND_GROUP_USER_PERMISSIONS_FOR_USER_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.LONG.toInt()};
 	
+	private static final JoinClause SQL_JOIN_BACK_END_GROUP_DETAILS = new JoinClause("INNER JOIN "+TABLE_BACKEND_GROUPS+" ON "+COLUMN_BACKEND_GROUP_ID_WITH_TABLE_NAME+"="+TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_GROUP_ID);
 	private static final JoinClause SQL_JOIN_BACK_END_GROUPS = new JoinClause("INNER JOIN "+TABLE_BACKEND_GROUPS_BACKENDS+" ON "+TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_ID+"="+TABLE_BACKENDS+"."+COLUMN_BACKEND_ID);
 	private static final JoinClause SQL_JOIN_BACK_END_PERMISSIONS = new JoinClause("INNER JOIN "+TABLE_BACKEND_GROUPS_PERMISSIONS+" ON "+TABLE_BACKEND_GROUPS_PERMISSIONS+"."+COLUMN_BACKEND_GROUP_ID+"="+TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_GROUP_ID);
 	
@@ -146,6 +153,9 @@ public class BackendDAO extends SQLDAO {
 	
 	private static final String SQL_UPDATE_BACKEND_GROUP = "UPDATE "+TABLE_BACKEND_GROUPS+" SET "+COLUMN_NAME+"=?, "+COLUMN_DESCRIPTION+"=?, "+COLUMN_READ_PUBLIC+"=?, "+COLUMN_TASK_PUBLIC+"=?, "+COLUMN_ROW_UPDATED+"=NOW() WHERE "+COLUMN_BACKEND_GROUP_ID+"=?";
 	private static final int[] SQL_UPDATE_BACKEND_GROUP_SQL_TYPES = {SQLType.STRING.toInt(), SQLType.STRING.toInt(), SQLType.INTEGER.toInt(), SQLType.INTEGER.toInt(), SQLType.LONG.toInt()};
+	
+	private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, CachedPermissions>> _permissionCache = new ConcurrentHashMap<>(); // user id -> back end id -> permissions, NO_PERMISSIONS for none
+	private final AtomicLong _permissionCacheVersion = new AtomicLong(); // incremented on every invalidation to prevent caching of permissions resolved concurrently with a modification
 					
 	
 	/**
@@ -159,7 +169,7 @@ public class BackendDAO extends SQLDAO {
 	 * @return id for the generated back end or null if creation failed
 	 */
 	public Long createBackend(Backend backend, Long backendGroupId) {
-		return getTransactionTemplate().execute(new TransactionCallback<Long>() {
+		Long backendId = getTransactionTemplate().execute(new TransactionCallback<Long>() {
 
 			@Override
 			public Long doInTransaction(TransactionStatus status) {
@@ -199,6 +209,10 @@ public class BackendDAO extends SQLDAO {
 				return backendId;
 			}
 		});
+		if(backendId != null){
+			removeCachedBackendPermissions(backendId);
+		}
+		return backendId;
 	}
 	
 	/**
@@ -282,6 +296,29 @@ public class BackendDAO extends SQLDAO {
 		}
 	}
 	
+	/**
+	 * resolve and set capabilities for all of the given back ends using a single query
+	 * 
+	 * @param backends
+	 */
+	private void resolveCapabilities(List<Backend> backends){
+		Map<Long, Backend> backendMap = new HashMap<>(backends.size());
+		for(Backend backend : backends){
+			backendMap.put(backend.getBackendId(), backend);
+		}
+		
+		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_BACKENDS_CAPABILITIES);
+		sql.addSelectColumns(SQL_COLUMNS_CAPABILITIES);
+		sql.addWhereClause(new AndClause(COLUMN_BACKEND_ID, backendMap.keySet(), SQLType.LONG));
+		getJdbcTemplate().query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				backendMap.get(set.getLong(COLUMN_BACKEND_ID)).addCapability(set.getString(COLUMN_CAPABILITY));
+			}
+		});
+	}
+	
 	/**
 	 * 
 	 * @param capabilities
@@ -339,7 +376,9 @@ public class BackendDAO extends SQLDAO {
 		JdbcTemplate t = getJdbcTemplate();
 		Object[] ob = new Object[]{backendId};
 		t.update(SQL_DELETE_BACKEND_FROM_GROUPS, ob, SQL_BACKEND_ID_SQL_TYPES);
-		return (t.update(SQL_DELETE_BACKEND, ob, SQL_BACKEND_ID_SQL_TYPES) > 0);
+		boolean removed = (t.update(SQL_DELETE_BACKEND, ob, SQL_BACKEND_ID_SQL_TYPES) > 0);
+		removeCachedBackendPermissions(backendId);
+		return removed;
 	}
 	
 	/**
@@ -389,58 +428,184 @@ public class BackendDAO extends SQLDAO {
 	 * @param backendId
 	 * @param userId
 	 * @return the permission the user has for the given back end or null if none
+	 * @see #getBackendPermissions(Collection, UserIdentity)
 	 */
 	public Set<UserPermission> getBackendPermissions(Long backendId, UserIdentity userId) {
-		JdbcTemplate t = getJdbcTemplate();
-		List<Long> backendGroupIds = t.queryForList(SQL_GET_BACKEND_GROUP_IDS, new Object[]{backendId}, SQL_BACKEND_ID_SQL_TYPES, Long.class);
-		if(backendGroupIds.isEmpty()){
-			LOGGER.debug("No groups for back end, id: "+backendId); // back end must always belong to a group, so the given back end id does not exists
+		Map<Long, Set<UserPermission>> permissions = getBackendPermissions(Collections.singleton(backendId), userId);
+		return (permissions == null ? null : permissions.get(backendId));
+	}
+	
+	/**
+	 * Resolve the permissions for a set of back ends. The permissions are served from the cache if available, and all cache misses are resolved using a single query (per {@value #MAX_PERMISSION_QUERY_IDS} back ends).
+	 * 
+	 * @param backendIds null values are ignored
+	 * @param userId
+	 * @return map of back end ids and the permissions the user has for the back end, back ends without permissions (or non-existent back ends) are not included, or null if the user has no permissions for any of the back ends
+	 */
+	public Map<Long, Set<UserPermission>> getBackendPermissions(Collection<Long> backendIds, UserIdentity userId) {
+		if(backendIds == null || backendIds.isEmpty()){
+			LOGGER.debug("No back end ids.");
 			return null;
 		}
 		
-		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_BACKEND_GROUPS);
-		sql.addSelectColumns(SQL_COLUMNS_PUBLIC);
-		AndClause begIdClause = new AndClause(COLUMN_BACKEND_GROUP_ID, backendGroupIds, SQLType.LONG);
-		sql.addWhereClause(begIdClause);
-		Map<String, Object> row = t.queryForMap(sql.toSQLString(), sql.getValues(), sql.getValueTypes());
+		Long uid = (userId == null ? null : userId.getUserId());
+		ConcurrentHashMap<Long, CachedPermissions> userPermissions = (uid == null ? null : _permissionCache.get(uid));
+		Map<Long, Set<UserPermission>> permissions = new HashMap<>(backendIds.size());
+		List<Long> missing = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for(Long backendId : backendIds){
+			if(backendId == null || permissions.containsKey(backendId)){
+				continue;
+			}
+			CachedPermissions cached = (userPermissions == null ? null : userPermissions.get(backendId));
+			if(cached == null || cached._expires < now){
+				missing.add(backendId);
+			}else if(cached._permissions != NO_PERMISSIONS){
+				permissions.put(backendId, new HashSet<>(cached._permissions));
+			}
+		}
 		
-		Set<UserPermission> permissions = new HashSet<>();
-		for(Entry<String, Object> e : row.entrySet()){
-			switch(e.getKey()) {
-				case COLUMN_COUNT:
-					if((Long)e.getValue() < 1){ // in principle, this should not happen, but check it anyway
-						LOGGER.warn("No groups found.");
-						return null;
+		if(!missing.isEmpty()){
+			long version = _permissionCacheVersion.get();
+			Map<Long, Set<UserPermission>> resolved = new HashMap<>(missing.size());
+			for(int i=0, size=missing.size();i<size;i+=MAX_PERMISSION_QUERY_IDS){
+				resolveBackendPermissions(missing.subList(i, Math.min(i+MAX_PERMISSION_QUERY_IDS, size)), uid, resolved);
+			}
+			
+			if(uid == null){
+				LOGGER.debug("No user id, the resolved permissions will not be cached.");
+			}else if(version == _permissionCacheVersion.get()){ // do not cache if the permissions were modified while resolving
+				if(userPermissions == null){
+					if(_permissionCache.size() >= MAX_CACHED_USERS){
+						LOGGER.debug("Maximum number of cached users reached, clearing permission cache...");
+						_permissionCache.clear();
 					}
-					break;
-				case SQL_ALIAS_READ_PUBLIC_SUM:
-					if(((BigDecimal)e.getValue()).intValue() > 0){ // if there are more than one read public permission, then there are permissions for the user
-						permissions.add(UserPermission.READ_BACKENDS);
+					userPermissions = new ConcurrentHashMap<>();
+					ConcurrentHashMap<Long, CachedPermissions> existing = _permissionCache.putIfAbsent(uid, userPermissions);
+					if(existing != null){
+						userPermissions = existing;
 					}
-					break;
-				case SQL_ALIAS_TASK_PUBLIC_SUM:
-					if(((BigDecimal)e.getValue()).intValue() > 0){ // if there are more than one task public permission, then there are permissions for the user
-						permissions.add(UserPermission.TASKS);
+				}
+				Map<Long, CachedPermissions> cached = new HashMap<>(missing.size());
+				long expires = System.currentTimeMillis()+CACHE_TIMEOUT;
+				for(Long backendId : missing){
+					Set<UserPermission> p = resolved.get(backendId);
+					CachedPermissions c = new CachedPermissions((p == null ? NO_PERMISSIONS : Collections.unmodifiableSet(new HashSet<>(p))), expires);
+					userPermissions.put(backendId, c);
+					cached.put(backendId, c);
+				}
+				if(version != _permissionCacheVersion.get()){ // the cache was invalidated before the entries were added, the invalidation is always done after changing the version, so removing the entries here is enough
+					LOGGER.debug("Permissions were modified while caching, removing the cached permissions...");
+					for(Entry<Long, CachedPermissions> e : cached.entrySet()){
+						userPermissions.remove(e.getKey(), e.getValue());
 					}
-					break;
-				default:
-					LOGGER.warn("Unhandled column: "+e.getKey()); // should never happen
-					break;
+				}
 			}
+			permissions.putAll(resolved);
 		}
 		
-		sql = new SQLSelectBuilder(TABLE_BACKEND_GROUPS_PERMISSIONS);
-		sql.addSelectColumn(COLUMN_PERMISSION);
-		sql.addWhereClause(begIdClause);
-		sql.addWhereClause(new AndClause(COLUMN_USER_ID, userId.getUserId(), SQLType.LONG));
-		sql.addGroupBy(COLUMN_PERMISSION);
+		return (permissions.isEmpty() ? null : permissions);
+	}
+	
+	/**
+	 * Resolve the permissions from the database, the public permissions of the back end groups and the permissions given for the user are combined.
+	 * 
+	 * @param backendIds
+	 * @param userId if null, only public permissions are resolved
+	 * @param permissions the resolved permissions will be added to this map, back ends without permissions are not added
+	 */
+	private void resolveBackendPermissions(List<Long> backendIds, Long userId, Map<Long, Set<UserPermission>> permissions) {
+		JdbcTemplate t = getJdbcTemplate();
+		AndClause backendIdClause = new AndClause(TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_ID, backendIds, SQLType.LONG);
 		
-		List<Integer> permInts = t.queryForList(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), Integer.class);
-		for(Integer permission : permInts){
-			permissions.add(UserPermission.fromInt(permission));
+		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_BACKEND_GROUPS_BACKENDS);
+		sql.addSelectColumns(SQL_COLUMNS_GET_BACKEND_PUBLIC_PERMISSIONS);
+		sql.addJoin(SQL_JOIN_BACK_END_GROUP_DETAILS);
+		sql.addWhereClause(backendIdClause);
+		t.query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				Long backendId = set.getLong(1);
+				if(set.getInt(2) > 0){ // if any of the back end's groups is read public, then there are permissions for the user
+					addPermission(permissions, backendId, UserPermission.READ_BACKENDS);
+				}
+				if(set.getInt(3) > 0){ // if any of the back end's groups is task public, then there are permissions for the user
+					addPermission(permissions, backendId, UserPermission.TASKS);
+				}
+			}
+		});
+		
+		if(userId == null){
+			LOGGER.debug("No user id given, resolving only public permissions.");
+			return;
 		}
 		
-		return (permissions.isEmpty() ? null : permissions);
+		sql = new SQLSelectBuilder(TABLE_BACKEND_GROUPS_BACKENDS);
+		sql.addSelectColumns(SQL_COLUMNS_GET_BACKEND_PERMISSIONS);
+		sql.addJoin(SQL_JOIN_BACK_END_PERMISSIONS);
+		sql.addWhereClause(backendIdClause);
+		sql.addWhereClause(new AndClause(COLUMN_USER_ID_WITH_TABLE_NAME, userId, SQLType.LONG));
+		sql.addGroupBy(TABLE_BACKEND_GROUPS_BACKENDS+"."+COLUMN_BACKEND_ID);
+		sql.addGroupBy(TABLE_BACKEND_GROUPS_PERMISSIONS+"."+COLUMN_PERMISSION);
+		t.query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				addPermission(permissions, set.getLong(1), UserPermission.fromInt(set.getInt(2)));
+			}
+		});
+	}
+	
+	/**
+	 * helper method for adding permission to the permission map
+	 * 
+	 * @param permissions
+	 * @param backendId
+	 * @param permission
+	 */
+	private static void addPermission(Map<Long, Set<UserPermission>> permissions, Long backendId, UserPermission permission) {
+		Set<UserPermission> set = permissions.get(backendId);
+		if(set == null){
+			set = new HashSet<>();
+			permissions.put(backendId, set);
+		}
+		set.add(permission);
+	}
+	
+	/**
+	 * Remove the cached permissions of the given user.
+	 * 
+	 * @param userId
+	 */
+	public void removeCachedUserPermissions(UserIdentity userId) {
+		Long uid = (userId == null ? null : userId.getUserId());
+		if(uid == null){
+			LOGGER.debug("Ignored invalid user identity.");
+			return;
+		}
+		_permissionCacheVersion.incrementAndGet();
+		_permissionCache.remove(uid);
+	}
+	
+	/**
+	 * Remove the cached permissions of all users for the given back end.
+	 * 
+	 * @param backendId
+	 */
+	public void removeCachedBackendPermissions(Long backendId) {
+		_permissionCacheVersion.incrementAndGet();
+		for(ConcurrentHashMap<Long, CachedPermissions> userPermissions : _permissionCache.values()){
+			userPermissions.remove(backendId);
+		}
+	}
+	
+	/**
+	 * Remove all cached permissions. This should be called when back end groups or the associations between back ends and back end groups are modified.
+	 */
+	public void clearCachedPermissions() {
+		_permissionCacheVersion.incrementAndGet();
+		_permissionCache.clear();
 	}
 	
 	/**
@@ -567,6 +732,7 @@ public class BackendDAO extends SQLDAO {
 				return null;
 			}
 		});
+		clearCachedPermissions();
 	}
 	
 	/**
@@ -585,7 +751,7 @@ public class BackendDAO extends SQLDAO {
 	 * @return true on success
 	 */
 	public boolean updateBackendGroup(BackendGroup backendGroup) {
-		return getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
+		boolean updated = getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
 
 			@Override
 			public Boolean doInTransaction(TransactionStatus status) {
@@ -600,6 +766,8 @@ public class BackendDAO extends SQLDAO {
 				return Boolean.TRUE;
 			}
 		});
+		clearCachedPermissions(); // the public permissions may have changed
+		return updated;
 	}
 
 	/**
@@ -608,7 +776,7 @@ public class BackendDAO extends SQLDAO {
 	 * @return true if the back end group was removed, false if not (group did not exist)
 	 */
 	public boolean removeBackendGroup(long backendGroupId) {
-		return getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
+		boolean removed = getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
 
 			@Override
 			public Boolean doInTransaction(TransactionStatus status) {
@@ -647,6 +815,8 @@ public class BackendDAO extends SQLDAO {
 				}
 			}
 		});
+		clearCachedPermissions();
+		return removed;
 	}
 	
 	/**
@@ -660,6 +830,7 @@ public class BackendDAO extends SQLDAO {
 		sql.addWhereClause(new AndClause(COLUMN_BACKEND_GROUP_ID, backendGroupIds));
 		sql.addWhereClause(new AndClause(COLUMN_BACKEND_ID, backendIds));
 		getJdbcTemplate().update(sql.toSQLString(), sql.getValues(), sql.getValueTypes());
+		clearCachedPermissions();
 	}
 	
 	/**
@@ -679,6 +850,7 @@ public class BackendDAO extends SQLDAO {
 				t.update(SQL_ASSOCIATE_UPDATE_BACKEND, ob, SQL_ASSOCIATE_BACKEND_SQL_TYPES);
 			}
 		}
+		clearCachedPermissions();
 	}
 
 	/**
@@ -879,9 +1051,29 @@ public class BackendDAO extends SQLDAO {
 		
 		List<Backend> backends = new ArrayList<>(rows.size());
 		for(Map<String, Object> row : rows){
-			backends.add(extractBackend(row, true));
+			backends.add(extractBackend(row, false));
 		}
+		resolveCapabilities(backends);
 		
 		return new BackendList(backends);
 	}
+	
+	/**
+	 * Permissions of a user for a single back end, as stored in the permission cache.
+	 * 
+	 */
+	private static class CachedPermissions {
+		private long _expires = 0;
+		private Set<UserPermission> _permissions = null;
+		
+		/**
+		 * 
+		 * @param permissions
+		 * @param expires expiration time in unix time
+		 */
+		private CachedPermissions(Set<UserPermission> permissions, long expires) {
+			_permissions = permissions;
+			_expires = expires;
+		}
+	} // class CachedPermissions
 }
@@ -17,6 +17,7 @@ package service.tut.pori.backends;
 
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -39,6 +40,7 @@ import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserEvent.EventType;
 import core.tut.pori.users.UserGroup.Permission;
 import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.ListUtils;
 
 /**
  * core methods for handling back ends
@@ -93,10 +95,10 @@ public final class BackendsCore {
 	 * @return true if the operation was success. Note that failure means that the permission was denied (this could also mean that the back end did not exist).
 	 */
 	public static boolean deleteBackend(UserIdentity authenticatedUser, long[] backendIds) {
-		BackendDAO bDAO = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class);
+		Map<Long, Set<UserPermission>> permissions = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class).getBackendPermissions(ListUtils.createList(backendIds), authenticatedUser);
 		for(long backendId : backendIds){
-			Set<UserPermission> permissions = bDAO.getBackendPermissions(backendId, authenticatedUser);
-			if(permissions == null || !permissions.contains(UserPermission.MODIFY_BACK_ENDS)){
+			Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+			if(p == null || !p.contains(UserPermission.MODIFY_BACK_ENDS)){
 				LOGGER.warn("Permission denied for user, id: "+authenticatedUser.getUserId()+", for back end, id: "+backendId);
 				return false;
 			}
@@ -289,9 +291,10 @@ public final class BackendsCore {
 				return false;
 			}
 		}
+		Map<Long, Set<UserPermission>> permissions = bDAO.getBackendPermissions(ListUtils.createList(backendIds), authenticatedUser);
 		for(long backendId : backendIds){
-			Set<UserPermission> permissions = bDAO.getBackendPermissions(backendId, authenticatedUser);
-			if(permissions == null || !permissions.contains(UserPermission.MODIFY_BACK_ENDS)){
+			Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+			if(p == null || !p.contains(UserPermission.MODIFY_BACK_ENDS)){
 				LOGGER.debug("Permission denied for user, id: "+authenticatedUser.getUserId()+", for back end, id: "+backendId);
 				return false;
 			}
@@ -377,9 +380,10 @@ public final class BackendsCore {
 		if(ArrayUtils.isEmpty(backendIds)){ // if no ids are given, limit the search to the authenticated user
 			userIds = new long[]{authenticatedUser.getUserId()};
 		}else{ // otherwise, check that the user has permissions to retrieve the back end groups
+			Map<Long, Set<UserPermission>> permissions = bDAO.getBackendPermissions(ListUtils.createList(backendIds), authenticatedUser);
 			for(long backendId : backendIds){
-				Set<UserPermission> permissions = bDAO.getBackendPermissions(backendId, authenticatedUser);
-				if(permissions == null || !permissions.contains(UserPermission.READ_BACKENDS)){
+				Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+				if(p == null || !p.contains(UserPermission.READ_BACKENDS)){
 					throw new IllegalArgumentException("Back end, id: "+backendId+" does not exist, or permission was denied.");
 				}
 			}
@@ -402,6 +406,7 @@ public final class BackendsCore {
 			if(type == EventType.USER_REMOVED && event.getSource().equals(UserCore.class)){
 				UserIdentity userId = event.getUserId();
 				LOGGER.debug("Detected event of type "+type.name()+", removing back end groups for user, id: "+userId.getUserId());
+				ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class).removeCachedUserPermissions(userId);
 		
 				BackendGroupList groups = getBackendGroups(userId, null, new DataGroups(Definitions.DATA_GROUP_USERS), null);
 				if(BackendGroupList.isEmpty(groups)){
@@ -17,22 +17,35 @@ package service.tut.pori.tasks;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.quartz.JobBuilder;
+import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerBuilder;
 
+import core.tut.pori.context.ServiceInitializer;
 import core.tut.pori.http.Response;
 import core.tut.pori.utils.XMLFormatter;
+import service.tut.pori.tasks.TaskDAO.PendingDelivery;
 import service.tut.pori.tasks.datatypes.Task;
 import service.tut.pori.tasks.datatypes.TaskBackend;
 import service.tut.pori.tasks.datatypes.TaskBackend.Status;
@@ -40,72 +53,189 @@ import service.tut.pori.tasks.datatypes.TaskBackend.Status;
 /**
  * job for sending task to back ends and updating the back end status into the database
  * 
+ * The task is sent to all back ends concurrently using a shared connection pool. The deliveries are run by the system executor, and the job returns without waiting for the deliveries to finish, i.e. each delivery updates the back end status and schedules its own retry. Failed deliveries (connection errors, server errors and throttled requests) are retried with exponential back-off. The retry state is stored in the database, and the pending retries are re-scheduled on service start by calling {@link #schedulePendingDeliveries()}.
  */
 public class BackendTaskJob extends TaskJob {
+	private static final long DELIVERY_RETRY_DELAY = 30000; // in ms, the delay before the first retry, doubled for each subsequent retry
+	private static final long DELIVERY_RETRY_DELAY_MAX = 3600000; // in ms
+	private static final CloseableHttpClient HTTP_CLIENT;
+	private static final String JOB_KEY_ATTEMPT = "backendTaskJobAttempt";
+	private static final String JOB_KEY_BACKEND_ID = "backendTaskJobBackendId";
 	private static final Logger LOGGER = Logger.getLogger(BackendTaskJob.class);
+	private static final int MAX_CONNECTIONS = 100;
+	private static final int MAX_CONNECTIONS_PER_HOST = 5;
+	private static final int MAX_DELIVERY_ATTEMPTS = 5;
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	private static final int TIMEOUT_CONNECT = 10000; // in ms
+	private static final int TIMEOUT_CONNECTION_REQUEST = 60000; // in ms, how long to wait for a free connection from the pool
+	private static final int TIMEOUT_SOCKET = 30000; // in ms
+	private int _attempt = 1;
+	private Long _backendId = null;
 	private XMLFormatter _formatter = null;
+	static{
+		PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+		manager.setMaxTotal(MAX_CONNECTIONS);
+		manager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+		HTTP_CLIENT = HttpClients.custom()
+				.setConnectionManager(manager)
+				.setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(TIMEOUT_CONNECT).setConnectionRequestTimeout(TIMEOUT_CONNECTION_REQUEST).setSocketTimeout(TIMEOUT_SOCKET).build())
+				.disableAutomaticRetries() // retries are handled by re-scheduling the job
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+	}
 	
 	@Override
 	protected boolean initialize(JobExecutionContext context) {
 		_formatter = new XMLFormatter();
+		JobDataMap data = context.getMergedJobDataMap();
+		if(data.containsKey(JOB_KEY_BACKEND_ID)){
+			_backendId = data.getLong(JOB_KEY_BACKEND_ID);
+		}
+		if(data.containsKey(JOB_KEY_ATTEMPT)){
+			_attempt = data.getInt(JOB_KEY_ATTEMPT);
+		}
 		return super.initialize(context);
 	}
 	
 	@Override
 	protected void executeTask() {
-		try (CloseableHttpClient client = HttpClients.createDefault()) {
+		try {
 			String taskId = getTaskId();
-			TaskDAO taskDAO = getTaskDAO();
+			ExecutorService executor = ServiceInitializer.getExecutorHandler().getExecutor();
 			for(TaskBackend backend : getBackends()){
 				Long backendId = backend.getBackendId();
+				if(_backendId != null && !_backendId.equals(backendId)){ // this is a retry for a single back end
+					continue;
+				}
 				if(!backend.isEnabled()){
 					LOGGER.warn("Ignoring disabled back end, id: "+backendId+" for task, id: "+taskId);
+					clearRetry(backendId);
 					continue;
 				}
-				String analysisUri = backend.getAnalysisUri();
-				if(StringUtils.isBlank(analysisUri)){ // this is not necessarily an error (or a problem)
+				if(StringUtils.isBlank(backend.getAnalysisUri())){ // this is not necessarily an error (or a problem)
 					LOGGER.debug("Ignored back end that does not have analysis uri defined, id: "+backendId+" for task, id: "+taskId);
+					clearRetry(backendId);
 					continue;
 				}
-
-				Task task = taskDAO.getTask(backendId, backend.getDefaultTaskDataGroups(), null, taskId);
-				String url = analysisUri+Definitions.METHOD_ADD_TASK;
-				HttpPost taskRequest = new HttpPost(url);
-				taskRequest.setHeader("Content-Type", "text/xml; charset=UTF-8");
-				taskRequest.setEntity(new StringEntity((_formatter).toString(task), core.tut.pori.http.Definitions.ENCODING_UTF8));
 				
-				LOGGER.debug("Task, id: "+taskId+", back-end id: "+backendId+". Sending "+Definitions.METHOD_ADD_TASK+" to URL: "+url);
-				try(CloseableHttpResponse response = client.execute(taskRequest)){
-					StatusLine sl = response.getStatusLine();
-					int sc = sl.getStatusCode();
-					LOGGER.debug("Back end, id: "+backendId+" responded to task, id: "+taskId+" : "+sc+" "+sl.getReasonPhrase());
-					
-					if(sc < 200 || sc >= 300){
-						backend.setStatus(Status.ERROR);
-					}else{
-						backend.setStatus(Status.EXECUTING);
-					}
-					
-					Response r = parseResponse(response);
-					if(r == null){
-						LOGGER.warn("Failed to parse response from back end, id: "+backendId+", task, id: "+taskId);
-						backend.setStatus(Status.UNKNOWN);
-					}else{
-						core.tut.pori.http.Response.Status status = r.getStatus();
-						backend.setMessage((status == null ? "null : " : status.name()+ " : ")+r.getMessage());
-					}			
-				} catch (IOException ex) {
-					LOGGER.error(ex, ex);
-					backend.setStatus(Status.ERROR);
-					backend.setMessage(Definitions.METHOD_ADD_TASK+" failed for url: "+url);
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								deliver(backend);
+							} catch (Throwable ex) { // nothing waits for the delivery, so log all errors here
+								LOGGER.error(ex, ex);
+							}
+						}
+					});
+				} catch (RejectedExecutionException ex) { // the executor is saturated, do not block the scheduler thread, but handle this as a failed attempt
+					LOGGER.warn("Executor rejected delivery for back end, id: "+backendId+", task, id: "+taskId);
+					backend.setMessage(Definitions.METHOD_ADD_TASK+" failed: too many pending deliveries.");
+					deliveryFinished(backend, true);
 				}
-				taskDAO.statusUpdated(backend, taskId); // update new status for the back end
 			}
 		}catch (Throwable ex) {	// catch all exceptions to prevent re-scheduling on error
 			LOGGER.error(ex, ex);
 		}
 	}
 	
+	/**
+	 * Send the task to the given back end and update the back end status into the database. If the delivery fails with a recoverable error, a retry is scheduled.
+	 * 
+	 * @param backend
+	 */
+	private void deliver(TaskBackend backend) {
+		String taskId = getTaskId();
+		Long backendId = backend.getBackendId();
+		TaskDAO taskDAO = getTaskDAO();
+		Task task = taskDAO.getTask(backendId, backend.getDefaultTaskDataGroups(), null, taskId);
+		if(task == null){
+			LOGGER.warn("Task, id: "+taskId+" not found for back end, id: "+backendId);
+			clearRetry(backendId);
+			return;
+		}
+		String url = backend.getAnalysisUri()+Definitions.METHOD_ADD_TASK;
+		HttpPost taskRequest = new HttpPost(url);
+		taskRequest.setHeader("Content-Type", "text/xml; charset=UTF-8");
+		taskRequest.setEntity(new StringEntity(_formatter.toString(task), core.tut.pori.http.Definitions.ENCODING_UTF8));
+		
+		boolean retry = false;
+		LOGGER.debug("Task, id: "+taskId+", back-end id: "+backendId+". Sending "+Definitions.METHOD_ADD_TASK+" to URL: "+url+", attempt: "+_attempt);
+		try(CloseableHttpResponse response = HTTP_CLIENT.execute(taskRequest)){
+			StatusLine sl = response.getStatusLine();
+			int sc = sl.getStatusCode();
+			LOGGER.debug("Back end, id: "+backendId+" responded to task, id: "+taskId+" : "+sc+" "+sl.getReasonPhrase());
+			
+			if(sc >= HttpStatus.SC_INTERNAL_SERVER_ERROR || sc == SC_TOO_MANY_REQUESTS){
+				EntityUtils.consumeQuietly(response.getEntity()); // release the connection back to the pool
+				retry = true;
+				backend.setMessage(Definitions.METHOD_ADD_TASK+" failed for url: "+url+" : "+sc+" "+sl.getReasonPhrase());
+			}else{
+				if(sc < 200 || sc >= 300){
+					backend.setStatus(Status.ERROR);
+				}else{
+					backend.setStatus(Status.EXECUTING);
+				}
+				
+				Response r = parseResponse(response);
+				if(r == null){
+					LOGGER.warn("Failed to parse response from back end, id: "+backendId+", task, id: "+taskId);
+					backend.setStatus(Status.UNKNOWN);
+				}else{
+					core.tut.pori.http.Response.Status status = r.getStatus();
+					backend.setMessage((status == null ? "null : " : status.name()+ " : ")+r.getMessage());
+				}
+			}
+		} catch (IOException ex) {
+			LOGGER.error(ex, ex);
+			retry = true;
+			backend.setMessage(Definitions.METHOD_ADD_TASK+" failed for url: "+url);
+		}
+		deliveryFinished(backend, retry);
+	}
+	
+	/**
+	 * Update the back end status into the database, and schedule a retry if requested and the maximum number of attempts has not been reached.
+	 * 
+	 * @param backend
+	 * @param retry true if the delivery failed with a recoverable error
+	 */
+	private void deliveryFinished(TaskBackend backend, boolean retry) {
+		String taskId = getTaskId();
+		Long backendId = backend.getBackendId();
+		TaskDAO taskDAO = getTaskDAO();
+		if(retry){
+			if(_attempt < MAX_DELIVERY_ATTEMPTS){
+				long delay = Math.min(DELIVERY_RETRY_DELAY << (_attempt - 1), DELIVERY_RETRY_DELAY_MAX);
+				Date nextDelivery = new Date(System.currentTimeMillis() + delay);
+				backend.setStatus(Status.NOT_STARTED);
+				taskDAO.statusUpdated(backend, taskId);
+				taskDAO.setDeliveryRetry(taskId, backendId, _attempt, nextDelivery);
+				if(scheduleDelivery(taskId, backendId, _attempt + 1, nextDelivery)){
+					LOGGER.debug("Delivery for task, id: "+taskId+" to back end, id: "+backendId+" failed, retrying at "+nextDelivery);
+					return;
+				}
+			}else{
+				LOGGER.warn("Giving up delivery for task, id: "+taskId+" to back end, id: "+backendId+" after "+_attempt+" attempts.");
+			}
+			backend.setStatus(Status.ERROR);
+		}
+		taskDAO.statusUpdated(backend, taskId); // update new status for the back end
+		clearRetry(backendId);
+	}
+	
+	/**
+	 * clear the stored retry state for the back end if this job is a retry
+	 * 
+	 * @param backendId
+	 */
+	private void clearRetry(Long backendId) {
+		if(_attempt > 1){
+			getTaskDAO().setDeliveryRetry(getTaskId(), backendId, 0, null);
+		}
+	}
+	
 	/**
 	 * 
 	 * @param response
@@ -141,4 +271,40 @@ public class BackendTaskJob extends TaskJob {
 	public static JobBuilder getBuilder(Task task)  throws IllegalArgumentException {
 		return getBuilder(task, BackendTaskJob.class);
 	}
+	
+	/**
+	 * 
+	 * @param taskId
+	 * @param backendId
+	 * @param attempt the number of the delivery attempt
+	 * @param startAt
+	 * @return true if the delivery was scheduled
+	 */
+	private static boolean scheduleDelivery(String taskId, Long backendId, int attempt, Date startAt) {
+		JobBuilder jb = getBuilder(taskId, BackendTaskJob.class).usingJobData(JOB_KEY_BACKEND_ID, backendId).usingJobData(JOB_KEY_ATTEMPT, attempt);
+		try {
+			ServiceInitializer.getExecutorHandler().getScheduler().scheduleJob(jb.build(), TriggerBuilder.newTrigger().startAt(startAt).build());
+			return true;
+		} catch (SchedulerException ex) {
+			LOGGER.error(ex, ex);
+			return false;
+		}
+	}
+	
+	/**
+	 * Re-schedule all deliveries waiting for a retry. This should be called once on service start, as the scheduled jobs are not persisted over restarts.
+	 */
+	static void schedulePendingDeliveries() {
+		List<PendingDelivery> deliveries = ServiceInitializer.getDAOHandler().getDAO(TaskDAO.class).getPendingDeliveries();
+		if(deliveries == null){
+			LOGGER.debug("No pending deliveries.");
+			return;
+		}
+		Date now = new Date();
+		for(PendingDelivery delivery : deliveries){
+			Date nextDelivery = delivery.getNextDelivery();
+			scheduleDelivery(delivery.getTaskId(), delivery.getBackendId(), delivery.getAttempts() + 1, (nextDelivery.before(now) ? now : nextDelivery));
+		}
+		LOGGER.debug("Re-scheduled "+deliveries.size()+" pending deliveries.");
+	}
 }
@@ -17,12 +17,15 @@ package service.tut.pori.tasks;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -30,6 +33,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.log4j.Logger;
 import org.quartz.JobBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -54,6 +58,7 @@ import core.tut.pori.http.parameters.DataGroups;
 import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.ListUtils;
 import service.tut.pori.backends.BackendDAO;
 import service.tut.pori.backends.datatypes.Backend;
 import service.tut.pori.backends.datatypes.BackendList;
@@ -73,6 +78,8 @@ import service.tut.pori.tasks.utils.TaskUtils;
  */
 public class TaskDAO extends SQLDAO {
 	private static final Logger LOGGER = Logger.getLogger(TaskDAO.class);
+	private static final int MAX_STATUS_UPDATES = 500;
+	private static final int MAX_TASK_IDS = 500;
 	/* table names */
 	private static final String TABLE_TASKS = DATABASE+".tasks";
 	private static final String TABLE_TASKS_BACKENDS = DATABASE+".tasks_backends";
@@ -81,9 +88,11 @@ public class TaskDAO extends SQLDAO {
 	private static final String COLUMN_BACKEND_ID = "backend_id";
 	private static final String COLUMN_DAO_CLASS = "dao_class";
 	private static final String COLUMN_DATA_VISIBILITY = "data_visibility";
+	private static final String COLUMN_DELIVERY_ATTEMPTS = "delivery_attempts";
 	private static final String COLUMN_DESCRIPTION = "description";
 	private static final String COLUMN_MESSAGE = "message";
 	private static final String COLUMN_NAME = "name";
+	private static final String COLUMN_NEXT_DELIVERY = "next_delivery";
 	private static final String COLUMN_ROW_CREATED_WITH_TABLE_NAME = TABLE_TASKS+"."+COLUMN_ROW_CREATED;
 	private static final String COLUMN_STATE = "state";
 	private static final String COLUMN_STATUS = "status";
@@ -93,6 +102,8 @@ public class TaskDAO extends SQLDAO {
 	/* sql */
 	private static final String[] SQL_COLUMNS_TASK = {COLUMN_USER_ID, COLUMN_TASK_ID, COLUMN_DAO_CLASS, COLUMN_NAME, COLUMN_DESCRIPTION, COLUMN_DATA_VISIBILITY, COLUMN_STATE, COLUMN_ROW_CREATED};
 	private static final String[] SQL_COLUMNS_TASK_BACKEND = {COLUMN_BACKEND_ID, COLUMN_STATUS, COLUMN_MESSAGE};
+	private static final String[] SQL_COLUMNS_TASK_BACKENDS = {COLUMN_TASK_ID, COLUMN_BACKEND_ID, COLUMN_STATUS, COLUMN_MESSAGE};
+	private static final String[] SQL_COLUMNS_TASK_TYPES = {COLUMN_TASK_ID, COLUMN_TASK_TYPE};
 	private static final String[] SQL_COLUMNS_TASK_LIST = {COLUMN_TASK_ID_WITH_TABLE_NAME, TABLE_TASKS+"."+COLUMN_USER_ID, TABLE_TASKS+"."+COLUMN_STATE, TABLE_TASKS+"."+COLUMN_NAME, TABLE_TASKS+"."+COLUMN_DESCRIPTION, TABLE_TASKS+"."+COLUMN_ROW_CREATED, TABLE_TASKS+"."+COLUMN_ROW_UPDATED};
 	
 	private static final String SQL_DELETE_TASK = "DELETE FROM "+TABLE_TASKS+" WHERE "+COLUMN_TASK_ID+"=?";
@@ -111,6 +122,8 @@ public class TaskDAO extends SQLDAO {
 	private static final String SQL_GET_TASK = "SELECT "+TABLE_TASKS+"."+COLUMN_USER_ID+", "+TABLE_TASKS+"."+COLUMN_NAME+", "+TABLE_TASKS+"."+COLUMN_DESCRIPTION+", "+TABLE_TASKS+"."+COLUMN_DATA_VISIBILITY+", "+TABLE_TASKS+"."+COLUMN_STATE+", "+TABLE_TASKS+"."+COLUMN_ROW_UPDATED+", "+TABLE_TASKS+"."+COLUMN_ROW_CREATED+" FROM "+TABLE_TASKS+" LEFT JOIN "+TABLE_TASKS_BACKENDS+" ON "+TABLE_TASKS_BACKENDS+"."+COLUMN_TASK_ID+"="+COLUMN_TASK_ID_WITH_TABLE_NAME+" WHERE "+TABLE_TASKS_BACKENDS+"."+COLUMN_TASK_ID+"=? AND "+TABLE_TASKS_BACKENDS+"."+COLUMN_BACKEND_ID+"=?";
 	private static final int[] SQL_GET_TASK_SQL_TYPES = {SQLType.STRING.toInt(), SQLType.LONG.toInt()};
 	
+	private static final String SQL_GET_PENDING_DELIVERIES = "SELECT "+COLUMN_TASK_ID+", "+COLUMN_BACKEND_ID+", "+COLUMN_DELIVERY_ATTEMPTS+", "+COLUMN_NEXT_DELIVERY+" FROM "+TABLE_TASKS_BACKENDS+" WHERE "+COLUMN_NEXT_DELIVERY+" IS NOT NULL";
+	
 	private static final String SQL_GET_TASK_IDS_FOR_USER_ID = "SELECT "+COLUMN_TASK_ID+" FROM "+TABLE_TASKS+" WHERE "+COLUMN_USER_ID+"=?";
 	private static final int[] SQL_GET_TASK_IDS_FOR_USER_ID_SQL_TYPES = {SQLType.LONG.toInt()};
 	
@@ -131,6 +144,9 @@ public class TaskDAO extends SQLDAO {
 	private static final String SQL_UPDATE_TASK_BACKEND = "UPDATE "+TABLE_TASKS_BACKENDS+" SET "+COLUMN_STATUS+"=?, "+COLUMN_MESSAGE+"=?, "+COLUMN_ROW_UPDATED+"=NOW() WHERE "+COLUMN_TASK_ID+"=? AND "+COLUMN_BACKEND_ID+"=?";
 	private static final int[] SQL_UPDATE_TASK_BACKEND_SQL_TYPES = {SQLType.INTEGER.toInt(), SQLType.STRING.toInt(), SQLType.STRING.toInt(), SQLType.LONG.toInt()};
 	
+	private static final String SQL_UPDATE_DELIVERY_RETRY = "UPDATE "+TABLE_TASKS_BACKENDS+" SET "+COLUMN_DELIVERY_ATTEMPTS+"=?, "+COLUMN_NEXT_DELIVERY+"=? WHERE "+COLUMN_TASK_ID+"=? AND "+COLUMN_BACKEND_ID+"=?";
+	private static final int[] SQL_UPDATE_DELIVERY_RETRY_SQL_TYPES = {SQLType.INTEGER.toInt(), SQLType.TIMESTAMP.toInt(), SQLType.STRING.toInt(), SQLType.LONG.toInt()};
+	
 	private static final String SQL_UPDATE_TASK_TIMESTAMP = "UPDATE "+TABLE_TASKS+" SET "+COLUMN_ROW_UPDATED+"=NOW() WHERE "+COLUMN_TASK_ID+"=?";
 	
 	private static final String SQL_GET_TASK_OWNER_VISIBILITY = "SELECT "+COLUMN_COUNT+", "+COLUMN_USER_ID+", "+COLUMN_DATA_VISIBILITY+" FROM "+TABLE_TASKS+" WHERE "+COLUMN_TASK_ID+"=?";
@@ -140,6 +156,8 @@ public class TaskDAO extends SQLDAO {
 				
 	@Autowired
 	private BackendDAO _backendDAO = null;
+	private final ArrayList<StatusUpdate> _pendingStatusUpdates = new ArrayList<>();
+	private boolean _statusFlushing = false; // guarded by _pendingStatusUpdates
 	
 	/**
 	 * If the task has the task type of {@value service.tut.pori.tasks.Definitions#TASK_TYPE_VIRTUAL}, no permission checks for the back ends will be made
@@ -178,12 +196,12 @@ public class TaskDAO extends SQLDAO {
 				return permissions;
 			}
 			
-			for(Long backendId : backendIds) { // return what permissions the user has through accessing the task using any of the associated back ends
-				Set<UserPermission> backendPermissions = _backendDAO.getBackendPermissions(backendId, userId);
-				if(backendPermissions != null){
-					permissions.setBackendPermissions(backendId, backendPermissions);
-				} // if
-			} // for
+			Map<Long, Set<UserPermission>> backendPermissions = _backendDAO.getBackendPermissions(backendIds, userId);
+			if(backendPermissions != null){ // return what permissions the user has through accessing the task using any of the associated back ends
+				for(Entry<Long, Set<UserPermission>> e : backendPermissions.entrySet()) {
+					permissions.setBackendPermissions(e.getKey(), e.getValue());
+				}
+			}
 		}
 		
 		return permissions;
@@ -248,12 +266,11 @@ public class TaskDAO extends SQLDAO {
 			return;
 		}
 		
-		JdbcTemplate t = getJdbcTemplate();
-		Object[] ob = {taskId, null};
+		ArrayList<Object[]> args = new ArrayList<>(taskTypes.size());
 		for(String taskType : taskTypes) {
-			ob[1] = taskType;
-			t.update(SQL_INSERT_TASK_TYPE, ob, SQL_INSERT_TASK_TYPE_SQL_TYPES);
+			args.add(new Object[]{taskId, taskType});
 		}
+		getJdbcTemplate().batchUpdate(SQL_INSERT_TASK_TYPE, args, SQL_INSERT_TASK_TYPE_SQL_TYPES);
 	}
 	
 	/**
@@ -308,6 +325,7 @@ public class TaskDAO extends SQLDAO {
 
 		Task task = extractTask(rows.iterator().next());
 		task.addTaskId(taskId);
+		task.setTaskTypes(getTaskTypes(taskId));
 		if(DataGroups.hasDataGroup(DataGroups.DATA_GROUP_ALL, dataGroups)){
 			LOGGER.debug("Resolving back ends for task, id: "+taskId);
 			task.setBackends(getBackends(limits, taskId));
@@ -366,10 +384,27 @@ public class TaskDAO extends SQLDAO {
 		}
 		
 		List<Task> tasks = new ArrayList<>(rows.size());
+		List<String> taskIds = new ArrayList<>(rows.size());
 		for(Map<String, Object> row : rows) {
 			Task task = extractTask(row);
-			task.setBackends(getBackends(limits, task.getTaskIds().iterator().next()));
 			tasks.add(task);
+			taskIds.add(task.getTaskIds().iterator().next());
+		}
+		
+		Map<String, List<TaskBackend>> backends = new HashMap<>(taskIds.size());
+		Map<String, Set<String>> taskTypes = new HashMap<>(taskIds.size());
+		for(int i=0, size=taskIds.size();i<size;i+=MAX_TASK_IDS){ // resolve back ends and task types for a chunk of tasks at a time
+			List<String> ids = taskIds.subList(i, Math.min(i+MAX_TASK_IDS, size));
+			getBackends(limits, ids, backends);
+			getTaskTypes(ids, taskTypes);
+		}
+		resolveBackendDetails(backends.values());
+		
+		for(Task task : tasks){
+			String taskId = task.getTaskIds().iterator().next();
+			List<TaskBackend> taskBackends = backends.get(taskId);
+			task.setBackends((taskBackends == null || taskBackends.isEmpty() ? null : taskBackends));
+			task.setTaskTypes(taskTypes.get(taskId));
 		}
 		
 		TaskList list = new TaskList();
@@ -423,8 +458,6 @@ public class TaskDAO extends SQLDAO {
 			}
 		}
 		
-		task.setTaskTypes(getTaskTypes(taskId));
-		
 		return task;
 	}
 	
@@ -451,6 +484,31 @@ public class TaskDAO extends SQLDAO {
 		}
 	}
 	
+	/**
+	 * Resolve task types for all of the given tasks using a single query.
+	 * 
+	 * @param taskIds
+	 * @param taskTypes the task types will be added to this map, tasks without task types are not added
+	 */
+	private void getTaskTypes(Collection<String> taskIds, Map<String, Set<String>> taskTypes){
+		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_TASKS_TYPES);
+		sql.addSelectColumns(SQL_COLUMNS_TASK_TYPES);
+		sql.addWhereClause(new AndClause(COLUMN_TASK_ID, taskIds, SQLType.STRING));
+		getJdbcTemplate().query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				String taskId = set.getString(1);
+				Set<String> types = taskTypes.get(taskId);
+				if(types == null){
+					types = new HashSet<>();
+					taskTypes.put(taskId, types);
+				}
+				types.add(set.getString(2));
+			}
+		});
+	}
+	
 	/**
 	 * 
 	 * @param limits 
@@ -470,37 +528,102 @@ public class TaskDAO extends SQLDAO {
 			return null;
 		}
 		
-		int size = rows.size();
-		List<TaskBackend> backends = new ArrayList<>(size);
-		long[] backendIds = new long[size];
+		List<TaskBackend> backends = new ArrayList<>(rows.size());
 		for(Map<String, Object> row : rows){
-			TaskBackend backend = extractBackend(row);
-			backends.add(backend);
-			backendIds[--size] = backend.getBackendId();	//get id and put to array
+			backends.add(extractBackend(row));
+		}
+		resolveBackendDetails(Collections.singletonList(backends));
+		return (backends.isEmpty() ? null : backends);
+	}
+	
+	/**
+	 * Resolve back ends for all of the given tasks using a single query. The limits are applied separately for each task.
+	 * 
+	 * Note: this does not resolve the back end details, use {@link #resolveBackendDetails(Collection)} for the returned back ends.
+	 * 
+	 * @param limits
+	 * @param taskIds
+	 * @param backends the back ends will be added to this map, tasks without back ends are not added
+	 */
+	private void getBackends(Limits limits, Collection<String> taskIds, Map<String, List<TaskBackend>> backends) {
+		SQLSelectBuilder sql = new SQLSelectBuilder(TABLE_TASKS_BACKENDS);
+		sql.addSelectColumns(SQL_COLUMNS_TASK_BACKENDS);
+		sql.addWhereClause(new AndClause(COLUMN_TASK_ID, taskIds, SQLType.STRING));
+		sql.addOrderBy(COLUMN_BACKEND_ID, OrderDirection.ASCENDING);
+		
+		int startItem = (limits == null ? 0 : limits.getStartItem(service.tut.pori.backends.Definitions.ELEMENT_BACKEND_LIST));
+		int maxItems = (limits == null ? Limits.DEFAULT_MAX_ITEMS : limits.getMaxItems(service.tut.pori.backends.Definitions.ELEMENT_BACKEND_LIST));
+		Map<String, MutableInt> positions = new HashMap<>(taskIds.size());
+		getJdbcTemplate().query(sql.toSQLString(), sql.getValues(), sql.getValueTypes(), new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				String taskId = set.getString(1);
+				MutableInt position = positions.get(taskId);
+				if(position == null){
+					position = new MutableInt();
+					positions.put(taskId, position);
+				}
+				int p = position.intValue();
+				position.increment();
+				if(p < startItem || p - startItem >= maxItems){
+					return;
+				}
+				
+				TaskBackend backend = new TaskBackend();
+				backend.setBackendId(set.getLong(2));
+				backend.setStatus(Status.fromInt(set.getInt(3)));
+				backend.setMessage(set.getString(4));
+				List<TaskBackend> taskBackends = backends.get(taskId);
+				if(taskBackends == null){
+					taskBackends = new ArrayList<>();
+					backends.put(taskId, taskBackends);
+				}
+				taskBackends.add(backend);
+			}
+		});
+	}
+	
+	/**
+	 * Resolve and set the back end details (analysis URI, default data groups and enabled status) for the given back ends. Back ends which no longer exist are removed from the lists.
+	 * 
+	 * @param backends
+	 */
+	private void resolveBackendDetails(Collection<List<TaskBackend>> backends) {
+		HashSet<Long> backendIds = new HashSet<>();
+		for(List<TaskBackend> taskBackends : backends){
+			for(TaskBackend backend : taskBackends){
+				backendIds.add(backend.getBackendId());
+			}
 		}
-		BackendList list = _backendDAO.getBackends(backendIds, null, null);
+		if(backendIds.isEmpty()){
+			LOGGER.debug("No back ends.");
+			return;
+		}
+		
+		BackendList list = _backendDAO.getBackends(ListUtils.toPrimitive(backendIds), null, null);
+		HashMap<Long, Backend> resolvedBackends = new HashMap<>(backendIds.size());
 		if(BackendList.isEmpty(list)){
 			LOGGER.warn("Retrieved backend list was empty.");
-			return null;
+		}else{
+			for(Backend backend : list.getBackends()){
+				resolvedBackends.put(backend.getBackendId(), backend);
+			}
 		}
-		List<Backend> resolvedBackends = list.getBackends();
-		for(Iterator<TaskBackend> iter = backends.iterator(); iter.hasNext();){
-			TaskBackend taskBackend = iter.next();
-			Long backendId = taskBackend.getBackendId();
-			for(Backend backend : resolvedBackends){
-				if(backendId.equals(backend.getBackendId())){
+		
+		for(List<TaskBackend> taskBackends : backends){
+			for(Iterator<TaskBackend> iter = taskBackends.iterator(); iter.hasNext();){
+				TaskBackend taskBackend = iter.next();
+				Backend backend = resolvedBackends.get(taskBackend.getBackendId());
+				if(backend == null){
+					iter.remove();
+				}else{
 					taskBackend.setAnalysisUri(backend.getAnalysisUri());
 					taskBackend.setDefaultTaskDataGroups(backend.getDefaultTaskDataGroups());
 					taskBackend.setEnabled(backend.isEnabled());
-					taskBackend = null;
-					break;
 				}
 			}
-			if(taskBackend != null){
-				iter.remove();
-			}
 		}
-		return backends;
 	}
 	
 	/**
@@ -572,22 +695,171 @@ public class TaskDAO extends SQLDAO {
 	
 	/**
 	 * update the task status for the given task using the given status information
+	 * 
+	 * Concurrent status updates are coalesced: the updates queued whilst a previous batch is being written are written together in a single transaction by the next caller. The method returns after the update has been committed. If the batch fails, the updates are written separately, and only the failed updates throw.
+	 * 
+	 * Note: the update is not written in the caller's transaction, and thus this method should not be called within a transaction that has modified the same rows.
 	 *  
 	 * @param backend
 	 * @param taskId
 	 * @return true on success, false on failure (i.e. if the task does not exist or the back end is not associated with the task)
 	 */
 	public boolean statusUpdated(TaskBackend backend, String taskId) {
-		if(getJdbcTemplate().update(SQL_UPDATE_TASK_BACKEND, new Object[]{backend.getStatus().toInt(), backend.getMessage(), taskId, backend.getBackendId()}, SQL_UPDATE_TASK_BACKEND_SQL_TYPES) != 1){ // this will force update the row_updated column, so it should always return 1 if the back end exists for the given task
-			LOGGER.warn("The back end, id: "+backend.getBackendId()+" does not exist for task, id: "+taskId);
-			return false;
+		StatusUpdate update = new StatusUpdate(backend, taskId);
+		synchronized (_pendingStatusUpdates) {
+			_pendingStatusUpdates.add(update);
+		}
+		
+		boolean interrupted = false;
+		while(!update._done){
+			List<StatusUpdate> updates = null;
+			synchronized (_pendingStatusUpdates) {
+				if(update._done){
+					break;
+				}else if(_statusFlushing){ // wait for the current flush to finish, the updates added meanwhile will be written by the next flush
+					try {
+						_pendingStatusUpdates.wait();
+					} catch (InterruptedException ex) { // the update has already been queued, so keep waiting until it has been written
+						interrupted = true;
+					}
+					continue;
+				}
+				_statusFlushing = true;
+				List<StatusUpdate> pending = _pendingStatusUpdates.subList(0, Math.min(_pendingStatusUpdates.size(), MAX_STATUS_UPDATES));
+				updates = new ArrayList<>(pending);
+				pending.clear();
+			}
+			
+			try {
+				flushStatusUpdates(updates);
+			} finally {
+				synchronized (_pendingStatusUpdates) {
+					_statusFlushing = false;
+					_pendingStatusUpdates.notifyAll();
+				}
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
 		}
-		if(!updateTaskTimestamp(taskId)){ // this may or may not be an error
-			LOGGER.warn("Did not update time stamp for task, id: "+taskId+" on back end status update, back end id: "+backend.getBackendId());
+		
+		if(update._error != null){
+			throw update._error;
+		}else if(!update._updated){
+			LOGGER.warn("The back end, id: "+update._backendId+" does not exist for task, id: "+taskId);
+			return false;
 		}
 		return true;
 	}
 	
+	/**
+	 * Write the given status updates in a single transaction, and mark the updates as done.
+	 * 
+	 * If the transaction fails, the updates are re-written one at a time, so that the error is only reported to the callers of the updates that fail on their own.
+	 * 
+	 * @param updates
+	 */
+	private void flushStatusUpdates(List<StatusUpdate> updates) {
+		try {
+			writeStatusUpdates(updates);
+		} catch (RuntimeException ex) {
+			if(updates.size() == 1){
+				StatusUpdate update = updates.get(0);
+				update._updated = false;
+				update._error = ex;
+			}else{
+				LOGGER.warn("Failed to write "+updates.size()+" status updates, retrying separately.", ex);
+				for(StatusUpdate update : updates){
+					update._updated = false;
+					try {
+						writeStatusUpdates(Collections.singletonList(update));
+					} catch (RuntimeException ex1) {
+						update._updated = false;
+						update._error = ex1;
+					}
+				}
+			}
+		}
+		for(StatusUpdate update : updates){
+			update._done = true;
+		}
+	}
+	
+	/**
+	 * Write the given status updates in a single transaction, and set the updated flag of the updates.
+	 * 
+	 * @param updates
+	 * @throws RuntimeException on failure, in this case none of the updates were written
+	 */
+	private void writeStatusUpdates(List<StatusUpdate> updates) throws RuntimeException {
+		getTransactionTemplate().execute(new TransactionCallback<Void>() {
+
+			@Override
+			public Void doInTransaction(TransactionStatus status) {
+				ArrayList<Object[]> args = new ArrayList<>(updates.size());
+				for(StatusUpdate update : updates){
+					args.add(new Object[]{update._status, update._message, update._taskId, update._backendId});
+				}
+				JdbcTemplate t = getJdbcTemplate();
+				int[] counts = t.batchUpdate(SQL_UPDATE_TASK_BACKEND, args, SQL_UPDATE_TASK_BACKEND_SQL_TYPES);
+				
+				LinkedHashSet<String> taskIds = new LinkedHashSet<>(); // the order of the updates is kept to prevent unnecessary lock contention
+				for(int i=0;i<counts.length;++i){
+					StatusUpdate update = updates.get(i);
+					update._updated = (counts[i] == 1 || counts[i] == Statement.SUCCESS_NO_INFO); // this will force update the row_updated column, so it should always return 1 if the back end exists for the given task
+					if(update._updated){
+						taskIds.add(update._taskId);
+					}
+				}
+				
+				if(!taskIds.isEmpty()){
+					args.clear();
+					for(String taskId : taskIds){
+						args.add(new Object[]{taskId});
+					}
+					counts = t.batchUpdate(SQL_UPDATE_TASK_TIMESTAMP, args, SQL_TASK_ID_SQL_TYPE);
+					Iterator<String> iter = taskIds.iterator();
+					for(int i=0;i<counts.length;++i){
+						String taskId = iter.next();
+						if(counts[i] == 0){ // this may or may not be an error
+							LOGGER.warn("Did not update time stamp for task, id: "+taskId+" on back end status update.");
+						}
+					}
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Set the delivery retry state for the given back end of the given task.
+	 * 
+	 * @param taskId
+	 * @param backendId
+	 * @param attempts number of failed delivery attempts, 0 to clear the retry state
+	 * @param nextDelivery time of the next delivery attempt or null if no more attempts should be made
+	 * @return true if the state was updated, false if the back end does not exist for the given task
+	 */
+	public boolean setDeliveryRetry(String taskId, Long backendId, int attempts, Date nextDelivery) {
+		return (getJdbcTemplate().update(SQL_UPDATE_DELIVERY_RETRY, new Object[]{attempts, nextDelivery, taskId, backendId}, SQL_UPDATE_DELIVERY_RETRY_SQL_TYPES) == 1);
+	}
+	
+	/**
+	 * 
+	 * @return list of deliveries waiting for a retry or null if none
+	 */
+	public List<PendingDelivery> getPendingDeliveries() {
+		List<PendingDelivery> deliveries = new ArrayList<>();
+		getJdbcTemplate().query(SQL_GET_PENDING_DELIVERIES, new RowCallbackHandler() {
+			
+			@Override
+			public void processRow(ResultSet set) throws SQLException {
+				deliveries.add(new PendingDelivery(set.getString(COLUMN_TASK_ID), set.getLong(COLUMN_BACKEND_ID), set.getInt(COLUMN_DELIVERY_ATTEMPTS), set.getTimestamp(COLUMN_NEXT_DELIVERY)));
+			}
+		});
+		return (deliveries.isEmpty() ? null : deliveries);
+	}
+	
 	/**
 	 * convenience method for updating the main tasks table {@value SQLDAO#COLUMN_ROW_UPDATED} column.
 	 * 
@@ -608,14 +880,11 @@ public class TaskDAO extends SQLDAO {
 			LOGGER.warn("No back ends for task, id: "+taskId);
 			return;
 		}
-		JdbcTemplate t = getJdbcTemplate();
-		Object[] ob = {taskId, null, null, null};
+		ArrayList<Object[]> args = new ArrayList<>(backends.size());
 		for(TaskBackend tb : backends){
-			ob[1] = tb.getBackendId();
-			ob[2] = tb.getStatus().toInt();
-			ob[3] = tb.getMessage();
-			t.update(SQL_INSERT_TASK_BACKEND, ob, SQL_INSERT_TASK_BACKEND_SQL_TYPES);
+			args.add(new Object[]{taskId, tb.getBackendId(), tb.getStatus().toInt(), tb.getMessage()});
 		}
+		getJdbcTemplate().batchUpdate(SQL_INSERT_TASK_BACKEND, args, SQL_INSERT_TASK_BACKEND_SQL_TYPES);
 	}
 	
 	/**
@@ -670,4 +939,83 @@ public class TaskDAO extends SQLDAO {
 			return BackendTaskJob.getBuilder(this);
 		}
 	} // class TaskImpl
+	
+	/**
+	 * A queued back end status update.
+	 * 
+	 */
+	private static class StatusUpdate {
+		private Long _backendId = null;
+		private volatile boolean _done = false;
+		private RuntimeException _error = null;
+		private String _message = null;
+		private int _status = 0;
+		private String _taskId = null;
+		private boolean _updated = false;
+		
+		/**
+		 * 
+		 * @param backend
+		 * @param taskId
+		 */
+		private StatusUpdate(TaskBackend backend, String taskId) {
+			_backendId = backend.getBackendId();
+			_message = backend.getMessage();
+			_status = backend.getStatus().toInt();
+			_taskId = taskId;
+		}
+	} // class StatusUpdate
+	
+	/**
+	 * Details of a task delivery waiting for a retry.
+	 * 
+	 */
+	public static class PendingDelivery {
+		private int _attempts = 0;
+		private Long _backendId = null;
+		private Date _nextDelivery = null;
+		private String _taskId = null;
+		
+		/**
+		 * 
+		 * @param taskId
+		 * @param backendId
+		 * @param attempts
+		 * @param nextDelivery
+		 */
+		private PendingDelivery(String taskId, Long backendId, int attempts, Date nextDelivery) {
+			_taskId = taskId;
+			_backendId = backendId;
+			_attempts = attempts;
+			_nextDelivery = nextDelivery;
+		}
+
+		/**
+		 * @return number of failed delivery attempts
+		 */
+		public int getAttempts() {
+			return _attempts;
+		}
+
+		/**
+		 * @return the backendId
+		 */
+		public Long getBackendId() {
+			return _backendId;
+		}
+
+		/**
+		 * @return time of the next delivery attempt
+		 */
+		public Date getNextDelivery() {
+			return _nextDelivery;
+		}
+
+		/**
+		 * @return the taskId
+		 */
+		public String getTaskId() {
+			return _taskId;
+		}
+	} // class PendingDelivery
 }
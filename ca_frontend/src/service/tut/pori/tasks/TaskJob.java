@@ -118,9 +118,19 @@ public abstract class TaskJob implements Job {
 		if(taskIds == null || taskIds.size() != 1){
 			throw new IllegalArgumentException("Task id is missing, or multiple identifiers.");
 		}
+		return getBuilder(taskIds.iterator().next(), taskClass);
+	}
+	
+	/**
+	 * 
+	 * @param taskId
+	 * @param taskClass class of the task
+	 * @return job builder initialized with the given task identifier
+	 */
+	protected static JobBuilder getBuilder(String taskId, Class<? extends TaskJob> taskClass) {
 		JobBuilder jb = JobBuilder.newJob(taskClass);
 		JobDataMap data = new JobDataMap();
-		data.put(JOB_KEY_TASK_ID, taskIds.iterator().next());
+		data.put(JOB_KEY_TASK_ID, taskId);
 		jb.setJobData(data);
 		return jb;
 	}
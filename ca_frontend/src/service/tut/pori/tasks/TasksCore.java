@@ -17,6 +17,7 @@ package service.tut.pori.tasks;
 
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -24,6 +25,7 @@ import org.apache.log4j.Logger;
 import org.quartz.SchedulerException;
 import org.quartz.TriggerBuilder;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 import core.tut.pori.context.ServiceInitializer;
 import core.tut.pori.http.parameters.DataGroups;
@@ -31,6 +33,7 @@ import core.tut.pori.http.parameters.DateIntervalParameter.Interval;
 import core.tut.pori.http.parameters.Limits;
 import core.tut.pori.users.UserEvent.EventType;
 import core.tut.pori.users.UserIdentity;
+import core.tut.pori.utils.ListUtils;
 import service.tut.pori.backends.BackendDAO;
 import service.tut.pori.backends.BackendsCore;
 import service.tut.pori.backends.datatypes.BackendEvent;
@@ -101,10 +104,10 @@ public class TasksCore {
 		if(ArrayUtils.isEmpty(backendIdFilter)){ // use the current user as the filter, i.e. retrieve only tasks created by the authenticated user
 			userIds = new long[]{authenticatedUser.getUserId()};
 		}else{ // check that the user has access to the requested back ends
-			BackendDAO bDAO = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class);
+			Map<Long, Set<UserPermission>> permissions = ServiceInitializer.getDAOHandler().getDAO(BackendDAO.class).getBackendPermissions(ListUtils.createList(backendIdFilter), authenticatedUser);
 			for(long backendId : backendIdFilter){
-				Set<UserPermission> permissions = bDAO.getBackendPermissions(backendId, authenticatedUser);
-				if(permissions == null || !permissions.contains(UserPermission.AUTH_BACKENDS)){
+				Set<UserPermission> p = (permissions == null ? null : permissions.get(backendId));
+				if(p == null || !p.contains(UserPermission.AUTH_BACKENDS)){
 					throw new IllegalArgumentException("Back end, id: "+backendId+" does not exist or permission was denied.");
 				}
 			}
@@ -215,4 +218,19 @@ public class TasksCore {
 			}
 		}
 	} // class BackendListener
+	
+	/**
+	 * Event listener for context refresh, re-schedules the task deliveries waiting for a retry.
+	 * 
+	 * Automatically instantiated by Spring as a bean.
+	 */
+	@SuppressWarnings("unused")
+	private static class ContextRefreshedListener implements ApplicationListener<ContextRefreshedEvent>{
+
+		@Override
+		public void onApplicationEvent(ContextRefreshedEvent event) {
+			LOGGER.debug("Detected context refresh, scheduling pending task deliveries.");
+			BackendTaskJob.schedulePendingDeliveries();
+		}
+	} // class ContextRefreshedListener
 }
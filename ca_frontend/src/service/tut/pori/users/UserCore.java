@@ -21,6 +21,7 @@ import java.util.Set;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.context.ApplicationListener;
 
 import core.tut.pori.context.EventHandler;
 import core.tut.pori.context.ServiceInitializer;
@@ -28,6 +29,7 @@ import core.tut.pori.users.ExternalAccountConnection;
 import core.tut.pori.users.ExternalAccountConnection.UserServiceType;
 import core.tut.pori.users.GroupUserIdentity;
 import core.tut.pori.users.UserAuthority;
+import core.tut.pori.users.UserEvent;
 import core.tut.pori.users.UserEvent.EventType;
 import core.tut.pori.users.UserGroup;
 import core.tut.pori.users.UserGroup.Permission;
@@ -328,4 +330,23 @@ public class UserCore {
 		
 		return userDAO.modifyUserGroup(userGroup);
 	}
+	
+	/**
+	 * Event listener for user related events, used to invalidate the cached user details.
+	 * 
+	 * Automatically instantiated by Spring as a bean.
+	 */
+	@SuppressWarnings("unused")
+	private static class UserEventListener implements ApplicationListener<UserEvent>{
+
+		@Override
+		public void onApplicationEvent(UserEvent event) {
+			EventType type = event.getType();
+			if(type == EventType.USER_REMOVED || type == EventType.USER_MODIFIED){
+				UserIdentity userId = event.getUserId();
+				LOGGER.debug("Detected event of type "+type.name()+", removing cached details for user, id: "+userId.getUserId());
+				ServiceInitializer.getDAOHandler().getDAO(UserDAO.class).removeCachedUser(userId);
+			}
+		}
+	} // class UserEventListener
 }
@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -52,10 +54,15 @@ import core.tut.pori.users.UserIdentityList;
 
 /**
  * DAO for retrieving user details, and for creating new users. This class can also be used to modify existing users as well as list and modify user's external account connections.
+ * 
+ * The user details retrieved by user id and the results of permission checks are cached. The cache is invalidated by the modification methods of this class, and by the user events published through {@link core.tut.pori.context.EventHandler}.
+ * The cached details also expire after {@value #CACHE_TIMEOUT} ms in case a modification is made without invalidating the cache.
  *
  */
 public class UserDAO extends SQLDAO{
+	private static final long CACHE_TIMEOUT = 300000; // in ms, the maximum time the user details and permissions are cached
 	private static final Logger LOGGER = Logger.getLogger(UserDAO.class);
+	private static final int MAX_CACHED_USERS = 10000;
 	/* tables */
 	private static final String TABLE_GROUPS = DATABASE+".groups";
 	private static final String TABLE_GROUPS_PERMISSIONS = DATABASE+".groups_permissions";
@@ -78,8 +85,8 @@ public class UserDAO extends SQLDAO{
 	private static final String SQL_ADD_USER_ROLE = "INSERT INTO "+TABLE_USERS_ROLES+" ("+COLUMN_USER_ID+", "+COLUMN_ROLE+", "+COLUMN_ROW_CREATED+") VALUES (?,?,NOW()) ON DUPLICATE KEY UPDATE "+COLUMN_ROW_UPDATED+"=NOW()";
 	private static final int[] SQL_ADD_USER_ROLE_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.STRING.toInt()};
 	
-	private static final String SQL_CHECK_PERMISSION = "SELECT "+COLUMN_COUNT+" FROM "+TABLE_GROUPS_PERMISSIONS+" gp JOIN "+TABLE_GROUPS_PERMISSIONS+" gpj ON gpj."+COLUMN_GROUP_ID+"=gp."+COLUMN_GROUP_ID+" WHERE (gp."+COLUMN_USER_ID+"=? AND gp."+COLUMN_PERMISSION+"=?) AND gpj."+COLUMN_USER_ID+"=?";
-	private static final int[] SQL_CHECK_PERMISSION_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.INTEGER.toInt(), SQLType.LONG.toInt()};
+	private static final String SQL_GET_COMMON_PERMISSIONS = "SELECT DISTINCT gp."+COLUMN_PERMISSION+" FROM "+TABLE_GROUPS_PERMISSIONS+" gp JOIN "+TABLE_GROUPS_PERMISSIONS+" gpj ON gpj."+COLUMN_GROUP_ID+"=gp."+COLUMN_GROUP_ID+" WHERE gp."+COLUMN_USER_ID+"=? AND gpj."+COLUMN_USER_ID+"=?";
+	private static final int[] SQL_GET_COMMON_PERMISSIONS_SQL_TYPES = {SQLType.LONG.toInt(), SQLType.LONG.toInt()};
 
 	private static final String[] SQL_COLUMNS_ADD_GROUP = {COLUMN_NAME, COLUMN_DESCRIPTION, COLUMN_ROW_CREATED};
 	private static final String[] SQL_COLUMNS_ADD_USER = {COLUMN_USERNAME, COLUMN_PASSWORD_HASH, COLUMN_ROW_CREATED};
@@ -138,6 +145,10 @@ public class UserDAO extends SQLDAO{
 	
 	private static final String SQL_UPDATE_GROUP = "UPDATE "+TABLE_GROUPS+" SET "+COLUMN_NAME+"=?, "+COLUMN_DESCRIPTION+"=?, "+COLUMN_ROW_UPDATED+"=NOW() WHERE "+COLUMN_GROUP_ID+"=?";
 	private static final int[] SQL_UPDATE_GROUP_SQL_TYPES = {SQLType.STRING.toInt(), SQLType.STRING.toInt(), SQLType.LONG.toInt()};
+	
+	private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, CacheEntry<EnumSet<Permission>>>> _permissionCache = new ConcurrentHashMap<>(); // source user id -> target user id -> permissions
+	private final AtomicLong _cacheVersion = new AtomicLong(); // incremented on every invalidation to prevent caching of details resolved concurrently with a modification
+	private final ConcurrentHashMap<Long, CacheEntry<UserIdentity>> _userCache = new ConcurrentHashMap<>();
 		
 	
 	/**
@@ -158,12 +169,70 @@ public class UserDAO extends SQLDAO{
 	 * @return the user or null if not found
 	 */
 	public UserIdentity getUser(Long userId) {
+		CacheEntry<UserIdentity> cached = _userCache.get(userId);
+		if(cached != null && cached._expires >= System.currentTimeMillis()){
+			return copyUserIdentity(cached._value);
+		}
+		
 		LOGGER.debug("Searching user by user id...");
+		long version = _cacheVersion.get();
 		UserIdentity userIdentity = extractUserIdentity(getJdbcTemplate().queryForMap(SQL_SELECT_BY_USER_ID, new Object[]{userId}, SQL_SELECT_BY_USER_ID_SQL_TYPES));
 		resolveRoles(userIdentity);
+		if(userIdentity != null && version == _cacheVersion.get()){ // do not cache if the users were modified while resolving
+			if(_userCache.size() >= MAX_CACHED_USERS){
+				LOGGER.debug("Maximum number of cached users reached, clearing user cache...");
+				_userCache.clear();
+			}
+			cached = new CacheEntry<>(copyUserIdentity(userIdentity));
+			_userCache.put(userId, cached);
+			if(version != _cacheVersion.get()){ // the invalidation is always done after changing the version, so removing the entry here is enough
+				LOGGER.debug("Users were modified while caching, removing the cached user...");
+				_userCache.remove(userId, cached);
+			}
+		}
 		return userIdentity;
 	}
 	
+	/**
+	 * 
+	 * @param userId
+	 * @return copy of the given user identity, the cached identities are never returned directly as the caller may modify the returned object
+	 */
+	private static UserIdentity copyUserIdentity(UserIdentity userId){
+		UserIdentity copy = new UserIdentity(userId.getPassword(), userId.getUserId(), userId.getUsername());
+		for(GrantedAuthority authority : userId.getAuthorities()){
+			copy.addAuthority(authority);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Remove the cached details and permissions of the given user.
+	 * 
+	 * @param userId
+	 */
+	public void removeCachedUser(UserIdentity userId){
+		Long uid = (userId == null ? null : userId.getUserId());
+		if(uid == null){
+			LOGGER.debug("Ignored invalid user identity.");
+			return;
+		}
+		_cacheVersion.incrementAndGet();
+		_userCache.remove(uid);
+		_permissionCache.remove(uid);
+		for(ConcurrentHashMap<Long, CacheEntry<EnumSet<Permission>>> permissions : _permissionCache.values()){
+			permissions.remove(uid);
+		}
+	}
+	
+	/**
+	 * Remove all cached permissions. This should be called when user groups are modified.
+	 */
+	public void clearCachedPermissions(){
+		_cacheVersion.incrementAndGet();
+		_permissionCache.clear();
+	}
+	
 	/**
 	 * Note: this will NOT resolve user roles
 	 * 
@@ -257,7 +326,7 @@ public class UserDAO extends SQLDAO{
 	 * @return true if user of the given id was removed
 	 */
 	public boolean removeUser(UserIdentity userId){
-		return getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
+		boolean removed = getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
 
 			@Override
 			public Boolean doInTransaction(TransactionStatus arg0) {
@@ -286,6 +355,9 @@ public class UserDAO extends SQLDAO{
 				return Boolean.TRUE;
 			}
 		});
+		removeCachedUser(userId);
+		clearCachedPermissions(); // the user's groups may have been modified
+		return removed;
 	}
 	
 	/**
@@ -304,6 +376,7 @@ public class UserDAO extends SQLDAO{
 				return null;
 			}
 		});
+		clearCachedPermissions();
 	}
 	
 	/**
@@ -515,9 +588,42 @@ public class UserDAO extends SQLDAO{
 		if(UserIdentity.equals(source, target)){
 			LOGGER.debug("Identical user, id: "+source.getUserId());
 			return true;
+		}
+		
+		Long sourceId = source.getUserId();
+		Long targetId = target.getUserId();
+		ConcurrentHashMap<Long, CacheEntry<EnumSet<Permission>>> sourcePermissions = _permissionCache.get(sourceId);
+		CacheEntry<EnumSet<Permission>> cached = (sourcePermissions == null ? null : sourcePermissions.get(targetId));
+		EnumSet<Permission> permissions = null;
+		if(cached != null && cached._expires >= System.currentTimeMillis()){
+			permissions = cached._value;
 		}else{
-			return (getJdbcTemplate().queryForObject(SQL_CHECK_PERMISSION, new Object[]{source.getUserId(), type.toInt(), target.getUserId()}, SQL_CHECK_PERMISSION_SQL_TYPES, Integer.class) > 0);
+			long version = _cacheVersion.get();
+			permissions = EnumSet.noneOf(Permission.class);
+			for(Integer permission : getJdbcTemplate().queryForList(SQL_GET_COMMON_PERMISSIONS, new Object[]{sourceId, targetId}, SQL_GET_COMMON_PERMISSIONS_SQL_TYPES, Integer.class)){
+				permissions.add(Permission.fromInt(permission));
+			}
+			if(version == _cacheVersion.get()){ // do not cache if the groups were modified while resolving
+				if(sourcePermissions == null){
+					if(_permissionCache.size() >= MAX_CACHED_USERS){
+						LOGGER.debug("Maximum number of cached users reached, clearing permission cache...");
+						_permissionCache.clear();
+					}
+					sourcePermissions = new ConcurrentHashMap<>();
+					ConcurrentHashMap<Long, CacheEntry<EnumSet<Permission>>> existing = _permissionCache.putIfAbsent(sourceId, sourcePermissions);
+					if(existing != null){
+						sourcePermissions = existing;
+					}
+				}
+				cached = new CacheEntry<>(permissions);
+				sourcePermissions.put(targetId, cached);
+				if(version != _cacheVersion.get()){ // the invalidation is always done after changing the version, so removing the entry here is enough
+					LOGGER.debug("Permissions were modified while caching, removing the cached permissions...");
+					sourcePermissions.remove(targetId, cached);
+				}
+			}
 		}
+		return permissions.contains(type);
 	}
 
 	/**
@@ -719,6 +825,7 @@ public class UserDAO extends SQLDAO{
 				return null;
 			}
 		});
+		clearCachedPermissions();
 	}
 
 	/**
@@ -727,7 +834,7 @@ public class UserDAO extends SQLDAO{
 	 * @return true on success
 	 */
 	public boolean modifyUserGroup(UserGroup userGroup) {
-		return getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
+		boolean modified = getTransactionTemplate().execute(new TransactionCallback<Boolean>() {
 
 			@Override
 			public Boolean doInTransaction(TransactionStatus status) {
@@ -742,5 +849,26 @@ public class UserDAO extends SQLDAO{
 				return Boolean.TRUE;
 			}
 		});
+		clearCachedPermissions();
+		return modified;
 	}
+	
+	/**
+	 * An entry of the user and permission caches.
+	 * 
+	 * @param <T> type of the cached value
+	 */
+	private static class CacheEntry<T> {
+		private long _expires = 0;
+		private T _value = null;
+		
+		/**
+		 * 
+		 * @param value
+		 */
+		private CacheEntry(T value) {
+			_value = value;
+			_expires = System.currentTimeMillis()+CACHE_TIMEOUT;
+		}
+	} // class CacheEntry
 }
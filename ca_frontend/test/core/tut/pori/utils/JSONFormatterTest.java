@@ -0,0 +1,300 @@
+/**
+ * Copyright 2018 Tampere University of Technology, Pori Department
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core.tut.pori.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import org.junit.Test;
+
+import service.tut.pori.backends.datatypes.Backend;
+
+/**
+ * Tests for the JAXB name mapping of {@link JSONFormatter#toJSON(Object, java.io.Writer)}.
+ *
+ */
+public class JSONFormatterTest {
+	
+	/**
+	 *
+	 * @param object
+	 * @return the object as JSON
+	 * @throws IOException
+	 */
+	private static String toJSON(Object object) throws IOException {
+		StringWriter writer = new StringWriter();
+		JSONFormatter.toJSON(object, writer);
+		return writer.toString();
+	}
+	
+	/**
+	 * Annotated fields use the element and attribute names, the default name is the field name without the underscore prefix, and null values are omitted.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testFields() throws IOException {
+		FieldObject o = new FieldObject();
+		o._id = 1L;
+		o._type = "t";
+		o._value = "v";
+		assertEquals("{\"id\":1,\"type\":\"t\",\"value\":\"v\"}", toJSON(o));
+	
+		o._type = null;
+		assertEquals("{\"id\":1,\"value\":\"v\"}", toJSON(o));
+	}
+	
+	/**
+	 * Annotated getters and setters use the element names, the default name is the bean property name.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testProperties() throws IOException {
+		PropertyObject o = new PropertyObject();
+		o.setCount(2);
+		o.setEnabled(true);
+		o.setUri("http://localhost");
+		assertEquals("{\"count\":2,\"enabled\":true,\"callbackUri\":\"http://localhost\"}", toJSON(o));
+	}
+	
+	/**
+	 * The properties of the super class are written first, and a property overridden by the sub class is written only once, in the place of the sub class property.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testOverriddenProperty() throws IOException {
+		SubObject o = new SubObject();
+		o.setCount(3);
+		o.setEnabled(false);
+		assertEquals("{\"enabled\":false,\"count\":4,\"extra\":\"e\"}", toJSON(o));
+	}
+	
+	/**
+	 * Wrapped lists use the wrapper name, and element references use the root element name of the referenced class.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testListsAndReferences() throws IOException {
+		ListObject o = new ListObject();
+		o._tags = Arrays.asList("a", "b");
+		FieldObject child = new FieldObject();
+		child._id = 5L;
+		o._children = Collections.singletonList(child);
+		assertEquals("{\"tagList\":[\"a\",\"b\"],\"fieldObject\":[{\"id\":5}]}", toJSON(o));
+	}
+	
+	/**
+	 * Enumerations use the xml enum values, and adapted fields use the marshalled value.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testEnumsAndAdapters() throws IOException {
+		AdaptedObject o = new AdaptedObject();
+		o._color = Color.RED;
+		o._number = 7;
+		assertEquals("{\"color\":\"red\",\"number\":\"#7\"}", toJSON(o));
+	}
+	
+	/**
+	 * Getter annotated properties of an existing service class are included.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBackend() throws IOException {
+		Backend backend = new Backend();
+		backend.setBackendId(3L);
+		backend.setName("x");
+		backend.setEnabled(true);
+		backend.setCapabilities(new HashSet<>(Collections.singletonList("A")));
+		assertEquals("{\"backendId\":3,\"enabled\":true,\"name\":\"x\",\"capabilityList\":[\"A\"]}", toJSON(backend));
+	}
+	
+	/**
+	 * object with annotated fields
+	 *
+	 */
+	@XmlRootElement(name="fieldObject")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static final class FieldObject {
+		@XmlElement(name="id")
+		private Long _id = null;
+		@XmlAttribute(name="type")
+		private String _type = null;
+		@XmlElement
+		private String _value = null;
+		private String _ignored = "ignored";
+	} // class FieldObject
+	
+	/**
+	 * object with annotated getters and setters
+	 *
+	 */
+	@XmlRootElement(name="propertyObject")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class PropertyObject {
+		private int _count = 0;
+		private boolean _enabled = false;
+		private String _uri = null;
+	
+		/**
+		 * @return the count
+		 */
+		@XmlElement
+		public int getCount() {
+			return _count;
+		}
+	
+		/**
+		 * @param count the count to set
+		 */
+		public void setCount(int count) {
+			_count = count;
+		}
+	
+		/**
+		 * @return the enabled
+		 */
+		public boolean isEnabled() {
+			return _enabled;
+		}
+	
+		/**
+		 * @param enabled the enabled to set
+		 */
+		@XmlElement
+		public void setEnabled(boolean enabled) {
+			_enabled = enabled;
+		}
+	
+		/**
+		 * @return the uri
+		 */
+		@XmlElement(name="callbackUri")
+		public String getUri() {
+			return _uri;
+		}
+	
+		/**
+		 * @param uri the uri to set
+		 */
+		public void setUri(String uri) {
+			_uri = uri;
+		}
+	} // class PropertyObject
+	
+	/**
+	 * object overriding an annotated property
+	 *
+	 */
+	@XmlRootElement(name="subObject")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static final class SubObject extends PropertyObject {
+	
+		@Override
+		@XmlElement(name="count")
+		public int getCount() {
+			return super.getCount() + 1;
+		}
+	
+		/**
+		 * @return the extra
+		 */
+		@XmlElement(name="extra")
+		public String getExtra() {
+			return "e";
+		}
+	} // class SubObject
+	
+	/**
+	 * object with a wrapped list and element references
+	 *
+	 */
+	@XmlRootElement(name="listObject")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static final class ListObject {
+		@XmlElementWrapper(name="tagList")
+		@XmlElement(name="tag")
+		private List<String> _tags = null;
+		@XmlElementRef
+		private List<FieldObject> _children = null;
+	} // class ListObject
+	
+	/**
+	 *
+	 */
+	@XmlEnum
+	public enum Color {
+		/** red */
+		@XmlEnumValue("red")
+		RED,
+		/** blue */
+		BLUE
+	} // enum Color
+	
+	/**
+	 * adapter for integers
+	 *
+	 */
+	public static final class NumberAdapter extends XmlAdapter<String, Integer> {
+	
+		@Override
+		public Integer unmarshal(String v) throws Exception {
+			return Integer.valueOf(v.substring(1));
+		}
+	
+		@Override
+		public String marshal(Integer v) throws Exception {
+			return "#"+v;
+		}
+	} // class NumberAdapter
+	
+	/**
+	 * object with an enumeration and an adapted field
+	 *
+	 */
+	@XmlRootElement(name="adaptedObject")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static final class AdaptedObject {
+		@XmlElement(name="color")
+		private Color _color = null;
+		@XmlElement(name="number")
+		@XmlJavaTypeAdapter(NumberAdapter.class)
+		private Integer _number = null;
+	} // class AdaptedObject
+}